@@ -18,9 +18,18 @@ package org.parboiled.examples.calculators;
 
 import org.parboiled.Parboiled;
 import org.parboiled.common.FileUtils;
+import org.parboiled.errors.ParseError;
 import org.parboiled.examples.TestNgParboiledTest;
+import org.parboiled.parserunners.RecoveringParseRunner;
+import org.parboiled.support.ParsingResult;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.parboiled.errors.ErrorUtils.printParseErrors;
+import static org.parboiled.support.ParseTreeUtils.printNodeTree;
+
 public class CalculatorRecoveryTest extends TestNgParboiledTest<Integer> {
 
     @Test
@@ -56,4 +65,30 @@ public class CalculatorRecoveryTest extends TestNgParboiledTest<Integer> {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testCheckpointedErrorRecovery() {
+        CalculatorParser<Integer> parser = Parboiled.createParser(CalculatorParser1.class);
+        for (String test : FileUtils.readAllTextFromResource("CalculatorErrorRecoveryTest.test").split("###\r?\n")) {
+            String input = test.replaceFirst("^>>>", "").split("===\r?\n")[0];
+            if (input.startsWith("//")) continue;
+            input = input.replaceAll("\r?\n", "");
+
+            // the locating runs skipping over checkpoints must find the same errors as the ones re-parsing everything
+            ParsingResult<Integer> checkpointed = new RecoveringParseRunner<Integer>(parser.InputLine()).run(input);
+            ParsingResult<Integer> plain = new RecoveringParseRunner<Integer>(parser.InputLine())
+                    .withCheckpoints(false).run(input);
+            assertEquals(errorIndices(checkpointed), errorIndices(plain));
+            assertEquals(printParseErrors(checkpointed), printParseErrors(plain));
+            assertEquals(printNodeTree(checkpointed), printNodeTree(plain));
+            assertEquals(checkpointed.resultValue, plain.resultValue);
+        }
+    }
+
+    private static List<Integer> errorIndices(ParsingResult<?> result) {
+        List<Integer> indices = new ArrayList<Integer>();
+        for (ParseError error : result.parseErrors) {
+            indices.add(error.getStartIndex());
+        }
+        return indices;
+    }
+}
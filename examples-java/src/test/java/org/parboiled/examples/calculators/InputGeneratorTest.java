@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.examples.calculators;
+
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.common.FileUtils;
+import org.parboiled.common.StringBuilderSink;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.support.InputGenerator;
+import org.testng.annotations.Test;
+
+import java.io.File;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class InputGeneratorTest {
+
+    private final Rule rule = Parboiled.createParser(CalculatorParser3.class).InputLine();
+
+    @Test
+    public void testGeneratedSentencesAreAccepted() {
+        InputGenerator generator = new InputGenerator(rule).withSeed(42).withMaxLength(100);
+        for (int i = 0; i < 200; i++) {
+            String sentence = generator.generate();
+            assertTrue(accepts(sentence), sentence);
+            assertTrue(sentence.length() < 200, sentence); // the maximum length is only exceeded by completion
+        }
+    }
+
+    @Test
+    public void testSeedMakesSentencesReproducible() {
+        InputGenerator a = new InputGenerator(rule).withSeed(7);
+        InputGenerator b = new InputGenerator(rule).withSeed(7);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(a.generate(), b.generate());
+        }
+    }
+
+    @Test
+    public void testWeights() {
+        InputGenerator generator = new InputGenerator(rule).withSeed(42)
+                .withWeight("Parens", 0).withWeight("SquareRoot", 0);
+        for (int i = 0; i < 50; i++) {
+            String sentence = generator.generate();
+            assertFalse(sentence.contains("("), sentence);
+        }
+    }
+
+    @Test
+    public void testMutatedSentencesAreRejected() {
+        InputGenerator generator = new InputGenerator(rule).withSeed(42).withMutations(1).withValidation(100);
+        for (int i = 0; i < 50; i++) {
+            String sentence = generator.generate();
+            assertFalse(accepts(sentence), sentence);
+        }
+    }
+
+    @Test
+    public void testStreamingOutput() throws Exception {
+        StringBuilderSink sink = new StringBuilderSink();
+        new InputGenerator(rule).withSeed(42).generate(5, "\n", sink);
+        String[] lines = sink.toString().split("\n");
+        assertEquals(lines.length, 5);
+
+        File file = File.createTempFile("parboiled", ".txt");
+        try {
+            new InputGenerator(rule).withSeed(42).generate(5, "\n", file);
+            assertEquals(FileUtils.readAllText(file), sink.toString());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private boolean accepts(String sentence) {
+        return new BasicParseRunner<CalculatorParser3.CalcNode>(rule).run(sentence).matched;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.examples.calculators;
+
+import org.parboiled.Parboiled;
+import org.parboiled.buffers.DefaultInputBuffer;
+import org.parboiled.common.StringBuilderSink;
+import org.parboiled.parserunners.ParseBudget;
+import org.parboiled.parserunners.TraceBuffer;
+import org.parboiled.parserunners.TraceDecoder;
+import org.parboiled.parserunners.TraceRecordingParseRunner;
+import org.parboiled.parserunners.TracingParseRunner;
+import org.parboiled.support.ParsingResult;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.parboiled.errors.ErrorUtils.printParseErrors;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TraceRecordingParseRunnerTest {
+
+    private final CalculatorParser1 parser = Parboiled.createParser(CalculatorParser1.class);
+
+    @Test
+    public void testDecodedTraceEqualsTracingLog() {
+        for (String input : Arrays.asList("1+2*(3-4)/5", "2*(4+5")) {
+            StringBuilderSink expected = new StringBuilderSink();
+            ParsingResult<Integer> expectedResult = new TracingParseRunner<Integer>(parser.InputLine())
+                    .withLog(expected).run(input);
+
+            TraceRecordingParseRunner<Integer> runner = new TraceRecordingParseRunner<Integer>(parser.InputLine());
+            ParsingResult<Integer> result = runner.run(input);
+            assertEquals(printParseErrors(result), printParseErrors(expectedResult));
+
+            StringBuilderSink log = new StringBuilderSink();
+            runner.printTrace(log);
+            assertEquals(log.toString(), expected.toString());
+        }
+    }
+
+    @Test
+    public void testRingBufferKeepsLastRecords() {
+        StringBuilderSink expected = new StringBuilderSink();
+        new TracingParseRunner<Integer>(parser.InputLine()).withLog(expected).run("1+2*(3-4)/5");
+        String[] expectedLines = expected.toString().split("\n");
+
+        TraceRecordingParseRunner<Integer> runner = new TraceRecordingParseRunner<Integer>(parser.InputLine())
+                .withTraceBuffer(new TraceBuffer(20));
+        runner.run("1+2*(3-4)/5");
+        StringBuilderSink log = new StringBuilderSink();
+        runner.printTrace(log);
+        String[] lines = log.toString().split("\n");
+
+        assertEquals(lines.length, 20);
+        // the first line shows the full path, since there is no previous line to share a prefix with
+        assertEquals(lines[0], "InputLine/Expression/ZeroOrMore/FirstOf/Sequence/Term/ZeroOrMore/FirstOf, " +
+                "matched, cursor at 1:12 after \"1+2*(3-4)/5\"");
+        for (int i = 1; i < lines.length; i++) {
+            assertEquals(lines[i], expectedLines[expectedLines.length - lines.length + i]);
+        }
+    }
+
+    @Test
+    public void testMemoryMappedTrace() throws Exception {
+        File file = File.createTempFile("parboiled", ".trace");
+        try {
+            TraceRecordingParseRunner<Integer> runner = new TraceRecordingParseRunner<Integer>(parser.InputLine())
+                    .withTraceBuffer(TraceBuffer.create(file, 1000));
+            runner.run("1+2");
+            StringBuilderSink expected = new StringBuilderSink();
+            runner.printTrace(expected);
+
+            TraceBuffer trace = TraceBuffer.open(file);
+            assertEquals(trace.getCount(), runner.getTraceBuffer().getCount());
+            StringBuilderSink log = new StringBuilderSink();
+            new TraceDecoder(parser.InputLine(), trace).decode(new DefaultInputBuffer("1+2".toCharArray()), log);
+            assertEquals(log.toString(), expected.toString());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testUnsupportedTraceVersion() {
+        TraceRecordingParseRunner<Integer> runner = new TraceRecordingParseRunner<Integer>(parser.InputLine());
+        runner.run("1+2");
+        byte[] bytes = runner.getTraceBuffer().toByteArray();
+        assertEquals(TraceBuffer.wrap(bytes).getCount(), runner.getTraceBuffer().getCount());
+
+        bytes[4] = 1; // the little-endian version field following the magic number
+        try {
+            TraceBuffer.wrap(bytes);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("Unsupported trace buffer format version 1,"), e.getMessage());
+        }
+
+        // a version 1 buffer with a capacity of 2, which sits where the version of the later formats is
+        ByteBuffer version1 = ByteBuffer.allocate(16 + 2 * 16).order(ByteOrder.LITTLE_ENDIAN);
+        version1.putInt(0, 0x50425452).putInt(4, 2).putLong(8, 1L);
+        try {
+            TraceBuffer.wrap(version1.array());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("Unsupported trace buffer format version 1,"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testAbortedRun() {
+        TraceRecordingParseRunner<Integer> runner = new TraceRecordingParseRunner<Integer>(parser.InputLine());
+        runner.withParseBudget(new ParseBudget().withMaxMatcherInvocations(10));
+        ParsingResult<Integer> result = runner.run("1+2");
+        assertFalse(result.matched);
+
+        StringBuilderSink log = new StringBuilderSink();
+        runner.printTrace(log);
+        assertTrue(log.toString().endsWith("" +
+                "..(2)../Term/ZeroOrMore, aborted, cursor at 1:2 after \"1\"\n" +
+                "..(2)../Term, aborted, cursor at 1:2 after \"1\"\n" +
+                "..(1)../Expression, aborted, cursor at 1:1 after \"\"\n" +
+                "InputLine, aborted, cursor at 1:1 after \"\"\n"), log.toString());
+    }
+
+    @Test
+    public void testChromeTraceExport() {
+        TraceRecordingParseRunner<Integer> runner = new TraceRecordingParseRunner<Integer>(parser.InputLine());
+        runner.run("1+2");
+        StringBuilderSink log = new StringBuilderSink();
+        runner.printTrace(log);
+        int invocations = log.toString().split("\n").length - 1;
+
+        StringBuilderSink out = new StringBuilderSink();
+        runner.getTraceDecoder().printChromeTrace(out);
+        String json = out.toString();
+        assertTrue(json.startsWith("{\"traceEvents\":[\n" +
+                "{\"name\":\"Parsing run\",\"ph\":\"i\",\"s\":\"t\",\"ts\":0.000,\"pid\":1,\"tid\":1},\n" +
+                "{\"name\":\"Digit\",\"cat\":\"matched\",\"ph\":\"X\",\"ts\":0.000,\"dur\":"), json);
+        assertTrue(json.matches("(?s).*\n\\{\"name\":\"InputLine\",\"cat\":\"matched\",\"ph\":\"X\",\"ts\":0\\.000," +
+                "\"dur\":\\d+\\.\\d{3},\"pid\":1,\"tid\":1,\"args\":\\{\"start\":0,\"end\":4}}\n" +
+                "],\"displayTimeUnit\":\"ns\"}\n"), json);
+        assertEquals(json.split("\"ph\":\"X\"").length - 1, invocations);
+    }
+
+    @Test
+    public void testCollapsedStacksExport() {
+        TraceRecordingParseRunner<Integer> runner = new TraceRecordingParseRunner<Integer>(parser.InputLine());
+        runner.run("1+2");
+        StringBuilderSink log = new StringBuilderSink();
+        runner.getTraceDecoder().withTimings().decode(new DefaultInputBuffer("1+2".toCharArray()), log);
+        String lastLine = log.toString().substring(log.toString().lastIndexOf("InputLine, matched"));
+        long totalTime = Long.parseLong(lastLine.substring(lastLine.indexOf('(') + 1, lastLine.indexOf(" ns)")));
+
+        StringBuilderSink out = new StringBuilderSink();
+        runner.getTraceDecoder().printCollapsedStacks(out);
+        long sum = 0;
+        Set<String> stacks = new HashSet<String>();
+        for (String line : out.toString().split("\n")) {
+            stacks.add(line.substring(0, line.lastIndexOf(' ')));
+            sum += Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+        }
+        assertTrue(stacks.contains("InputLine;Expression;Term;Factor;Number;Digits;Digit"), stacks.toString());
+        assertTrue(stacks.contains("InputLine;Expression;ZeroOrMore;FirstOf;Sequence;'+'"), stacks.toString());
+        assertTrue(stacks.contains("InputLine;EOI"), stacks.toString());
+        assertEquals(sum, totalTime); // the self times add up to the time of the root rule
+    }
+}
@@ -20,10 +20,19 @@ import org.parboiled.Node;
 import org.parboiled.Parboiled;
 import org.parboiled.common.FileUtils;
 import org.parboiled.common.Predicates;
+import org.parboiled.errors.ParseError;
 import org.parboiled.examples.TestNgParboiledTest;
+import org.parboiled.parserunners.RecoveringParseRunner;
 import org.parboiled.support.Filters;
+import org.parboiled.support.ParsingResult;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.parboiled.errors.ErrorUtils.printParseErrors;
+import static org.parboiled.support.ParseTreeUtils.printNodeTree;
+
 public class JavaRecoveryTest extends TestNgParboiledTest<Object> {
 
     @Test
@@ -60,4 +69,28 @@ public class JavaRecoveryTest extends TestNgParboiledTest<Object> {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testCheckpointedErrorRecovery() {
+        JavaParser parser = Parboiled.createParser(JavaParser.class);
+        for (String test : FileUtils.readAllTextFromResource("JavaErrorRecoveryTest.test").split("###\r?\n")) {
+            String input = test.replaceFirst("^>>>", "").split("===\r?\n")[0];
+            if (input.startsWith("//")) continue;
+
+            // the locating runs skipping over checkpoints must find the same errors as the ones re-parsing everything
+            ParsingResult<Object> checkpointed = new RecoveringParseRunner<Object>(parser.CompilationUnit()).run(input);
+            ParsingResult<Object> plain = new RecoveringParseRunner<Object>(parser.CompilationUnit())
+                    .withCheckpoints(false).run(input);
+            assertEquals(errorIndices(checkpointed), errorIndices(plain));
+            assertEquals(printParseErrors(checkpointed), printParseErrors(plain));
+            assertEquals(printNodeTree(checkpointed), printNodeTree(plain));
+        }
+    }
+
+    private static List<Integer> errorIndices(ParsingResult<?> result) {
+        List<Integer> indices = new ArrayList<Integer>();
+        for (ParseError error : result.parseErrors) {
+            indices.add(error.getStartIndex());
+        }
+        return indices;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.bench;
+
+import org.parboiled.support.InputGenerator;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes a corpus of random sentences of one of the benchmarked grammars, in the format of the checked-in corpora,
+ * e.g. for soak tests or to look for inputs with super-linear parsing times.
+ * <p>Arguments: grammar, number of documents, output file, and optionally the number of mutations per document
+ * and the maximum document length.</p>
+ */
+public class CorpusGenerator {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: CorpusGenerator <JAVA|SPARQL|CALCULATOR|TIME> <count> <file> [mutations] " +
+                    "[maxLength]");
+            System.exit(1);
+        }
+        Grammar grammar = Grammar.valueOf(args[0]);
+        long count = Long.parseLong(args[1]);
+        int mutations = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        InputGenerator generator = new InputGenerator(grammar.createRule(false))
+                .withMaxLength(args.length > 4 ? Integer.parseInt(args[4]) : 1000)
+                .withMutations(mutations)
+                .withValidation(1000);
+        generator.generate(count, "\n%%\n", new File(args[2]));
+        System.out.printf("Generated %s %s documents (%s discarded)\n", count, mutations > 0 ? "invalid" : "valid",
+                generator.getDiscardedCount());
+    }
+}
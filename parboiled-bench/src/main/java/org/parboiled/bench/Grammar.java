@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.bench;
+
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.common.FileUtils;
+import org.parboiled.examples.calculators.CalculatorParser3;
+import org.parboiled.examples.java.JavaParser;
+import org.parboiled.examples.time.TimeParser;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>The example grammars benchmarked, together with their input corpora.</p>
+ * <p>A corpus is a resource "corpus/&lt;name&gt;.txt" holding a number of valid documents, separated by lines only
+ * consisting of "%%". The invalid variant of a corpus contains the same documents with a backtick inserted at one
+ * quarter, one half and three quarters of each document (moved to the beginning of the line in multi-line documents),
+ * which none of the grammars accept outside of strings and comments.</p>
+ */
+public enum Grammar {
+    JAVA("java") {
+        public Rule createRule() {
+            return Parboiled.createParser(JavaParser.class).CompilationUnit();
+        }
+    },
+    SPARQL("sparql") {
+        public Rule createRule() {
+            return Parboiled.createParser(TreeBuildingSparqlParser.class).Query();
+        }
+    },
+    CALCULATOR("calculator") {
+        public Rule createRule() {
+            return Parboiled.createParser(CalculatorParser3.class).InputLine();
+        }
+    },
+    TIME("time") {
+        public Rule createRule() {
+            return Parboiled.createParser(TimeParser.class).Time();
+        }
+    };
+
+    private final String name;
+
+    Grammar(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Creates a new parser instance and its root rule, which builds a parse tree.
+     *
+     * @return the root rule
+     */
+    public abstract Rule createRule();
+
+    /**
+     * Creates a new parser instance and its root rule.
+     *
+     * @param buildParseTree whether the rule is to build a parse tree
+     * @return the root rule
+     */
+    public Rule createRule(boolean buildParseTree) {
+        Rule rule = createRule();
+        return buildParseTree ? rule : rule.suppressNode(); // a suppressed root node suppresses all subnodes
+    }
+
+    /**
+     * @return the valid documents of the corpus
+     */
+    public List<String> loadCorpus() {
+        String text = FileUtils.readAllTextFromResource("corpus/" + name + ".txt", Charset.forName("UTF8"));
+        List<String> documents = new ArrayList<String>();
+        StringBuilder sb = new StringBuilder();
+        for (String line : text.split("\n")) {
+            if ("%%".equals(line)) {
+                documents.add(trim(sb));
+                sb.setLength(0);
+            } else {
+                sb.append(line).append('\n');
+            }
+        }
+        documents.add(trim(sb));
+        return documents;
+    }
+
+    /**
+     * @return the documents of the corpus with three syntax errors each
+     */
+    public List<String> loadInvalidCorpus() {
+        List<String> documents = new ArrayList<String>();
+        for (String document : loadCorpus()) {
+            StringBuilder sb = new StringBuilder(document);
+            for (int i = 3; i > 0; i--) { // from the back, so the earlier positions stay valid
+                sb.insert(errorIndex(document, document.length() * i / 4), '`');
+            }
+            documents.add(sb.toString());
+        }
+        return documents;
+    }
+
+    // the calculator and time grammars do not allow a trailing newline
+    private String trim(StringBuilder sb) {
+        return this == CALCULATOR || this == TIME ? sb.toString().trim() : sb.toString();
+    }
+
+    private static int errorIndex(String document, int index) {
+        int lineStart = document.lastIndexOf('\n', index - 1) + 1;
+        return lineStart > 0 ? lineStart : index; // single line documents get the error right at the index
+    }
+}
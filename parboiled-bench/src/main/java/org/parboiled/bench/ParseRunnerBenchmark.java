@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.parboiled.Rule;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.parserunners.RecoveringParseRunner;
+import org.parboiled.parserunners.ReportingParseRunner;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing a complete corpus with the {@link BasicParseRunner}, the {@link ReportingParseRunner} and the
+ * {@link RecoveringParseRunner}, on the valid documents and on documents containing three syntax errors each.
+ * No parse tree is built (see {@link ParseTreeBenchmark}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseRunnerBenchmark {
+
+    @Param({"JAVA", "SPARQL", "CALCULATOR", "TIME"})
+    public Grammar grammar;
+
+    @Param({"valid", "invalid"})
+    public String input;
+
+    private Rule rule;
+    private List<String> corpus;
+
+    @Setup
+    public void setup() {
+        rule = grammar.createRule(false);
+        corpus = "valid".equals(input) ? grammar.loadCorpus() : grammar.loadInvalidCorpus();
+    }
+
+    @Benchmark
+    public void basic(Blackhole blackhole) {
+        for (String document : corpus) {
+            blackhole.consume(new BasicParseRunner<Object>(rule).run(document));
+        }
+    }
+
+    @Benchmark
+    public void reporting(Blackhole blackhole) {
+        for (String document : corpus) {
+            blackhole.consume(new ReportingParseRunner<Object>(rule).run(document));
+        }
+    }
+
+    @Benchmark
+    public void recovering(Blackhole blackhole) {
+        for (String document : corpus) {
+            blackhole.consume(new RecoveringParseRunner<Object>(rule).run(document));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.parboiled.Rule;
+import org.parboiled.parserunners.BasicParseRunner;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of building the parse tree, by parsing the valid documents of a corpus with the
+ * {@link BasicParseRunner} with parse tree building switched on and off.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseTreeBenchmark {
+
+    @Param({"JAVA", "SPARQL", "CALCULATOR", "TIME"})
+    public Grammar grammar;
+
+    @Param({"true", "false"})
+    public boolean buildParseTree;
+
+    private Rule rule;
+    private List<String> corpus;
+
+    @Setup
+    public void setup() {
+        rule = grammar.createRule(buildParseTree);
+        corpus = grammar.loadCorpus();
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (String document : corpus) {
+            blackhole.consume(new BasicParseRunner<Object>(rule).run(document));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.parboiled.Rule;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures the creation of a parser instance via {@link org.parboiled.Parboiled#createParser} together with the
+ * construction of its root rule, which is where most of the rule tree gets built.</p>
+ * <p>The cold benchmark measures the very first creation in a fresh JVM, which includes loading parboiled and the
+ * extended parser class. The calculator, Java and time parsers are precompiled at build time, so their extended
+ * classes are only loaded, whereas the extended SPARQL parser class is generated at runtime. The warm benchmark
+ * measures every further creation, which reuses the extended class.</p>
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserCreationBenchmark {
+
+    @Param({"JAVA", "SPARQL", "CALCULATOR", "TIME"})
+    public Grammar grammar;
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(20)
+    public Rule createParserCold() {
+        return grammar.createRule();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Rule createParserWarm() {
+        return grammar.createRule();
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.bench;
+
+import org.parboiled.annotations.BuildParseTree;
+import org.parboiled.examples.sparql.SparqlParser;
+
+/**
+ * The {@link SparqlParser}, which does not build a parse tree itself, with parse tree building enabled.
+ */
+@BuildParseTree
+public class TreeBuildingSparqlParser extends SparqlParser {
+}
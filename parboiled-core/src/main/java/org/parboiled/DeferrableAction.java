@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled;
+
+/**
+ * An action that can opt out of deferred execution (see {@link org.parboiled.parserunners.ActionJournal}).
+ * Actions not implementing this interface are considered deferrable.
+ */
+public interface DeferrableAction<V> extends Action<V> {
+
+    /**
+     * Determines whether the execution of this action may be deferred until the rule it appears in has become
+     * part of the final parse.
+     *
+     * @return false if this action has to run immediately, e.g. because it is a semantic predicate
+     */
+    boolean isDeferrable();
+
+}
@@ -24,6 +24,7 @@ import org.parboiled.errors.GrammarException;
 import org.parboiled.errors.ParseError;
 import org.parboiled.errors.ParserRuntimeException;
 import org.parboiled.matchers.*;
+import org.parboiled.parserunners.ParseBudget;
 import org.parboiled.parserunners.RecoveringParseRunner;
 import org.parboiled.support.*;
 
@@ -64,6 +65,7 @@ public class MatcherContext<V> implements Context<V> {
     private final int level;
     private final boolean fastStringMatching;
     private final Set<MatcherPosition> memoizedMismatches;
+    private final ParseBudget parseBudget;
 
     private MatcherContext<V> subContext;
     private int startIndex;
@@ -97,9 +99,26 @@ public class MatcherContext<V> implements Context<V> {
      */
     public MatcherContext(InputBuffer inputBuffer, ValueStack<V> valueStack, List<ParseError> parseErrors,
                           MatchHandler matchHandler, Matcher matcher, boolean fastStringMatching) {
+        this(inputBuffer, valueStack, parseErrors, matchHandler, matcher, fastStringMatching, null);
+    }
+
+    /**
+     * Initializes a new root MatcherContext whose matcher invocations are accounted for by the given ParseBudget.
+     *
+     * @param inputBuffer        the InputBuffer for the parsing run
+     * @param valueStack         the ValueStack instance to use for the parsing run
+     * @param parseErrors        the parse error list to create ParseError objects in
+     * @param matchHandler       the MatcherHandler to use for the parsing run
+     * @param matcher            the root matcher
+     * @param fastStringMatching whether to enable fast string matching
+     * @param parseBudget        the ParseBudget to check before each matcher invocation, can be null
+     */
+    public MatcherContext(InputBuffer inputBuffer, ValueStack<V> valueStack, List<ParseError> parseErrors,
+                          MatchHandler matchHandler, Matcher matcher, boolean fastStringMatching,
+                          ParseBudget parseBudget) {
         this(checkArgNotNull(inputBuffer, "inputBuffer"), checkArgNotNull(valueStack, "valueStack"),
                 checkArgNotNull(parseErrors, "parseErrors"), checkArgNotNull(matchHandler, "matchHandler"),
-                null, 0, fastStringMatching,  new HashSet<MatcherPosition>());
+                null, 0, fastStringMatching,  new HashSet<MatcherPosition>(), parseBudget);
         this.currentChar = inputBuffer.charAt(0);
         this.matcher = ProxyMatcher.unwrap(checkArgNotNull(matcher, "matcher"));
         this.nodeSuppressed = matcher.isNodeSuppressed();
@@ -107,7 +126,7 @@ public class MatcherContext<V> implements Context<V> {
 
     private MatcherContext(InputBuffer inputBuffer, ValueStack<V> valueStack, List<ParseError> parseErrors,
                            MatchHandler matchHandler, MatcherContext<V> parent, int level, boolean fastStringMatching,
-                           Set<MatcherPosition> memoizedMismatches) {
+                           Set<MatcherPosition> memoizedMismatches, ParseBudget parseBudget) {
         this.inputBuffer = inputBuffer;
         this.valueStack = valueStack;
         this.parseErrors = parseErrors;
@@ -116,6 +135,7 @@ public class MatcherContext<V> implements Context<V> {
         this.level = level;
         this.fastStringMatching = fastStringMatching;
         this.memoizedMismatches = memoizedMismatches;
+        this.parseBudget = parseBudget;
     }
 
     @Override
@@ -155,8 +175,17 @@ public class MatcherContext<V> implements Context<V> {
 
     public MatcherPath getPath() {
         if (path == null) {
-            path = new MatcherPath(new MatcherPath.Element(matcher, startIndex, level),
-                    parent != null ? parent.getPath() : null);
+            // create the missing paths top-down, without recursion, since the context chain can be very deep
+            MatcherContext<V> context = this;
+            while (context.parent != null && context.parent.path == null) {
+                context = context.parent;
+            }
+            while (true) {
+                context.path = new MatcherPath(new MatcherPath.Element(context.matcher, context.startIndex,
+                        context.level), context.parent != null ? context.parent.path : null);
+                if (context == this) break;
+                context = context.subContext;
+            }
         }
         return path;
     }
@@ -289,6 +318,13 @@ public class MatcherContext<V> implements Context<V> {
         return node;
     }
 
+    /**
+     * @return the MatchHandler of the parsing run, i.e. the handler of the parse runner wrapped by its interceptors
+     */
+    public MatchHandler getMatchHandler() {
+        return matchHandler;
+    }
+
     public int getIntTag() {
         return intTag;
     }
@@ -327,7 +363,7 @@ public class MatcherContext<V> implements Context<V> {
         if (subContext == null) {
             // init new level
             subContext = new MatcherContext<V>(inputBuffer, valueStack, parseErrors, matchHandler, this, level + 1,
-                        fastStringMatching, memoizedMismatches);
+                        fastStringMatching, memoizedMismatches, parseBudget);
         } else {
             subContext.path = null; // we always need to reset the MatcherPath, even for actions
         }
@@ -347,26 +383,55 @@ public class MatcherContext<V> implements Context<V> {
     }
 
     public boolean runMatcher() {
+        enterMatcher();
         try {
-            if (matchHandler.match(this)) {
-                if (parent != null) {
-                    parent.currentIndex = currentIndex;
-                    parent.currentChar = currentChar;
-                }
-                matcher = null; // "retire" this context
-                return true;
-            }
-            matcher = null; // "retire" this context until is "activated" again by a getSubContext(...) on the parent
-            return false;
-        } catch (ParserRuntimeException e) {
-            throw e; // don't wrap, just bubble up
-        } catch (RecoveringParseRunner.TimeoutException e) {
-            throw e; // don't wrap, just bubble up
+            return exitMatcher(matchHandler.match(this));
         } catch (Throwable e) {
-            throw new ParserRuntimeException(e,
-                    printParseError(new BasicParseError(inputBuffer, currentIndex,
-                            StringUtils.escape(String.format("Error while parsing %s '%s' at input position",
-                                    matcher instanceof ActionMatcher ? "action" : "rule", getPath())))) + '\n' + e);
+            throw wrapException(e);
         }
     }
+
+    /**
+     * Performs the bookkeeping that {@link #runMatcher()} does before handing this context to the MatchHandler.
+     * Only needed by parse runners driving the matching process themselves.
+     */
+    public void enterMatcher() {
+        if (parseBudget != null) {
+            parseBudget.check(this); // throws a ParserRuntimeException if the budget is exceeded
+        }
+    }
+
+    /**
+     * Performs the bookkeeping that {@link #runMatcher()} does after the MatchHandler has returned, i.e. advances
+     * the parent context in case of a match and retires this context.
+     * Only needed by parse runners driving the matching process themselves.
+     *
+     * @param matched the result of the match
+     * @return the given result
+     */
+    public boolean exitMatcher(boolean matched) {
+        if (matched && parent != null) {
+            parent.currentIndex = currentIndex;
+            parent.currentChar = currentChar;
+        }
+        matcher = null; // "retire" this context until is "activated" again by a getSubContext(...) on the parent
+        return matched;
+    }
+
+    /**
+     * Wraps the given exception, thrown while matching the matcher of this context, into a ParserRuntimeException
+     * pointing to the current input position. ParserRuntimeExceptions and RecoveringParseRunner.TimeoutExceptions
+     * are returned unchanged.
+     *
+     * @param e the exception
+     * @return the exception to throw
+     */
+    public RuntimeException wrapException(Throwable e) {
+        if (e instanceof ParserRuntimeException) return (ParserRuntimeException) e; // don't wrap, just bubble up
+        if (e instanceof RecoveringParseRunner.TimeoutException) return (RecoveringParseRunner.TimeoutException) e;
+        return new ParserRuntimeException(e,
+                printParseError(new BasicParseError(inputBuffer, currentIndex,
+                        StringUtils.escape(String.format("Error while parsing %s '%s' at input position",
+                                matcher instanceof ActionMatcher ? "action" : "rule", getPath())))) + '\n' + e);
+    }
 }
@@ -50,4 +50,27 @@ public final class InputBufferUtils {
         }
         return sb.toString();
     }
+
+    /**
+     * Determines the number of characters the given input buffer provides, i.e. the index of the first EOI.
+     * Performs a search rather than a scan of the whole input, so the input must not contain EOI characters.
+     *
+     * @param buf the input buffer
+     * @return the number of characters in front of the first EOI
+     */
+    public static int length(InputBuffer buf) {
+        // find an upper bound in steps small enough for the DefaultInputBuffer not to consider an index illegal
+        int low = 0, high = 1;
+        while (buf.charAt(high - 1) != EOI) {
+            low = high;
+            high += Math.min(high, 65536);
+        }
+        // the first EOI lies in [low, high)
+        while (low < high - 1) {
+            int mid = (low + high) >>> 1;
+            if (buf.charAt(mid - 1) == EOI) high = mid;
+            else low = mid;
+        }
+        return low;
+    }
 }
@@ -19,33 +19,57 @@ package org.parboiled.buffers;
 import org.parboiled.support.IndexRange;
 import org.parboiled.support.Position;
 
-import java.util.Arrays;
 import static org.parboiled.common.Preconditions.*;
 
 /**
  * An InputBuffer wrapping another InputBuffer and providing for the ability to insert (and undo) characters at
  * certain index positions. Inserted chars do not appear in extracted text and have the same positions as the
  * original chars at their indices.
- * Note that this implementation is optimized for a rather small number of insertions and will perform badly with
- * a large number of insertions.
+ * Insertions are kept in a gap buffer ordered by index, with each insertion storing the index of the original
+ * character it precedes rather than its own index. Therefore an insertion never has to update the following ones and
+ * a series of insertions and undos around the same location (as performed by the error recovery) runs in amortized
+ * constant time, lookups take O(log n). Reads between two insertions go straight to the underlying buffer.
  */
 public class MutableInputBuffer implements InputBuffer {
     private final InputBuffer buffer;
-    private int[] inserts = new int[0];
-    private char[] chars = new char[0];
+
+    // the gap buffer holding the insertions, the gap spans the indices [gapStart, gapEnd)
+    private int[] anchors = new int[8]; // the index of the original char the respective inserted char precedes
+    private char[] chars = new char[8];
+    private int gapStart;
+    private int gapEnd = 8;
+
+    // the last accessed run of original characters, immutable so it can be shared by concurrent readers
+    private Run run = new Run(Integer.MIN_VALUE, Integer.MAX_VALUE, 0);
 
     public MutableInputBuffer(InputBuffer buffer) {
         this.buffer = buffer;
     }
 
     public char charAt(int index) {
-        int j = Arrays.binarySearch(inserts, index);
-        if (j >= 0) return chars[j];
-        return buffer.charAt(index + (j + 1));
+        Run r = run;
+        if (r.start <= index && index < r.end) return buffer.charAt(index - r.shift);
+        int k = find(index);
+        if (k < size() && indexOf(k) == index) return chars[slot(k)];
+        run = createRun(k);
+        return buffer.charAt(index - k);
     }
 
     public boolean test(int index, char[] characters) {
-        throw new UnsupportedOperationException();
+        int len = characters.length;
+        Run r = run;
+        if (r.start > index || index >= r.end) {
+            int k = find(index);
+            if (k == size() || indexOf(k) != index) run = r = createRun(k);
+        }
+        if (r.start <= index && index + len <= r.end) {
+            // no insertions in the way, so the underlying buffer can do the work
+            return buffer.test(index - r.shift, characters);
+        }
+        for (int i = 0; i < len; i++) {
+            if (charAt(index + i) != characters[i]) return false;
+        }
+        return true;
     }
 
     public Position getPosition(int index) {
@@ -73,52 +97,108 @@ public class MutableInputBuffer implements InputBuffer {
     }
 
     private int map(int index) {
-        int j = Arrays.binarySearch(inserts, index);
-        if (j < 0) j = -(j + 1);
-        return index - j;
+        return index - find(index);
     }
 
     public void insertChar(int index, char c) {
-        int j = Arrays.binarySearch(inserts, index);
-        if (j < 0) j = -(j + 1);
+        int k = find(index);
+        moveGap(k);
+        if (gapStart == gapEnd) grow();
+        anchors[gapStart] = index - k;
+        chars[gapStart] = c;
+        gapStart++;
+        run = createRun(0);
+    }
 
-        char[] newChars = new char[chars.length + 1];
-        System.arraycopy(chars, 0, newChars, 0, j);
-        newChars[j] = c;
-        System.arraycopy(chars, j, newChars, j + 1, chars.length - j);
-        chars = newChars;
+    public char undoCharInsertion(int index) {
+        int k = find(index);
+        checkArgument(k < size() && indexOf(k) == index, "Cannot undo a non-existing insertion");
+        moveGap(k);
+        char removedChar = chars[gapEnd];
+        gapEnd++;
+        run = createRun(0);
+        return removedChar;
+    }
+    
+    public void replaceInsertedChar(int index, char c) {
+        int k = find(index);
+        checkArgument(k < size() && indexOf(k) == index, "Can only replace chars that were previously inserted");
+        chars[slot(k)] = c;
+    }
+
+    private int size() {
+        return anchors.length - (gapEnd - gapStart);
+    }
 
-        int[] newInserts = new int[inserts.length + 1];
-        System.arraycopy(inserts, 0, newInserts, 0, j);
-        newInserts[j] = index;
-        for (int i = j; i < inserts.length; i++) {
-            newInserts[i + 1] = inserts[i] + 1;
+    private int slot(int k) {
+        return k < gapStart ? k : k + gapEnd - gapStart;
+    }
+
+    // the current index of the k-th inserted char, all k inserted chars in front of it shift it to the right
+    private int indexOf(int k) {
+        return anchors[slot(k)] + k;
+    }
+
+    // returns the number of inserted chars with an index lower than the given one
+    private int find(int index) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (indexOf(mid) < index) low = mid + 1;
+            else high = mid;
         }
-        inserts = newInserts;
+        return low;
     }
 
-    public char undoCharInsertion(int index) {
-        int j = Arrays.binarySearch(inserts, index);
-        checkArgument(j >= 0, "Cannot undo a non-existing insertion");
-        char removedChar = chars[j];
+    // creates the run of original characters behind the first k inserted chars
+    private Run createRun(int k) {
+        int size = size();
+        return new Run(k == 0 ? Integer.MIN_VALUE : indexOf(k - 1) + 1, k == size ? Integer.MAX_VALUE : indexOf(k), k);
+    }
+
+    private void moveGap(int k) {
+        if (k < gapStart) {
+            int n = gapStart - k;
+            System.arraycopy(anchors, k, anchors, gapEnd - n, n);
+            System.arraycopy(chars, k, chars, gapEnd - n, n);
+            gapStart = k;
+            gapEnd -= n;
+        } else if (k > gapStart) {
+            int n = k - gapStart;
+            System.arraycopy(anchors, gapEnd, anchors, gapStart, n);
+            System.arraycopy(chars, gapEnd, chars, gapStart, n);
+            gapStart = k;
+            gapEnd += n;
+        }
+    }
 
-        char[] newChars = new char[chars.length - 1];
-        System.arraycopy(chars, 0, newChars, 0, j);
-        System.arraycopy(chars, j + 1, newChars, j, newChars.length - j);
+    private void grow() {
+        int tail = anchors.length - gapEnd;
+        int capacity = anchors.length * 2;
+        int[] newAnchors = new int[capacity];
+        char[] newChars = new char[capacity];
+        System.arraycopy(anchors, 0, newAnchors, 0, gapStart);
+        System.arraycopy(chars, 0, newChars, 0, gapStart);
+        System.arraycopy(anchors, gapEnd, newAnchors, capacity - tail, tail);
+        System.arraycopy(chars, gapEnd, newChars, capacity - tail, tail);
+        anchors = newAnchors;
         chars = newChars;
+        gapEnd = capacity - tail;
+    }
 
-        int[] newInserts = new int[inserts.length - 1];
-        System.arraycopy(inserts, 0, newInserts, 0, j);
-        for (int i = j + 1; i < inserts.length; i++) {
-            newInserts[i - 1] = inserts[i] - 1;
+    /**
+     * A run of indices [start, end) without inserted chars, mapping to the original chars shifted by the given amount.
+     */
+    private static class Run {
+        private final int start;
+        private final int end;
+        private final int shift;
+
+        private Run(int start, int end, int shift) {
+            this.start = start;
+            this.end = end;
+            this.shift = shift;
         }
-        inserts = newInserts;
-        return removedChar;
-    }
-    
-    public void replaceInsertedChar(int index, char c) {
-        int j = Arrays.binarySearch(inserts, index);
-        checkArgument(j >= 0, "Can only replace chars that were previously inserted");
-        chars[j] = c;
     }
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.errors;
+
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.parserunners.ParseBudget;
+
+/**
+ * A {@link ParseError} describing the abort of a parsing run whose {@link ParseBudget} was exceeded.
+ * Its start index is the furthest input index the parsing run had reached.
+ */
+public class ParseBudgetExceededError extends BasicParseError {
+    private final ParseBudget.Limit limit;
+    private final long matcherInvocations;
+
+    public ParseBudgetExceededError(InputBuffer inputBuffer, int furthestIndex, ParseBudget.Limit limit,
+                                    long matcherInvocations) {
+        super(inputBuffer, furthestIndex, String.format("Parse budget exceeded (%s) after %s matcher invocations",
+                limit, matcherInvocations));
+        this.limit = limit;
+        this.matcherInvocations = matcherInvocations;
+    }
+
+    /**
+     * @return the limit that was exceeded
+     */
+    public ParseBudget.Limit getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the furthest input index reached before the parsing run was aborted
+     */
+    public int getFurthestIndex() {
+        return getStartIndex();
+    }
+
+    public long getMatcherInvocations() {
+        return matcherInvocations;
+    }
+}
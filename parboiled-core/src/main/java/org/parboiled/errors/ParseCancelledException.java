@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.errors;
+
+/**
+ * Exception that is thrown out of a parsing run cancelled through a
+ * {@link org.parboiled.parserunners.CancellationToken}. The parse runner can be reused afterwards.
+ */
+public class ParseCancelledException extends ParserRuntimeException {
+    private final int furthestIndex;
+
+    public ParseCancelledException(int furthestIndex) {
+        super("Parsing run cancelled at input index " + furthestIndex);
+        this.furthestIndex = furthestIndex;
+    }
+
+    /**
+     * @return the furthest input index reached before the parsing run was cancelled
+     */
+    public int getFurthestIndex() {
+        return furthestIndex;
+    }
+}
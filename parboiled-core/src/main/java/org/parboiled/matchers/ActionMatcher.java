@@ -21,6 +21,7 @@ import org.parboiled.*;
 import org.parboiled.errors.ActionError;
 import org.parboiled.errors.ActionException;
 import org.parboiled.matchervisitors.MatcherVisitor;
+import org.parboiled.support.Var;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
@@ -33,12 +34,15 @@ public class ActionMatcher extends AbstractMatcher {
     public final Action action;
     public final List<ContextAware> contextAwares = new ArrayList<ContextAware>();
     public final boolean skipInPredicates;
+    public final boolean deferrable;
 
     public ActionMatcher(Action action) {
         super(checkArgNotNull(action, "action").toString());
         this.action = action;
 
         skipInPredicates = action instanceof SkippableAction && ((SkippableAction) action).skipInPredicates();
+        deferrable = (!(action instanceof DeferrableAction) || ((DeferrableAction) action).isDeferrable()) &&
+                !referencesVars(action);
 
         // check whether the action is a synthetic class generated by parboiled transformation
         // if so it will take care of context management itself and we can return immediately
@@ -65,6 +69,14 @@ public class ActionMatcher extends AbstractMatcher {
         }
     }
 
+    // actions working with action vars depend on the var frames active at the time they run
+    private static boolean referencesVars(Action action) {
+        for (Field field : action.getClass().getDeclaredFields()) {
+            if (Var.class.isAssignableFrom(field.getType())) return true;
+        }
+        return false;
+    }
+
     @Override
     public MatcherContext getSubContext(MatcherContext context) {
         MatcherContext subContext = context.getBasicSubContext();
@@ -0,0 +1,708 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.matchers;
+
+import org.parboiled.errors.GrammarException;
+import org.parboiled.matchervisitors.CanMatchEmptyVisitor;
+import org.parboiled.matchervisitors.DefaultMatcherVisitor;
+import org.parboiled.matchervisitors.MatcherVisitor;
+import org.parboiled.support.Characters;
+import org.parboiled.support.Chars;
+
+import java.util.*;
+
+/**
+ * Builds the tables of a {@link DfaMatcher} for an action-free rule graph.
+ * The graph is first translated into an NFA with explicit ordered choice points ("splits") and commit points ("cuts").
+ * The NFA is then determinized with a subset construction over ordered thread lists, which tracks for every thread
+ * the choice alternatives it depends on. This way the resulting DFA reproduces the exact PEG semantics (ordered choice
+ * with commitment, possessive repetition, single character predicates) of the original rules.
+ * Graphs that cannot be translated or would require too many states are rejected.
+ */
+final class DfaBuilder {
+
+    static final int MAX_STATES = 1024;
+    private static final int MAX_ENTRIES = 64; // the maximum number of entries per state
+    private static final int MAX_STEPS = 4096; // the maximum number of NFA steps per transition
+
+    // the flags of a choice tag
+    private static final int OPEN = 1; // the thread has not yet passed the cut of the choice
+    private static final int PENDING = 2; // the thread has passed the cut but has not yet been able to apply it
+
+    private static final int[] ANY = {0, Chars.DEL_ERROR - 1, Chars.RESYNC_EOI + 1, Chars.EOI - 1};
+
+    // a node of the NFA
+    private static class Node {
+        static final int CHAR = 0, TEST = 1, TEST_NOT = 2, SPLIT = 3, CUT = 4, STOP = 5, FAIL = 6;
+
+        final int type;
+        final int id;
+        int[] set; // the character set of CHAR, TEST and TEST_NOT nodes as sorted, inclusive interval bounds
+        int choice; // the choice id of SPLIT and CUT nodes
+        Node next;
+        Node[] alternatives; // the alternatives of SPLIT nodes in priority order
+
+        Node(int type, int id) {
+            this.type = type;
+            this.id = id;
+        }
+    }
+
+    // an element of a DFA state, i.e. a thread waiting at an NFA node, a successful match (with the register holding
+    // its end index) or a "ghost" of a failed thread whose cuts have not yet been applied
+    private static class Entry {
+        final Node node; // null for accepts and ghosts
+        final int register; // -1 for threads and ghosts
+        final int[] tags; // quadruples: choice instance, choice id, alternative, flags
+
+        Entry(Node node, int register, int[] tags) {
+            this.node = node;
+            this.register = register;
+            this.tags = tags;
+        }
+
+        boolean isAccept() {
+            return register >= 0;
+        }
+
+        int alternativeOf(int instance) {
+            for (int i = 0; i < tags.length; i += 4) {
+                if (tags[i] == instance) return tags[i + 2];
+            }
+            return -1;
+        }
+
+        boolean hasFlag(int flag) {
+            for (int i = 3; i < tags.length; i += 4) {
+                if ((tags[i] & flag) != 0) return true;
+            }
+            return false;
+        }
+
+        boolean sameAs(Entry other) {
+            return node == other.node && isAccept() == other.isAccept() && Arrays.equals(tags, other.tags);
+        }
+    }
+
+    // the result of computing a single DFA transition
+    private static class Transition {
+        int usedRegisters; // bit mask of the registers currently in use
+        int action; // the register writes to perform
+        int nextInstance;
+        int steps;
+
+        int allocateRegister(boolean afterChar) {
+            int register = Integer.numberOfTrailingZeros(~usedRegisters);
+            if (register >= DfaMatcher.MAX_REGISTERS) throw NOT_COMPILABLE;
+            usedRegisters |= 1 << register;
+            action |= afterChar ? 0x100 << register : 1 << register;
+            return register;
+        }
+    }
+
+    private static class NotCompilableException extends RuntimeException {
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this; // we use this exception for flow control only
+        }
+    }
+
+    private static final NotCompilableException NOT_COMPILABLE = new NotCompilableException();
+
+    private final List<int[]> sets = new ArrayList<int[]>();
+    private final Set<Matcher> path = new HashSet<Matcher>();
+    private final MatcherVisitor<Boolean> canMatchEmptyVisitor = new CanMatchEmptyVisitor();
+    private int nodeCount;
+    private int choiceCount;
+    private int registerCount = 1;
+
+    private final List<List<Entry>> states = new ArrayList<List<Entry>>();
+    private final Map<String, Integer> stateIndex = new HashMap<String, Integer>();
+
+    private DfaBuilder() {}
+
+    /**
+     * Compiles the given matcher graph into a DfaMatcher.
+     *
+     * @param matcher the root of the graph to compile
+     * @return the DfaMatcher wrapping the given matcher or null, if the graph cannot be compiled
+     */
+    static DfaMatcher build(Matcher matcher) {
+        try {
+            return new DfaBuilder().compile(matcher);
+        } catch (NotCompilableException e) {
+            return null;
+        } catch (GrammarException e) {
+            return null; // the original rule will report the problem once it is run
+        }
+    }
+
+    private DfaMatcher compile(Matcher matcher) {
+        Node start = build(matcher, new Node(Node.STOP, nodeCount++));
+
+        // partition the character space into classes of characters that are treated identically by all nodes
+        SortedSet<Integer> bounds = new TreeSet<Integer>();
+        bounds.add(0);
+        for (int[] set : sets) {
+            for (int i = 0; i < set.length; i += 2) {
+                bounds.add(set[i]);
+                if (set[i + 1] < Chars.EOI) bounds.add(set[i + 1] + 1);
+            }
+        }
+        char[] intervalStarts = new char[bounds.size()];
+        int[] intervalClasses = new int[bounds.size()];
+        List<Character> representatives = new ArrayList<Character>();
+        Map<BitSet, Integer> classes = new HashMap<BitSet, Integer>();
+        int ix = 0;
+        for (int bound : bounds) {
+            BitSet signature = new BitSet();
+            for (int i = 0; i < sets.size(); i++) {
+                if (contains(sets.get(i), bound)) signature.set(i);
+            }
+            Integer cls = classes.get(signature);
+            if (cls == null) {
+                cls = classes.size();
+                classes.put(signature, cls);
+                representatives.add((char) bound);
+            }
+            intervalStarts[ix] = (char) bound;
+            intervalClasses[ix++] = cls;
+        }
+        int classCount = classes.size();
+        int[] asciiClasses = new int[128];
+        for (int c = 0, i = 0; c < 128; c++) {
+            while (i + 1 < intervalStarts.length && intervalStarts[i + 1] <= c) i++;
+            asciiClasses[c] = intervalClasses[i];
+        }
+
+        // the subset construction
+        Transition initial = new Transition();
+        List<Entry> initialEntries = new ArrayList<Entry>();
+        advance(start, new int[0], -1, false, initialEntries, initial);
+        settle(initialEntries);
+        addState(initialEntries);
+
+        List<int[]> transitionRows = new ArrayList<int[]>();
+        List<int[]> actionRows = new ArrayList<int[]>();
+        for (int s = 0; s < states.size(); s++) {
+            List<Entry> state = states.get(s);
+            int[] transitionRow = new int[classCount];
+            int[] actionRow = new int[classCount];
+            Arrays.fill(transitionRow, -1);
+            if (!isFinal(state)) {
+                for (int cls = 0; cls < classCount; cls++) {
+                    Transition transition = new Transition();
+                    List<Entry> target = step(state, representatives.get(cls), transition);
+                    if (!target.isEmpty()) {
+                        transitionRow[cls] = addState(target);
+                        actionRow[cls] = transition.action;
+                    }
+                }
+            }
+            transitionRows.add(transitionRow);
+            actionRows.add(actionRow);
+        }
+
+        int stateCount = states.size();
+        int[] transitions = new int[stateCount * classCount];
+        int[] actions = new int[stateCount * classCount];
+        int[] results = new int[stateCount];
+        for (int s = 0; s < stateCount; s++) {
+            System.arraycopy(transitionRows.get(s), 0, transitions, s * classCount, classCount);
+            System.arraycopy(actionRows.get(s), 0, actions, s * classCount, classCount);
+            List<Entry> state = states.get(s);
+            results[s] = isFinal(state) ? state.get(0).register : -1;
+        }
+        return new DfaMatcher(matcher, asciiClasses, intervalStarts, intervalClasses, transitions, actions, results,
+                initial.action, registerCount);
+    }
+
+    //////////////////////////////// NFA CONSTRUCTION ////////////////////////////////////
+
+    // builds the NFA for the given matcher, continuing with the given node after a successful match
+    private Node build(Matcher matcher, Node next) {
+        Matcher key = matcher;
+        while (true) {
+            if (key instanceof VarFramingMatcher) throw NOT_COMPILABLE;
+            Matcher unwrapped = DfaMatcher.unwrap(MemoMismatchesMatcher.unwrap(ProxyMatcher.unwrap(key)));
+            if (unwrapped == key) break;
+            key = unwrapped;
+        }
+        if (!path.add(key)) throw NOT_COMPILABLE; // recursive rules are not regular
+        Node node = key.accept(new NfaBuilder(next));
+        path.remove(key);
+        return node;
+    }
+
+    private Node newNode(int type, Node next) {
+        Node node = new Node(type, nodeCount++);
+        node.next = next;
+        return node;
+    }
+
+    private Node charNode(int type, int[] set, Node next) {
+        Node node = newNode(type, next);
+        node.set = set;
+        sets.add(set);
+        return node;
+    }
+
+    private Node cutNode(int choice, Node next) {
+        Node node = newNode(Node.CUT, next);
+        node.choice = choice;
+        return node;
+    }
+
+    private Node choice(List<Matcher> alternatives, boolean optional, Node next) {
+        int choice = choiceCount++;
+        Node cut = cutNode(choice, next);
+        Node split = newNode(Node.SPLIT, null);
+        split.choice = choice;
+        split.alternatives = new Node[alternatives.size() + (optional ? 1 : 0)];
+        for (int i = 0; i < alternatives.size(); i++) {
+            split.alternatives[i] = build(alternatives.get(i), cut);
+        }
+        if (optional) split.alternatives[alternatives.size()] = cut;
+        return split;
+    }
+
+    private Node loop(Matcher subMatcher, Node next) {
+        int choice = choiceCount++;
+        Node split = newNode(Node.SPLIT, null);
+        split.choice = choice;
+        split.alternatives = new Node[] {build(subMatcher, cutNode(choice, split)), cutNode(choice, next)};
+        // the sub rule is known to be non-recursive only after it has been built
+        if (subMatcher.accept(canMatchEmptyVisitor)) throw NOT_COMPILABLE;
+        return split;
+    }
+
+    private class NfaBuilder implements MatcherVisitor<Node> {
+        private final Node next;
+
+        private NfaBuilder(Node next) {
+            this.next = next;
+        }
+
+        public Node visit(ActionMatcher matcher) {
+            throw NOT_COMPILABLE;
+        }
+
+        public Node visit(AnyMatcher matcher) {
+            return charNode(Node.CHAR, ANY, next);
+        }
+
+        public Node visit(CharIgnoreCaseMatcher matcher) {
+            return charNode(Node.CHAR, union(single(matcher.charLow), single(matcher.charUp)), next);
+        }
+
+        public Node visit(CharMatcher matcher) {
+            return charNode(Node.CHAR, single(matcher.character), next);
+        }
+
+        public Node visit(CustomMatcher matcher) {
+            throw NOT_COMPILABLE;
+        }
+
+        public Node visit(CharRangeMatcher matcher) {
+            return charNode(Node.CHAR, new int[] {matcher.cLow, matcher.cHigh}, next);
+        }
+
+        public Node visit(AnyOfMatcher matcher) {
+            return charNode(Node.CHAR, of(matcher.characters), next);
+        }
+
+        public Node visit(EmptyMatcher matcher) {
+            return next;
+        }
+
+        public Node visit(FirstOfMatcher matcher) {
+            return choice(matcher.getChildren(), false, next);
+        }
+
+        public Node visit(NothingMatcher matcher) {
+            return newNode(Node.FAIL, null);
+        }
+
+        public Node visit(OneOrMoreMatcher matcher) {
+            return build(matcher.subMatcher, loop(matcher.subMatcher, next));
+        }
+
+        public Node visit(OptionalMatcher matcher) {
+            return choice(Collections.singletonList(matcher.subMatcher), true, next);
+        }
+
+        public Node visit(SequenceMatcher matcher) {
+            Node node = next;
+            List<Matcher> children = matcher.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                node = build(children.get(i), node);
+            }
+            return node;
+        }
+
+        public Node visit(TestMatcher matcher) {
+            return charNode(Node.TEST, charSetOf(matcher.subMatcher), next);
+        }
+
+        public Node visit(TestNotMatcher matcher) {
+            return charNode(Node.TEST_NOT, charSetOf(matcher.subMatcher), next);
+        }
+
+        public Node visit(ZeroOrMoreMatcher matcher) {
+            return loop(matcher.subMatcher, next);
+        }
+    }
+
+    // predicates are only supported on rules matching exactly one character from a fixed set
+    private static int[] charSetOf(Matcher matcher) {
+        int[] set = matcher.accept(new CharSetVisitor());
+        if (set == null) throw NOT_COMPILABLE;
+        return set;
+    }
+
+    private static class CharSetVisitor extends DefaultMatcherVisitor<int[]> {
+        @Override
+        public int[] visit(AnyMatcher matcher) {
+            return ANY;
+        }
+
+        @Override
+        public int[] visit(CharIgnoreCaseMatcher matcher) {
+            return union(single(matcher.charLow), single(matcher.charUp));
+        }
+
+        @Override
+        public int[] visit(CharMatcher matcher) {
+            return single(matcher.character);
+        }
+
+        @Override
+        public int[] visit(CharRangeMatcher matcher) {
+            return new int[] {matcher.cLow, matcher.cHigh};
+        }
+
+        @Override
+        public int[] visit(AnyOfMatcher matcher) {
+            return of(matcher.characters);
+        }
+
+        @Override
+        public int[] visit(NothingMatcher matcher) {
+            return new int[0];
+        }
+
+        @Override
+        public int[] visit(FirstOfMatcher matcher) {
+            int[] set = new int[0];
+            for (Matcher child : matcher.getChildren()) {
+                int[] childSet = child.accept(this);
+                if (childSet == null) return null;
+                set = union(set, childSet);
+            }
+            return set;
+        }
+
+        @Override
+        public int[] visit(SequenceMatcher matcher) {
+            return matcher.getChildren().size() == 1 ? matcher.getChildren().get(0).accept(this) : null;
+        }
+    }
+
+    //////////////////////////////// CHARACTER SETS ////////////////////////////////////
+
+    private static int[] single(char c) {
+        return new int[] {c, c};
+    }
+
+    private static int[] of(Characters characters) {
+        char[] chars = characters.getChars().clone();
+        Arrays.sort(chars);
+        int[] set = new int[0];
+        for (char c : chars) set = union(set, single(c));
+        return characters.isSubtractive() ? complement(set) : set;
+    }
+
+    private static int[] complement(int[] set) {
+        int[] result = new int[set.length + 2];
+        int count = 0;
+        int next = 0;
+        for (int i = 0; i < set.length; i += 2) {
+            if (set[i] > next) {
+                result[count++] = next;
+                result[count++] = set[i] - 1;
+            }
+            next = set[i + 1] + 1;
+        }
+        if (next <= Chars.EOI) {
+            result[count++] = next;
+            result[count++] = Chars.EOI;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        BitSet bits = new BitSet();
+        for (int[] set : new int[][] {a, b}) {
+            for (int i = 0; i < set.length; i += 2) bits.set(set[i], set[i + 1] + 1);
+        }
+        int[] result = new int[0];
+        for (int lo = bits.nextSetBit(0); lo >= 0; lo = bits.nextSetBit(lo)) {
+            int hi = bits.nextClearBit(lo);
+            result = Arrays.copyOf(result, result.length + 2);
+            result[result.length - 2] = lo;
+            result[result.length - 1] = hi - 1;
+            lo = hi;
+        }
+        return result;
+    }
+
+    private static boolean contains(int[] set, int c) {
+        for (int i = 0; i < set.length; i += 2) {
+            if (set[i] <= c && c <= set[i + 1]) return true;
+        }
+        return false;
+    }
+
+    //////////////////////////////// SUBSET CONSTRUCTION ////////////////////////////////////
+
+    private static boolean isFinal(List<Entry> state) {
+        return !state.isEmpty() && state.get(0).isAccept();
+    }
+
+    // computes the state reached from the given state with the given character
+    private List<Entry> step(List<Entry> state, char c, Transition transition) {
+        for (Entry entry : state) {
+            if (entry.isAccept()) transition.usedRegisters |= 1 << entry.register;
+            for (int i = 0; i < entry.tags.length; i += 4) {
+                transition.nextInstance = Math.max(transition.nextInstance, entry.tags[i] + 1);
+            }
+        }
+        List<Entry> target = new ArrayList<Entry>();
+        for (Entry entry : state) {
+            if (entry.node == null) {
+                target.add(entry); // accepts and ghosts keep their position
+            } else {
+                advance(entry.node, entry.tags, c, false, target, transition);
+            }
+        }
+        settle(target);
+        return target;
+    }
+
+    // runs a thread from the given node until it waits for the next input character, dies or accepts,
+    // c is the current character or -1 if it has already been consumed
+    private void advance(Node node, int[] tags, int c, boolean afterChar, List<Entry> out, Transition transition) {
+        if (++transition.steps > MAX_STEPS || out.size() > MAX_ENTRIES) throw NOT_COMPILABLE;
+        switch (node.type) {
+            case Node.CHAR:
+                if (c < 0) {
+                    out.add(new Entry(node, -1, tags));
+                } else if (contains(node.set, c)) {
+                    advance(node.next, tags, -1, true, out, transition);
+                } else {
+                    die(tags, out);
+                }
+                return;
+
+            case Node.TEST:
+            case Node.TEST_NOT:
+                if (c < 0) {
+                    out.add(new Entry(node, -1, tags));
+                } else if (contains(node.set, c) == (node.type == Node.TEST)) {
+                    advance(node.next, tags, c, afterChar, out, transition);
+                } else {
+                    die(tags, out);
+                }
+                return;
+
+            case Node.SPLIT:
+                for (int i = 0; i < tags.length; i += 4) {
+                    // we cannot distinguish several open instances of the same choice
+                    if (tags[i + 1] == node.choice && (tags[i + 3] & OPEN) != 0) throw NOT_COMPILABLE;
+                }
+                int instance = transition.nextInstance++;
+                for (int alt = 0; alt < node.alternatives.length; alt++) {
+                    int[] altTags = Arrays.copyOf(tags, tags.length + 4);
+                    altTags[tags.length] = instance;
+                    altTags[tags.length + 1] = node.choice;
+                    altTags[tags.length + 2] = alt;
+                    altTags[tags.length + 3] = OPEN;
+                    advance(node.alternatives[alt], altTags, c, afterChar, out, transition);
+                }
+                return;
+
+            case Node.CUT:
+                for (int i = 0; i < tags.length; i += 4) {
+                    if (tags[i + 1] == node.choice && (tags[i + 3] & OPEN) != 0) {
+                        tags = tags.clone();
+                        tags[i + 3] = PENDING;
+                        break;
+                    }
+                }
+                advance(node.next, tags, c, afterChar, out, transition);
+                return;
+
+            case Node.STOP:
+                int register = transition.allocateRegister(afterChar);
+                registerCount = Math.max(registerCount, register + 1);
+                out.add(new Entry(null, register, tags));
+                return;
+
+            case Node.FAIL:
+                die(tags, out);
+                return;
+
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    // a failed thread still has to apply the cuts it has passed, so it leaves a ghost
+    private static void die(int[] tags, List<Entry> out) {
+        Entry ghost = new Entry(null, -1, tags);
+        if (ghost.hasFlag(PENDING)) out.add(ghost);
+    }
+
+    // applies all cuts that can be applied and removes all entries that have become irrelevant
+    private static void settle(List<Entry> entries) {
+        boolean changed = true;
+        while (changed) {
+            changed = applyCuts(entries);
+            changed |= removeIrrelevantEntries(entries);
+            changed |= removeResolvedChoices(entries);
+        }
+    }
+
+    // a cut passed by a thread can be applied if no thread of higher priority is still working on the same
+    // alternative, since such a thread might still invalidate the passing thread through an inner choice
+    private static boolean applyCuts(List<Entry> entries) {
+        boolean changed = false;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            for (int t = 0; t < entry.tags.length; t += 4) {
+                if ((entry.tags[t + 3] & PENDING) == 0) continue;
+                int instance = entry.tags[t];
+                int alternative = entry.tags[t + 2];
+                if (isBlocked(entries, i, instance, alternative)) continue;
+                for (int j = entries.size() - 1; j > i; j--) {
+                    if (entries.get(j).alternativeOf(instance) > alternative) entries.remove(j);
+                }
+                int[] tags = entry.tags.clone();
+                tags[t + 3] = 0;
+                entry = new Entry(entry.node, entry.register, tags);
+                entries.set(i, entry);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static boolean isBlocked(List<Entry> entries, int index, int instance, int alternative) {
+        for (int i = 0; i < index; i++) {
+            int[] tags = entries.get(i).tags;
+            for (int t = 0; t < tags.length; t += 4) {
+                if (tags[t] == instance && tags[t + 2] == alternative && (tags[t + 3] & OPEN) != 0) return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean removeIrrelevantEntries(List<Entry> entries) {
+        boolean changed = false;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            boolean irrelevant = entry.node == null && !entry.isAccept() && !entry.hasFlag(PENDING);
+            for (int j = 0; !irrelevant && j < i; j++) {
+                // a lower priority duplicate always shares the fate of its twin
+                irrelevant = entries.get(j).sameAs(entry);
+            }
+            if (irrelevant) {
+                entries.remove(i--);
+                changed = true;
+            } else if (entry.isAccept() && entry.tags.length == 0 && i < entries.size() - 1) {
+                // an accept that cannot be invalidated anymore makes all lower priority entries obsolete
+                entries.subList(i + 1, entries.size()).clear();
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // a choice instance for which all entries agree on the alternative and which has no pending cuts is resolved,
+    // so its tags can be dropped
+    private static boolean removeResolvedChoices(List<Entry> entries) {
+        Map<Integer, Integer> alternatives = new HashMap<Integer, Integer>();
+        Set<Integer> unresolved = new HashSet<Integer>();
+        for (Entry entry : entries) {
+            int[] tags = entry.tags;
+            for (int t = 0; t < tags.length; t += 4) {
+                Integer alternative = alternatives.put(tags[t], tags[t + 2]);
+                if (alternative != null && alternative != tags[t + 2] || (tags[t + 3] & PENDING) != 0) {
+                    unresolved.add(tags[t]);
+                }
+            }
+        }
+        alternatives.keySet().removeAll(unresolved);
+        if (alternatives.isEmpty()) return false;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            int[] tags = new int[entry.tags.length];
+            int count = 0;
+            for (int t = 0; t < entry.tags.length; t += 4) {
+                if (!alternatives.containsKey(entry.tags[t])) {
+                    System.arraycopy(entry.tags, t, tags, count, 4);
+                    count += 4;
+                }
+            }
+            if (count < tags.length) entries.set(i, new Entry(entry.node, entry.register, Arrays.copyOf(tags, count)));
+        }
+        return true;
+    }
+
+    // returns the index of the state with the given entries, adding it if required
+    private int addState(List<Entry> entries) {
+        if (isFinal(entries)) entries = entries.subList(0, 1);
+
+        // renumber the choice instances in order of appearance
+        Map<Integer, Integer> instances = new HashMap<Integer, Integer>();
+        List<Entry> normalized = new ArrayList<Entry>(entries.size());
+        StringBuilder key = new StringBuilder();
+        for (Entry entry : entries) {
+            int[] tags = entry.tags.clone();
+            for (int t = 0; t < tags.length; t += 4) {
+                Integer instance = instances.get(tags[t]);
+                if (instance == null) {
+                    instance = instances.size();
+                    instances.put(tags[t], instance);
+                }
+                tags[t] = instance;
+            }
+            normalized.add(new Entry(entry.node, entry.register, tags));
+            key.append(entry.node != null ? entry.node.id : -1).append(':').append(entry.register)
+                    .append(Arrays.toString(tags)).append(';');
+        }
+
+        Integer index = stateIndex.get(key.toString());
+        if (index == null) {
+            if (states.size() == MAX_STATES) throw NOT_COMPILABLE;
+            index = states.size();
+            states.add(normalized);
+            stateIndex.put(key.toString(), index);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.matchers;
+
+import static org.parboiled.common.Preconditions.*;
+import org.parboiled.Rule;
+
+import java.util.*;
+
+/**
+ * <p>Rewrites a rule graph by replacing all maximal sub graphs that are purely lexical, i.e. consist only of
+ * character level matchers, sequences, choices, repetitions and single character predicates (no actions, no Vars and
+ * no custom matchers), with {@link DfaMatcher}s. These match their sub graph with a table-driven DFA in a single loop
+ * over the input buffer.</p>
+ * <p>The returned rule is a new rule graph, the given graph is not modified. Use the returned rule as the root rule
+ * of a parse runner:</p>
+ * <pre>
+ * Rule root = DfaCompiler.compile(parser.CompilationUnit());
+ * ParsingResult&lt;?&gt; result = new BasicParseRunner(root).run(input);
+ * </pre>
+ * <p>Parse runners relying on detailed matcher information (error location, reporting and recovery) as well as
+ * parse tree building automatically fall back to the original sub graphs.</p>
+ */
+public final class DfaCompiler {
+
+    private final Set<Matcher> visited = new HashSet<Matcher>();
+    private final Map<Matcher, DfaMatcher> compiled = new HashMap<Matcher, DfaMatcher>();
+    private final Map<Matcher, List<Matcher>> parents = new HashMap<Matcher, List<Matcher>>();
+    private final Set<Matcher> changing = new HashSet<Matcher>();
+    private final Map<Matcher, Matcher> rewritten = new HashMap<Matcher, Matcher>();
+
+    private DfaCompiler() {}
+
+    /**
+     * Creates a copy of the given rule graph with all purely lexical sub graphs replaced by {@link DfaMatcher}s.
+     *
+     * @param rule the root rule of the graph
+     * @return the root rule of the rewritten graph, or the given rule if nothing could be compiled
+     */
+    public static Rule compile(Rule rule) {
+        checkArgNotNull(rule, "rule");
+        return new DfaCompiler().rewriteRoot((Matcher) rule);
+    }
+
+    private Rule rewriteRoot(Matcher root) {
+        Matcher target = unwrap(root);
+        if (target == null) return root;
+        collect(target);
+
+        // everything on a path from the root to a compiled sub graph has to be rebuilt
+        LinkedList<Matcher> queue = new LinkedList<Matcher>(compiled.keySet());
+        while (!queue.isEmpty()) {
+            Matcher matcher = queue.removeFirst();
+            if (changing.add(matcher) && parents.containsKey(matcher)) {
+                queue.addAll(parents.get(matcher));
+            }
+        }
+        return rewriteChild(root);
+    }
+
+    private void collect(Matcher matcher) {
+        if (!visited.add(matcher)) return;
+        if (isCandidate(matcher)) {
+            DfaMatcher dfaMatcher = DfaBuilder.build(matcher);
+            if (dfaMatcher != null) {
+                compiled.put(matcher, dfaMatcher);
+                return;
+            }
+        }
+        if (!isRebuildable(matcher)) return;
+        for (Matcher child : matcher.getChildren()) {
+            Matcher target = unwrap(child);
+            if (target == null) continue;
+            List<Matcher> childParents = parents.get(target);
+            if (childParents == null) {
+                childParents = new ArrayList<Matcher>();
+                parents.put(target, childParents);
+            }
+            childParents.add(matcher);
+            collect(target);
+        }
+    }
+
+    // single character matchers and string matchers are already as fast as a DFA
+    private static boolean isCandidate(Matcher matcher) {
+        return isRebuildable(matcher) && !(matcher instanceof StringMatcher) &&
+                !(matcher instanceof FirstOfStringsMatcher);
+    }
+
+    private static boolean isRebuildable(Matcher matcher) {
+        return matcher instanceof SequenceMatcher || matcher instanceof FirstOfMatcher ||
+                matcher instanceof OptionalMatcher || matcher instanceof ZeroOrMoreMatcher ||
+                matcher instanceof OneOrMoreMatcher || matcher instanceof TestMatcher ||
+                matcher instanceof TestNotMatcher;
+    }
+
+    private Matcher rewriteChild(Matcher child) {
+        Matcher target = unwrap(child);
+        if (target == null || !changing.contains(target)) return child;
+        Matcher result = rewrite(target);
+        return isMemoing(child) ? (Matcher) result.memoMismatches() : result;
+    }
+
+    private Matcher rewrite(Matcher matcher) {
+        DfaMatcher dfaMatcher = compiled.get(matcher);
+        if (dfaMatcher != null) return dfaMatcher;
+        Matcher result = rewritten.get(matcher);
+        if (result != null) return result;
+
+        // recursive rules refer to the rewritten rule through a proxy
+        ProxyMatcher proxy = new ProxyMatcher();
+        rewritten.put(matcher, proxy);
+
+        List<Matcher> children = matcher.getChildren();
+        Rule[] subRules = new Rule[children.size()];
+        for (int i = 0; i < subRules.length; i++) {
+            subRules[i] = rewriteChild(children.get(i));
+        }
+        CustomDefaultLabelMatcher<?> copy;
+        if (matcher instanceof SequenceMatcher) copy = new SequenceMatcher(subRules);
+        else if (matcher instanceof FirstOfMatcher) copy = new FirstOfMatcher(subRules);
+        else if (matcher instanceof OptionalMatcher) copy = new OptionalMatcher(subRules[0]);
+        else if (matcher instanceof ZeroOrMoreMatcher) copy = new ZeroOrMoreMatcher(subRules[0]);
+        else if (matcher instanceof OneOrMoreMatcher) copy = new OneOrMoreMatcher(subRules[0]);
+        else if (matcher instanceof TestMatcher) copy = new TestMatcher(subRules[0]);
+        else if (matcher instanceof TestNotMatcher) copy = new TestNotMatcher(subRules[0]);
+        else throw new IllegalStateException();
+
+        Rule rule = matcher.hasCustomLabel() ? copy.label(matcher.getLabel()) : copy.defaultLabel(matcher.getLabel());
+        if (matcher.isNodeSuppressed()) rule = rule.suppressNode();
+        if (matcher.areSubnodesSuppressed()) rule = rule.suppressSubnodes();
+        if (matcher.isNodeSkipped()) rule = rule.skipNode();
+        result = (Matcher) rule;
+
+        proxy.arm(result);
+        rewritten.put(matcher, result);
+        return result;
+    }
+
+    // unwraps proxies and mismatch memoization, returns null for matchers that must not be touched
+    private static Matcher unwrap(Matcher matcher) {
+        while (true) {
+            if (matcher instanceof ProxyMatcher) matcher = ProxyMatcher.unwrap(matcher);
+            else if (matcher instanceof MemoMismatchesMatcher) matcher = MemoMismatchesMatcher.unwrap(matcher);
+            else if (matcher instanceof VarFramingMatcher || matcher instanceof DfaMatcher) return null;
+            else return matcher;
+        }
+    }
+
+    private static boolean isMemoing(Matcher matcher) {
+        while (true) {
+            if (matcher instanceof MemoMismatchesMatcher) return true;
+            if (!(matcher instanceof ProxyMatcher)) return false;
+            matcher = ProxyMatcher.unwrap(matcher);
+        }
+    }
+}
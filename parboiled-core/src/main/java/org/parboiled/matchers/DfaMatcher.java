@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.matchers;
+
+import static org.parboiled.common.Preconditions.*;
+import org.parboiled.MatcherContext;
+import org.parboiled.Rule;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.matchervisitors.MatcherVisitor;
+
+import java.util.List;
+
+/**
+ * Special wrapping matcher that matches an action-free, purely lexical sub rule with a table-driven DFA in a single
+ * loop over the input buffer. Instances are created by the {@link DfaCompiler}.
+ * Whenever the wrapped rule would have to create parse tree nodes below itself or fast string matching is disabled
+ * (as during error location, reporting and recovery) the wrapped rule is run instead.
+ */
+public class DfaMatcher implements Matcher {
+    private final Matcher inner;
+    private final boolean subnodesSilent;
+
+    // the DFA tables
+    private final int[] asciiClasses; // the character class of all chars < 128
+    private final char[] intervalStarts; // the sorted start chars of all character intervals
+    private final int[] intervalClasses; // the character class of the respective interval
+    private final int classCount;
+    private final int[] transitions; // state * classCount + class -> target state or -1 for failure
+    private final int[] actions; // state * classCount + class -> register writes (see below)
+    private final int[] results; // state -> register holding the match end, -1 for non-final states
+    private final int initialActions;
+    private final int registerCount;
+
+    // register writes are encoded as bit masks: bits 0 - 7 set the respective register to the index of the
+    // current character, bits 8 - 15 set it to the index after the current character
+    static final int MAX_REGISTERS = 8;
+
+    DfaMatcher(Rule inner, int[] asciiClasses, char[] intervalStarts, int[] intervalClasses, int[] transitions,
+               int[] actions, int[] results, int initialActions, int registerCount) {
+        this.inner = checkArgNotNull((Matcher) inner, "inner");
+        this.subnodesSilent = computeSubnodesSilent(this.inner);
+        this.asciiClasses = asciiClasses;
+        this.intervalStarts = intervalStarts;
+        this.intervalClasses = intervalClasses;
+        this.classCount = transitions.length / results.length;
+        this.transitions = transitions;
+        this.actions = actions;
+        this.results = results;
+        this.initialActions = initialActions;
+        this.registerCount = registerCount;
+    }
+
+    private DfaMatcher(Rule inner, DfaMatcher other) {
+        this(inner, other.asciiClasses, other.intervalStarts, other.intervalClasses, other.transitions,
+                other.actions, other.results, other.initialActions, other.registerCount);
+    }
+
+    // the wrapped rule never creates nodes below itself if all of its direct children are node suppressed
+    private static boolean computeSubnodesSilent(Matcher matcher) {
+        if (matcher.areSubnodesSuppressed()) return true;
+        for (Matcher child : matcher.getChildren()) {
+            if (!child.isNodeSuppressed()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of states of the underlying DFA
+     */
+    public int getStateCount() {
+        return results.length;
+    }
+
+    public <V> boolean match(MatcherContext<V> context) {
+        if (!context.fastStringMatching() || !(subnodesSilent || context.isNodeSuppressed())) {
+            return inner.match(context);
+        }
+        int end = run(context.getInputBuffer(), context.getCurrentIndex());
+        if (end < 0) return false;
+        context.advanceIndex(end - context.getCurrentIndex());
+        context.createNode();
+        return true;
+    }
+
+    /**
+     * Runs the DFA against the given input buffer.
+     *
+     * @param buffer the input buffer
+     * @param start  the index to start matching at
+     * @return the end index of the match or -1 if the rule does not match at the given index
+     */
+    public int run(InputBuffer buffer, int start) {
+        int[] registers = registerCount > 1 ? new int[registerCount] : null;
+        int register0 = start;
+        if (initialActions != 0 && registers != null) writeRegisters(registers, initialActions, start);
+
+        int[] asciiClasses = this.asciiClasses;
+        int[] transitions = this.transitions;
+        int[] actions = this.actions;
+        int[] results = this.results;
+        int classCount = this.classCount;
+        int state = 0;
+        int ix = start;
+        while (results[state] < 0) {
+            char c = buffer.charAt(ix);
+            int t = state * classCount + (c < 128 ? asciiClasses[c] : classOf(c));
+            int action = actions[t];
+            if (action != 0) {
+                if ((action & 0x001) != 0) register0 = ix;
+                else if ((action & 0x100) != 0) register0 = ix + 1;
+                if (registers != null) writeRegisters(registers, action, ix);
+            }
+            state = transitions[t];
+            if (state < 0) return -1;
+            ix++;
+        }
+        int result = results[state];
+        return result == 0 ? register0 : registers[result];
+    }
+
+    private int classOf(char c) {
+        int low = 0;
+        int high = intervalStarts.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (intervalStarts[mid] <= c) low = mid;
+            else high = mid - 1;
+        }
+        return intervalClasses[low];
+    }
+
+    private static void writeRegisters(int[] registers, int action, int ix) {
+        for (int r = 1; r < registers.length; r++) {
+            if ((action & (1 << r)) != 0) registers[r] = ix;
+            else if ((action & (0x100 << r)) != 0) registers[r] = ix + 1;
+        }
+    }
+
+    // GraphNode
+
+    public List<Matcher> getChildren() {
+        return inner.getChildren();
+    }
+
+    // Rule
+
+    public Rule label(String label) {
+        return new DfaMatcher(inner.label(label), this);
+    }
+
+    public Rule suppressNode() {
+        return new DfaMatcher(inner.suppressNode(), this);
+    }
+
+    public Rule suppressSubnodes() {
+        return new DfaMatcher(inner.suppressSubnodes(), this);
+    }
+
+    public Rule skipNode() {
+        return new DfaMatcher(inner.skipNode(), this);
+    }
+
+    public Rule memoMismatches() {
+        return new MemoMismatchesMatcher(this);
+    }
+
+    // Matcher
+
+    public String getLabel() {return inner.getLabel();}
+
+    public boolean hasCustomLabel() {return inner.hasCustomLabel();}
+
+    public boolean isNodeSuppressed() {return inner.isNodeSuppressed();}
+
+    public boolean areSubnodesSuppressed() {return inner.areSubnodesSuppressed();}
+
+    public boolean isNodeSkipped() {return inner.isNodeSkipped();}
+
+    public boolean areMismatchesMemoed() { return inner.areMismatchesMemoed(); }
+
+    public void setTag(Object tagObject) { inner.setTag(tagObject); }
+
+    public Object getTag() { return inner.getTag(); }
+
+    public MatcherContext getSubContext(MatcherContext context) {
+        MatcherContext subContext = inner.getSubContext(context);
+        subContext.setMatcher(this); // we need to inject ourselves here otherwise we get cut out
+        return subContext;
+    }
+
+    public <R> R accept(MatcherVisitor<R> visitor) {
+        checkArgNotNull(visitor, "visitor");
+        return inner.accept(visitor);
+    }
+
+    @Override
+    public String toString() { return inner.toString(); }
+
+    /**
+     * Retrieves the innermost Matcher that is not a DfaMatcher.
+     *
+     * @param matcher the matcher to unwrap
+     * @return the given instance if it is not a DfaMatcher, otherwise the innermost Matcher
+     */
+    public static Matcher unwrap(Matcher matcher) {
+        if (matcher instanceof DfaMatcher) {
+            DfaMatcher dfaMatcher = (DfaMatcher) matcher;
+            return unwrap(dfaMatcher.inner);
+        }
+        return matcher;
+    }
+}
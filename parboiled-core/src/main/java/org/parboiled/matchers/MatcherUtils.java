@@ -24,6 +24,7 @@ public final class MatcherUtils {
         if (matcher instanceof ProxyMatcher) return unwrap(ProxyMatcher.unwrap(matcher));
         if (matcher instanceof VarFramingMatcher) return unwrap(VarFramingMatcher.unwrap(matcher));
         if (matcher instanceof MemoMismatchesMatcher) return unwrap(MemoMismatchesMatcher.unwrap(matcher));
+        if (matcher instanceof DfaMatcher) return unwrap(DfaMatcher.unwrap(matcher));
         return matcher; 
     }
 }
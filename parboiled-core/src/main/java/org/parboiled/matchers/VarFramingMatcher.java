@@ -37,17 +37,35 @@ public class VarFramingMatcher implements Matcher {
     }
 
     public <V> boolean match(MatcherContext<V> context) {
+        enterFrames();
+        boolean matched = inner.match(context);
+        exitFrames();
+        return matched;
+    }
+
+    /**
+     * @return the wrapped matcher
+     */
+    public Matcher getInner() {
+        return inner;
+    }
+
+    /**
+     * Creates a new execution frame for all action vars of this matcher.
+     */
+    public void enterFrames() {
         for (Var var : variables) {
             var.enterFrame();
         }
+    }
 
-        boolean matched = inner.match(context);
-
+    /**
+     * Destroys the current execution frame of all action vars of this matcher.
+     */
+    public void exitFrames() {
         for (Var var : variables) {
             var.exitFrame();
         }
-
-        return matched;
     }
 
     // GraphNode
@@ -21,6 +21,7 @@ import org.parboiled.MatcherContext;
 import org.parboiled.Rule;
 import org.parboiled.buffers.DefaultInputBuffer;
 import org.parboiled.buffers.InputBuffer;
+import org.parboiled.errors.ParseBudgetExceededError;
 import org.parboiled.errors.ParseError;
 import org.parboiled.matchers.Matcher;
 import org.parboiled.support.DefaultValueStack;
@@ -37,6 +38,12 @@ public abstract class AbstractParseRunner<V> implements ParseRunner<V> {
     private List<ParseError> parseErrors;
     private ValueStack<V> valueStack;
     private Object initialValueStackSnapshot;
+    private ParseBudget parseBudget;
+    private CancellationToken cancellationToken;
+    private ParseBudget runBudget; // the budget of the current parsing run
+    private ParseMetricsRegistry metricsRegistry;
+    private ParseMetricsRegistry.Recording metricsRecording;
+    private MatchHandlerChain matchHandlerChain = MatchHandlerChain.EMPTY;
 
     public AbstractParseRunner(Rule rule) {
         this.rootMatcher = checkArgNotNull((Matcher) rule, "rule");
@@ -71,6 +78,94 @@ public abstract class AbstractParseRunner<V> implements ParseRunner<V> {
         return valueStack;
     }    
 
+    /**
+     * Initializes the parse runner with the given ParseBudget limiting the resources of its parsing runs.
+     *
+     * @param parseBudget the ParseBudget to use, null for unlimited parsing runs
+     * @return this instance
+     */
+    public AbstractParseRunner<V> withParseBudget(ParseBudget parseBudget) {
+        this.parseBudget = parseBudget;
+        return this;
+    }
+
+    /**
+     * Makes the parsing runs of this runner abort with a {@link org.parboiled.errors.ParseCancelledException} once
+     * the given token is cancelled. At the start of each parsing run the token is attached to a copy of the
+     * ParseBudget of this runner (or a new, unlimited one), so a budget that was passed to
+     * {@link #withParseBudget(ParseBudget)} (before or after this call) and may be shared with other runners is left
+     * untouched.
+     *
+     * @param cancellationToken the token to poll, null for none
+     * @return this instance
+     */
+    public AbstractParseRunner<V> withCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+        return this;
+    }
+
+    /**
+     * @return the ParseBudget of the current parsing run (including the cancellation token of this runner) while
+     *         a run is in progress, otherwise the ParseBudget set with {@link #withParseBudget(ParseBudget)}
+     */
+    public ParseBudget getParseBudget() {
+        return runBudget != null ? runBudget : parseBudget;
+    }
+
+    /**
+     * Makes this runner report its parsing runs into the given registry rather than the process-wide one installed
+     * with {@link ParseMetricsRegistry#install(ParseMetricsRegistry)}.
+     *
+     * @param metricsRegistry the registry to report into
+     * @return this instance
+     */
+    public AbstractParseRunner<V> withMetricsRegistry(ParseMetricsRegistry metricsRegistry) {
+        this.metricsRegistry = checkArgNotNull(metricsRegistry, "metricsRegistry");
+        return this;
+    }
+
+    /**
+     * @return the registry the current parsing run is reported into, or null if the run is not recorded
+     */
+    protected ParseMetricsRegistry getActiveMetricsRegistry() {
+        return metricsRecording != null ? metricsRecording.registry : null;
+    }
+
+    /**
+     * Attaches the given interceptor to this runner. Interceptors see the rule invocations in the order they have
+     * been attached in, before the handler of the runner itself.
+     *
+     * @param interceptor the interceptor
+     * @return this instance
+     */
+    public AbstractParseRunner<V> withMatchInterceptor(MatchInterceptor interceptor) {
+        this.matchHandlerChain = matchHandlerChain.with(interceptor);
+        return this;
+    }
+
+    /**
+     * Replaces the interceptors of this runner with the ones of the given chain. Used by runners delegating parsing
+     * passes to other runners.
+     *
+     * @param matchHandlerChain the chain
+     * @return this instance
+     */
+    public AbstractParseRunner<V> withMatchHandlerChain(MatchHandlerChain matchHandlerChain) {
+        this.matchHandlerChain = checkArgNotNull(matchHandlerChain, "matchHandlerChain");
+        return this;
+    }
+
+    public MatchHandlerChain getMatchHandlerChain() {
+        return matchHandlerChain;
+    }
+
+    /**
+     * Counts an error recovery in the metrics of the current parsing run.
+     */
+    protected void countRecoveryAttempt() {
+        if (metricsRecording != null) metricsRecording.countRecoveryAttempt();
+    }
+
     public ParsingResult<V> run(String input) {
         checkArgNotNull(input, "input");
         return run(input.toCharArray());
@@ -87,11 +182,81 @@ public abstract class AbstractParseRunner<V> implements ParseRunner<V> {
 
     protected MatcherContext<V> createRootContext(InputBuffer inputBuffer, MatchHandler matchHandler,
                                                      boolean fastStringMatching) {
+        if (runBudget != null) runBudget.startPass();
+        if (metricsRecording != null) metricsRecording.setInputBuffer(inputBuffer);
+        matchHandler = FlightRecorderEvents.slowRuleEvents.intercept(inputBuffer, matchHandler);
+        matchHandler = matchHandlerChain.assemble(inputBuffer, matchHandler);
         return new MatcherContext<V>(inputBuffer, getValueStack(), getParseErrors(), matchHandler, rootMatcher,
-                fastStringMatching);
+                fastStringMatching, runBudget);
+    }
+
+    /**
+     * Starts a new parsing run of this runner: starts the recording of the run in the {@link ParseMetricsRegistry}
+     * of this runner or the process-wide one, if any, and as a JFR event (see {@link FlightRecorderEvents}), and
+     * starts the ParseBudget of the run (if any), with the cancellation token of this runner attached.
+     * Must be followed by a call to {@link #finishRun()}, usually in a finally block.
+     *
+     * @return true if this call started a new budgeted run, false if there is no budget or the run is part of
+     *         an enclosing run of another runner sharing the budget
+     */
+    protected boolean startRun() {
+        metricsRecording = ParseMetricsRegistry.startRecording(
+                metricsRegistry != null ? metricsRegistry : ParseMetricsRegistry.getInstalled(), getParseErrors(),
+                getClass());
+        runBudget = cancellationToken == null ? parseBudget :
+                (parseBudget != null ? parseBudget.copyLimits() : new ParseBudget())
+                        .withCancellationToken(cancellationToken);
+        return runBudget != null && runBudget.start();
+    }
+
+    /**
+     * Ends a parsing run, i.e. finishes its ParseBudget and its metrics recording. Must be called once for every
+     * call to {@link #startRun()}.
+     */
+    protected void finishRun() {
+        if (runBudget != null) {
+            runBudget.finish();
+            runBudget = null;
+        }
+        if (metricsRecording != null) {
+            ParseMetricsRegistry.Recording recording = metricsRecording;
+            metricsRecording = null;
+            recording.finish();
+        }
+    }
+
+    /**
+     * Turns an exceeded ParseBudget into an unmatched ParsingResult, if this runner has started the budgeted run.
+     * Otherwise the exception is rethrown, so that it reaches the runner owning the run.
+     *
+     * @param e             the exception signalling the exceeded budget
+     * @param budgetStarted the value returned by {@link #startRun()} for the current run
+     * @param inputBuffer   the input buffer of the run
+     * @return the ParsingResult for the aborted run
+     */
+    protected ParsingResult<V> createBudgetExceededResult(ParseBudget.ExceededException e, boolean budgetStarted,
+                                                          InputBuffer inputBuffer) {
+        if (!budgetStarted) throw e;
+        if (metricsRecording != null) metricsRecording.setResult(false, true);
+        getParseErrors().add(new ParseBudgetExceededError(inputBuffer, runBudget.getFurthestIndex(), e.getLimit(),
+                runBudget.getMatcherInvocations()));
+        return new ParsingResult<V>(false, null, getValueStack(), getParseErrors(), inputBuffer);
     }
     
+    /**
+     * Records the given result as the result of the current parsing run in its metrics. Only needed for results not
+     * created with {@link #createParsingResult(boolean, MatcherContext)}.
+     *
+     * @param result the final result of the current parsing run
+     * @return the given result
+     */
+    protected ParsingResult<V> recordResult(ParsingResult<V> result) {
+        if (metricsRecording != null) metricsRecording.setResult(result.matched, false);
+        return result;
+    }
+
     protected ParsingResult<V> createParsingResult(boolean matched, MatcherContext<V> rootContext) {
+        if (metricsRecording != null) metricsRecording.setResult(matched, false);
         return new ParsingResult<V>(matched, rootContext.getNode(), getValueStack(), getParseErrors(),
                 rootContext.getInputBuffer());
     }
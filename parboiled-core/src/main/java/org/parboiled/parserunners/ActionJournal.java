@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.Context;
+import org.parboiled.ContextAware;
+import org.parboiled.MatchHandler;
+import org.parboiled.MatcherContext;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.errors.ActionException;
+import org.parboiled.errors.GrammarException;
+import org.parboiled.errors.ParseError;
+import org.parboiled.errors.ParserRuntimeException;
+import org.parboiled.matchers.*;
+import org.parboiled.support.IndexRange;
+import org.parboiled.support.MatcherPath;
+import org.parboiled.support.Position;
+import org.parboiled.support.ValueStack;
+import org.parboiled.Node;
+
+import java.util.*;
+
+import static org.parboiled.matchers.MatcherUtils.unwrap;
+
+/**
+ * <p>A {@link MatchHandler} deferring the execution of parser actions. Instead of running an action when its
+ * {@link ActionMatcher} is reached the journal records the invocation together with the state of the context the
+ * action would run in (match range, indices, etc.). The entries recorded inside a rule that fails are dropped again,
+ * so that once the parsing run has matched, {@link #replay()} runs exactly the actions lying on the final parse path,
+ * in their original order. Actions in alternatives that are backtracked out of never run at all.</p>
+ * <p>Since a deferred action cannot influence the parsing run it is assumed to succeed. Actions that do have to run
+ * immediately (semantic predicates, actions working with action vars or accessing the parent contexts or the
+ * MatcherPath) must opt out of deferral (see {@link org.parboiled.DeferrableAction}). Actions referencing
+ * {@link org.parboiled.support.Var}s and actions in syntactic predicates are never deferred. Before an action runs
+ * immediately all entries recorded so far are replayed, so it sees the same value stack it would see without
+ * deferral. Since the rules taking value stack snapshots (sequences and syntactic predicates) only undo the changes
+ * made after their start the journal is also replayed before entering such a rule containing immediate actions.</p>
+ * <p>An ActionJournal is used via {@link BasicParseRunner#withDeferredActions()}.</p>
+ */
+public class ActionJournal implements MatchHandler {
+    private final Map<Matcher, Boolean> replayingMatchers = new HashMap<Matcher, Boolean>();
+    private DeferredAction[] entries = new DeferredAction[64];
+    private long base; // the number of entries recorded before entries[0]
+    private int size;
+    private int predicateLevel;
+
+    public boolean match(MatcherContext<?> context) {
+        Matcher matcher = context.getMatcher();
+        if (matcher instanceof ActionMatcher) {
+            ActionMatcher actionMatcher = (ActionMatcher) matcher;
+            if (actionMatcher.deferrable && predicateLevel == 0) {
+                record(actionMatcher, context);
+                return true;
+            }
+            replay();
+            return matcher.match(context);
+        }
+
+        // the immediate actions underneath the matcher would replay the journal into a value stack state the
+        // matcher might restore later, so we have to replay before the matcher takes its snapshot
+        if (size > 0 && replaysJournal(matcher)) replay();
+        long mark = base + size;
+        if (isPredicate(matcher)) {
+            predicateLevel++;
+            try {
+                return matcher.match(context);
+            } finally {
+                predicateLevel--;
+            }
+        }
+        if (matcher.match(context)) return true;
+        truncate(mark); // drop the actions of the failed rule
+        return false;
+    }
+
+    /**
+     * @return the number of recorded actions that have not yet been run
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Runs all recorded actions in the order they were recorded and empties the journal.
+     *
+     * @throws GrammarException       if an action fails or throws an ActionException, since the parsing run
+     *                                cannot take the failure into account anymore
+     * @throws ParserRuntimeException if an action throws any other exception, e.g. a GrammarException for an
+     *                                access to the parent context or the MatcherPath
+     */
+    @SuppressWarnings({"unchecked"})
+    public void replay() {
+        int count = size;
+        base += count;
+        size = 0;
+        for (int i = 0; i < count; i++) {
+            DeferredAction entry = entries[i];
+            entries[i] = null;
+            ActionMatcher matcher = entry.actionMatcher;
+            for (ContextAware contextAware : matcher.contextAwares) {
+                contextAware.setContext(entry);
+            }
+            boolean succeeded;
+            try {
+                succeeded = matcher.action.run(entry);
+            } catch (ActionException e) {
+                throw new GrammarException(e, "Deferred action '%s' threw an ActionException, " +
+                        "actions that can fail must not be deferred", matcher);
+            } catch (ParserRuntimeException e) {
+                throw e;
+            } catch (Throwable e) {
+                // including GrammarExceptions for illegal context accesses, as for actions run during matching
+                throw new ParserRuntimeException(e, "Error while running deferred action '%s' at input index %s",
+                        matcher, entry.currentIndex);
+            }
+            if (!succeeded) {
+                throw new GrammarException("Deferred action '%s' failed, actions that can fail must not be deferred",
+                        matcher);
+            }
+        }
+    }
+
+    /**
+     * Drops all recorded actions.
+     */
+    public void clear() {
+        truncate(base);
+        predicateLevel = 0;
+    }
+
+    private void record(ActionMatcher matcher, MatcherContext<?> context) {
+        if (size == entries.length) entries = Arrays.copyOf(entries, size * 2);
+        MatcherContext<?> parent = context.getParent();
+        entries[size++] = new DeferredAction(matcher, parent, context);
+
+        // like the ActionMatcher does, see there
+        context.setCurrentIndex(parent.getCurrentIndex());
+    }
+
+    // drops the entries recorded since the given mark, as far as they have not been replayed yet
+    private void truncate(long mark) {
+        int newSize = (int) Math.max(mark - base, 0);
+        if (newSize < size) {
+            Arrays.fill(entries, newSize, size, null);
+            size = newSize;
+        }
+    }
+
+    private static boolean isPredicate(Matcher matcher) {
+        if (matcher instanceof MemoMismatchesMatcher || matcher instanceof VarFramingMatcher) {
+            matcher = unwrap(matcher);
+        }
+        return matcher instanceof TestMatcher || matcher instanceof TestNotMatcher;
+    }
+
+    private boolean replaysJournal(Matcher matcher) {
+        Boolean replays = replayingMatchers.get(matcher);
+        if (replays == null) {
+            Matcher unwrapped = unwrap(matcher);
+            replays = (unwrapped instanceof SequenceMatcher || isPredicate(unwrapped)) &&
+                    runsImmediateActions(unwrapped, false, new HashSet<Matcher>(), new HashSet<Matcher>());
+            replayingMatchers.put(matcher, replays);
+        }
+        return replays;
+    }
+
+    private static boolean runsImmediateActions(Matcher matcher, boolean inPredicate, Set<Matcher> visited,
+                                                Set<Matcher> visitedInPredicates) {
+        if (!(inPredicate ? visitedInPredicates : visited).add(matcher)) return false;
+        if (matcher instanceof ActionMatcher) {
+            ActionMatcher actionMatcher = (ActionMatcher) matcher;
+            return inPredicate ? !actionMatcher.skipInPredicates : !actionMatcher.deferrable;
+        }
+        boolean childrenInPredicate = inPredicate || isPredicate(matcher);
+        for (Matcher child : matcher.getChildren()) {
+            if (runsImmediateActions(unwrap(child), childrenInPredicate, visited, visitedInPredicates)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * The frozen state of the context a deferred action runs in.
+     */
+    @SuppressWarnings({"unchecked"})
+    private static class DeferredAction implements Context {
+        private final ActionMatcher actionMatcher;
+        private final InputBuffer inputBuffer;
+        private final ValueStack valueStack;
+        private final List<ParseError> parseErrors;
+        private final Matcher matcher;
+        private final int startIndex;
+        private final int currentIndex;
+        private final int level;
+        private final int matchStartIndex;
+        private final int matchEndIndex; // -1 if the action is not allowed to access the match
+        private final List subNodes;
+        private final boolean fastStringMatching;
+        private final boolean nodeSuppressed;
+        private final boolean hasError;
+
+        private DeferredAction(ActionMatcher actionMatcher, MatcherContext<?> parent, MatcherContext<?> context) {
+            this.actionMatcher = actionMatcher;
+            this.inputBuffer = parent.getInputBuffer();
+            this.valueStack = parent.getValueStack();
+            this.parseErrors = parent.getParseErrors();
+            this.matcher = parent.getMatcher();
+            this.startIndex = parent.getStartIndex();
+            this.currentIndex = parent.getCurrentIndex();
+            this.level = parent.getLevel();
+            this.fastStringMatching = parent.fastStringMatching();
+            this.nodeSuppressed = parent.isNodeSuppressed();
+            this.hasError = parent.hasError();
+            this.subNodes = nodeSuppressed ? Collections.emptyList() : parent.getSubNodes();
+
+            // the context of the action still holds the data of the rule matched before it (see ActionMatcher)
+            boolean hasMatch = unwrap(matcher) instanceof SequenceMatcher && parent.getIntTag() > 0;
+            this.matchStartIndex = hasMatch ? context.getStartIndex() : -1;
+            this.matchEndIndex = hasMatch ? context.getCurrentIndex() : -1;
+        }
+
+        public Context getParent() {
+            throw new GrammarException("Deferred actions cannot access the parent context");
+        }
+
+        public InputBuffer getInputBuffer() {
+            return inputBuffer;
+        }
+
+        public Matcher getMatcher() {
+            return matcher;
+        }
+
+        public int getStartIndex() {
+            return startIndex;
+        }
+
+        public int getCurrentIndex() {
+            return currentIndex;
+        }
+
+        public char getCurrentChar() {
+            return inputBuffer.charAt(currentIndex);
+        }
+
+        public List<ParseError> getParseErrors() {
+            return parseErrors;
+        }
+
+        public MatcherPath getPath() {
+            throw new GrammarException("Deferred actions cannot access the MatcherPath");
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public boolean fastStringMatching() {
+            return fastStringMatching;
+        }
+
+        public List<Node> getSubNodes() {
+            return subNodes;
+        }
+
+        public boolean inPredicate() {
+            return false;
+        }
+
+        public boolean inErrorRecovery() {
+            return false;
+        }
+
+        public boolean isNodeSuppressed() {
+            return nodeSuppressed;
+        }
+
+        public boolean hasError() {
+            return hasError;
+        }
+
+        public String getMatch() {
+            checkActionContext();
+            return inputBuffer.extract(matchStartIndex, matchEndIndex);
+        }
+
+        public char getFirstMatchChar() {
+            checkActionContext();
+            if (matchEndIndex <= matchStartIndex) {
+                throw new GrammarException("getFirstMatchChar called but previous rule did not match anything");
+            }
+            return inputBuffer.charAt(matchStartIndex);
+        }
+
+        public int getMatchStartIndex() {
+            checkActionContext();
+            return matchStartIndex;
+        }
+
+        public int getMatchEndIndex() {
+            checkActionContext();
+            return matchEndIndex;
+        }
+
+        public int getMatchLength() {
+            checkActionContext();
+            return matchEndIndex - matchStartIndex;
+        }
+
+        public Position getPosition() {
+            return inputBuffer.getPosition(currentIndex);
+        }
+
+        public IndexRange getMatchRange() {
+            checkActionContext();
+            return new IndexRange(matchStartIndex, matchEndIndex);
+        }
+
+        public ValueStack getValueStack() {
+            return valueStack;
+        }
+
+        private void checkActionContext() {
+            if (matchEndIndex < 0) {
+                throw new GrammarException("Illegal call to getMatch(), getMatchStartIndex(), getMatchEndIndex() " +
+                        "or getMatchRange(), only valid in Sequence rule actions that are not in first position");
+            }
+        }
+    }
+}
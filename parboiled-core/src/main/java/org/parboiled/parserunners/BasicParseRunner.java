@@ -37,6 +37,7 @@ import java.util.List;
  * whether a given input conforms to the rule grammar.
  */
 public class BasicParseRunner<V> extends AbstractParseRunner<V> implements MatchHandler {
+    private ActionJournal actionJournal;
 
     /**
      * Create a new BasicParseRunner instance with the given rule and input text and returns the result of
@@ -64,13 +65,39 @@ public class BasicParseRunner<V> extends AbstractParseRunner<V> implements Match
         super(rule);
     }
 
+    /**
+     * Switches this runner to deferred action execution. Parser actions are then not run when they are reached but
+     * recorded in an {@link ActionJournal} and only run once the parsing run has matched, so that the actions in
+     * alternatives that are backtracked out of never run. See {@link ActionJournal} for the restrictions applying
+     * to deferred actions. Note that the values of parse tree nodes are taken from the value stack when the nodes are
+     * created and therefore do not reflect the effects of deferred actions.
+     *
+     * @return this instance
+     */
+    public BasicParseRunner<V> withDeferredActions() {
+        this.actionJournal = new ActionJournal();
+        return this;
+    }
+
     public ParsingResult<V> run(InputBuffer inputBuffer) {
         checkArgNotNull(inputBuffer, "inputBuffer");
         resetValueStack();
-        
-        MatcherContext<V> rootContext = createRootContext(inputBuffer, this, true);
-        boolean matched = rootContext.runMatcher();
-        return createParsingResult(matched, rootContext);
+        boolean budgetStarted = startRun();
+        try {
+            MatchHandler matchHandler = actionJournal != null ? actionJournal : this;
+            MatcherContext<V> rootContext = createRootContext(inputBuffer, matchHandler, true);
+            boolean matched = rootContext.runMatcher();
+            if (actionJournal != null) {
+                if (matched) actionJournal.replay();
+                else actionJournal.clear();
+            }
+            return createParsingResult(matched, rootContext);
+        } catch (ParseBudget.ExceededException e) {
+            return createBudgetExceededResult(e, budgetStarted, inputBuffer);
+        } finally {
+            if (actionJournal != null) actionJournal.clear();
+            finishRun();
+        }
     }
 
     public boolean match(MatcherContext<?> context) {
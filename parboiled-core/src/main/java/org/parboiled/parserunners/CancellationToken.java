@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+/**
+ * <p>Allows cancelling parsing runs from another thread. A parse runner configured with a CancellationToken
+ * (see {@link AbstractParseRunner#withCancellationToken(CancellationToken)}) polls the token every 1024 matcher
+ * invocations and aborts the parsing run with a {@link org.parboiled.errors.ParseCancelledException} once the token
+ * has been cancelled.</p>
+ * <p>The token returned by {@link #onInterrupt()} reacts to {@link Thread#interrupt()} of the parsing thread
+ * instead.</p>
+ */
+public class CancellationToken {
+    private volatile boolean cancelled;
+
+    /**
+     * @return a token that is cancelled whenever the thread polling it has been interrupted
+     */
+    public static CancellationToken onInterrupt() {
+        return new CancellationToken() {
+            @Override
+            public boolean isCancelled() {
+                return super.isCancelled() || Thread.currentThread().isInterrupted();
+            }
+        };
+    }
+
+    /**
+     * Cancels all parsing runs using this token. Can be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
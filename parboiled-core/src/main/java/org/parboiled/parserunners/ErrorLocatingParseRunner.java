@@ -62,14 +62,20 @@ public class ErrorLocatingParseRunner<V> extends AbstractParseRunner<V> implemen
         checkArgNotNull(inputBuffer, "inputBuffer");
         resetValueStack();
         errorIndex = 0;
-        
-        // run without fast string matching to properly get the error location
-        MatcherContext<V> rootContext = createRootContext(inputBuffer, this, false);
-        boolean matched = match(rootContext);
-        if (!matched) {
-            getParseErrors().add(new BasicParseError(inputBuffer, errorIndex, null));
+        boolean budgetStarted = startRun();
+        try {
+            // run without fast string matching to properly get the error location
+            MatcherContext<V> rootContext = createRootContext(inputBuffer, this, false);
+            boolean matched = rootContext.runMatcher();
+            if (!matched) {
+                getParseErrors().add(new BasicParseError(inputBuffer, errorIndex, null));
+            }
+            return createParsingResult(matched, rootContext);
+        } catch (ParseBudget.ExceededException e) {
+            return createBudgetExceededResult(e, budgetStarted, inputBuffer);
+        } finally {
+            finishRun();
         }
-        return createParsingResult(matched, rootContext);
     }
 
     public boolean match(MatcherContext<?> context) {
@@ -72,14 +72,20 @@ public class ErrorReportingParseRunner<V> extends AbstractParseRunner<V> impleme
         resetValueStack();        
         failedMatchers.clear();
         seeking = errorIndex > 0;
-
-        // run without fast string matching to properly get to the error location
-        MatcherContext<V> rootContext = createRootContext(inputBuffer, this, false);
-        boolean matched = match(rootContext);
-        if (!matched) {
-            getParseErrors().add(new InvalidInputError(inputBuffer, errorIndex, failedMatchers, null));
+        boolean budgetStarted = startRun();
+        try {
+            // run without fast string matching to properly get to the error location
+            MatcherContext<V> rootContext = createRootContext(inputBuffer, this, false);
+            boolean matched = rootContext.runMatcher();
+            if (!matched) {
+                getParseErrors().add(new InvalidInputError(inputBuffer, errorIndex, failedMatchers, null));
+            }
+            return createParsingResult(matched, rootContext);
+        } catch (ParseBudget.ExceededException e) {
+            return createBudgetExceededResult(e, budgetStarted, inputBuffer);
+        } finally {
+            finishRun();
         }
-        return createParsingResult(matched, rootContext);
     }
 
     public boolean match(MatcherContext<?> context) {
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.MatchHandler;
+import org.parboiled.MatcherContext;
+import org.parboiled.Rule;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.errors.InvalidInputError;
+import org.parboiled.matchers.TestNotMatcher;
+import org.parboiled.matchervisitors.IsSingleCharMatcherVisitor;
+import org.parboiled.support.MatcherPath;
+import org.parboiled.support.ParsingResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+
+/**
+ * A {@link org.parboiled.parserunners.ParseRunner} implementation that combines the {@link ErrorLocatingParseRunner}
+ * and the {@link ErrorReportingParseRunner} into a single parsing run. While parsing it keeps track of the error
+ * location (the furthest index reached outside of TestNot rules) and the single character matchers failing there,
+ * so that the {@link org.parboiled.errors.InvalidInputError} for an invalid input can be created without re-parsing.
+ * The bookkeeping only kicks in for matchers at the current error location.
+ * It is rarely used directly, instead its functionality is relied upon by the {@link ReportingParseRunner}.
+ */
+public class ErrorTrackingParseRunner<V> extends AbstractParseRunner<V> implements MatchHandler {
+    private final IsSingleCharMatcherVisitor isSingleCharMatcherVisitor = new IsSingleCharMatcherVisitor();
+    private final MatchHandler inner;
+    private int errorIndex;
+    private List<MatcherPath> failedMatchers;
+
+    // the failed matchers at indices beyond the error index that have so far only been reached underneath TestNots
+    private final TreeMap<Integer, List<MatcherPath>> testNotFringes = new TreeMap<Integer, List<MatcherPath>>();
+
+    /**
+     * Creates a new ErrorTrackingParseRunner instance for the given rule.
+     *
+     * @param rule the parser rule
+     */
+    public ErrorTrackingParseRunner(Rule rule) {
+        this(rule, null);
+    }
+
+    /**
+     * Creates a new ErrorTrackingParseRunner instance for the given rule.
+     * The given MatchHandler is used as a delegate for the actual match handling.
+     *
+     * @param rule  the parser rule
+     * @param inner another MatchHandler to delegate the actual match handling to, can be null
+     */
+    public ErrorTrackingParseRunner(Rule rule, MatchHandler inner) {
+        super(rule);
+        this.inner = inner;
+    }
+
+    public ParsingResult<V> run(InputBuffer inputBuffer) {
+        checkArgNotNull(inputBuffer, "inputBuffer");
+        resetValueStack();
+        errorIndex = 0;
+        failedMatchers = new ArrayList<MatcherPath>();
+        testNotFringes.clear();
+        boolean budgetStarted = startRun();
+        try {
+            // run without fast string matching to properly get the error location
+            MatcherContext<V> rootContext = createRootContext(inputBuffer, this, false);
+            boolean matched = match(rootContext);
+            if (!matched) {
+                getParseErrors().add(new InvalidInputError(inputBuffer, errorIndex, failedMatchers, null));
+            }
+            return createParsingResult(matched, rootContext);
+        } catch (ParseBudget.ExceededException e) {
+            return createBudgetExceededResult(e, budgetStarted, inputBuffer);
+        } finally {
+            finishRun();
+        }
+    }
+
+    /**
+     * @return the error index determined by the last run
+     */
+    public int getErrorIndex() {
+        return errorIndex;
+    }
+
+    public boolean match(MatcherContext<?> context) {
+        boolean matched = inner == null && context.getMatcher().match(context) || inner != null && inner.match(context);
+        int index = context.getCurrentIndex();
+        if (index < errorIndex) return matched; // the quick exit for everything behind the fringe
+
+        if (matched) {
+            if (index > errorIndex) {
+                if (notTestNot(context)) {
+                    advanceErrorIndex(index);
+                } else if (!testNotFringes.containsKey(index)) {
+                    // the ErrorReportingParseRunner starts collecting with the first match reaching the error index
+                    testNotFringes.put(index, new ArrayList<MatcherPath>());
+                }
+            }
+        } else if (context.getMatcher().accept(isSingleCharMatcherVisitor)) {
+            List<MatcherPath> paths = index == errorIndex ? failedMatchers : testNotFringes.get(index);
+            if (paths != null) paths.add(context.getPath());
+        }
+        return matched;
+    }
+
+    private void advanceErrorIndex(int index) {
+        errorIndex = index;
+        List<MatcherPath> paths = testNotFringes.remove(index);
+        failedMatchers = paths != null ? paths : new ArrayList<MatcherPath>();
+        Map<Integer, List<MatcherPath>> passed = testNotFringes.headMap(index);
+        if (!passed.isEmpty()) passed.clear();
+    }
+
+    private boolean notTestNot(MatcherContext context) {
+        return !(context.getMatcher() instanceof TestNotMatcher) &&
+                (context.getParent() == null || notTestNot(context.getParent()));
+    }
+}
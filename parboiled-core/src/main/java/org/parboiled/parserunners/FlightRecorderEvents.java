@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.MatchHandler;
+import org.parboiled.MatcherContext;
+import org.parboiled.buffers.InputBuffer;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>The Java Flight Recorder events emitted by the parse runners:</p>
+ * <ul>
+ * <li>{@link #PARSE_RUN}: one event per parsing run (of the outermost runner, if runners are nested), with the
+ * runner type, the input length, whether the input matched and the number of parse errors</li>
+ * <li>{@link #RECOVERY_ATTEMPT}: one event per error recovery attempt of a {@link RecoveringParseRunner}, with the
+ * index of the error and whether the input is error free after the recovery</li>
+ * <li>{@link #SLOW_RULE}: one event per rule invocation taking longer than the event threshold (10 ms by default),
+ * with the rule label, the input index and whether the rule matched. Since timing all rule invocations is not
+ * free this event is disabled by default and has to be enabled in the recording settings.</li>
+ * </ul>
+ * <p>The events are defined at runtime via the {@code jdk.jfr} API, so parboiled does not depend on it. On JVMs
+ * without JFR, or as long as no recording is running, emitting the events boils down to a check of a flag.</p>
+ */
+public final class FlightRecorderEvents {
+
+    public static final String PARSE_RUN = "org.parboiled.ParseRun";
+    public static final String RECOVERY_ATTEMPT = "org.parboiled.RecoveryAttempt";
+    public static final String SLOW_RULE = "org.parboiled.SlowRule";
+
+    // the handles for the jdk.jfr.Event methods, all null if JFR is not available
+    private static final MethodHandle BEGIN;
+    private static final MethodHandle END;
+    private static final MethodHandle SHOULD_COMMIT;
+    private static final MethodHandle SET;
+    private static final MethodHandle COMMIT;
+
+    static final EventKind parseRun;
+    static final EventKind recoveryAttempt;
+    static final EventKind slowRule;
+
+    static {
+        MethodHandle begin = null, end = null, shouldCommit = null, set = null, commit = null;
+        EventKind run = EventKind.DISABLED, recovery = EventKind.DISABLED, slow = EventKind.DISABLED;
+        try {
+            Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            MethodType voidType = MethodType.methodType(void.class, Object.class);
+            begin = lookup.findVirtual(eventClass, "begin", MethodType.methodType(void.class)).asType(voidType);
+            end = lookup.findVirtual(eventClass, "end", MethodType.methodType(void.class)).asType(voidType);
+            commit = lookup.findVirtual(eventClass, "commit", MethodType.methodType(void.class)).asType(voidType);
+            shouldCommit = lookup.findVirtual(eventClass, "shouldCommit", MethodType.methodType(boolean.class))
+                    .asType(MethodType.methodType(boolean.class, Object.class));
+            set = lookup.findVirtual(eventClass, "set", MethodType.methodType(void.class, int.class, Object.class))
+                    .asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+
+            run = EventKind.define(PARSE_RUN, "Parse Run", "A parsing run of a parboiled ParseRunner", true, null,
+                    String.class, "runner", "Runner",
+                    int.class, "inputLength", "Input Length",
+                    boolean.class, "matched", "Matched",
+                    int.class, "errorCount", "Error Count");
+            recovery = EventKind.define(RECOVERY_ATTEMPT, "Recovery Attempt",
+                    "An error recovery attempt of a parboiled RecoveringParseRunner", true, null,
+                    int.class, "errorIndex", "Error Index",
+                    boolean.class, "errorFree", "Error Free");
+            slow = EventKind.define(SLOW_RULE, "Slow Rule", "A parboiled rule invocation exceeding the threshold",
+                    false, "10 ms",
+                    String.class, "rule", "Rule",
+                    int.class, "inputIndex", "Input Index",
+                    boolean.class, "matched", "Matched");
+        } catch (Throwable e) {
+            // JFR is not available (or not accessible), so all events stay disabled
+            begin = end = shouldCommit = set = commit = null;
+            run = recovery = slow = EventKind.DISABLED;
+        }
+        BEGIN = begin;
+        END = end;
+        SHOULD_COMMIT = shouldCommit;
+        SET = set;
+        COMMIT = commit;
+        parseRun = run;
+        recoveryAttempt = recovery;
+        slowRule = slow;
+    }
+
+    private FlightRecorderEvents() {}
+
+    /**
+     * A dynamically defined JFR event type.
+     */
+    static final class EventKind {
+        static final EventKind DISABLED = new EventKind(null, null);
+
+        private final MethodHandle isEnabled; // ()boolean, bound to the jdk.jfr.EventType
+        private final MethodHandle newEvent; // ()Object, bound to the jdk.jfr.EventFactory
+
+        private EventKind(MethodHandle isEnabled, MethodHandle newEvent) {
+            this.isEnabled = isEnabled;
+            this.newEvent = newEvent;
+        }
+
+        // defines an event type with fields given as (type, name, label) triples
+        private static EventKind define(String name, String label, String description, boolean enabled,
+                                        String threshold, Object... fields) throws Throwable {
+            Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+            Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+
+            List<Object> annotations = new ArrayList<Object>();
+            annotations.add(annotation("Name", name));
+            annotations.add(annotation("Label", label));
+            annotations.add(annotation("Description", description));
+            annotations.add(annotation("Category", new String[] {"Parboiled"}));
+            annotations.add(annotation("Enabled", enabled));
+            annotations.add(annotation("StackTrace", false));
+            if (threshold != null) annotations.add(annotation("Threshold", threshold));
+
+            List<Object> descriptors = new ArrayList<Object>();
+            for (int i = 0; i < fields.length; i += 3) {
+                List<Object> fieldAnnotations = Collections.singletonList(annotation("Label", fields[i + 2]));
+                descriptors.add(valueDescriptorClass.getConstructor(Class.class, String.class, List.class)
+                        .newInstance(fields[i], fields[i + 1], fieldAnnotations));
+            }
+
+            Object factory = factoryClass.getMethod("create", List.class, List.class)
+                    .invoke(null, annotations, descriptors);
+            Object eventType = factoryClass.getMethod("getEventType").invoke(factory);
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            MethodHandle isEnabled = lookup.findVirtual(Class.forName("jdk.jfr.EventType"), "isEnabled",
+                    MethodType.methodType(boolean.class)).bindTo(eventType);
+            MethodHandle newEvent = lookup.findVirtual(factoryClass, "newEvent",
+                    MethodType.methodType(Class.forName("jdk.jfr.Event"))).bindTo(factory)
+                    .asType(MethodType.methodType(Object.class));
+            return new EventKind(isEnabled, newEvent);
+        }
+
+        private static Object annotation(String type, Object value) throws Exception {
+            Class<?> annotationClass = Class.forName("jdk.jfr." + type);
+            return Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class)
+                    .newInstance(annotationClass, value);
+        }
+
+        /**
+         * @return true if events of this type are currently being recorded
+         */
+        boolean isEnabled() {
+            if (isEnabled == null) return false;
+            try {
+                return (boolean) isEnabled.invokeExact();
+            } catch (Throwable e) {
+                return false;
+            }
+        }
+
+        /**
+         * Creates and begins a new event, if events of this type are currently being recorded.
+         *
+         * @return the event or null
+         */
+        Object begin() {
+            if (!isEnabled()) return null;
+            try {
+                Object event = (Object) newEvent.invokeExact();
+                BEGIN.invokeExact(event);
+                return event;
+            } catch (Throwable e) {
+                return null;
+            }
+        }
+
+        /**
+         * Ends the given event.
+         *
+         * @param event the event returned by {@link #begin()}, may be null
+         * @return true if the event should be committed, i.e. it passes the threshold of the event type
+         */
+        boolean end(Object event) {
+            if (event == null) return false;
+            try {
+                END.invokeExact(event);
+                return (boolean) SHOULD_COMMIT.invokeExact(event);
+            } catch (Throwable e) {
+                return false;
+            }
+        }
+
+        /**
+         * Commits the given ended event with the given field values.
+         *
+         * @param event  the event
+         * @param values the field values, in the order of the field definitions
+         */
+        void commit(Object event, Object... values) {
+            try {
+                for (int i = 0; i < values.length; i++) {
+                    SET.invokeExact(event, i, values[i]);
+                }
+                COMMIT.invokeExact(event);
+            } catch (Throwable e) {
+                // recording the event failed, which must not affect the parsing run
+            }
+        }
+    }
+
+    /**
+     * Wraps the MatchHandler of a parsing pass with one emitting {@link #SLOW_RULE} events, if these are currently
+     * being recorded.
+     */
+    static final MatchInterceptor slowRuleEvents = new MatchInterceptor() {
+        public MatchHandler intercept(InputBuffer inputBuffer, MatchHandler next) {
+            return slowRule.isEnabled() ? new SlowRuleHandler(next) : next;
+        }
+    };
+
+    private static class SlowRuleHandler implements MatchHandler {
+        private final MatchHandler inner;
+
+        private SlowRuleHandler(MatchHandler inner) {
+            this.inner = inner;
+        }
+
+        public boolean match(MatcherContext<?> context) {
+            Object event = slowRule.begin();
+            boolean matched = inner.match(context);
+            if (slowRule.end(event)) {
+                slowRule.commit(event, context.getMatcher().getLabel(), context.getStartIndex(), matched);
+            }
+            return matched;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.MatchHandler;
+import org.parboiled.MatcherContext;
+import org.parboiled.Rule;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.errors.GrammarException;
+import org.parboiled.matchers.*;
+import org.parboiled.support.ParsingResult;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+
+/**
+ * <p>A {@link ParseRunner} producing the same results as the {@link BasicParseRunner} without using the Java call
+ * stack for the nesting of rules. The standard matchers match their sub rules by recursively running sub contexts,
+ * so deeply nested input (e.g. thousands of nested parentheses) can overflow the thread stack.
+ * This runner instead drives all sequences, choices, repetitions, optionals and syntactic predicates itself as
+ * a state machine, keeping the matching state of every rule level in heap allocated arrays.</p>
+ * <p>All other matchers (single characters, strings, actions and custom matchers) are run directly, with the
+ * same {@link MatcherContext}s the {@link BasicParseRunner} uses, so actions see exactly the same context.</p>
+ * <p>{@link MatchInterceptor}s (including the JFR slow rule events of {@link FlightRecorderEvents}) see each rule
+ * invocation as one call of their handler, which the state machine cannot provide. So whenever interceptors are
+ * active for a parsing pass all rules are run through them and matched recursively, like with the
+ * {@link BasicParseRunner}, and the nesting depth is again limited by the thread stack.</p>
+ */
+public class IterativeParseRunner<V> extends AbstractParseRunner<V> implements MatchHandler {
+
+    // the frame kinds
+    private static final int SEQUENCE = 0;
+    private static final int FIRST_OF = 1;
+    private static final int OPTIONAL = 2;
+    private static final int ZERO_OR_MORE = 3;
+    private static final int ONE_OR_MORE = 4;
+    private static final int TEST = 5;
+    private static final int TEST_NOT = 6;
+
+    // the frames of the currently active rules, indexed by their context level
+    private MatcherContext[] contexts = new MatcherContext[64];
+    private List[] children = new List[64];
+    private int[] kinds = new int[64];
+    private int[] steps = new int[64];
+    private int[] marks = new int[64];
+    private Object[] snapshots = new Object[64];
+
+    /**
+     * Creates a new IterativeParseRunner instance for the given rule.
+     *
+     * @param rule the parser rule
+     */
+    public IterativeParseRunner(Rule rule) {
+        super(rule);
+    }
+
+    public ParsingResult<V> run(InputBuffer inputBuffer) {
+        checkArgNotNull(inputBuffer, "inputBuffer");
+        resetValueStack();
+        boolean budgetStarted = startRun();
+        try {
+            MatcherContext<V> rootContext = createRootContext(inputBuffer, this, true);
+            // the interceptors wrap this runner, which then matches every rule directly, handing its sub rules
+            // back to the interceptors
+            boolean matched = rootContext.getMatchHandler() != this ? rootContext.runMatcher() :
+                    runIteratively(rootContext);
+            return createParsingResult(matched, rootContext);
+        } catch (ParseBudget.ExceededException e) {
+            return createBudgetExceededResult(e, budgetStarted, inputBuffer);
+        } finally {
+            finishRun();
+        }
+    }
+
+    // used for all matchers not run by the state machine, and for all matchers if interceptors are active
+    public boolean match(MatcherContext<?> context) {
+        return context.getMatcher().match(context);
+    }
+
+    // the equivalent of rootContext.runMatcher()
+    @SuppressWarnings({"unchecked"})
+    private boolean runIteratively(MatcherContext<V> rootContext) {
+        int top = -1;
+        MatcherContext context = rootContext; // the context whose matcher is currently being run
+        boolean matched;
+        try {
+            context.enterMatcher();
+            while (true) {
+                // start the matcher of the context
+                int kind = startFrame(context);
+                if (kind < 0) {
+                    matched = context.exitMatcher(match(context));
+                } else if (kind == Integer.MAX_VALUE) {
+                    matched = context.exitMatcher(false); // a memoized mismatch
+                } else {
+                    int level = context.getLevel();
+                    if (level >= contexts.length) grow();
+                    contexts[level] = context;
+                    kinds[level] = kind;
+                    top = level;
+                    MatcherContext sub = firstChild(context, level);
+                    if (sub != null) {
+                        context = sub;
+                        context.enterMatcher();
+                        continue;
+                    }
+                    matched = finishFrame(context, top--);
+                }
+
+                // hand the result up to the enclosing frames until one of them has another sub rule to run
+                while (true) {
+                    if (top < rootContext.getLevel()) return matched;
+                    context = contexts[top];
+                    MatcherContext sub = nextChild(context, top, matched);
+                    if (sub != null) {
+                        context = sub;
+                        context.enterMatcher();
+                        break;
+                    }
+                    matched = finishFrame(context, top--);
+                }
+            }
+        } catch (Throwable e) {
+            throw context.wrapException(e);
+        } finally {
+            int levels = Math.max(top + 1, 0);
+            Arrays.fill(contexts, 0, levels, null);
+            Arrays.fill(children, 0, levels, null);
+            Arrays.fill(snapshots, 0, levels, null);
+        }
+    }
+
+    // returns the frame kind for the matcher of the given context, -1 for matchers that are run directly and
+    // Integer.MAX_VALUE for a memoized mismatch
+    private static int startFrame(MatcherContext context) {
+        Matcher matcher = context.getMatcher();
+        Matcher core = unwrapAll(matcher);
+        int kind = kindOf(core);
+        if (kind < 0 || matcher == core) return kind;
+
+        boolean memoing = false;
+        for (Matcher m = matcher; m != core; m = unwrapOnce(m)) {
+            if (m instanceof MemoMismatchesMatcher) memoing = true;
+        }
+        if (memoing && context.hasMismatched()) return Integer.MAX_VALUE;
+        for (Matcher m = matcher; m != core; m = unwrapOnce(m)) {
+            if (m instanceof VarFramingMatcher) ((VarFramingMatcher) m).enterFrames();
+        }
+        return kind;
+    }
+
+    // subclasses like the StringMatcher have their own matching logic and are therefore run directly
+    private static int kindOf(Matcher matcher) {
+        Class<?> clazz = matcher.getClass();
+        if (clazz == SequenceMatcher.class) return SEQUENCE;
+        if (clazz == FirstOfMatcher.class) return FIRST_OF;
+        if (clazz == OptionalMatcher.class) return OPTIONAL;
+        if (clazz == ZeroOrMoreMatcher.class) return ZERO_OR_MORE;
+        if (clazz == OneOrMoreMatcher.class) return ONE_OR_MORE;
+        if (clazz == TestMatcher.class) return TEST;
+        if (clazz == TestNotMatcher.class) return TEST_NOT;
+        return -1;
+    }
+
+    private static Matcher unwrapOnce(Matcher matcher) {
+        if (matcher instanceof MemoMismatchesMatcher) return MemoMismatchesMatcher.unwrap(matcher);
+        if (matcher instanceof VarFramingMatcher) return ((VarFramingMatcher) matcher).getInner();
+        return ProxyMatcher.unwrap(matcher);
+    }
+
+    private static Matcher unwrapAll(Matcher matcher) {
+        Matcher unwrapped = unwrapOnce(matcher);
+        return unwrapped == matcher ? matcher : unwrapAll(unwrapped);
+    }
+
+    // initializes the frame at the given level and returns the context for its first sub rule,
+    // or null if the frame is already complete
+    @SuppressWarnings({"unchecked"})
+    private MatcherContext firstChild(MatcherContext context, int level) {
+        List<Matcher> subMatchers = unwrapAll(context.getMatcher()).getChildren();
+        children[level] = subMatchers;
+        steps[level] = 0;
+        switch (kinds[level]) {
+            case SEQUENCE:
+                snapshots[level] = context.getValueStack().takeSnapshot();
+                if (subMatchers.isEmpty()) {
+                    context.createNode();
+                    return complete(level, true);
+                }
+                context.setIntTag(0);
+                break;
+            case FIRST_OF:
+                if (subMatchers.isEmpty()) return complete(level, false);
+                break;
+            case ZERO_OR_MORE:
+                marks[level] = context.getCurrentIndex();
+                break;
+            case TEST:
+            case TEST_NOT:
+                marks[level] = context.getCurrentIndex();
+                snapshots[level] = context.getValueStack().takeSnapshot();
+                break;
+        }
+        return subMatchers.get(0).getSubContext(context);
+    }
+
+    // processes the result of the last sub rule of the frame at the given level and returns the context for the
+    // next sub rule to run, or null if the frame is complete, in which case its step encodes the result
+    // (0 for a match, 1 for a mismatch)
+    @SuppressWarnings({"unchecked"})
+    private MatcherContext nextChild(MatcherContext context, int level, boolean matched) {
+        List<Matcher> subMatchers = children[level];
+        int step = steps[level];
+        switch (kinds[level]) {
+            case SEQUENCE:
+                if (!matched) {
+                    // rule failed, so invalidate all stack actions the rule might have done
+                    context.getValueStack().restoreSnapshot(snapshots[level]);
+                    return complete(level, false);
+                }
+                if (++step == subMatchers.size()) {
+                    context.createNode();
+                    return complete(level, true);
+                }
+                steps[level] = step;
+                context.setIntTag(step);
+                return subMatchers.get(step).getSubContext(context);
+
+            case FIRST_OF:
+                if (matched) {
+                    context.createNode();
+                    return complete(level, true);
+                }
+                if (++step == subMatchers.size()) return complete(level, false);
+                steps[level] = step;
+                return subMatchers.get(step).getSubContext(context);
+
+            case OPTIONAL:
+                context.createNode();
+                return complete(level, true);
+
+            case ONE_OR_MORE:
+                if (step == 0) {
+                    if (!matched) return complete(level, false);
+                    steps[level] = 1;
+                    marks[level] = context.getCurrentIndex();
+                    return subMatchers.get(0).getSubContext(context);
+                }
+                // fall through
+            case ZERO_OR_MORE:
+                if (!matched) {
+                    context.createNode();
+                    return complete(level, true);
+                }
+                int currentIndex = context.getCurrentIndex();
+                if (currentIndex == marks[level]) {
+                    throw new GrammarException("The inner rule of %s rule '%s' must not allow empty matches",
+                            kinds[level] == ZERO_OR_MORE ? "ZeroOrMore" : "OneOrMore", context.getPath());
+                }
+                marks[level] = currentIndex;
+                return subMatchers.get(0).getSubContext(context);
+
+            case TEST:
+            case TEST_NOT:
+                if (matched != (kinds[level] == TEST)) return complete(level, false);
+                // reset location, Test matchers never advance
+                context.setCurrentIndex(marks[level]);
+                // erase all value stack changes the the submatcher could have made
+                context.getValueStack().restoreSnapshot(snapshots[level]);
+                return complete(level, true);
+
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private MatcherContext complete(int level, boolean matched) {
+        steps[level] = matched ? 0 : 1;
+        return null;
+    }
+
+    // finishes the completed frame at the given level the way the wrapping matchers and runMatcher() do
+    private boolean finishFrame(MatcherContext context, int level) {
+        boolean failed = steps[level] != 0;
+        Matcher matcher = context.getMatcher();
+        boolean memoing = false;
+        for (Matcher m = matcher, core = unwrapAll(matcher); m != core; m = unwrapOnce(m)) {
+            if (m instanceof VarFramingMatcher) ((VarFramingMatcher) m).exitFrames();
+            else if (m instanceof MemoMismatchesMatcher) memoing = true;
+        }
+        if (failed && memoing) context.memoizeMismatch();
+        contexts[level] = null;
+        children[level] = null;
+        snapshots[level] = null;
+        return context.exitMatcher(!failed);
+    }
+
+    private void grow() {
+        int length = contexts.length * 2;
+        contexts = Arrays.copyOf(contexts, length);
+        children = Arrays.copyOf(children, length);
+        kinds = Arrays.copyOf(kinds, length);
+        steps = Arrays.copyOf(steps, length);
+        marks = Arrays.copyOf(marks, length);
+        snapshots = Arrays.copyOf(snapshots, length);
+    }
+}
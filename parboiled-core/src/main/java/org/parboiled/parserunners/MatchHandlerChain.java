@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.MatchHandler;
+import org.parboiled.MatcherContext;
+import org.parboiled.buffers.InputBuffer;
+
+import java.util.Arrays;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+
+/**
+ * <p>An immutable list of {@link MatchInterceptor}s, which is assembled into a single {@link MatchHandler} at the
+ * start of each parsing pass. The first interceptor of the chain sees a rule invocation first, the handler of the
+ * parse runner itself last.</p>
+ * <p>Since every interceptor wraps the handler created by the next one the assembled handler does not iterate over
+ * the chain for each rule invocation, and interceptors disabling themselves for a pass do not appear in it at
+ * all.</p>
+ */
+public final class MatchHandlerChain {
+
+    /**
+     * The chain without any interceptors.
+     */
+    public static final MatchHandlerChain EMPTY = new MatchHandlerChain(new MatchInterceptor[0]);
+
+    /**
+     * The MatchHandler simply running the matcher of the context.
+     */
+    public static final MatchHandler DIRECT = new MatchHandler() {
+        public boolean match(MatcherContext<?> context) {
+            return context.getMatcher().match(context);
+        }
+    };
+
+    private final MatchInterceptor[] interceptors;
+
+    private MatchHandlerChain(MatchInterceptor[] interceptors) {
+        this.interceptors = interceptors;
+    }
+
+    /**
+     * @param interceptor the interceptor to append
+     * @return a new chain consisting of the interceptors of this chain and the given one
+     */
+    public MatchHandlerChain with(MatchInterceptor interceptor) {
+        checkArgNotNull(interceptor, "interceptor");
+        MatchInterceptor[] newInterceptors = Arrays.copyOf(interceptors, interceptors.length + 1);
+        newInterceptors[interceptors.length] = interceptor;
+        return new MatchHandlerChain(newInterceptors);
+    }
+
+    public boolean isEmpty() {
+        return interceptors.length == 0;
+    }
+
+    /**
+     * Assembles the MatchHandler for a new parsing pass.
+     *
+     * @param inputBuffer the input buffer of the parsing pass
+     * @param handler     the handler of the parse runner, running the actual match
+     * @return the handler to use for the parsing pass
+     */
+    public MatchHandler assemble(InputBuffer inputBuffer, MatchHandler handler) {
+        checkArgNotNull(handler, "handler");
+        for (int i = interceptors.length - 1; i >= 0; i--) {
+            handler = interceptors[i].intercept(inputBuffer, handler);
+        }
+        return handler;
+    }
+}
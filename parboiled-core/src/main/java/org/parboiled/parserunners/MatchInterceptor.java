@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.MatchHandler;
+import org.parboiled.buffers.InputBuffer;
+
+/**
+ * <p>Adds some instrumentation (profiling, tracing, etc.) to the rule invocations of a parse runner. Interceptors are
+ * attached to a runner with {@link AbstractParseRunner#withMatchInterceptor(MatchInterceptor)} and apply to all
+ * runners the runner delegates parsing passes to, so e.g. a {@link RecoveringParseRunner} can be profiled with a
+ * {@link ProfilingParseRunner} in sampling mode.</p>
+ * <p>An interceptor does not receive the rule invocations itself. Instead it creates, once per parsing pass, a
+ * {@link MatchHandler} wrapping the next handler of the {@link MatchHandlerChain}, so an invocation only costs one
+ * direct call per enabled interceptor.</p>
+ */
+public interface MatchInterceptor {
+
+    /**
+     * Creates the MatchHandler intercepting the rule invocations of a new parsing pass.
+     *
+     * @param inputBuffer the input buffer of the parsing pass
+     * @param next        the handler to delegate the actual match handling to
+     * @return a MatchHandler delegating to the given one, or the given one itself if this interceptor is disabled
+     */
+    MatchHandler intercept(InputBuffer inputBuffer, MatchHandler next);
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.MatcherContext;
+import org.parboiled.errors.ParseCancelledException;
+import org.parboiled.errors.ParserRuntimeException;
+
+import static org.parboiled.common.Preconditions.checkArgument;
+
+/**
+ * <p>Limits the resources a parsing run may consume: the number of matcher invocations, the wall-clock time and the
+ * distance the parser may backtrack behind the furthest input index it has reached.</p>
+ * <p>A ParseBudget is attached to a parse runner with {@link AbstractParseRunner#withParseBudget(ParseBudget)}.
+ * If one of its limits is exceeded the runner aborts the parsing run and returns an unmatched
+ * {@link org.parboiled.support.ParsingResult} whose last parse error is a
+ * {@link org.parboiled.errors.ParseBudgetExceededError} describing the exceeded limit and the furthest input index
+ * reached. Runners delegating to other runners (like the {@link ReportingParseRunner}) share their budget with them,
+ * so the limits apply to the complete run. Additionally a ParseBudget can carry a {@link CancellationToken}.</p>
+ * <p>The limits are checked once per matcher invocation with a few counter operations, the clock and the
+ * cancellation token are only polled every 1024 invocations. Since a ParseBudget keeps track of the consumption of
+ * the parsing run it is currently used in, an instance must not be shared between parse runners running
+ * concurrently.</p>
+ */
+public class ParseBudget {
+
+    /**
+     * The limits a ParseBudget can impose.
+     */
+    public enum Limit {
+        MATCHER_INVOCATIONS, DEADLINE, BACKTRACK_DISTANCE
+    }
+
+    private static final int CLOCK_CHECK_MASK = 1023;
+
+    private long maxMatcherInvocations = Long.MAX_VALUE;
+    private long timeoutNanos = -1;
+    private int maxBacktrackDistance = Integer.MAX_VALUE;
+    private CancellationToken cancellationToken;
+
+    private int activeRuns;
+    private long matcherInvocations;
+    private long deadline;
+    private int furthestIndex;
+    private int runFurthestIndex;
+
+    /**
+     * Limits the number of matcher invocations of a parsing run.
+     *
+     * @param maxMatcherInvocations the maximum number of matcher invocations
+     * @return this instance
+     */
+    public ParseBudget withMaxMatcherInvocations(long maxMatcherInvocations) {
+        checkArgument(maxMatcherInvocations >= 0, "maxMatcherInvocations must not be negative");
+        this.maxMatcherInvocations = maxMatcherInvocations;
+        return this;
+    }
+
+    /**
+     * Limits the wall-clock time of a parsing run. The deadline is determined when the run starts.
+     *
+     * @param timeout the maximum duration of a parsing run in milliseconds
+     * @return this instance
+     */
+    public ParseBudget withTimeout(long timeout) {
+        checkArgument(timeout >= 0, "timeout must not be negative");
+        this.timeoutNanos = timeout * 1000000L;
+        return this;
+    }
+
+    /**
+     * Limits how far the parser may backtrack behind the furthest input index it has reached in the current
+     * pass over the input.
+     *
+     * @param maxBacktrackDistance the maximum number of characters to backtrack
+     * @return this instance
+     */
+    public ParseBudget withMaxBacktrackDistance(int maxBacktrackDistance) {
+        checkArgument(maxBacktrackDistance >= 0, "maxBacktrackDistance must not be negative");
+        this.maxBacktrackDistance = maxBacktrackDistance;
+        return this;
+    }
+
+    /**
+     * Makes parsing runs abort with a {@link ParseCancelledException} once the given token is cancelled.
+     *
+     * @param cancellationToken the token to poll, null for none
+     * @return this instance
+     */
+    public ParseBudget withCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+        return this;
+    }
+
+    /**
+     * @return a new ParseBudget with the limits and the cancellation token of this one, but without its consumption
+     */
+    ParseBudget copyLimits() {
+        ParseBudget copy = new ParseBudget();
+        copy.maxMatcherInvocations = maxMatcherInvocations;
+        copy.timeoutNanos = timeoutNanos;
+        copy.maxBacktrackDistance = maxBacktrackDistance;
+        copy.cancellationToken = cancellationToken;
+        return copy;
+    }
+
+    /**
+     * Creates a budget for a sub-run executing concurrently with other sub-runs of the current parsing run, limited to
+     * what is left of this budget. Its consumption is accounted for with {@link #join(ParseBudget)} once it is done.
+     *
+     * @return a new, already started ParseBudget
+     */
+    ParseBudget fork() {
+        ParseBudget fork = copyLimits();
+        fork.maxMatcherInvocations = Math.max(maxMatcherInvocations - matcherInvocations, 0);
+        fork.activeRuns = 1;
+        fork.deadline = deadline;
+        return fork;
+    }
+
+    /**
+     * Adds the consumption of the given budget, created with {@link #fork()}, to the current parsing run.
+     *
+     * @param fork the forked budget, which must no longer be in use
+     */
+    void join(ParseBudget fork) {
+        matcherInvocations += fork.matcherInvocations;
+        if (fork.furthestIndex > furthestIndex) furthestIndex = fork.furthestIndex;
+    }
+
+    public long getMaxMatcherInvocations() {
+        return maxMatcherInvocations;
+    }
+
+    /**
+     * @return the timeout in milliseconds or -1 if no timeout has been set
+     */
+    public long getTimeout() {
+        return timeoutNanos < 0 ? -1 : timeoutNanos / 1000000L;
+    }
+
+    public int getMaxBacktrackDistance() {
+        return maxBacktrackDistance;
+    }
+
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    /**
+     * @return the number of matcher invocations of the current or last parsing run
+     */
+    public long getMatcherInvocations() {
+        return matcherInvocations;
+    }
+
+    /**
+     * @return the furthest input index reached by the current or last parsing run
+     */
+    public int getFurthestIndex() {
+        return furthestIndex;
+    }
+
+    /**
+     * Starts a new parsing run, unless a run is already in progress, i.e. the caller is a runner that was delegated
+     * to by another runner using this budget.
+     *
+     * @return true if a new run was started
+     */
+    boolean start() {
+        if (activeRuns++ > 0) return false;
+        matcherInvocations = 0;
+        furthestIndex = 0;
+        runFurthestIndex = 0;
+        if (timeoutNanos >= 0) {
+            long now = System.nanoTime();
+            deadline = now + Math.min(timeoutNanos, Long.MAX_VALUE - now);
+        }
+        return true;
+    }
+
+    void finish() {
+        activeRuns--;
+    }
+
+    // called for every root context, since runners like the RecoveringParseRunner pass over the input several times
+    void startPass() {
+        runFurthestIndex = 0;
+    }
+
+    /**
+     * Accounts for the invocation of the matcher of the given context.
+     * Called by the {@link MatcherContext} before running its matcher.
+     *
+     * @param context the context whose matcher is about to run
+     * @throws ExceededException if one of the limits was exceeded
+     * @throws ParseCancelledException if the cancellation token was cancelled
+     */
+    public void check(MatcherContext<?> context) {
+        int index = context.getCurrentIndex();
+        if (index > runFurthestIndex) {
+            runFurthestIndex = index;
+            if (index > furthestIndex) furthestIndex = index;
+        } else if (runFurthestIndex - index > maxBacktrackDistance) {
+            throw new ExceededException(Limit.BACKTRACK_DISTANCE);
+        }
+        if (++matcherInvocations > maxMatcherInvocations) {
+            throw new ExceededException(Limit.MATCHER_INVOCATIONS);
+        }
+        if ((matcherInvocations & CLOCK_CHECK_MASK) == 0) {
+            if (timeoutNanos >= 0 && System.nanoTime() - deadline > 0) {
+                throw new ExceededException(Limit.DEADLINE);
+            }
+            if (cancellationToken != null && cancellationToken.isCancelled()) {
+                throw new ParseCancelledException(furthestIndex);
+            }
+        }
+    }
+
+    /**
+     * Thrown from within the parsing run if a limit of the ParseBudget is exceeded.
+     * The parse runner owning the budget turns it into a {@link org.parboiled.errors.ParseBudgetExceededError}.
+     */
+    public static class ExceededException extends ParserRuntimeException {
+        private final Limit limit;
+
+        public ExceededException(Limit limit) {
+            super("Parse budget exceeded: " + limit);
+            this.limit = limit;
+        }
+
+        public Limit getLimit() {
+            return limit;
+        }
+    }
+}
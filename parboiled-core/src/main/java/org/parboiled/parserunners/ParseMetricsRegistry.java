@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.buffers.InputBufferUtils;
+import org.parboiled.errors.ParseError;
+import org.parboiled.common.StringUtils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+import static org.parboiled.common.Preconditions.checkArgument;
+
+/**
+ * <p>A thread-safe registry aggregating metrics of the parsing runs of any number of {@link ParseRunner}s on any
+ * number of threads: the number of runs, failed runs (runs not matching or producing parse errors), runs exceeding
+ * their {@link ParseBudget}, error recovery attempts, the input characters parsed and a histogram of the run
+ * latencies. {@link ProfilingParseRunner}s additionally report the time spent in the individual rules.</p>
+ * <p>A registry is either attached to a single runner with {@link AbstractParseRunner#withMetricsRegistry} or
+ * installed process-wide with {@link #install(ParseMetricsRegistry)}, in which case all runners report into it.
+ * Only the outermost run of nested runners (like the runs a {@link ReportingParseRunner} performs internally) is
+ * counted.</p>
+ * <p>All counters are striped across threads, so recording a run does not contend with other threads, and a
+ * {@link #snapshot()} can be taken at any time without locking.</p>
+ */
+public class ParseMetricsRegistry {
+    // the counter slots
+    private static final int RUNS = 0;
+    private static final int FAILURES = 1;
+    private static final int BUDGET_EXCEEDED = 2;
+    private static final int RECOVERY_ATTEMPTS = 3;
+    private static final int INPUT_CHARS = 4;
+    private static final int NANO_TIME = 5;
+    private static final int LATENCY_BUCKETS = 6;
+
+    /**
+     * The number of buckets of the latency histogram. Bucket 0 counts the runs taking less than one microsecond,
+     * bucket i the runs taking at least 2^(i-1) and less than 2^i microseconds, the last bucket all longer runs.
+     */
+    public static final int BUCKET_COUNT = 32;
+
+    private static volatile ParseMetricsRegistry installed;
+
+    private static final ThreadLocal<Recording> recordings = new ThreadLocal<Recording>();
+
+    private final StripedLongs counters = new StripedLongs(LATENCY_BUCKETS + BUCKET_COUNT);
+    private final ConcurrentMap<String, StripedLongs> ruleTimes = new ConcurrentHashMap<String, StripedLongs>();
+
+    /**
+     * Installs the given registry as the process-wide registry all parse runners report into, unless they have
+     * their own registry attached.
+     *
+     * @param registry the registry to install, null to stop the process-wide recording
+     */
+    public static void install(ParseMetricsRegistry registry) {
+        installed = registry;
+    }
+
+    /**
+     * @return the process-wide registry, or null if none is installed
+     */
+    public static ParseMetricsRegistry getInstalled() {
+        return installed;
+    }
+
+    /**
+     * Records a parsing run.
+     *
+     * @param nanoTime          the duration of the run
+     * @param inputChars        the number of input characters
+     * @param failed            true if the run did not match or produced parse errors
+     * @param budgetExceeded    true if the run exceeded its ParseBudget
+     * @param recoveryAttempts  the number of error recoveries performed during the run
+     */
+    public void recordRun(long nanoTime, long inputChars, boolean failed, boolean budgetExceeded,
+                          int recoveryAttempts) {
+        int stripe = counters.stripe();
+        counters.add(stripe, RUNS, 1);
+        if (failed) counters.add(stripe, FAILURES, 1);
+        if (budgetExceeded) counters.add(stripe, BUDGET_EXCEEDED, 1);
+        if (recoveryAttempts > 0) counters.add(stripe, RECOVERY_ATTEMPTS, recoveryAttempts);
+        counters.add(stripe, INPUT_CHARS, inputChars);
+        counters.add(stripe, NANO_TIME, nanoTime);
+        counters.add(stripe, LATENCY_BUCKETS + bucketOf(nanoTime), 1);
+    }
+
+    /**
+     * Adds the given time to the time spent in the rule with the given label.
+     *
+     * @param rule     the rule label
+     * @param nanoTime the time to add
+     */
+    public void recordRuleTime(String rule, long nanoTime) {
+        StripedLongs times = ruleTimes.get(rule);
+        if (times == null) {
+            StripedLongs newTimes = new StripedLongs(1);
+            times = ruleTimes.putIfAbsent(rule, newTimes);
+            if (times == null) times = newTimes;
+        }
+        times.add(times.stripe(), 0, nanoTime);
+    }
+
+    /**
+     * @return a snapshot of the current values of all metrics
+     */
+    public Snapshot snapshot() {
+        long[] sums = counters.sums();
+        List<RuleTime> rules = new ArrayList<RuleTime>(ruleTimes.size());
+        for (Map.Entry<String, StripedLongs> entry : ruleTimes.entrySet()) {
+            rules.add(new RuleTime(entry.getKey(), entry.getValue().sums()[0]));
+        }
+        Collections.sort(rules, new Comparator<RuleTime>() {
+            public int compare(RuleTime a, RuleTime b) {
+                return a.nanoTime < b.nanoTime ? 1 : a.nanoTime > b.nanoTime ? -1 : a.rule.compareTo(b.rule);
+            }
+        });
+        return new Snapshot(sums[RUNS], sums[FAILURES], sums[BUDGET_EXCEEDED], sums[RECOVERY_ATTEMPTS],
+                sums[INPUT_CHARS], sums[NANO_TIME], Arrays.copyOfRange(sums, LATENCY_BUCKETS, sums.length),
+                Collections.unmodifiableList(rules));
+    }
+
+    private static int bucketOf(long nanoTime) {
+        return Math.min(64 - Long.numberOfLeadingZeros(nanoTime / 1000), BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Starts the recording of a parsing run on the current thread, into the given registry and/or as a
+     * {@link FlightRecorderEvents#PARSE_RUN} event. If a run is already being recorded on the thread the new run is
+     * recorded as part of it.
+     *
+     * @param registry    the registry to record into, if null only runs nested in a recorded run are recorded
+     * @param parseErrors the parse error list of the run
+     * @param runnerType  the type of the runner performing the run
+     * @return the recording or null, if the run is not recorded
+     */
+    static Recording startRecording(ParseMetricsRegistry registry, List<ParseError> parseErrors,
+                                    Class<?> runnerType) {
+        Recording recording = recordings.get();
+        if (recording != null) {
+            recording.depth++;
+            return recording;
+        }
+        Object event = FlightRecorderEvents.parseRun.begin();
+        if (registry != null || event != null) {
+            recording = new Recording(registry, event, parseErrors, runnerType);
+            recordings.set(recording);
+        }
+        return recording;
+    }
+
+    /**
+     * The state of a parsing run being recorded, shared by all runners taking part in the run.
+     */
+    static class Recording {
+        final ParseMetricsRegistry registry; // null if the run is only recorded as a JFR event
+        private final Object event;
+        private final Class<?> runnerType;
+        private final List<ParseError> parseErrors;
+        private final int initialErrorCount; // the errors left over from earlier runs
+        private final long startTime = System.nanoTime();
+        private int depth;
+        private InputBuffer inputBuffer;
+        private boolean matched;
+        private boolean budgetExceeded;
+        private int recoveryAttempts;
+
+        private Recording(ParseMetricsRegistry registry, Object event, List<ParseError> parseErrors,
+                          Class<?> runnerType) {
+            this.registry = registry;
+            this.event = event;
+            this.runnerType = runnerType;
+            this.parseErrors = parseErrors;
+            this.initialErrorCount = parseErrors.size();
+        }
+
+        void setInputBuffer(InputBuffer inputBuffer) {
+            if (this.inputBuffer == null) this.inputBuffer = inputBuffer;
+        }
+
+        void setResult(boolean matched, boolean budgetExceeded) {
+            this.matched = matched;
+            this.budgetExceeded |= budgetExceeded;
+        }
+
+        void countRecoveryAttempt() {
+            recoveryAttempts++;
+        }
+
+        /**
+         * Ends the participation of a runner in the run, the outermost runner records the run.
+         */
+        void finish() {
+            if (depth > 0) {
+                depth--;
+                return;
+            }
+            recordings.remove();
+            long nanoTime = System.nanoTime() - startTime;
+            boolean emitEvent = FlightRecorderEvents.parseRun.end(event);
+            if (registry == null && !emitEvent) return;
+
+            int inputChars = inputBuffer != null ? InputBufferUtils.length(inputBuffer) : 0;
+            int errorCount = parseErrors.size() - initialErrorCount;
+            if (registry != null) {
+                registry.recordRun(nanoTime, inputChars, !matched || errorCount > 0, budgetExceeded,
+                        recoveryAttempts);
+            }
+            if (emitEvent) {
+                FlightRecorderEvents.parseRun.commit(event, runnerType.getSimpleName(), inputChars, matched,
+                        errorCount);
+            }
+        }
+    }
+
+    /**
+     * An immutable snapshot of the metrics of a registry.
+     */
+    public static class Snapshot {
+        public final long runs;
+        public final long failures;
+        public final long budgetExceeded;
+        public final long recoveryAttempts;
+        public final long inputChars;
+        public final long totalNanoTime;
+        private final long[] latencyBuckets;
+        private final List<RuleTime> ruleTimes;
+
+        public Snapshot(long runs, long failures, long budgetExceeded, long recoveryAttempts, long inputChars,
+                        long totalNanoTime, long[] latencyBuckets, List<RuleTime> ruleTimes) {
+            this.runs = runs;
+            this.failures = failures;
+            this.budgetExceeded = budgetExceeded;
+            this.recoveryAttempts = recoveryAttempts;
+            this.inputChars = inputChars;
+            this.totalNanoTime = totalNanoTime;
+            this.latencyBuckets = latencyBuckets;
+            this.ruleTimes = ruleTimes;
+        }
+
+        /**
+         * @param bucket the bucket index, see {@link ParseMetricsRegistry#BUCKET_COUNT}
+         * @return the number of runs in the given latency histogram bucket
+         */
+        public long getLatencyCount(int bucket) {
+            return latencyBuckets[bucket];
+        }
+
+        /**
+         * Estimates a latency percentile from the latency histogram.
+         *
+         * @param percentile the percentile, between 0 and 100
+         * @return the upper bound of the histogram bucket containing the percentile in nanoseconds, 0 without runs
+         */
+        public long getLatencyPercentile(double percentile) {
+            checkArgument(0 <= percentile && percentile <= 100, "percentile must be between 0 and 100");
+            long total = 0;
+            for (long count : latencyBuckets) total += count;
+            if (total == 0) return 0;
+            long rank = Math.max((long) Math.ceil(total * percentile / 100), 1);
+            int bucket = 0;
+            for (long count = latencyBuckets[0]; count < rank; count += latencyBuckets[++bucket]) {}
+            return bucket < BUCKET_COUNT - 1 ? 1000L << bucket : Long.MAX_VALUE;
+        }
+
+        /**
+         * @param count the maximum number of rules to return
+         * @return the rules with the highest times reported by ProfilingParseRunners, highest time first
+         */
+        public List<RuleTime> getTopRules(int count) {
+            return ruleTimes.subList(0, Math.min(count, ruleTimes.size()));
+        }
+
+        public String print() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Runs                     : %,15d\n", runs));
+            sb.append(String.format("Failed runs              : %,15d\n", failures));
+            sb.append(String.format("Budget exceeded          : %,15d\n", budgetExceeded));
+            sb.append(String.format("Recovery attempts        : %,15d\n", recoveryAttempts));
+            sb.append(String.format("Input chars              : %,15d\n", inputChars));
+            sb.append(String.format("Total run time           : %,15.3f s\n", totalNanoTime / 1000000000.0));
+            sb.append(String.format("Latency p50 / p99        : %,10d us / %,10d us\n",
+                    getLatencyPercentile(50) / 1000, getLatencyPercentile(99) / 1000));
+            for (RuleTime rule : getTopRules(10)) {
+                sb.append(String.format("%-30s : %,12.3f ms\n", StringUtils.left(rule.rule, 30),
+                        rule.nanoTime / 1000000.0));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * The total time spent in a rule.
+     */
+    public static class RuleTime {
+        public final String rule;
+        public final long nanoTime;
+
+        public RuleTime(String rule, long nanoTime) {
+            this.rule = checkArgNotNull(rule, "rule");
+            this.nanoTime = nanoTime;
+        }
+
+        @Override
+        public String toString() {
+            return rule + ": " + nanoTime + " ns";
+        }
+    }
+
+    /**
+     * A set of long counters striped across threads: every thread adds to the copy of the counters of its stripe,
+     * reading a counter sums up the copies of all stripes. The stripes are padded to lie on different cache lines.
+     */
+    private static class StripedLongs {
+        private static final int STRIPES;
+
+        static {
+            int stripes = 1;
+            while (stripes < 2 * Runtime.getRuntime().availableProcessors() && stripes < 64) stripes <<= 1;
+            STRIPES = stripes;
+        }
+
+        private final int slots;
+        private final int stride;
+        private final AtomicLongArray cells;
+
+        private StripedLongs(int slots) {
+            this.slots = slots;
+            this.stride = (slots + 15) & ~7; // at least 8 longs (64 bytes) between the slots of two stripes
+            this.cells = new AtomicLongArray(STRIPES * stride);
+        }
+
+        private int stripe() {
+            int hash = (int) Thread.currentThread().getId() * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+        }
+
+        private void add(int stripe, int slot, long delta) {
+            cells.getAndAdd(stripe * stride + slot, delta);
+        }
+
+        private long[] sums() {
+            long[] sums = new long[slots];
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                for (int slot = 0; slot < slots; slot++) {
+                    sums[slot] += cells.get(stripe * stride + slot);
+                }
+            }
+            return sums;
+        }
+    }
+}
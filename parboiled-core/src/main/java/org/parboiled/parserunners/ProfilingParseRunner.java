@@ -29,18 +29,22 @@ import org.parboiled.support.ParsingResult;
 import java.text.DecimalFormat;
 import java.util.*;
 
-import static org.parboiled.common.Preconditions.checkArgNotNull;
+import static org.parboiled.common.Preconditions.*;
 import static org.parboiled.common.Utils.humanize;
 
 /**
  * <p>The ProfilingParseRunner is a special {@link ParseRunner} implementation that "watches" a parser digest a number
  * of inputs and collects all sorts of statistical data on the what rules have matched how many times, the number
  * of reincovations of rules at identical input locations, and so on.</p>
- * <p>The ProfilingParseRunner is typically used during parser debugging and optimization, not in production.</p>
+ * <p>The ProfilingParseRunner is typically used during parser debugging and optimization. For production use it
+ * offers a sampling mode (see {@link #withSampling(int)}) with a much lower overhead. If its runs are recorded in a
+ * {@link ParseMetricsRegistry} the runner also reports the time spent in the rules into the registry.</p>
+ * <p>In sampling mode the runner can also profile the runs of another parse runner, when attached to it as a
+ * {@link MatchInterceptor}.</p>
  *
  * @param <V>
  */
-public class ProfilingParseRunner<V> extends AbstractParseRunner<V> implements MatchHandler {
+public class ProfilingParseRunner<V> extends AbstractParseRunner<V> implements MatchHandler, MatchInterceptor {
     private final Map<Rule, RuleReport> ruleReports = new HashMap<Rule, RuleReport>();
     private int runMatches;
     private int totalRuns;
@@ -51,6 +55,12 @@ public class ProfilingParseRunner<V> extends AbstractParseRunner<V> implements M
     private long totalNanoTime;
     private long timeCorrection;
 
+    // the sampling mode state
+    private int sampleInterval;
+    private int sampleCountdown;
+    private int randomState;
+    private final Map<Matcher, SampledStats> sampledStats = new IdentityHashMap<Matcher, SampledStats>();
+
     private final DoWithMatcherVisitor.Action updateStatsAction = new DoWithMatcherVisitor.Action() {
         public void process(Matcher matcher) {
             RuleStats ruleStats = (RuleStats) matcher.getTag();
@@ -73,6 +83,10 @@ public class ProfilingParseRunner<V> extends AbstractParseRunner<V> implements M
             }
             ruleReport.update(ruleStats.matches, ruleStats.matchSubs, ruleStats.mismatches, ruleStats.mismatchSubs,
                     rematches, ruleStats.rematchSubs, remismatches, ruleStats.remismatchSubs, ruleStats.nanoTime);
+            ParseMetricsRegistry metricsRegistry = getActiveMetricsRegistry();
+            if (metricsRegistry != null && ruleStats.nanoTime > 0) {
+                metricsRegistry.recordRuleTime(matcher.getLabel(), ruleStats.nanoTime);
+            }
         }
     };
 
@@ -85,39 +99,133 @@ public class ProfilingParseRunner<V> extends AbstractParseRunner<V> implements M
         super(rule);
     }
 
+    /**
+     * <p>Switches this runner to sampling mode, which is meant for profiling parsers in production. The number of
+     * invocations, matches, mismatches and re-invocations of every rule is still counted exactly, using primitive
+     * per-rule counters and a bitset per rule marking the input positions the rule has already matched or failed at.
+     * The time spent in a rule however is only measured for a random sample of on average one in
+     * {@code sampleInterval} invocations and extrapolated from there. Also, the runner does not have to walk the
+     * whole grammar before and after each parsing run.</p>
+     * <p>In sampling mode a rule matching as well as failing at the same input position counts as a re-invocation
+     * if it does so again, which only happens for "strange" action rules.</p>
+     *
+     * @param sampleInterval the average number of rule invocations per timed invocation, 1 times all of them
+     * @return this instance
+     */
+    public ProfilingParseRunner<V> withSampling(int sampleInterval) {
+        checkArgument(sampleInterval > 0, "sampleInterval must be positive");
+        checkState(totalRuns == 0, "The sampling mode must be configured before the first run");
+        this.sampleInterval = sampleInterval;
+        this.randomState = (int) System.nanoTime() | 1;
+        this.sampleCountdown = nextSampleCountdown();
+        return this;
+    }
+
     public ParsingResult<V> run(InputBuffer inputBuffer) {
         checkArgNotNull(inputBuffer, "inputBuffer");
         resetValueStack();
         totalRuns++;
+        if (sampleInterval > 0) return runSampled(inputBuffer);
 
         MatcherContext<V> rootContext = createRootContext(inputBuffer, this, true);
         rootContext.getMatcher().accept(new DoWithMatcherVisitor(new DoWithMatcherVisitor.Action() {
             public void process(Matcher matcher) {
-                RuleStats ruleStats = (RuleStats) matcher.getTag();
-                if (ruleStats == null) {
-                    ruleStats = new RuleStats();
-                    matcher.setTag(ruleStats);
+                Object tag = matcher.getTag();
+                if (tag instanceof RuleStats) {
+                    ((RuleStats) tag).clear();
                 } else {
-                    ruleStats.clear();
+                    matcher.setTag(new RuleStats()); // also replaces the stats of a runner in sampling mode
                 }
             }
         }));
 
         runMatches = 0;
+        boolean budgetStarted = startRun();
         long timeStamp = System.nanoTime() - timeCorrection;
-        boolean matched = rootContext.runMatcher();
-        totalNanoTime += System.nanoTime() - timeCorrection - timeStamp;
+        try {
+            boolean matched = rootContext.runMatcher();
+            return createParsingResult(matched, rootContext);
+        } catch (ParseBudget.ExceededException e) {
+            return createBudgetExceededResult(e, budgetStarted, inputBuffer);
+        } finally {
+            totalNanoTime += System.nanoTime() - timeCorrection - timeStamp;
+            getRootMatcher().accept(new DoWithMatcherVisitor(updateStatsAction));
+            finishRun();
+        }
+    }
 
-        getRootMatcher().accept(new DoWithMatcherVisitor(updateStatsAction));
-        return createParsingResult(matched, rootContext);
+    private ParsingResult<V> runSampled(InputBuffer inputBuffer) {
+        MatcherContext<V> rootContext = createRootContext(inputBuffer, this, true);
+        runMatches = 0;
+        boolean budgetStarted = startRun();
+        long timeStamp = System.nanoTime();
+        try {
+            boolean matched = rootContext.runMatcher();
+            return createParsingResult(matched, rootContext);
+        } catch (ParseBudget.ExceededException e) {
+            return createBudgetExceededResult(e, budgetStarted, inputBuffer);
+        } finally {
+            totalNanoTime += System.nanoTime() - timeStamp;
+            finishRun();
+        }
+    }
+
+    /**
+     * Profiles a parsing pass of another runner this runner has been attached to with
+     * {@link AbstractParseRunner#withMatchInterceptor(MatchInterceptor)}. Only supported in sampling mode.
+     *
+     * @param inputBuffer the input buffer of the parsing pass
+     * @param next        the handler to delegate the actual match handling to
+     * @return the handler profiling the parsing pass
+     */
+    public MatchHandler intercept(InputBuffer inputBuffer, final MatchHandler next) {
+        checkState(sampleInterval > 0, "Only a ProfilingParseRunner in sampling mode can be used as an interceptor");
+        totalRuns++;
+        runMatches = 0;
+        return new MatchHandler() {
+            private int depth;
+
+            public boolean match(MatcherContext<?> context) {
+                if (depth > 0) return matchSampled(context, next);
+                // the outermost intercepted invocation times the pass
+                long timeStamp = System.nanoTime();
+                depth++;
+                try {
+                    return matchSampled(context, next);
+                } finally {
+                    depth--;
+                    totalNanoTime += System.nanoTime() - timeStamp;
+                }
+            }
+        };
     }
 
     public Report getReport() {
+        if (sampleInterval > 0) return getSampledReport();
         return new Report(totalRuns, totalMatches, totalMismatches, totalRematches, totalRemismatches,
                 totalNanoTime, new ArrayList<RuleReport>(ruleReports.values()));
     }
 
+    private Report getSampledReport() {
+        int matches = 0, mismatches = 0, rematches = 0, remismatches = 0;
+        List<RuleReport> reports = new ArrayList<RuleReport>(sampledStats.size());
+        for (SampledStats stats : sampledStats.values()) {
+            matches += stats.matches;
+            mismatches += stats.mismatches;
+            rematches += stats.rematches;
+            remismatches += stats.remismatches;
+            long invocations = stats.matches + stats.mismatches;
+            long nanoTime = stats.samples > 0 ? stats.sampledNanoTime * invocations / stats.samples : 0;
+            RuleReport report = new RuleReport(stats.matcher);
+            report.update(stats.matches, stats.matchSubs, stats.mismatches, stats.mismatchSubs, stats.rematches,
+                    stats.rematchSubs, stats.remismatches, stats.remismatchSubs, nanoTime);
+            reports.add(report);
+        }
+        return new Report(totalRuns, matches, mismatches, rematches, remismatches, totalNanoTime, reports);
+    }
+
     public boolean match(MatcherContext<?> context) {
+        if (sampleInterval > 0) return matchSampled(context, null);
         long timeStamp = System.nanoTime();
         Matcher matcher = context.getMatcher();
         RuleStats ruleStats = ((RuleStats) matcher.getTag());
@@ -170,6 +278,127 @@ public class ProfilingParseRunner<V> extends AbstractParseRunner<V> implements M
         return matched;
     }
 
+    // runs the given context via the given handler or, if null, directly
+    private boolean matchSampled(MatcherContext<?> context, MatchHandler next) {
+        Matcher matcher = context.getMatcher();
+        SampledStats stats = getSampledStats(matcher);
+        if (stats.run != totalRuns) stats.startRun(totalRuns);
+        int pos = context.getCurrentIndex();
+        int subMatches = -++runMatches;
+
+        boolean matched;
+        if (--sampleCountdown == 0) {
+            sampleCountdown = nextSampleCountdown();
+            long timeStamp = System.nanoTime();
+            matched = next != null ? next.match(context) : matcher.match(context);
+            long nanoTime = System.nanoTime() - timeStamp;
+            stats.sampledNanoTime += nanoTime;
+            stats.samples++;
+            ParseMetricsRegistry metricsRegistry = getActiveMetricsRegistry();
+            if (metricsRegistry != null) {
+                metricsRegistry.recordRuleTime(matcher.getLabel(), nanoTime * sampleInterval);
+            }
+        } else {
+            matched = next != null ? next.match(context) : matcher.match(context);
+        }
+
+        subMatches += runMatches;
+        if (matched) {
+            stats.matches++;
+            stats.matchSubs += subMatches;
+            if (SampledStats.testAndSet(stats.matchedAt, pos)) {
+                stats.rematches++;
+                stats.rematchSubs += subMatches;
+            } else if (stats.matchedAt.length <= pos >> 6) {
+                stats.matchedAt = SampledStats.grow(stats.matchedAt, pos);
+            }
+        } else {
+            stats.mismatches++;
+            stats.mismatchSubs += subMatches;
+            if (SampledStats.testAndSet(stats.mismatchedAt, pos)) {
+                stats.remismatches++;
+                stats.remismatchSubs += subMatches;
+            } else if (stats.mismatchedAt.length <= pos >> 6) {
+                stats.mismatchedAt = SampledStats.grow(stats.mismatchedAt, pos);
+            }
+        }
+        return matched;
+    }
+
+    private SampledStats getSampledStats(Matcher matcher) {
+        // the matcher tag only serves as a shortcut for the lookup, since other runners might use the same grammar
+        Object tag = matcher.getTag();
+        if (tag instanceof SampledStats) {
+            SampledStats stats = (SampledStats) tag;
+            if (stats.runner == this && stats.matcher == matcher) return stats;
+        }
+        SampledStats stats = sampledStats.get(matcher);
+        if (stats == null) {
+            stats = new SampledStats(this, matcher);
+            sampledStats.put(matcher, stats);
+            if (tag == null) matcher.setTag(stats);
+        }
+        return stats;
+    }
+
+    // a random countdown between 1 and 2 * sampleInterval - 1, so the samples do not follow the structure of the input
+    private int nextSampleCountdown() {
+        int x = randomState;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        randomState = x;
+        return sampleInterval == 1 ? 1 : 1 + (int) ((x & 0xFFFFFFFFL) % (2 * sampleInterval - 1));
+    }
+
+    private static class SampledStats {
+        private final ProfilingParseRunner<?> runner;
+        private final Matcher matcher;
+        private int run;
+        private int matches;
+        private int mismatches;
+        private int matchSubs;
+        private int mismatchSubs;
+        private int rematches;
+        private int remismatches;
+        private int rematchSubs;
+        private int remismatchSubs;
+        private int samples;
+        private long sampledNanoTime;
+
+        // the input positions the rule has matched or failed at in the current run, one bit per position
+        private long[] matchedAt = new long[1];
+        private long[] mismatchedAt = new long[1];
+
+        private SampledStats(ProfilingParseRunner<?> runner, Matcher matcher) {
+            this.runner = runner;
+            this.matcher = matcher;
+        }
+
+        private void startRun(int run) {
+            this.run = run;
+            Arrays.fill(matchedAt, 0L);
+            Arrays.fill(mismatchedAt, 0L);
+        }
+
+        // sets the bit for the given position and returns whether it was already set,
+        // false for positions beyond the bitset, which have to be grown then
+        private static boolean testAndSet(long[] bits, int pos) {
+            int word = pos >> 6;
+            if (word >= bits.length) return false;
+            long mask = 1L << pos;
+            if ((bits[word] & mask) != 0) return true;
+            bits[word] |= mask;
+            return false;
+        }
+
+        private static long[] grow(long[] bits, int pos) {
+            long[] grown = Arrays.copyOf(bits, Math.max((pos >> 6) + 1, bits.length * 2));
+            grown[pos >> 6] |= 1L << pos;
+            return grown;
+        }
+    }
+
     private static class RuleStats {
         private int matches;
         private int mismatches;
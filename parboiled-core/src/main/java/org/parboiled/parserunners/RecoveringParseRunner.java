@@ -25,14 +25,19 @@ import org.parboiled.common.ImmutableLinkedList;
 import org.parboiled.common.ImmutableList;
 import org.parboiled.common.Preconditions;
 import org.parboiled.errors.InvalidInputError;
+import org.parboiled.errors.ParseError;
 import org.parboiled.matchers.*;
 import org.parboiled.matchervisitors.*;
 import org.parboiled.support.Checks;
+import org.parboiled.support.DefaultValueStack;
+import org.parboiled.support.IndexRange;
 import org.parboiled.support.MatcherPath;
 import org.parboiled.support.ParsingResult;
+import org.parboiled.support.Position;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.parboiled.common.Preconditions.checkArgNotNull;
 import static org.parboiled.common.Preconditions.checkState;
@@ -52,6 +57,11 @@ import static org.parboiled.support.Chars.*;
  * If the input is error free this {@link org.parboiled.parserunners.ParseRunner} implementation will only perform one parsing run, with the same
  * speed as the {@link org.parboiled.parserunners.BasicParseRunner}. However, if there are {@link org.parboiled.errors.InvalidInputError}s in the input potentially
  * many more runs are performed to properly report all errors and test the various recovery strategies.
+ * In order to keep these runs cheap the outcome of all action-free rules that lie completely in front of the error
+ * currently being fixed is checkpointed, so that the runs testing the various fixes skip over them rather than
+ * re-parsing the whole input in front of the error.
+ * If the grammar contains no actions the candidate fixes for an error can also be evaluated in parallel, see
+ * {@link #withExecutor(java.util.concurrent.Executor)}.
  */
 public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
     
@@ -74,6 +84,13 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
     private MutableInputBuffer buffer;
     private ParsingResult<V> lastParsingResult;
     private Matcher rootMatcherWithoutPTB; // the root matcher with parse tree building disabled
+    private Set<Matcher> checkpointableMatchers;
+    private final Map<RulePosition, Checkpoint> checkpoints = new ConcurrentHashMap<RulePosition, Checkpoint>();
+    private int checkpointBoundary; // checkpoints only cover input in front of this index
+    private boolean parallelizable; // true if the grammar contains no actions and can therefore be run concurrently
+    private boolean resyncPending; // true while the buffer contains a RESYNC marker that has not been resolved yet
+    private Executor executor;
+    private boolean checkpointing = true;
 
     /**
      * Create a new RecoveringParseRunner instance with the given rule and input text and returns the result of
@@ -117,48 +134,94 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
         }
     }
 
+    /**
+     * Attaches the given executor to this RecoveringParseRunner instance. The executor is used to evaluate the
+     * candidate character insertions for an error in parallel, each one on a private overlay of the fixed input.
+     * The chosen fix is always the same as with sequential evaluation.
+     * Since parser actions and Vars share their state across all parsing runs of a parser instance parallel evaluation
+     * is only done for grammars without actions and runners without {@link MatchInterceptor}s (which need not be
+     * thread-safe), otherwise the executor is ignored.
+     *
+     * @param executor the executor to use for evaluating recovery candidates, null for sequential evaluation
+     * @return this instance
+     */
+    public RecoveringParseRunner<V> withExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Enables or disables the checkpointing of the rules in front of the error currently being fixed (enabled by
+     * default). Without checkpoints every run testing a fix re-parses the whole input in front of the error, which
+     * is slower but yields exactly the same errors and parse tree.
+     *
+     * @param enabled false to run all passes over the complete input
+     * @return this instance
+     */
+    public RecoveringParseRunner<V> withCheckpoints(boolean enabled) {
+        this.checkpointing = enabled;
+        return this;
+    }
+
     public ParsingResult<V> run(InputBuffer inputBuffer) {
         checkArgNotNull(inputBuffer, "inputBuffer");
         startTimeStamp = System.nanoTime();
         resetValueStack();
+        boolean budgetStarted = startRun();
+        try {
+            // first, run a basic match
+            ParseRunner<V> basicRunner = new BasicParseRunner<V>(getRootMatcher())
+                    .withMatchHandlerChain(getMatchHandlerChain())
+                    .withParseBudget(getParseBudget())
+                    .withParseErrors(getParseErrors())
+                    .withValueStack(getValueStack());
+            lastParsingResult = basicRunner.run(inputBuffer);
+
+            if (!lastParsingResult.matched) {
+                // for better performance disable parse tree building during the recovery runs
+                rootMatcherWithoutPTB = (Matcher) getRootMatcher().suppressNode();
+                if (checkpointableMatchers == null) {
+                    checkpointableMatchers = findCheckpointableMatchers(rootMatcherWithoutPTB);
+                    parallelizable = checkpointableMatchers.contains(unwrap(rootMatcherWithoutPTB));
+                }
+                checkpoints.clear();
+                checkpointBoundary = 0;
+                resyncPending = false;
 
-        // first, run a basic match
-        ParseRunner<V> basicRunner = new BasicParseRunner<V>(getRootMatcher())
-                .withParseErrors(getParseErrors())
-                .withValueStack(getValueStack());
-        lastParsingResult = basicRunner.run(inputBuffer);
-
-        if (!lastParsingResult.matched) {
-            // for better performance disable parse tree building during the recovery runs
-            rootMatcherWithoutPTB = (Matcher) getRootMatcher().suppressNode();
-
-            // locate first error
-            performLocatingRun(inputBuffer);
-            checkState(errorIndex >= 0); // we failed before so we must fail again
-
-            // in order to be able to apply fixes we need to wrap the input buffer with a mutability wrapper
-            buffer = new MutableInputBuffer(inputBuffer);
+                // locate first error
+                performLocatingRun(inputBuffer);
+                checkState(errorIndex >= 0); // we failed before so we must fail again
 
-            // report first error
-            performReportingRun();
+                // in order to be able to apply fixes we need to wrap the input buffer with a mutability wrapper
+                buffer = new MutableInputBuffer(inputBuffer);
 
-            // fix and report until done
-            while (!fixError(errorIndex)) {
+                // report first error
                 performReportingRun();
-            }
 
-            // rerun once more with parse tree building enabled to create a parse tree for the fixed input
-            if (!getRootMatcher().isNodeSuppressed()) {
-                performFinalRun();
-                checkState(lastParsingResult.matched);
+                // fix and report until done
+                while (!fixError(errorIndex)) {
+                    performReportingRun();
+                }
+
+                // rerun once more with parse tree building enabled to create a parse tree for the fixed input
+                if (!getRootMatcher().isNodeSuppressed()) {
+                    performFinalRun();
+                    checkState(lastParsingResult.matched);
+                }
             }
+            return recordResult(lastParsingResult);
+        } catch (ParseBudget.ExceededException e) {
+            return createBudgetExceededResult(e, budgetStarted, inputBuffer);
+        } finally {
+            finishRun();
         }
-        return lastParsingResult;
     }
 
     private boolean performLocatingRun(InputBuffer inputBuffer) {
         resetValueStack();
         ParseRunner<V> locatingRunner = new ErrorLocatingParseRunner<V>(rootMatcherWithoutPTB, getInnerHandler())
+                .withMatchHandlerChain(getMatchHandlerChain())
+                .withParseBudget(getParseBudget())
                 .withParseErrors(getParseErrors())
                 .withValueStack(getValueStack());
         lastParsingResult = locatingRunner.run(inputBuffer);
@@ -167,10 +230,39 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
         return lastParsingResult.matched;
     }
 
+    // performs a locating run on the mutable buffer, skipping over the rules checkpointed in front of the error
+    private boolean performCheckpointedLocatingRun() {
+        if (errorIndex < 0 || !checkpointing) return performLocatingRun(buffer); // no recovery handler or checkpoints
+        resetValueStack();
+        CheckpointingHandler handler = new CheckpointingHandler(new Handler(), buffer);
+        if (getParseBudget() != null) getParseBudget().startPass();
+        MatcherContext<V> rootContext = new MatcherContext<V>(handler.trackingBuffer, getValueStack(),
+                getParseErrors(), getMatchHandlerChain().assemble(handler.trackingBuffer, handler),
+                rootMatcherWithoutPTB, false, getParseBudget());
+        boolean matched = rootContext.runMatcher();
+        lastParsingResult = new ParsingResult<V>(matched, rootContext.getNode(), getValueStack(), getParseErrors(),
+                buffer);
+        errorIndex = matched ? -1 : Math.max(handler.maxSuccessIndex, 0);
+        return matched;
+    }
+
+    // performs a checkpointed locating run on the given buffer without touching any state of this runner other than
+    // the checkpoints, returns the error index or -1 if the run matched
+    // (since candidate runs may execute concurrently each one consumes its own fork of the ParseBudget, if any)
+    private int performCandidateRun(InputBuffer candidateBuffer, ParseBudget candidateBudget) {
+        CheckpointingHandler handler = new CheckpointingHandler(new Handler(), candidateBuffer);
+        MatcherContext<V> rootContext = new MatcherContext<V>(handler.trackingBuffer, new DefaultValueStack<V>(),
+                new ArrayList<ParseError>(), getMatchHandlerChain().assemble(handler.trackingBuffer, handler),
+                rootMatcherWithoutPTB, false, candidateBudget);
+        return rootContext.runMatcher() ? -1 : Math.max(handler.maxSuccessIndex, 0);
+    }
+
     private void performReportingRun() {
         resetValueStack();
         ParseRunner<V> reportingRunner = new ErrorReportingParseRunner<V>(rootMatcherWithoutPTB, errorIndex,
                 getInnerHandler())
+                .withMatchHandlerChain(getMatchHandlerChain())
+                .withParseBudget(getParseBudget())
                 .withParseErrors(getParseErrors())
                 .withValueStack(getValueStack());
         ParsingResult<V> result = reportingRunner.run(buffer);
@@ -182,7 +274,7 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
         resetValueStack();
         Handler handler = new Handler();
         MatcherContext<V> rootContext = createRootContext(buffer, handler, false);
-        boolean matched = handler.match(rootContext);
+        boolean matched = rootContext.runMatcher();
         lastParsingResult = createParsingResult(matched, rootContext);
     }
 
@@ -191,6 +283,21 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
     }
 
     private boolean fixError(int fixIndex) {
+        countRecoveryAttempt();
+        Object event = FlightRecorderEvents.recoveryAttempt.begin();
+        boolean errorFree = applyFix(fixIndex);
+        if (FlightRecorderEvents.recoveryAttempt.end(event)) {
+            FlightRecorderEvents.recoveryAttempt.commit(event, fixIndex, errorFree);
+        }
+        return errorFree;
+    }
+
+    // fixes the error at the given index and returns true if the input is error free afterwards
+    private boolean applyFix(int fixIndex) {
+        // all fixes are applied at or behind the fix index, so checkpoints in front of it remain valid
+        if (fixIndex < checkpointBoundary) checkpoints.clear();
+        if (checkpointing) checkpointBoundary = fixIndex;
+
         if (tryFixBySingleCharDeletion(fixIndex)) return true;
         int nextErrorAfterDeletion = errorIndex;
 
@@ -232,15 +339,16 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
                 return true;
             }
             buffer.insertChar(fixIndex, RESYNC);
+            resyncPending = true;
             currentError.shiftIndexDeltaBy(1);
-            performLocatingRun(buffer); // find the next parse error
+            performCheckpointedLocatingRun(); // find the next parse error
         }
         return errorIndex == -1;
     }
 
     private boolean tryFixBySingleCharDeletion(int fixIndex) {
         buffer.insertChar(fixIndex, DEL_ERROR);
-        boolean nowErrorFree = performLocatingRun(buffer);
+        boolean nowErrorFree = performCheckpointedLocatingRun();
         if (nowErrorFree) {
             currentError.shiftIndexDeltaBy(1); // compensate for the inserted DEL_ERROR char
         } else {
@@ -253,17 +361,26 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
     @SuppressWarnings( {"ConstantConditions"})
     private Character findBestSingleCharInsertion(int fixIndex) {
         GetStarterCharVisitor getStarterCharVisitor = new GetStarterCharVisitor();
-        int bestNextErrorIndex = -1;
-        Character bestChar = '\u0000'; // non-null default
+        List<Character> starterChars = new ArrayList<Character>();
         for (MatcherPath failedMatcherPath : currentError.getFailedMatchers()) {
             Character starterChar = failedMatcherPath.element.matcher.accept(getStarterCharVisitor);
             checkState(starterChar != null); // we should only have single character matchers
             if (starterChar == EOI) {
                 continue; // we should never conjure up an EOI character (that would be cheating :)
             }
+            starterChars.add(starterChar);
+        }
+        if (executor != null && parallelizable && getMatchHandlerChain().isEmpty() && !resyncPending &&
+                errorIndex >= 0 && starterChars.size() > 1) {
+            return findBestSingleCharInsertionInParallel(fixIndex, starterChars);
+        }
+
+        int bestNextErrorIndex = -1;
+        Character bestChar = '\u0000'; // non-null default
+        for (Character starterChar : starterChars) {
             buffer.insertChar(fixIndex, starterChar);
             buffer.insertChar(fixIndex, INS_ERROR);
-            if (performLocatingRun(buffer)) {
+            if (performCheckpointedLocatingRun()) {
                 currentError.shiftIndexDeltaBy(2); // compensate for the inserted chars
                 return null; // success, exit immediately
             }
@@ -280,6 +397,100 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
         return bestChar;
     }
 
+    private Character findBestSingleCharInsertionInParallel(int fixIndex, List<Character> starterChars) {
+        final AtomicBoolean abandoned = new AtomicBoolean();
+        List<FutureTask<Integer>> tasks = new ArrayList<FutureTask<Integer>>(starterChars.size());
+        List<ParseBudget> candidateBudgets = new ArrayList<ParseBudget>(starterChars.size());
+        try {
+            for (Character starterChar : starterChars) {
+                // every candidate runs on a private overlay, the shared buffer is not modified while they are running
+                final MutableInputBuffer candidateBuffer = new MutableInputBuffer(buffer);
+                candidateBuffer.insertChar(fixIndex, starterChar);
+                candidateBuffer.insertChar(fixIndex, INS_ERROR);
+                final ParseBudget candidateBudget = getParseBudget() != null ? getParseBudget().fork() : null;
+                if (candidateBudget != null) candidateBudgets.add(candidateBudget);
+                FutureTask<Integer> task = new FutureTask<Integer>(new Callable<Integer>() {
+                    public Integer call() {
+                        return abandoned.get() ? -1 : performCandidateRun(candidateBuffer, candidateBudget);
+                    }
+                });
+                executor.execute(task);
+                tasks.add(task);
+            }
+
+            // pick the winner exactly as the sequential evaluation would
+            int bestNextErrorIndex = -1;
+            Character bestChar = '\u0000'; // non-null default
+            for (int i = 0; i < tasks.size(); i++) {
+                int nextErrorIndex = getResult(tasks.get(i));
+                if (nextErrorIndex == -1) {
+                    abandon(tasks, abandoned);
+                    joinBudgets(candidateBudgets);
+                    // rerun the winner on the shared buffer in order to produce the parsing result
+                    buffer.insertChar(fixIndex, starterChars.get(i));
+                    buffer.insertChar(fixIndex, INS_ERROR);
+                    checkState(performCheckpointedLocatingRun());
+                    currentError.shiftIndexDeltaBy(2); // compensate for the inserted chars
+                    return null; // success, exit immediately
+                }
+                nextErrorIndex = Math.max(nextErrorIndex - 2, 0);
+                if (bestNextErrorIndex < nextErrorIndex) {
+                    bestNextErrorIndex = nextErrorIndex;
+                    bestChar = starterChars.get(i);
+                }
+            }
+            joinBudgets(candidateBudgets);
+            errorIndex = bestNextErrorIndex;
+            return bestChar;
+        } catch (RuntimeException e) {
+            abandon(tasks, abandoned);
+            joinBudgets(candidateBudgets);
+            throw e;
+        }
+    }
+
+    // accounts for the consumption of the given (completed) candidate runs in the ParseBudget of this run
+    private void joinBudgets(List<ParseBudget> candidateBudgets) {
+        for (ParseBudget candidateBudget : candidateBudgets) {
+            getParseBudget().join(candidateBudget);
+        }
+        candidateBudgets.clear(); // make sure no candidate is accounted for twice
+    }
+
+    private static int getResult(FutureTask<Integer> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    // skips all tasks that have not started yet and waits for the running ones to finish,
+    // since they are reading the shared buffer
+    private static void abandon(List<FutureTask<Integer>> tasks, AtomicBoolean abandoned) {
+        abandoned.set(true);
+        boolean interrupted = false;
+        for (FutureTask<Integer> task : tasks) {
+            while (true) {
+                try {
+                    task.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break; // the first failure has already been reported
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
     private Character findBestSingleCharReplacement(int fixIndex) {
         buffer.insertChar(fixIndex, DEL_ERROR);
         Character bestChar = findBestSingleCharInsertion(fixIndex + 2);
@@ -302,6 +513,7 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
         private final IsSingleCharMatcherVisitor isSingleCharMatcherVisitor = new IsSingleCharMatcherVisitor();
         private int fringeIndex;
         private MatcherPath lastMatchPath;
+        private int resyncChecks; // the outcome of resync checks depends on more than just the input
 
         public boolean match(MatcherContext<?> context) {
             Matcher matcher = context.getMatcher();
@@ -328,6 +540,7 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
                     case RESYNC_EOI:
                         // however we only resynchronize if we are at a RESYNC location and the matcher is a SequenceMatcher
                         // that has already matched at least one character and that is a parent of the last match
+                        resyncChecks++;
                         return qualifiesForResync(context) && resynchronize(context);
                 }
                 
@@ -415,6 +628,7 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
                 case RESYNC:
                     // this RESYNC error is the last error, we establish the length of the bad sequence and
                     // change this RESYNC marker to a RESYNC_START / RESYNC_END block
+                    resyncPending = false;
                     context.advanceIndex(1); // gobble RESYNC marker
                     List<Matcher> followMatchers = new FollowMatchersVisitor().getFollowMatchers(context);
                     int endIndex = gobbleIllegalCharacters(context, followMatchers);
@@ -496,6 +710,251 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
         }
     }
 
+    /**
+     * The {@link MatchHandler} for the locating runs performed while fixing an error. It determines the error
+     * location like the {@link ErrorLocatingParseRunner} and creates a {@link Checkpoint} for all invocations of
+     * action-free rules that have not looked at any character at or behind the checkpoint boundary. Later runs resume
+     * behind such an invocation without rematching it. Only the outermost invocations are kept as checkpoints, the
+     * ones nested inside of them are dropped.
+     */
+    private class CheckpointingHandler implements MatchHandler {
+        private final Handler inner;
+        private final TrackingInputBuffer trackingBuffer;
+        private final List<RulePosition> recorded = new ArrayList<RulePosition>();
+
+        // the state of the current rule invocation, saved and merged on every level
+        private int maxSuccessIndex = -1; // the error location as determined by the ErrorLocatingParseRunner
+        private int fringeIndex = -1; // the furthest index reached by a single char match
+        private MatcherPath fringePath; // the path of the first single char match reaching the fringe index
+
+        private CheckpointingHandler(Handler inner, InputBuffer buffer) {
+            this.inner = inner;
+            this.trackingBuffer = new TrackingInputBuffer(buffer);
+        }
+
+        public boolean match(MatcherContext<?> context) {
+            int startIndex = context.getCurrentIndex();
+            Matcher matcher = unwrap(context.getMatcher());
+            RulePosition position = null;
+            if (startIndex < checkpointBoundary && checkpointableMatchers.contains(matcher)) {
+                position = new RulePosition(matcher, startIndex);
+                Checkpoint checkpoint = checkpoints.get(position);
+                if (checkpoint != null) return resume(context, position, checkpoint);
+            }
+
+            int savedMaxSuccessIndex = maxSuccessIndex;
+            int savedFringeIndex = fringeIndex;
+            MatcherPath savedFringePath = fringePath;
+            int savedReadIndex = trackingBuffer.maxReadIndex;
+            int savedResyncChecks = inner.resyncChecks;
+            int savedRecorded = recorded.size();
+            maxSuccessIndex = fringeIndex = -1;
+            fringePath = null;
+            trackingBuffer.maxReadIndex = startIndex;
+
+            boolean matched = inner.match(context);
+
+            int endIndex = context.getCurrentIndex();
+            if (matcher instanceof TestNotMatcher) {
+                maxSuccessIndex = -1; // matches underneath TestNots do not count for the error location
+            } else if (matched && maxSuccessIndex < endIndex) {
+                maxSuccessIndex = endIndex;
+            }
+            if (matched && fringeIndex < endIndex && matcher.accept(inner.isSingleCharMatcherVisitor)) {
+                fringeIndex = endIndex;
+                fringePath = context.getPath();
+            }
+            int readIndex = trackingBuffer.maxReadIndex;
+            if (position != null && readIndex < checkpointBoundary && inner.resyncChecks == savedResyncChecks) {
+                // the outcome of this invocation only depends on the input in front of the boundary
+                for (int i = recorded.size() - 1; i >= savedRecorded; i--) {
+                    checkpoints.remove(recorded.remove(i));
+                }
+                checkpoints.put(position, new Checkpoint(context, matched, readIndex, maxSuccessIndex, fringeIndex,
+                        fringePath));
+                recorded.add(position);
+            }
+
+            maxSuccessIndex = Math.max(savedMaxSuccessIndex, maxSuccessIndex);
+            if (fringeIndex <= savedFringeIndex) {
+                fringeIndex = savedFringeIndex;
+                fringePath = savedFringePath;
+            }
+            trackingBuffer.maxReadIndex = Math.max(savedReadIndex, readIndex);
+            return matched;
+        }
+
+        private boolean resume(MatcherContext<?> context, RulePosition position, Checkpoint checkpoint) {
+            recorded.add(position);
+            trackingBuffer.maxReadIndex = Math.max(trackingBuffer.maxReadIndex, checkpoint.readIndex);
+            maxSuccessIndex = Math.max(maxSuccessIndex, checkpoint.maxSuccessIndex);
+            if (checkpoint.fringeIndex > fringeIndex || checkpoint.fringeIndex > inner.fringeIndex) {
+                MatcherPath path = checkpoint.getFringePath(context);
+                if (checkpoint.fringeIndex > fringeIndex) {
+                    fringeIndex = checkpoint.fringeIndex;
+                    fringePath = path;
+                }
+                if (checkpoint.fringeIndex > inner.fringeIndex) {
+                    inner.fringeIndex = checkpoint.fringeIndex;
+                    inner.lastMatchPath = path;
+                }
+            }
+            if (checkpoint.hasError) context.markError();
+            if (!checkpoint.matched) return false;
+            context.setCurrentIndex(checkpoint.endIndex);
+            return true;
+        }
+    }
+
+    /**
+     * The recorded outcome of a rule invocation.
+     */
+    private static class Checkpoint {
+        private final boolean matched;
+        private final int endIndex;
+        private final boolean hasError;
+        private final int readIndex; // the largest index the invocation looked at
+        private final int maxSuccessIndex;
+        private final int fringeIndex;
+        private final int level;
+        private final MatcherPath.Element[] fringeElements; // the fringe path below the invocation, deepest first
+
+        private Checkpoint(MatcherContext<?> context, boolean matched, int readIndex, int maxSuccessIndex,
+                           int fringeIndex, MatcherPath fringePath) {
+            this.matched = matched;
+            this.endIndex = context.getCurrentIndex();
+            this.hasError = context.hasError();
+            this.readIndex = readIndex;
+            this.maxSuccessIndex = maxSuccessIndex;
+            this.fringeIndex = fringeIndex;
+            this.level = context.getLevel();
+            List<MatcherPath.Element> elements = new ArrayList<MatcherPath.Element>();
+            for (MatcherPath path = fringePath; path != null && path.element.level > level; path = path.parent) {
+                elements.add(path.element);
+            }
+            this.fringeElements = elements.toArray(new MatcherPath.Element[elements.size()]);
+        }
+
+        // recreates the fringe path below the given context, which might sit on a different level than the original
+        private MatcherPath getFringePath(MatcherContext<?> context) {
+            int shift = context.getLevel() - level;
+            MatcherPath path = context.getPath();
+            for (int i = fringeElements.length - 1; i >= 0; i--) {
+                MatcherPath.Element element = fringeElements[i];
+                path = new MatcherPath(shift == 0 ? element :
+                        new MatcherPath.Element(element.matcher, element.startIndex, element.level + shift), path);
+            }
+            return path;
+        }
+    }
+
+    private static class RulePosition {
+        private final Matcher matcher;
+        private final int index;
+
+        private RulePosition(Matcher matcher, int index) {
+            this.matcher = matcher;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof RulePosition)) return false;
+            RulePosition that = (RulePosition) obj;
+            return matcher == that.matcher && index == that.index;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(matcher) + index;
+        }
+    }
+
+    /**
+     * An InputBuffer wrapper keeping track of the largest index looked at.
+     */
+    private static class TrackingInputBuffer implements InputBuffer {
+        private final InputBuffer buffer;
+        private int maxReadIndex;
+
+        private TrackingInputBuffer(InputBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public char charAt(int index) {
+            if (maxReadIndex < index) maxReadIndex = index;
+            return buffer.charAt(index);
+        }
+
+        public boolean test(int index, char[] characters) {
+            if (maxReadIndex < index + characters.length) maxReadIndex = index + characters.length;
+            return buffer.test(index, characters);
+        }
+
+        public String extract(int start, int end) { return buffer.extract(start, end); }
+
+        public String extract(IndexRange range) { return buffer.extract(range); }
+
+        public Position getPosition(int index) { return buffer.getPosition(index); }
+
+        public int getOriginalIndex(int index) { return buffer.getOriginalIndex(index); }
+
+        public String extractLine(int lineNumber) { return buffer.extractLine(lineNumber); }
+
+        public int getLineCount() { return buffer.getLineCount(); }
+    }
+
+    // determines all rules whose outcome only depends on the input, i.e. the ones that (directly or indirectly)
+    // neither contain actions, Vars nor custom matchers other than single character ones; single character rules
+    // themselves are not worth checkpointing
+    private static Set<Matcher> findCheckpointableMatchers(Matcher root) {
+        Set<Matcher> matchers = new HashSet<Matcher>();
+        Map<Matcher, List<Matcher>> parents = new HashMap<Matcher, List<Matcher>>();
+        LinkedList<Matcher> impure = new LinkedList<Matcher>();
+        LinkedList<Matcher> queue = new LinkedList<Matcher>();
+        queue.add(unwrap(root));
+        matchers.add(unwrap(root));
+        while (!queue.isEmpty()) {
+            Matcher matcher = queue.removeFirst();
+            if (matcher instanceof ActionMatcher ||
+                    matcher instanceof CustomMatcher && !((CustomMatcher) matcher).isSingleCharMatcher()) {
+                impure.add(matcher);
+            }
+            for (Matcher child : matcher.getChildren()) {
+                Matcher target = unwrap(child);
+                if (isVarFramed(child)) impure.add(target);
+                List<Matcher> targetParents = parents.get(target);
+                if (targetParents == null) {
+                    targetParents = new ArrayList<Matcher>();
+                    parents.put(target, targetParents);
+                }
+                targetParents.add(matcher);
+                if (matchers.add(target)) queue.add(target);
+            }
+        }
+
+        Set<Matcher> tainted = new HashSet<Matcher>();
+        while (!impure.isEmpty()) {
+            Matcher matcher = impure.removeFirst();
+            if (tainted.add(matcher) && parents.containsKey(matcher)) impure.addAll(parents.get(matcher));
+        }
+        matchers.removeAll(tainted);
+        for (Iterator<Matcher> i = matchers.iterator(); i.hasNext(); ) {
+            if (i.next().getChildren().isEmpty()) i.remove();
+        }
+        return matchers;
+    }
+
+    private static boolean isVarFramed(Matcher matcher) {
+        while (true) {
+            if (matcher instanceof VarFramingMatcher) return true;
+            if (matcher instanceof ProxyMatcher) matcher = ProxyMatcher.unwrap(matcher);
+            else if (matcher instanceof MemoMismatchesMatcher) matcher = MemoMismatchesMatcher.unwrap(matcher);
+            else if (matcher instanceof DfaMatcher) matcher = DfaMatcher.unwrap(matcher);
+            else return false;
+        }
+    }
+
     /**
      * This MatcherVisitor collects the minimal set of actions that has to run underneath a resyncronization sequence
      * in order to maintain a consistent Value Stack state.
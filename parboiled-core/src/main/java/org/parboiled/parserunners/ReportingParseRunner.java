@@ -29,8 +29,13 @@ import static org.parboiled.common.Preconditions.checkArgNotNull;
  * does not conform to the rule grammar.
  * It performs exactly as the {@link BasicParseRunner} on valid input, however, on invalid input two more parsing
  * runs are initiated: one for recording the first parse error and one for collecting the error report information.
+ * In single pass mode (see {@link #withSinglePassErrorLocation()}) the error location and report information are
+ * instead collected during the first parsing run, so invalid input is never parsed more than once. This comes at the
+ * price of a somewhat slower first run, since fast string matching has to be disabled.
  */
 public class ReportingParseRunner<V> extends AbstractParseRunner<V> {
+    private boolean singlePass;
+    private boolean deferredActions;
 
     /**
      * Create a new ReportingParseRunner instance with the given rule and input text and returns the result of
@@ -58,29 +63,66 @@ public class ReportingParseRunner<V> extends AbstractParseRunner<V> {
         super(rule);
     }
 
+    /**
+     * Switches this runner to single pass mode, in which the error location and report information is collected
+     * during the first parsing run rather than in two additional runs.
+     *
+     * @return this instance
+     */
+    public ReportingParseRunner<V> withSinglePassErrorLocation() {
+        this.singlePass = true;
+        return this;
+    }
+
+    /**
+     * Switches the first parsing run to deferred action execution (see {@link BasicParseRunner#withDeferredActions()}),
+     * so that no parser actions run at all on invalid input before the error reporting runs.
+     *
+     * @return this instance
+     */
+    public ReportingParseRunner<V> withDeferredActions() {
+        this.deferredActions = true;
+        return this;
+    }
+
     public ParsingResult<V> run(InputBuffer inputBuffer) {
         checkArgNotNull(inputBuffer, "inputBuffer");
         resetValueStack();
+        boolean budgetStarted = startRun();
+        try {
+            if (singlePass) {
+                // locate and report a potential error in one go
+                return runTrackingMatch(inputBuffer);
+            }
 
-        // first, run a basic match
-        ParsingResult<V> result = runBasicMatch(inputBuffer);
-        if (result.matched) return result; // all good
+            // first, run a basic match
+            ParsingResult<V> result = runBasicMatch(inputBuffer);
+            if (result.matched) return result; // all good
 
-        // ok, we have a parse error, so determine the error location
-        resetValueStack();
-        result = runLocatingMatch(inputBuffer);
-        Preconditions.checkState(!result.matched); // we failed before so we should really be failing again
-        Preconditions.checkState(result.parseErrors.size() >= 1); // may be more than one in case of custom ActionExceptions
-        
-        // finally perform a third, reporting run (now that we know the error location)
-        resetValueStack();
-        result = runReportingMatch(inputBuffer, result.parseErrors.get(0).getStartIndex());
-        Preconditions.checkState(!result.matched); // we failed before so we should really be failing again
-        return result;
+            // ok, we have a parse error, so determine the error location
+            resetValueStack();
+            result = runLocatingMatch(inputBuffer);
+            Preconditions.checkState(!result.matched); // we failed before so we should really be failing again
+            Preconditions.checkState(result.parseErrors.size() >= 1); // may be more than one in case of custom ActionExceptions
+
+            // finally perform a third, reporting run (now that we know the error location)
+            resetValueStack();
+            result = runReportingMatch(inputBuffer, result.parseErrors.get(0).getStartIndex());
+            Preconditions.checkState(!result.matched); // we failed before so we should really be failing again
+            return result;
+        } catch (ParseBudget.ExceededException e) {
+            return createBudgetExceededResult(e, budgetStarted, inputBuffer);
+        } finally {
+            finishRun();
+        }
     }
 
     protected ParsingResult<V> runBasicMatch(InputBuffer inputBuffer) {
-        ParseRunner<V> basicRunner = new BasicParseRunner<V>(getRootMatcher())
+        BasicParseRunner<V> basicRunner = new BasicParseRunner<V>(getRootMatcher());
+        if (deferredActions) basicRunner.withDeferredActions();
+        basicRunner
+            .withMatchHandlerChain(getMatchHandlerChain())
+            .withParseBudget(getParseBudget())
             .withParseErrors(getParseErrors())
             .withValueStack(getValueStack());
         return basicRunner.run(inputBuffer);
@@ -88,12 +130,25 @@ public class ReportingParseRunner<V> extends AbstractParseRunner<V> {
 
     protected ParsingResult<V> runLocatingMatch(InputBuffer inputBuffer) {
         ParseRunner<V> locatingRunner = new ErrorLocatingParseRunner<V>(getRootMatcher())
+                .withMatchHandlerChain(getMatchHandlerChain())
+                .withParseBudget(getParseBudget())
                 .withValueStack(getValueStack());
         return locatingRunner.run(inputBuffer);
     }
 
+    protected ParsingResult<V> runTrackingMatch(InputBuffer inputBuffer) {
+        ParseRunner<V> trackingRunner = new ErrorTrackingParseRunner<V>(getRootMatcher())
+                .withMatchHandlerChain(getMatchHandlerChain())
+                .withParseBudget(getParseBudget())
+                .withParseErrors(getParseErrors())
+                .withValueStack(getValueStack());
+        return trackingRunner.run(inputBuffer);
+    }
+
     protected ParsingResult<V> runReportingMatch(InputBuffer inputBuffer, int errorIndex) {
         ParseRunner<V> reportingRunner = new ErrorReportingParseRunner<V>(getRootMatcher(), errorIndex)
+                .withMatchHandlerChain(getMatchHandlerChain())
+                .withParseBudget(getParseBudget())
                 .withParseErrors(getParseErrors())
                 .withValueStack(getValueStack());
         return reportingRunner.run(inputBuffer);
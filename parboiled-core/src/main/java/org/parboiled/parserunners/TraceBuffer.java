@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+import static org.parboiled.common.Preconditions.checkArgument;
+
+/**
+ * <p>A bounded ring buffer of binary trace records, as written by the {@link TraceRecordingParseRunner}. Once the
+ * buffer is full every new record overwrites the oldest one, so the buffer always holds the last
+ * {@link #getCapacity()} records. The buffer can either live on the heap or in a memory-mapped file, which survives
+ * a crash of the process and can be decoded offline with a {@link TraceDecoder}.</p>
+ * <p>Each record takes 20 bytes: the id of the matcher, the input range of the matcher invocation, the level of the
+ * matcher and the outcome of the invocation, and the nanoseconds since the previous record. The buffer starts
+ * with a 20 byte header holding a magic number, the version of the record format, the capacity and the total number
+ * of records written so far. Buffers of other format versions are rejected when opened for decoding.</p>
+ * <p>A TraceBuffer is not thread-safe, it must only be written by one parsing run at a time.</p>
+ */
+public final class TraceBuffer {
+    static final int MAGIC = 0x50425446; // "PBTF"
+    static final int VERSION = 2;
+
+    // format version 1 had no version field, but its own magic number followed by the capacity at offset 4, and
+    // 16 byte records holding the time delta but no start index
+    static final int VERSION_1_MAGIC = 0x50425452; // "PBTR"
+    static final int HEADER_SIZE = 20;
+    static final int RECORD_SIZE = 20;
+
+    // the outcomes of a matcher invocation
+    static final int MATCHED = 0;
+    static final int FAILED = 1;
+    static final int ABORTED = 2; // the matcher threw an exception
+    static final int RUN_START = 3; // not a matcher invocation but the start of a new parsing run
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private long count;
+    private long lastNanoTime;
+
+    /**
+     * Creates a new TraceBuffer on the heap.
+     *
+     * @param capacity the maximum number of records held
+     */
+    public TraceBuffer(int capacity) {
+        this(ByteBuffer.allocate(size(capacity)), capacity);
+    }
+
+    private TraceBuffer(ByteBuffer buffer, int capacity) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.capacity = capacity;
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, capacity);
+        buffer.putLong(12, 0L);
+    }
+
+    private TraceBuffer(ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        checkArgument(buffer.limit() >= HEADER_SIZE, "Not a parboiled trace buffer");
+        int magic = buffer.getInt(0);
+        checkArgument(magic == MAGIC || magic == VERSION_1_MAGIC, "Not a parboiled trace buffer");
+        int version = magic == VERSION_1_MAGIC ? 1 : buffer.getInt(4);
+        checkArgument(version == VERSION, "Unsupported trace buffer format version " + version +
+                ", only version " + VERSION + " can be decoded (was the trace written by another parboiled version?)");
+        this.capacity = buffer.getInt(8);
+        checkArgument(capacity > 0 && buffer.limit() >= size(capacity), "Truncated trace buffer");
+        this.count = buffer.getLong(12);
+    }
+
+    /**
+     * Creates a new TraceBuffer in a memory-mapped file. An existing file is overwritten.
+     *
+     * @param file     the file
+     * @param capacity the maximum number of records held
+     * @return the new TraceBuffer
+     * @throws IOException if the file cannot be mapped
+     */
+    public static TraceBuffer create(File file, int capacity) throws IOException {
+        checkArgNotNull(file, "file");
+        return new TraceBuffer(map(file, "rw", FileChannel.MapMode.READ_WRITE, size(capacity)), capacity);
+    }
+
+    /**
+     * Opens an existing trace file for decoding.
+     *
+     * @param file the file written via a TraceBuffer created with {@link #create(File, int)}
+     * @return the TraceBuffer
+     * @throws IOException if the file cannot be mapped
+     */
+    public static TraceBuffer open(File file) throws IOException {
+        checkArgNotNull(file, "file");
+        return new TraceBuffer(map(file, "r", FileChannel.MapMode.READ_ONLY, file.length()));
+    }
+
+    /**
+     * Wraps the given bytes holding the contents of a TraceBuffer for decoding.
+     *
+     * @param bytes the bytes, e.g. a copy of {@link #toByteArray()}
+     * @return the TraceBuffer
+     */
+    public static TraceBuffer wrap(byte[] bytes) {
+        checkArgNotNull(bytes, "bytes");
+        return new TraceBuffer(ByteBuffer.wrap(bytes));
+    }
+
+    private static int size(int capacity) {
+        checkArgument(capacity > 0 && capacity <= (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE,
+                "Illegal trace buffer capacity");
+        return HEADER_SIZE + capacity * RECORD_SIZE;
+    }
+
+    private static ByteBuffer map(File file, String mode, FileChannel.MapMode mapMode, long size)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, mode);
+        try {
+            if (mapMode == FileChannel.MapMode.READ_WRITE) raf.setLength(size);
+            return raf.getChannel().map(mapMode, 0, size); // the mapping stays valid after closing the file
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return the maximum number of records held
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the total number of records written, including the ones that have been overwritten already
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of records currently held
+     */
+    public int size() {
+        return (int) Math.min(count, capacity);
+    }
+
+    /**
+     * Drops all records.
+     */
+    public void clear() {
+        count = 0;
+        buffer.putLong(12, 0L);
+    }
+
+    /**
+     * @return a copy of the complete buffer contents, which can be decoded after {@link #wrap(byte[])}
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[size(capacity)];
+        ByteBuffer copy = buffer.duplicate();
+        copy.clear();
+        copy.get(bytes);
+        return bytes;
+    }
+
+    void recordRunStart() {
+        lastNanoTime = System.nanoTime();
+        write(-1, 0, 0, RUN_START);
+    }
+
+    void record(int matcherId, int startIndex, int endIndex, int level, int outcome) {
+        write(matcherId, startIndex, endIndex, level << 2 | outcome);
+    }
+
+    private void write(int matcherId, int startIndex, int endIndex, int levelAndOutcome) {
+        long now = System.nanoTime();
+        long delta = now - lastNanoTime;
+        lastNanoTime = now;
+        int pos = HEADER_SIZE + (int) (count % capacity) * RECORD_SIZE;
+        buffer.putInt(pos, matcherId);
+        buffer.putInt(pos + 4, startIndex);
+        buffer.putInt(pos + 8, endIndex);
+        buffer.putInt(pos + 12, levelAndOutcome);
+        buffer.putInt(pos + 16, (int) Math.min(delta, 0xFFFFFFFFL)); // read back as unsigned
+        buffer.putLong(12, ++count);
+    }
+
+    // the accessors for the i-th record held, i = 0 being the oldest one
+
+    private int position(int i) {
+        return HEADER_SIZE + (int) ((count - size() + i) % capacity) * RECORD_SIZE;
+    }
+
+    int matcherId(int i) {
+        return buffer.getInt(position(i));
+    }
+
+    int startIndex(int i) {
+        return buffer.getInt(position(i) + 4);
+    }
+
+    int endIndex(int i) {
+        return buffer.getInt(position(i) + 8);
+    }
+
+    int level(int i) {
+        return buffer.getInt(position(i) + 12) >>> 2;
+    }
+
+    int outcome(int i) {
+        return buffer.getInt(position(i) + 12) & 3;
+    }
+
+    long nanos(int i) {
+        return buffer.getInt(position(i) + 16) & 0xFFFFFFFFL;
+    }
+}
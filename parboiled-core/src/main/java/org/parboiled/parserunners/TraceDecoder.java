@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.Rule;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.common.Sink;
+import org.parboiled.matchers.Matcher;
+import org.parboiled.support.Position;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+import static org.parboiled.matchers.MatcherUtils.unwrap;
+
+/**
+ * <p>Renders the records of a {@link TraceBuffer} written by a {@link TraceRecordingParseRunner} in the log format of
+ * the {@link TracingParseRunner}, or exports them in the Chrome trace event format or the collapsed stack format
+ * of flame graph tools. Since the records only hold matcher ids the decoder needs the same grammar the trace was
+ * recorded with.</p>
+ * <p>A record only identifies its matcher and level, the full matcher path of an invocation is reconstructed from
+ * the records of the enclosing invocations, which are always written after the ones of their sub rules. If the
+ * enclosing invocations have not been recorded (because the parsing run is still in progress) the missing part of
+ * the path is shown as "..(n)../".</p>
+ */
+public class TraceDecoder {
+    private final List<Matcher> matchers;
+    private final TraceBuffer traceBuffer;
+    private boolean timings;
+
+    /**
+     * Creates a new TraceDecoder.
+     *
+     * @param rule        the root rule of the parser the trace was recorded with
+     * @param traceBuffer the trace
+     */
+    public TraceDecoder(Rule rule, TraceBuffer traceBuffer) {
+        this(collectMatchers((Matcher) checkArgNotNull(rule, "rule"), new IdentityHashMap<Matcher, Integer>()),
+                traceBuffer);
+    }
+
+    TraceDecoder(List<Matcher> matchers, TraceBuffer traceBuffer) {
+        this.matchers = matchers;
+        this.traceBuffer = checkArgNotNull(traceBuffer, "traceBuffer");
+    }
+
+    /**
+     * Appends the time spent in each rule invocation to the log lines. The times are measured at the end of each
+     * invocation, so they include the tracing overhead of the sub rule invocations.
+     *
+     * @return this instance
+     */
+    public TraceDecoder withTimings() {
+        this.timings = true;
+        return this;
+    }
+
+    /**
+     * Decodes the records held by the trace buffer.
+     *
+     * @param inputBuffer the input of the traced parsing run
+     * @param log         the sink to print the log lines to
+     */
+    public void decode(InputBuffer inputBuffer, Sink<String> log) {
+        checkArgNotNull(inputBuffer, "inputBuffer");
+        checkArgNotNull(log, "log");
+        Records records = new Records();
+        int last = -1;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < records.size; i++) {
+            int outcome = traceBuffer.outcome(i);
+            if (outcome == TraceBuffer.RUN_START) {
+                log.receive("Starting new parsing run\n");
+                last = -1;
+                continue;
+            }
+            int prefix = last >= 0 ? records.commonPrefix(i, last) : -1;
+            int top = i; // the first record to print the matcher of
+            if (prefix >= 0) {
+                top = prefix;
+            } else {
+                while (records.parents[top] >= 0) top = records.parents[top];
+            }
+            if (records.levels[top] > 0) sb.append("..(").append(records.levels[top]).append(")../");
+            int[] path = records.path(i, top);
+            for (int j = 0; j < path.length; j++) {
+                if (j > 0) sb.append('/');
+                sb.append(label(path[j]));
+            }
+
+            Position pos = inputBuffer.getPosition(traceBuffer.endIndex(i));
+            String line = inputBuffer.extractLine(pos.line);
+            sb.append(", ").append(outcomeName(outcome))
+                    .append(", cursor at ").append(pos.line).append(':').append(pos.column)
+                    .append(" after \"").append(line.substring(0, Math.min(line.length(), pos.column - 1)))
+                    .append('"');
+            if (timings) sb.append(" (").append(records.ends[i] - records.starts[i]).append(" ns)");
+            log.receive(sb.append('\n').toString());
+            sb.setLength(0);
+            last = i;
+        }
+    }
+
+    /**
+     * <p>Prints the records held by the trace buffer as a JSON document in the Chrome trace event format, which can
+     * be loaded into chrome://tracing or other trace viewers. Every rule invocation becomes one complete event,
+     * named by the label of its matcher, with the outcome of the invocation as category and the matched input range
+     * as arguments. Every parsing run is marked by an instant event.</p>
+     * <p>Like the times printed by {@link #withTimings()} the durations include the tracing overhead.</p>
+     *
+     * @param out the sink to print the JSON document to
+     */
+    public void printChromeTrace(Sink<String> out) {
+        checkArgNotNull(out, "out");
+        Records records = new Records();
+        StringBuilder sb = new StringBuilder();
+        out.receive("{\"traceEvents\":[");
+        for (int i = 0; i < records.size; i++) {
+            sb.append(i > 0 ? ",\n" : "\n");
+            if (traceBuffer.outcome(i) == TraceBuffer.RUN_START) {
+                sb.append("{\"name\":\"Parsing run\",\"ph\":\"i\",\"s\":\"t\",\"ts\":");
+                appendMicros(sb, records.ends[i]).append(",\"pid\":1,\"tid\":1}");
+            } else {
+                appendJsonString(sb.append("{\"name\":"), label(i));
+                sb.append(",\"cat\":\"").append(outcomeName(traceBuffer.outcome(i)))
+                        .append("\",\"ph\":\"X\",\"ts\":");
+                appendMicros(sb, records.starts[i]).append(",\"dur\":");
+                appendMicros(sb, records.ends[i] - records.starts[i])
+                        .append(",\"pid\":1,\"tid\":1,\"args\":{\"start\":").append(traceBuffer.startIndex(i))
+                        .append(",\"end\":").append(traceBuffer.endIndex(i)).append("}}");
+            }
+            out.receive(sb.toString());
+            sb.setLength(0);
+        }
+        out.receive("\n],\"displayTimeUnit\":\"ns\"}\n");
+    }
+
+    /**
+     * <p>Prints the records held by the trace buffer in the collapsed stack format understood by flame graph tools
+     * (e.g. flamegraph.pl or speedscope): one line per distinct matcher path, with the labels of the matchers
+     * separated by semicolons, followed by the total time in nanoseconds spent in the last matcher of the path
+     * itself, i.e. not in its sub rules. Missing enclosing invocations are shown as "..".</p>
+     *
+     * @param out the sink to print the lines to
+     */
+    public void printCollapsedStacks(Sink<String> out) {
+        checkArgNotNull(out, "out");
+        Records records = new Records();
+        long[] selfTimes = new long[records.size];
+        for (int i = 0; i < records.size; i++) {
+            if (traceBuffer.outcome(i) == TraceBuffer.RUN_START) continue;
+            selfTimes[i] += records.ends[i] - records.starts[i];
+            if (records.parents[i] >= 0) selfTimes[records.parents[i]] -= records.ends[i] - records.starts[i];
+        }
+
+        // we identify each distinct path by the id of its parent path and the id of its last matcher
+        Map<Long, Integer> pathIds = new HashMap<Long, Integer>();
+        List<String> paths = new ArrayList<String>();
+        int[] recordPaths = new int[records.size];
+        Map<String, Long> stackTimes = new TreeMap<String, Long>();
+        for (int i = records.size - 1; i >= 0; i--) { // parents first
+            if (traceBuffer.outcome(i) == TraceBuffer.RUN_START) continue;
+            int parent = records.parents[i];
+            int parentPath = parent >= 0 ? recordPaths[parent] : records.levels[i] > 0 ? -2 : -1;
+            Long key = ((long) parentPath << 32) | (traceBuffer.matcherId(i) & 0xFFFFFFFFL);
+            Integer pathId = pathIds.get(key);
+            if (pathId == null) {
+                String frame = label(i).replace(';', ':');
+                pathId = paths.size();
+                paths.add(parentPath >= 0 ? paths.get(parentPath) + ';' + frame :
+                        parentPath == -2 ? "..;" + frame : frame);
+                pathIds.put(key, pathId);
+            }
+            recordPaths[i] = pathId;
+            String path = paths.get(pathId);
+            Long time = stackTimes.get(path);
+            stackTimes.put(path, time != null ? time + selfTimes[i] : selfTimes[i]);
+        }
+        for (Map.Entry<String, Long> entry : stackTimes.entrySet()) {
+            out.receive(entry.getKey() + ' ' + entry.getValue() + '\n');
+        }
+    }
+
+    private String label(int record) {
+        int id = traceBuffer.matcherId(record);
+        return id >= 0 && id < matchers.size() ? matchers.get(id).toString() : "#" + id;
+    }
+
+    private static String outcomeName(int outcome) {
+        return outcome == TraceBuffer.MATCHED ? "matched" : outcome == TraceBuffer.FAILED ? "failed" : "aborted";
+    }
+
+    private static StringBuilder appendMicros(StringBuilder sb, long nanos) {
+        String fraction = Long.toString(1000 + nanos % 1000);
+        return sb.append(nanos / 1000).append('.').append(fraction, 1, 4);
+    }
+
+    private static void appendJsonString(StringBuilder sb, String string) {
+        sb.append('"');
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * The structure of the records held by the trace buffer.
+     */
+    private class Records {
+        private final int size = traceBuffer.size();
+        private final int[] levels = new int[size];
+        private final int[] parents = new int[size];
+        private final long[] starts = new long[size]; // the start times in nanoseconds after the first record
+        private final long[] ends = new long[size];  // the end times in nanoseconds after the first record
+
+        private Records() {
+            // the parent of a record is the next later record one level up, we find them in one backwards pass
+            int[] latest = new int[16];
+            Arrays.fill(latest, -1);
+            for (int i = size - 1; i >= 0; i--) {
+                if (traceBuffer.outcome(i) == TraceBuffer.RUN_START) {
+                    Arrays.fill(latest, -1);
+                    parents[i] = -1;
+                    continue;
+                }
+                int level = levels[i] = traceBuffer.level(i);
+                if (level >= latest.length) {
+                    int oldLength = latest.length;
+                    latest = Arrays.copyOf(latest, Math.max(2 * oldLength, level + 1));
+                    Arrays.fill(latest, oldLength, latest.length, -1);
+                }
+                parents[i] = level > 0 ? latest[level - 1] : -1;
+                latest[level] = i;
+            }
+
+            // an invocation starts when the previous record before its first sub rule record was written
+            Arrays.fill(starts, -1L);
+            long time = 0;
+            for (int i = 0; i < size; i++) {
+                long nanos = i > 0 ? traceBuffer.nanos(i) : 0;
+                if (starts[i] < 0) starts[i] = time;
+                time += nanos;
+                ends[i] = time;
+                if (parents[i] >= 0 && starts[parents[i]] < 0) starts[parents[i]] = starts[i];
+            }
+        }
+
+        // the records on the path from the given top record down to the given record
+        private int[] path(int record, int top) {
+            int length = 1;
+            for (int r = record; r != top; r = parents[r]) length++;
+            int[] path = new int[length];
+            for (int r = record, i = length - 1; i >= 0; r = parents[r], i--) path[i] = r;
+            return path;
+        }
+
+        private int commonPrefix(int a, int b) {
+            while (a >= 0 && b >= 0 && a != b) {
+                if (levels[a] >= levels[b]) a = parents[a];
+                else b = parents[b];
+            }
+            return a >= 0 && b >= 0 ? a : -1;
+        }
+    }
+
+    /**
+     * Assigns ids to all matchers of the grammar, in a depth first order that only depends on the grammar.
+     *
+     * @param root       the root matcher
+     * @param matcherIds the map to put the ids into
+     * @return the matchers, indexed by their id
+     */
+    static List<Matcher> collectMatchers(Matcher root, Map<Matcher, Integer> matcherIds) {
+        List<Matcher> matchers = new ArrayList<Matcher>();
+        collectMatchers(root, matcherIds, matchers);
+        return matchers;
+    }
+
+    private static void collectMatchers(Matcher matcher, Map<Matcher, Integer> matcherIds, List<Matcher> matchers) {
+        if (matcherIds.containsKey(matcher)) return;
+        matcherIds.put(matcher, matchers.size());
+        matchers.add(matcher);
+        Matcher unwrapped = unwrap(matcher);
+        if (unwrapped != matcher) {
+            // proxies and wrappers are not necessarily the matchers the contexts run
+            collectMatchers(unwrapped, matcherIds, matchers);
+            return;
+        }
+        for (Matcher child : matcher.getChildren()) {
+            collectMatchers(child, matcherIds, matchers);
+        }
+    }
+}
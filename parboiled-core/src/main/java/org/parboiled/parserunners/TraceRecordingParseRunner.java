@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.MatchHandler;
+import org.parboiled.MatcherContext;
+import org.parboiled.Rule;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.common.Sink;
+import org.parboiled.matchers.Matcher;
+import org.parboiled.support.ParsingResult;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+import static org.parboiled.common.Preconditions.checkState;
+
+/**
+ * <p>A {@link ParseRunner} implementation recording a trace of all rule invocations, like the
+ * {@link TracingParseRunner} does, but much cheaper. Instead of formatting a log line for every invocation it writes a
+ * compact binary record into a {@link TraceBuffer}, which only holds the most recent records. The trace can be
+ * rendered in the format of the {@link TracingParseRunner} later with a {@link TraceDecoder}, e.g. via
+ * {@link #printTrace(Sink)}, or exported for trace viewers and flame graph tools.</p>
+ * <p>This makes it feasible to keep tracing enabled in production and to only look at the last few thousand rule
+ * invocations if a parsing run misbehaves. Invocations aborted by an exception (e.g. an exceeded
+ * {@link ParseBudget}) are recorded as well.</p>
+ * <p>Like the {@link TracingParseRunner} this runner behaves like the {@link ReportingParseRunner}, only the first,
+ * basic parsing run is traced. Alternatively the runner can trace all parsing passes of another runner, when
+ * attached to it as a {@link MatchInterceptor}.</p>
+ */
+public class TraceRecordingParseRunner<V> extends ReportingParseRunner<V> implements MatchInterceptor {
+    private final Map<Matcher, Integer> matcherIds = new IdentityHashMap<Matcher, Integer>();
+    private final List<Matcher> matchers;
+    private TraceBuffer traceBuffer;
+    private InputBuffer lastInputBuffer;
+
+    /**
+     * Creates a new TraceRecordingParseRunner instance for the given rule, recording into a heap TraceBuffer
+     * holding the last 64K records.
+     *
+     * @param rule the parser rule
+     */
+    public TraceRecordingParseRunner(Rule rule) {
+        super(rule);
+        matchers = TraceDecoder.collectMatchers(getRootMatcher(), matcherIds);
+    }
+
+    /**
+     * Attaches the given TraceBuffer to this runner.
+     *
+     * @param traceBuffer the buffer to record into
+     * @return this instance
+     */
+    public TraceRecordingParseRunner<V> withTraceBuffer(TraceBuffer traceBuffer) {
+        this.traceBuffer = checkArgNotNull(traceBuffer, "traceBuffer");
+        return this;
+    }
+
+    public TraceBuffer getTraceBuffer() {
+        if (traceBuffer == null) {
+            withTraceBuffer(new TraceBuffer(65536));
+        }
+        return traceBuffer;
+    }
+
+    /**
+     * Renders the trace recorded during the last parsing run(s) in the format of the {@link TracingParseRunner}.
+     *
+     * @param log the sink to print to
+     */
+    public void printTrace(Sink<String> log) {
+        checkState(lastInputBuffer != null, "No parsing run has been traced yet");
+        getTraceDecoder().decode(lastInputBuffer, log);
+    }
+
+    /**
+     * Creates a TraceDecoder for the trace recorded by this runner, which can also export the trace for trace
+     * viewers and flame graph tools.
+     *
+     * @return a new TraceDecoder
+     */
+    public TraceDecoder getTraceDecoder() {
+        return new TraceDecoder(matchers, getTraceBuffer());
+    }
+
+    @Override
+    protected ParsingResult<V> runBasicMatch(InputBuffer inputBuffer) {
+        MatcherContext<V> rootContext = createRootContext(inputBuffer,
+                intercept(inputBuffer, MatchHandlerChain.DIRECT), true);
+        boolean matched = rootContext.runMatcher();
+        return createParsingResult(matched, rootContext);
+    }
+
+    /**
+     * Traces a parsing pass, either of this runner or of another runner this runner has been attached to with
+     * {@link AbstractParseRunner#withMatchInterceptor(MatchInterceptor)}.
+     *
+     * @param inputBuffer the input buffer of the parsing pass
+     * @param next        the handler to delegate the actual match handling to
+     * @return the handler tracing the parsing pass
+     */
+    public MatchHandler intercept(InputBuffer inputBuffer, final MatchHandler next) {
+        getTraceBuffer().recordRunStart();
+        lastInputBuffer = inputBuffer;
+        return new MatchHandler() {
+            public boolean match(MatcherContext<?> context) {
+                Matcher matcher = context.getMatcher();
+                boolean matched;
+                try {
+                    matched = next.match(context);
+                } catch (RuntimeException e) {
+                    record(matcher, context, TraceBuffer.ABORTED);
+                    throw e;
+                } catch (Error e) {
+                    record(matcher, context, TraceBuffer.ABORTED);
+                    throw e;
+                }
+                record(matcher, context, matched ? TraceBuffer.MATCHED : TraceBuffer.FAILED);
+                return matched;
+            }
+        };
+    }
+
+    private void record(Matcher matcher, MatcherContext<?> context, int outcome) {
+        traceBuffer.record(idOf(matcher), context.getStartIndex(), context.getCurrentIndex(), context.getLevel(),
+                outcome);
+    }
+
+    private int idOf(Matcher matcher) {
+        Integer id = matcherIds.get(matcher);
+        if (id == null) {
+            // not reachable via getChildren(), so an offline TraceDecoder will not be able to name this matcher
+            id = matchers.size();
+            matchers.add(matcher);
+            matcherIds.put(matcher, id);
+        }
+        return id;
+    }
+}
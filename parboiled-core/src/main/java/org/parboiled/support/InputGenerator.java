@@ -0,0 +1,626 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.support;
+
+import org.parboiled.Rule;
+import org.parboiled.common.Sink;
+import org.parboiled.errors.ParserRuntimeException;
+import org.parboiled.matchers.*;
+import org.parboiled.matchervisitors.DoWithMatcherVisitor;
+import org.parboiled.matchervisitors.MatcherVisitor;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.parserunners.ProfilingParseRunner;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+import static org.parboiled.common.Preconditions.checkArgument;
+import static org.parboiled.common.Preconditions.checkState;
+import static org.parboiled.matchers.MatcherUtils.unwrap;
+
+/**
+ * <p>Generates random sentences of the language described by a rule, e.g. to produce large inputs for benchmarks and
+ * soak tests, or to look for inputs triggering excessive backtracking with the {@link ProfilingParseRunner}.</p>
+ * <p>The generator walks the matcher graph of the rule with a {@link MatcherVisitor}. Sequences generate all of their
+ * sub rules, FirstOf rules one randomly chosen alternative (see {@link #withWeight(String, double)}) and repetitions
+ * and optional rules a random number of iterations (see {@link #withMaxRepetitions(int)}). Once the sentence has
+ * reached the maximum length or the generator the maximum matcher level, it completes the sentence as quickly as
+ * possible, by always choosing the alternative with the smallest expansion and skipping all optional iterations.</p>
+ * <p>Since parser actions are not run and predicates as well as the ordered choice semantics of FirstOf rules are
+ * not taken into account some grammars do not accept all generated sentences. With {@link #withValidation(int)} the
+ * generator discards these. Near-valid sentences are produced by applying random {@link Mutation}s to the generated
+ * sentences (see {@link #withMutations(int, Mutation...)}).</p>
+ * <p>An InputGenerator is not thread-safe.</p>
+ */
+public class InputGenerator {
+
+    /**
+     * The characters generated for ANY and character classes by default: printable ASCII, tab and newline.
+     */
+    public static final String DEFAULT_ALPHABET;
+
+    static {
+        StringBuilder sb = new StringBuilder("\t\n");
+        for (char c = ' '; c < 127; c++) sb.append(c);
+        DEFAULT_ALPHABET = sb.toString();
+    }
+
+    private static final int INFINITE = Integer.MAX_VALUE;
+
+    /**
+     * The operators turning a generated sentence into a near-valid one.
+     */
+    public enum Mutation {
+        /**
+         * Deletes a random character.
+         */
+        DELETE_CHAR {
+            void apply(StringBuilder sb, Random random, char[] alphabet) {
+                if (sb.length() > 0) sb.deleteCharAt(random.nextInt(sb.length()));
+            }
+        },
+        /**
+         * Inserts a random character at a random position.
+         */
+        INSERT_CHAR {
+            void apply(StringBuilder sb, Random random, char[] alphabet) {
+                sb.insert(random.nextInt(sb.length() + 1), alphabet[random.nextInt(alphabet.length)]);
+            }
+        },
+        /**
+         * Replaces a random character with a random character.
+         */
+        REPLACE_CHAR {
+            void apply(StringBuilder sb, Random random, char[] alphabet) {
+                if (sb.length() == 0) return;
+                sb.setCharAt(random.nextInt(sb.length()), alphabet[random.nextInt(alphabet.length)]);
+            }
+        },
+        /**
+         * Swaps two adjacent characters.
+         */
+        SWAP_CHARS {
+            void apply(StringBuilder sb, Random random, char[] alphabet) {
+                if (sb.length() < 2) return;
+                int i = random.nextInt(sb.length() - 1);
+                char c = sb.charAt(i);
+                sb.setCharAt(i, sb.charAt(i + 1));
+                sb.setCharAt(i + 1, c);
+            }
+        },
+        /**
+         * Duplicates a random range of up to 16 characters.
+         */
+        DUPLICATE_RANGE {
+            void apply(StringBuilder sb, Random random, char[] alphabet) {
+                if (sb.length() == 0) return;
+                int start = random.nextInt(sb.length());
+                int end = start + 1 + random.nextInt(Math.min(16, sb.length() - start));
+                sb.insert(end, sb.substring(start, end));
+            }
+        },
+        /**
+         * Cuts off the sentence at a random position.
+         */
+        TRUNCATE {
+            void apply(StringBuilder sb, Random random, char[] alphabet) {
+                if (sb.length() > 0) sb.setLength(random.nextInt(sb.length()));
+            }
+        };
+
+        abstract void apply(StringBuilder sb, Random random, char[] alphabet);
+    }
+
+    private final Rule rule;
+    private final Matcher rootMatcher;
+    private final Map<Matcher, Integer> costs = new IdentityHashMap<Matcher, Integer>();
+    private final Map<String, Double> weights = new HashMap<String, Double>();
+    private final Generator generator = new Generator();
+    private Random random = new Random();
+    private int maxDepth = 100;
+    private int maxLength = 1000;
+    private int maxRepetitions = 3;
+    private char[] alphabet = DEFAULT_ALPHABET.toCharArray();
+    private int mutationCount;
+    private Mutation[] mutations = Mutation.values();
+    private int maxAttempts;
+    private long discardedCount;
+
+    /**
+     * Creates a new InputGenerator for the given rule.
+     *
+     * @param rule the rule whose language to generate sentences of
+     */
+    public InputGenerator(Rule rule) {
+        this.rule = checkArgNotNull(rule, "rule");
+        this.rootMatcher = (Matcher) rule;
+        computeCosts();
+    }
+
+    /**
+     * Sets the seed of the random generator, for reproducible sentences.
+     *
+     * @param seed the seed
+     * @return this instance
+     */
+    public InputGenerator withSeed(long seed) {
+        random = new Random(seed);
+        return this;
+    }
+
+    /**
+     * Sets the maximum matcher level, i.e. the maximum nesting depth of the rules generating a sentence, beyond which
+     * the generator completes the sentence as quickly as possible. The default is 100.
+     *
+     * @param maxDepth the maximum matcher level
+     * @return this instance
+     */
+    public InputGenerator withMaxDepth(int maxDepth) {
+        checkArgument(maxDepth > 0, "maxDepth must be positive");
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * Sets the sentence length beyond which the generator completes the sentence as quickly as possible. Sentences
+     * can therefore be somewhat longer than this length. The default is 1000.
+     *
+     * @param maxLength the maximum length
+     * @return this instance
+     */
+    public InputGenerator withMaxLength(int maxLength) {
+        checkArgument(maxLength >= 0, "maxLength must not be negative");
+        this.maxLength = maxLength;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of iterations generated for OneOrMore and ZeroOrMore rules, the actual number is
+     * chosen uniformly. The default is 3.
+     *
+     * @param maxRepetitions the maximum number of iterations
+     * @return this instance
+     */
+    public InputGenerator withMaxRepetitions(int maxRepetitions) {
+        checkArgument(maxRepetitions > 0, "maxRepetitions must be positive");
+        this.maxRepetitions = maxRepetitions;
+        return this;
+    }
+
+    /**
+     * Sets the weight of all alternatives of FirstOf rules with the given label. Alternatives without an explicit
+     * weight have a weight of 1, an alternative with a weight of 0 is only chosen to complete a sentence.
+     *
+     * @param label  the label of the alternative(s)
+     * @param weight the weight
+     * @return this instance
+     */
+    public InputGenerator withWeight(String label, double weight) {
+        checkArgNotNull(label, "label");
+        checkArgument(weight >= 0, "weight must not be negative");
+        weights.put(label, weight);
+        return this;
+    }
+
+    /**
+     * Sets the characters generated for ANY, NoneOf and custom matchers and inserted by mutations.
+     * The default is {@link #DEFAULT_ALPHABET}.
+     *
+     * @param alphabet the characters
+     * @return this instance
+     */
+    public InputGenerator withAlphabet(String alphabet) {
+        checkArgument(alphabet != null && alphabet.length() > 0, "alphabet must not be empty");
+        this.alphabet = alphabet.toCharArray();
+        return this;
+    }
+
+    /**
+     * Enables the generation of near-valid sentences, by applying the given number of mutations, chosen randomly
+     * from the given operators, to each generated sentence.
+     *
+     * @param count     the number of mutations per sentence, 0 for valid sentences
+     * @param mutations the mutation operators to choose from, all if none are given
+     * @return this instance
+     */
+    public InputGenerator withMutations(int count, Mutation... mutations) {
+        checkArgument(count >= 0, "count must not be negative");
+        checkArgNotNull(mutations, "mutations");
+        this.mutationCount = count;
+        this.mutations = mutations.length > 0 ? mutations.clone() : Mutation.values();
+        return this;
+    }
+
+    /**
+     * Enables the validation of the generated sentences with a {@link BasicParseRunner}. Sentences not accepted by
+     * the rule are discarded and regenerated, as are mutated sentences that are still accepted.
+     *
+     * @param maxAttempts the number of attempts per sentence before giving up with an {@link IllegalStateException},
+     *                    0 to disable validation
+     * @return this instance
+     */
+    public InputGenerator withValidation(int maxAttempts) {
+        checkArgument(maxAttempts >= 0, "maxAttempts must not be negative");
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * @return the number of sentences discarded by the validation so far
+     */
+    public long getDiscardedCount() {
+        return discardedCount;
+    }
+
+    /**
+     * Generates a sentence.
+     *
+     * @return the sentence
+     */
+    public String generate() {
+        String sentence = generateValid();
+        if (mutationCount == 0) return sentence;
+        for (int attempt = 1; ; attempt++) {
+            StringBuilder sb = new StringBuilder(sentence);
+            for (int i = 0; i < mutationCount; i++) {
+                mutations[random.nextInt(mutations.length)].apply(sb, random, alphabet);
+            }
+            String mutant = sb.toString();
+            if (maxAttempts == 0 || !isAccepted(mutant)) return mutant;
+            discard(attempt, "invalid");
+        }
+    }
+
+    /**
+     * Generates the given number of sentences into the given sink.
+     *
+     * @param count     the number of sentences
+     * @param separator the string to separate the sentences with
+     * @param sink      the sink receiving the sentences and separators
+     */
+    public void generate(long count, String separator, Sink<String> sink) {
+        checkArgNotNull(separator, "separator");
+        checkArgNotNull(sink, "sink");
+        for (long i = 0; i < count; i++) {
+            if (i > 0) sink.receive(separator);
+            sink.receive(generate());
+        }
+    }
+
+    /**
+     * Generates the given number of sentences into the given file, in UTF-8. An existing file is overwritten.
+     *
+     * @param count     the number of sentences
+     * @param separator the string to separate the sentences with
+     * @param file      the file
+     * @throws IOException if the file cannot be written
+     */
+    public void generate(long count, String separator, File file) throws IOException {
+        checkArgNotNull(separator, "separator");
+        checkArgNotNull(file, "file");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF8")));
+        try {
+            for (long i = 0; i < count; i++) {
+                if (i > 0) writer.write(separator);
+                writer.write(generate());
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private String generateValid() {
+        for (int attempt = 1; ; attempt++) {
+            generator.sb.setLength(0);
+            generator.level = 0;
+            rootMatcher.accept(generator);
+            String sentence = generator.sb.toString();
+            if (maxAttempts == 0 || isAccepted(sentence)) return sentence;
+            discard(attempt, "valid");
+        }
+    }
+
+    private boolean isAccepted(String sentence) {
+        try {
+            return new BasicParseRunner<Object>(rule).run(sentence).matched;
+        } catch (ParserRuntimeException e) {
+            return false; // e.g. an action failing on the generated input
+        }
+    }
+
+    private void discard(int attempt, String kind) {
+        discardedCount++;
+        checkState(attempt < maxAttempts,
+                "Could not generate a " + kind + " sentence for rule '" + rule + "' in " + maxAttempts + " attempts");
+    }
+
+    // computes the size of the smallest expansion of every matcher, which the generator follows when completing
+    // a sentence, so that it always terminates
+    private void computeCosts() {
+        final List<Matcher> matchers = new ArrayList<Matcher>();
+        rootMatcher.accept(new DoWithMatcherVisitor(new DoWithMatcherVisitor.Action() {
+            public void process(Matcher matcher) {
+                matchers.add(matcher);
+            }
+        }));
+        CostVisitor costVisitor = new CostVisitor();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Matcher matcher : matchers) {
+                int cost = matcher.accept(costVisitor);
+                if (cost < costOf(matcher)) {
+                    costs.put(matcher, cost);
+                    changed = true;
+                }
+            }
+        }
+        checkArgument(costOf(rootMatcher) < INFINITE, "Rule '" + rule + "' cannot match any input");
+    }
+
+    private int costOf(Matcher matcher) {
+        Integer cost = costs.get(unwrap(matcher));
+        return cost != null ? cost : INFINITE;
+    }
+
+    private boolean isSpecialChar(char c) {
+        return c == Chars.EOI || c == Chars.INDENT || c == Chars.DEDENT;
+    }
+
+    private char randomChar(Characters characters) {
+        int offset = random.nextInt(alphabet.length);
+        for (int i = 0; i < alphabet.length; i++) {
+            char c = alphabet[(offset + i) % alphabet.length];
+            if (characters.contains(c)) return c;
+        }
+        return Chars.EOI;
+    }
+
+    private class CostVisitor implements MatcherVisitor<Integer> {
+        public Integer visit(ActionMatcher matcher) {
+            return 1;
+        }
+
+        public Integer visit(AnyMatcher matcher) {
+            return 1;
+        }
+
+        public Integer visit(CharIgnoreCaseMatcher matcher) {
+            return 1;
+        }
+
+        public Integer visit(CharMatcher matcher) {
+            return 1;
+        }
+
+        public Integer visit(CustomMatcher matcher) {
+            return 1;
+        }
+
+        public Integer visit(CharRangeMatcher matcher) {
+            return 1;
+        }
+
+        public Integer visit(AnyOfMatcher matcher) {
+            return 1;
+        }
+
+        public Integer visit(EmptyMatcher matcher) {
+            return 1;
+        }
+
+        public Integer visit(FirstOfMatcher matcher) {
+            int min = INFINITE;
+            for (Matcher child : matcher.getChildren()) {
+                min = Math.min(min, costOf(child));
+            }
+            return plusOne(min);
+        }
+
+        public Integer visit(NothingMatcher matcher) {
+            return INFINITE;
+        }
+
+        public Integer visit(OneOrMoreMatcher matcher) {
+            return plusOne(costOf(matcher.subMatcher));
+        }
+
+        public Integer visit(OptionalMatcher matcher) {
+            return 1;
+        }
+
+        public Integer visit(SequenceMatcher matcher) {
+            long sum = 1;
+            for (Matcher child : matcher.getChildren()) {
+                sum += costOf(child);
+            }
+            return (int) Math.min(sum, INFINITE);
+        }
+
+        public Integer visit(TestMatcher matcher) {
+            return 1;
+        }
+
+        public Integer visit(TestNotMatcher matcher) {
+            return 1;
+        }
+
+        public Integer visit(ZeroOrMoreMatcher matcher) {
+            return 1;
+        }
+
+        private int plusOne(int cost) {
+            return cost == INFINITE ? INFINITE : cost + 1;
+        }
+    }
+
+    private class Generator implements MatcherVisitor<Void> {
+        private final StringBuilder sb = new StringBuilder();
+        private int level;
+
+        private boolean completing() {
+            return level >= maxDepth || sb.length() >= maxLength;
+        }
+
+        public Void visit(ActionMatcher matcher) {
+            return null; // actions are not run
+        }
+
+        public Void visit(AnyMatcher matcher) {
+            sb.append(alphabet[random.nextInt(alphabet.length)]);
+            return null;
+        }
+
+        public Void visit(CharIgnoreCaseMatcher matcher) {
+            sb.append(random.nextBoolean() ? matcher.charLow : matcher.charUp);
+            return null;
+        }
+
+        public Void visit(CharMatcher matcher) {
+            if (!isSpecialChar(matcher.character)) sb.append(matcher.character);
+            return null;
+        }
+
+        public Void visit(CustomMatcher matcher) {
+            if (matcher.isSingleCharMatcher()) {
+                int offset = random.nextInt(alphabet.length);
+                for (int i = 0; i < alphabet.length; i++) {
+                    char c = alphabet[(offset + i) % alphabet.length];
+                    if (matcher.isStarterChar(c)) {
+                        sb.append(c);
+                        return null;
+                    }
+                }
+            }
+            if (!matcher.canMatchEmpty()) sb.append(matcher.getStarterChar());
+            return null;
+        }
+
+        public Void visit(CharRangeMatcher matcher) {
+            sb.append((char) (matcher.cLow + random.nextInt(matcher.cHigh - matcher.cLow + 1)));
+            return null;
+        }
+
+        public Void visit(AnyOfMatcher matcher) {
+            Characters characters = matcher.characters;
+            char c;
+            if (characters.isSubtractive()) {
+                c = randomChar(characters);
+            } else {
+                char[] chars = characters.getChars();
+                c = chars[random.nextInt(chars.length)];
+            }
+            if (!isSpecialChar(c)) sb.append(c);
+            return null;
+        }
+
+        public Void visit(EmptyMatcher matcher) {
+            return null;
+        }
+
+        public Void visit(FirstOfMatcher matcher) {
+            List<Matcher> children = matcher.getChildren();
+            Matcher chosen = null;
+            if (!completing()) {
+                double total = 0;
+                for (Matcher child : children) {
+                    total += weightOf(child);
+                }
+                double r = random.nextDouble() * total;
+                for (Matcher child : children) {
+                    double weight = weightOf(child);
+                    if (weight > 0 && (r -= weight) < 0) {
+                        chosen = child;
+                        break;
+                    }
+                }
+            }
+            if (chosen == null) {
+                // the first alternative with the smallest expansion
+                for (Matcher child : children) {
+                    if (chosen == null || costOf(child) < costOf(chosen)) chosen = child;
+                }
+            }
+            level++;
+            chosen.accept(this);
+            level--;
+            return null;
+        }
+
+        private double weightOf(Matcher matcher) {
+            if (costOf(matcher) == INFINITE) return 0;
+            Double weight = weights.get(matcher.getLabel());
+            return weight != null ? weight : 1;
+        }
+
+        public Void visit(NothingMatcher matcher) {
+            return null; // never chosen, unless the whole rule cannot match anything
+        }
+
+        public Void visit(OneOrMoreMatcher matcher) {
+            repeat(matcher.subMatcher, 1 + random.nextInt(maxRepetitions), 1);
+            return null;
+        }
+
+        public Void visit(OptionalMatcher matcher) {
+            repeat(matcher.subMatcher, random.nextInt(2), 0);
+            return null;
+        }
+
+        public Void visit(SequenceMatcher matcher) {
+            level++;
+            for (Matcher child : matcher.getChildren()) {
+                child.accept(this);
+            }
+            level--;
+            return null;
+        }
+
+        public Void visit(TestMatcher matcher) {
+            return null; // the following input is expected to match the sub rule anyway
+        }
+
+        public Void visit(TestNotMatcher matcher) {
+            return null;
+        }
+
+        public Void visit(ZeroOrMoreMatcher matcher) {
+            repeat(matcher.subMatcher, random.nextInt(maxRepetitions + 1), 0);
+            return null;
+        }
+
+        private void repeat(Matcher subMatcher, int count, int minCount) {
+            level++;
+            for (int i = 0; i < count && (i < minCount || !completing()); i++) {
+                subMatcher.accept(this);
+            }
+            level--;
+        }
+    }
+}
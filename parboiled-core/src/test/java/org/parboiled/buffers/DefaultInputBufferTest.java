@@ -21,6 +21,8 @@ import org.parboiled.support.Position;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
+
 import static org.testng.Assert.assertEquals;
 
 public class DefaultInputBufferTest {
@@ -76,4 +78,13 @@ public class DefaultInputBufferTest {
         assertEquals(buf.getPosition(13), new Position(5,1));
     }
 
+    @Test
+    public void testLength() {
+        for (int length : new int[] {0, 1, 2, 3, 63, 64, 65, 1000, 65537, 300001}) {
+            char[] chars = new char[length];
+            Arrays.fill(chars, 'x');
+            assertEquals(InputBufferUtils.length(new DefaultInputBuffer(chars)), length);
+        }
+    }
+
 }
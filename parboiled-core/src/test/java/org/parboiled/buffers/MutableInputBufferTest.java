@@ -16,10 +16,15 @@
 
 package org.parboiled.buffers;
 
+import org.parboiled.support.Chars;
 import org.parboiled.support.Position;
 import org.testng.annotations.Test;
 
-import static org.testng.Assert.assertEquals;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.Assert.*;
 
 public class MutableInputBufferTest {
 
@@ -186,4 +191,55 @@ public class MutableInputBufferTest {
         assertEquals(buf.getPosition(15), new Position(5,1));
     }
 
+    @Test
+    public void testTest() {
+        MutableInputBuffer buf = new MutableInputBuffer(new DefaultInputBuffer("abcdefgh".toCharArray()));
+        assertTrue(buf.test(2, "cde".toCharArray()));
+        assertFalse(buf.test(6, "ghi".toCharArray()));
+
+        buf.insertChar(4, 'X');
+        assertTrue(buf.test(2, "cdXef".toCharArray()));
+        assertTrue(buf.test(5, "efgh".toCharArray()));
+        assertTrue(buf.test(0, "abcd".toCharArray()));
+        assertFalse(buf.test(2, "cde".toCharArray()));
+        assertTrue(buf.test(4, "Xe".toCharArray()));
+    }
+
+    @Test
+    public void testRandomInsertionsAndUndos() {
+        String text = "the quick brown fox\njumps over\nthe lazy dog";
+        MutableInputBuffer buf = new MutableInputBuffer(new DefaultInputBuffer(text.toCharArray()));
+        StringBuilder expected = new StringBuilder(text);
+        List<Integer> inserted = new ArrayList<Integer>(); // the current indices of all inserted chars
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            if (inserted.isEmpty() || random.nextInt(3) > 0) {
+                int index = random.nextInt(expected.length() + 1);
+                char c = (char) ('A' + random.nextInt(26));
+                buf.insertChar(index, c);
+                expected.insert(index, c);
+                shift(inserted, index, 1);
+                inserted.add(index);
+            } else {
+                int index = inserted.remove(random.nextInt(inserted.size()));
+                assertEquals(buf.undoCharInsertion(index), expected.charAt(index));
+                expected.deleteCharAt(index);
+                shift(inserted, index, -1);
+            }
+            for (int j = 0; j < 10; j++) {
+                int index = random.nextInt(expected.length() + 2) - 1;
+                char c = index >= 0 && index < expected.length() ? expected.charAt(index) : Chars.EOI;
+                assertEquals(buf.charAt(index), c);
+            }
+            int start = random.nextInt(expected.length());
+            int end = Math.min(expected.length(), start + random.nextInt(6));
+            assertTrue(buf.test(start, expected.substring(start, end).toCharArray()));
+        }
+    }
+
+    private static void shift(List<Integer> indices, int index, int delta) {
+        for (int i = 0; i < indices.size(); i++) {
+            if (indices.get(i) >= index) indices.set(i, indices.get(i) + delta);
+        }
+    }
 }
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation that can be used on the parser class.
+ * Instructs parboiled to not generate a separate class for every action expression and action variable initializer
+ * of the parser but to consolidate them into dispatcher classes, one for all actions and one for all var
+ * initializers (very large parsers might get several). Each action or var initializer instance then only holds the
+ * index of its code in the dispatcher and the values it captured from the rule method.
+ * This reduces the number of loaded classes and can noticeably improve startup time and memory footprint for
+ * grammars with hundreds of actions.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE})
+public @interface ConsolidateActionClasses {
+}
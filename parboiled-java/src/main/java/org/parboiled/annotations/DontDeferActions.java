@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation that can be used on parser methods returning {@link org.parboiled.Rule} objects.
+ * Instructs parboiled to always run the action expressions in the rule method immediately, even if the parse runner
+ * defers action execution (see {@link org.parboiled.parserunners.BasicParseRunner#withDeferredActions()}).
+ * Required for action expressions acting as semantic predicates, i.e. that can evaluate to false, or that access
+ * the parent contexts or the MatcherPath.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD})
+public @interface DontDeferActions {
+}
@@ -17,8 +17,6 @@
 package org.parboiled.transform;
 
 import static org.parboiled.common.Preconditions.*;
-import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
 import static org.objectweb.asm.Opcodes.*;
 
@@ -44,17 +42,29 @@ class ActionClassGenerator extends GroupClassGenerator {
     }
 
     @Override
-    protected void generateMethod(InstructionGroup group, ClassWriter cw) {
-        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "run", '(' + Types.CONTEXT_DESC + ")Z", null, null);
+    protected String getDispatcherName() {
+        return "Actions";
+    }
 
-        insertSetContextCalls(group, 1);
-        convertXLoads(group);
+    @Override
+    protected String getMethodName() {
+        return "run";
+    }
 
-        group.getInstructions().accept(mv);
+    @Override
+    protected String getMethodDescriptor() {
+        return '(' + Types.CONTEXT_DESC + ")Z";
+    }
 
-        mv.visitInsn(IRETURN);
-        mv.visitMaxs(0, 0); // trigger automatic computing
-        mv.visitEnd();
+    @Override
+    protected int getReturnOpcode() {
+        return IRETURN;
+    }
+
+    @Override
+    protected void prepareInstructions(InstructionGroup group) {
+        insertSetContextCalls(group, 1);
+        convertXLoads(group);
     }
 
 }
\ No newline at end of file
@@ -28,6 +28,7 @@ import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
 import org.parboiled.BaseParser;
 import org.parboiled.ContextAware;
@@ -39,8 +40,8 @@ import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static org.parboiled.common.Preconditions.checkArgNotNull;
 
@@ -61,9 +62,9 @@ class AsmUtils {
         return parserClassName + "$$parboiled";
     }
 
-    private static final Map<String, Class<?>> classForDesc = new HashMap<String, Class<?>>();
+    private static final ConcurrentMap<String, Class<?>> classForDesc = new ConcurrentHashMap<String, Class<?>>();
 
-    public static synchronized Class<?> getClassForInternalName(String classDesc) {
+    public static Class<?> getClassForInternalName(String classDesc) {
         checkArgNotNull(classDesc, "classDesc");
         Class<?> clazz = classForDesc.get(classDesc);
         if (clazz == null) {
@@ -88,7 +89,7 @@ class AsmUtils {
         return clazz;
     }
 
-    public static synchronized void clearClassCache() {
+    public static void clearClassCache() {
         classForDesc.clear();
     }
 
@@ -256,8 +257,8 @@ class AsmUtils {
         checkArgNotNull(methodDescriptor, "methodDescriptor");
         InsnList instructions = new InsnList();
         Type[] types = Type.getArgumentTypes(methodDescriptor);
-        for (int i = 0; i < types.length; i++) {
-            instructions.add(new VarInsnNode(getLoadingOpcode(types[i]), i + 1));
+        for (int i = 0, slot = 1; i < types.length; slot += types[i++].getSize()) {
+            instructions.add(new VarInsnNode(getLoadingOpcode(types[i]), slot));
         }
         return instructions;
     }
@@ -285,6 +286,66 @@ class AsmUtils {
         }
     }
 
+    /**
+     * Creates the instructions converting a value of the given type on the stack into an object.
+     *
+     * @param type the type of the value
+     * @return the boxing instructions, empty for reference types
+     */
+    public static InsnList createBoxing(Type type) {
+        checkArgNotNull(type, "type");
+        InsnList instructions = new InsnList();
+        Type boxedType = getBoxedType(type);
+        if (boxedType != null) {
+            instructions.add(new MethodInsnNode(Opcodes.INVOKESTATIC, boxedType.getInternalName(), "valueOf",
+                    "(" + type.getDescriptor() + ")" + boxedType.getDescriptor(), false));
+        }
+        return instructions;
+    }
+
+    /**
+     * Creates the instructions converting an object on the stack into a value of the given type.
+     *
+     * @param type the type of the value
+     * @return the cast and unboxing instructions
+     */
+    public static InsnList createUnboxing(Type type) {
+        checkArgNotNull(type, "type");
+        InsnList instructions = new InsnList();
+        Type boxedType = getBoxedType(type);
+        if (boxedType != null) {
+            instructions.add(new TypeInsnNode(Opcodes.CHECKCAST, boxedType.getInternalName()));
+            instructions.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, boxedType.getInternalName(),
+                    type.getClassName() + "Value", "()" + type.getDescriptor(), false));
+        } else if (!"java/lang/Object".equals(type.getInternalName())) {
+            instructions.add(new TypeInsnNode(Opcodes.CHECKCAST, type.getInternalName()));
+        }
+        return instructions;
+    }
+
+    private static Type getBoxedType(Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+                return Type.getType(Boolean.class);
+            case Type.BYTE:
+                return Type.getType(Byte.class);
+            case Type.CHAR:
+                return Type.getType(Character.class);
+            case Type.SHORT:
+                return Type.getType(Short.class);
+            case Type.INT:
+                return Type.getType(Integer.class);
+            case Type.DOUBLE:
+                return Type.getType(Double.class);
+            case Type.FLOAT:
+                return Type.getType(Float.class);
+            case Type.LONG:
+                return Type.getType(Long.class);
+            default:
+                return null;
+        }
+    }
+
     /**
      * Determines whether the class with the given descriptor is assignable to the given type.
      *
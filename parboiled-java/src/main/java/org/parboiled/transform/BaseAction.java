@@ -23,15 +23,17 @@
 package org.parboiled.transform;
 
 import static org.parboiled.common.Preconditions.*;
+import org.parboiled.DeferrableAction;
 import org.parboiled.SkippableAction;
 
 /**
  * Base class of generated classes wrapping action expressions.
  */
 @SuppressWarnings({"UnusedDeclaration"})
-public abstract class BaseAction extends BaseGroupClass implements SkippableAction {
+public abstract class BaseAction extends BaseGroupClass implements SkippableAction, DeferrableAction {
 
     private boolean skipInPredicates;
+    private boolean dontDefer;
 
     protected BaseAction(String name) {
         super(checkArgNotNull(name, "name"));
@@ -44,4 +46,12 @@ public abstract class BaseAction extends BaseGroupClass implements SkippableActi
     public void setSkipInPredicates() {
         this.skipInPredicates = true;
     }
+
+    public boolean isDeferrable() {
+        return !dontDefer;
+    }
+
+    public void setDontDefer() {
+        this.dontDefer = true;
+    }
 }
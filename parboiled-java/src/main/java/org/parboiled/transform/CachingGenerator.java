@@ -89,11 +89,12 @@ class CachingGenerator implements RuleMethodProcessor {
     @SuppressWarnings( {"unchecked"})
     private void generateGetFromCache() {
         Type[] paramTypes = Type.getArgumentTypes(method.desc);
-        cacheFieldName = findUnusedCacheFieldName();
-
-        // if we have no parameters we use a simple Rule field as cache, otherwise a HashMap
-        String cacheFieldDesc = paramTypes.length == 0 ? Types.RULE_DESC : "Ljava/util/HashMap;";
-        classNode.fields.add(new FieldNode(ACC_PRIVATE, cacheFieldName, cacheFieldDesc, null, null));
+        // if we have no parameters we use a simple Rule field as cache, otherwise one of the RuleCaches
+        String cacheFieldDesc = paramTypes.length == 0 ? Types.RULE_DESC : 'L' + getCacheType(paramTypes) + ';';
+        synchronized (classNode) { // rule methods are processed concurrently
+            cacheFieldName = findUnusedCacheFieldName();
+            classNode.fields.add(new FieldNode(ACC_PRIVATE, cacheFieldName, cacheFieldDesc, null, null));
+        }
 
         // stack:
         insert(new VarInsnNode(ALOAD, 0));
@@ -103,11 +104,12 @@ class CachingGenerator implements RuleMethodProcessor {
 
         if (paramTypes.length == 0) return; // if we have no parameters we are done
 
-        // generate: if (<cache> == null) <cache> = new HashMap<Object, Rule>();
+        // generate: if (<cache> == null) <cache> = new <cacheType>();
 
-        // stack: <hashMap>
+        String cacheType = getCacheType(paramTypes);
+        // stack: <cache>
         insert(new InsnNode(DUP));
-        // stack: <hashMap> :: <hashMap>
+        // stack: <cache> :: <cache>
         LabelNode alreadyInitialized = new LabelNode();
         insert(new JumpInsnNode(IFNONNULL, alreadyInitialized));
         // stack: <null>
@@ -115,53 +117,120 @@ class CachingGenerator implements RuleMethodProcessor {
         // stack:
         insert(new VarInsnNode(ALOAD, 0));
         // stack: <this>
-        insert(new TypeInsnNode(NEW, "java/util/HashMap"));
-        // stack: <this> :: <hashMap>
+        insert(new TypeInsnNode(NEW, cacheType));
+        // stack: <this> :: <cache>
         insert(new InsnNode(DUP_X1));
-        // stack: <hashMap> :: <this> :: <hashMap>
+        // stack: <cache> :: <this> :: <cache>
         insert(new InsnNode(DUP));
-        // stack: <hashMap> :: <this> :: <hashMap> :: <hashMap>
-        insert(new MethodInsnNode(INVOKESPECIAL, "java/util/HashMap", "<init>", "()V", false));
-        // stack: <hashMap> :: <this> :: <hashMap>
+        // stack: <cache> :: <this> :: <cache> :: <cache>
+        insert(new MethodInsnNode(INVOKESPECIAL, cacheType, "<init>", "()V", false));
+        // stack: <cache> :: <this> :: <cache>
         insert(new FieldInsnNode(PUTFIELD, classNode.name, cacheFieldName, cacheFieldDesc));
-        // stack: <hashMap>
+        // stack: <cache>
         insert(alreadyInitialized);
-        // stack: <hashMap>
+        // stack: <cache>
 
-        // if we have more than one parameter or the parameter is an array we have to wrap with our Arguments class
-        // since we need to unroll all inner arrays and apply custom hashCode(...) and equals(...) implementations
-        if (paramTypes.length > 1 || paramTypes[0].getSort() == Type.ARRAY) {
+        // push the cache keys, keeping copies in local variables for storing the rule later on
+        // (the method body might change the parameter variables)
+        Type keyType = getCacheKeyType(paramTypes);
+        if (keyType.getSort() != Type.OBJECT) {
+            // a single primitive parameter is used directly as key
+            // stack: <cache>
+            insert(new VarInsnNode(keyType.getOpcode(ILOAD), 1));
+            // stack: <cache> :: <key>
+            insert(new InsnNode(keyType.getSize() == 2 ? DUP2 : DUP));
+            // stack: <cache> :: <key> :: <key>
+            insert(new VarInsnNode(keyType.getOpcode(ISTORE), method.maxLocals));
+            // stack: <cache> :: <key>
+        } else if (usesArgumentsKey(paramTypes)) {
+            // if we have more than three parameters or array parameters we have to wrap with our Arguments class
+            // since we need to unroll all inner arrays and apply custom hashCode(...) and equals(...) implementations
             // generate: push new Arguments(new Object[] {<params>})
 
             String arguments = Type.getInternalName(Arguments.class);
-            // stack: <hashMap>
+            // stack: <cache>
             insert(new TypeInsnNode(NEW, arguments));
-            // stack: <hashMap> :: <arguments>
+            // stack: <cache> :: <arguments>
             insert(new InsnNode(DUP));
-            // stack: <hashMap> :: <arguments> :: <arguments>
+            // stack: <cache> :: <arguments> :: <arguments>
             generatePushNewParameterObjectArray(paramTypes);
-            // stack: <hashMap> :: <arguments> :: <arguments> :: <array>
+            // stack: <cache> :: <arguments> :: <arguments> :: <array>
             insert(new MethodInsnNode(INVOKESPECIAL, arguments, "<init>", "([Ljava/lang/Object;)V", false));
-            // stack: <hashMap> :: <arguments>
+            // stack: <cache> :: <arguments>
+            insert(new InsnNode(DUP));
+            // stack: <cache> :: <arguments> :: <arguments>
+            insert(new VarInsnNode(ASTORE, method.maxLocals));
+            // stack: <cache> :: <arguments>
         } else {
-            // stack: <hashMap>
-            generatePushParameterAsObject(paramTypes, 0);
-            // stack: <hashMap> :: <param>
+            for (int i = 0; i < paramTypes.length; i++) {
+                // stack: <cache> :: <keys>
+                generatePushParameterAsObject(paramTypes, i);
+                // stack: <cache> :: <keys> :: <param>
+                insert(new InsnNode(DUP));
+                // stack: <cache> :: <keys> :: <param> :: <param>
+                insert(new VarInsnNode(ASTORE, method.maxLocals + i));
+                // stack: <cache> :: <keys> :: <param>
+            }
         }
 
-        // generate: <hashMap>.get(...)
+        // generate: <cache>.get(<keys>)
 
-        // stack: <hashMap> :: <mapKey>
-        insert(new InsnNode(DUP));
-        // stack: <hashMap> :: <mapKey> :: <mapKey>
-        insert(new VarInsnNode(ASTORE, method.maxLocals));
-        // stack: <hashMap> :: <mapKey>
-        insert(new MethodInsnNode(INVOKEVIRTUAL, "java/util/HashMap", "get", "(Ljava/lang/Object;)Ljava/lang/Object;", false));
-        // stack: <object>
-        insert(new TypeInsnNode(CHECKCAST, Types.RULE.getInternalName()));
+        // stack: <cache> :: <keys>
+        insert(new MethodInsnNode(INVOKEVIRTUAL, cacheType, "get",
+                '(' + getCacheKeysDesc(paramTypes) + ')' + Types.RULE_DESC, false));
         // stack: <rule>
     }
 
+    // the internal name of the RuleCaches class used for the given rule method parameters
+    private static String getCacheType(Type[] paramTypes) {
+        switch (getCacheKeyType(paramTypes).getSort()) {
+            case Type.CHAR:
+                return Type.getInternalName(RuleCaches.CharKeyed.class);
+            case Type.INT:
+                return Type.getInternalName(RuleCaches.IntKeyed.class);
+            case Type.LONG:
+                return Type.getInternalName(RuleCaches.LongKeyed.class);
+            default:
+                return Type.getInternalName(RuleCaches.ObjectKeyed.class);
+        }
+    }
+
+    // the type of the cache keys, the primitive type for caches with primitive keys, Object otherwise
+    private static Type getCacheKeyType(Type[] paramTypes) {
+        if (paramTypes.length == 1) {
+            switch (paramTypes[0].getSort()) {
+                case Type.CHAR:
+                    return Type.CHAR_TYPE;
+                case Type.BOOLEAN:
+                case Type.BYTE:
+                case Type.SHORT:
+                case Type.INT:
+                    return Type.INT_TYPE;
+                case Type.LONG:
+                    return Type.LONG_TYPE;
+            }
+        }
+        return Types.OBJECT;
+    }
+
+    private static boolean usesArgumentsKey(Type[] paramTypes) {
+        if (paramTypes.length > 3) return true;
+        for (Type paramType : paramTypes) {
+            if (paramType.getSort() == Type.ARRAY) return true;
+        }
+        return false;
+    }
+
+    // the descriptor of the key parameters of the get and put methods of the cache
+    private static String getCacheKeysDesc(Type[] paramTypes) {
+        Type keyType = getCacheKeyType(paramTypes);
+        if (keyType.getSort() != Type.OBJECT) return keyType.getDescriptor();
+        if (usesArgumentsKey(paramTypes)) return Types.OBJECT_DESC;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < paramTypes.length; i++) sb.append(Types.OBJECT_DESC);
+        return sb.toString();
+    }
+
     @SuppressWarnings( {"unchecked"})
     private String findUnusedCacheFieldName() {
         String name = "cache$" + method.name;
@@ -200,8 +269,11 @@ class CachingGenerator implements RuleMethodProcessor {
         // stack: ... :: <array>
     }
 
-    private void generatePushParameterAsObject(Type[] paramTypes, int parameterNr) {
-        switch (paramTypes[parameterNr++].getSort()) {
+    private void generatePushParameterAsObject(Type[] paramTypes, int parameterIndex) {
+        // the local variable slot of the parameter, long and double parameters take up two slots
+        int parameterNr = 1;
+        for (int i = 0; i < parameterIndex; i++) parameterNr += paramTypes[i].getSize();
+        switch (paramTypes[parameterIndex].getSort()) {
             case Type.BOOLEAN:
                 insert(new VarInsnNode(ILOAD, parameterNr));
                 insert(new MethodInsnNode(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", false));
@@ -281,11 +353,9 @@ class CachingGenerator implements RuleMethodProcessor {
     private void generateStoreInCache() {
         Type[] paramTypes = Type.getArgumentTypes(method.desc);
 
-        // stack: <rule>
-        insert(new InsnNode(DUP));
-        // stack: <rule> :: <rule>
-
         if (paramTypes.length == 0) {
+            // stack: <rule>
+            insert(new InsnNode(DUP));
             // stack: <rule> :: <rule>
             insert(new VarInsnNode(ALOAD, 0));
             // stack: <rule> :: <rule> :: <this>
@@ -296,23 +366,33 @@ class CachingGenerator implements RuleMethodProcessor {
             return;
         }
 
+        String cacheType = getCacheType(paramTypes);
+        Type keyType = getCacheKeyType(paramTypes);
+        int keySlots = keyType.getSort() != Type.OBJECT ? keyType.getSize() :
+                usesArgumentsKey(paramTypes) ? 1 : paramTypes.length;
+        int ruleVar = method.maxLocals + keySlots;
+
+        // stack: <rule>
+        insert(new InsnNode(DUP));
         // stack: <rule> :: <rule>
-        insert(new VarInsnNode(ALOAD, method.maxLocals));
-        // stack: <rule> :: <rule> :: <mapKey>
-        insert(new InsnNode(SWAP));
-        // stack: <rule> :: <mapKey> :: <rule>
+        insert(new VarInsnNode(ASTORE, ruleVar));
+        // stack: <rule>
         insert(new VarInsnNode(ALOAD, 0));
-        // stack: <rule> :: <mapKey> :: <rule> :: <this>
-        insert(new FieldInsnNode(GETFIELD, classNode.name, cacheFieldName, "Ljava/util/HashMap;"));
-        // stack: <rule> :: <mapKey> :: <rule> :: <hashMap>
-        insert(new InsnNode(DUP_X2));
-        // stack: <rule> :: <hashMap> :: <mapKey> :: <rule> :: <hashMap>
-        insert(new InsnNode(POP));
-        // stack: <rule> :: <hashMap> :: <mapKey> :: <rule>
-        insert(new MethodInsnNode(INVOKEVIRTUAL, "java/util/HashMap", "put",
-                "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", false));
-        // stack: <rule> :: <null>
-        insert(new InsnNode(POP));
+        // stack: <rule> :: <this>
+        insert(new FieldInsnNode(GETFIELD, classNode.name, cacheFieldName, 'L' + cacheType + ';'));
+        // stack: <rule> :: <cache>
+        if (keyType.getSort() != Type.OBJECT) {
+            insert(new VarInsnNode(keyType.getOpcode(ILOAD), method.maxLocals));
+        } else {
+            for (int i = 0; i < keySlots; i++) {
+                insert(new VarInsnNode(ALOAD, method.maxLocals + i));
+            }
+        }
+        // stack: <rule> :: <cache> :: <keys>
+        insert(new VarInsnNode(ALOAD, ruleVar));
+        // stack: <rule> :: <cache> :: <keys> :: <rule>
+        insert(new MethodInsnNode(INVOKEVIRTUAL, cacheType, "put",
+                '(' + getCacheKeysDesc(paramTypes) + Types.RULE_DESC + ")V", false));
         // stack: <rule>
     }
 
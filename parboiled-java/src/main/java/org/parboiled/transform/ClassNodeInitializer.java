@@ -111,6 +111,10 @@ class ClassNodeInitializer extends ClassVisitor {
             hasSkipActionsInPredicates = true;
             return null;
         }
+        if (Types.CONSOLIDATE_ACTION_CLASSES_DESC.equals(desc)) {
+            classNode.setConsolidatingGroupClasses(true);
+            return null;
+        }
         if (Types.BUILD_PARSE_TREE_DESC.equals(desc)) {
             hasBuildParseTree = true;
             return null;
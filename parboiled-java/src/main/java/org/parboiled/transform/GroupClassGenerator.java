@@ -22,7 +22,10 @@ import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.*;
 
+import java.util.List;
+
 import static org.objectweb.asm.Opcodes.*;
+import static org.parboiled.transform.AsmUtils.createUnboxing;
 import static org.parboiled.transform.AsmUtils.findLoadedClass;
 import static org.parboiled.transform.AsmUtils.loadClass;
 
@@ -44,7 +47,41 @@ abstract class GroupClassGenerator implements RuleMethodProcessor {
 
         for (InstructionGroup group : method.getGroups()) {
             if (appliesTo(group.getRoot())) {
-                loadGroupClass(group);
+                if (classNode.isConsolidatingGroupClasses()) {
+                    // the code of the group is generated later on, together with all other groups of the parser
+                    if (classNode.getGroupDispatcher(getDispatcherName()).add(group)) {
+                        prepareInstructions(group);
+                    }
+                } else {
+                    loadGroupClass(group);
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates and loads the dispatcher classes for all groups of the given parser class that were collected
+     * in consolidating mode (see {@link org.parboiled.annotations.ConsolidateActionClasses}).
+     *
+     * @param classNode the parser class node
+     */
+    public void loadDispatcherClasses(ParserClassNode classNode) {
+        this.classNode = checkArgNotNull(classNode, "classNode");
+        ClassLoader classLoader = classNode.getParentClass().getClassLoader();
+        GroupDispatcher dispatcher = classNode.getGroupDispatcher(getDispatcherName());
+        for (List<InstructionGroup> groups : dispatcher.getClassGroups()) {
+            Type dispatcherType = groups.get(0).getGroupClassType();
+            // when precompiling the classes are only generated, never loaded
+            Class<?> dispatcherClass = classNode.isPrecompiling() ? null :
+                    findLoadedClass(dispatcherType.getClassName(), classLoader);
+            if (dispatcherClass == null || forceCodeBuilding) {
+                long start = System.nanoTime();
+                byte[] dispatcherClassCode = generateDispatcherClassCode(dispatcherType, groups);
+                recordGeneratedClass(dispatcherClassCode, start);
+                dispatcher.getClassCodes().put(dispatcherType.getInternalName(), dispatcherClassCode);
+                if (dispatcherClass == null && !classNode.isPrecompiling()) {
+                    defineClass(dispatcherType.getClassName(), dispatcherClassCode, classLoader);
+                }
             }
         }
     }
@@ -56,15 +93,30 @@ abstract class GroupClassGenerator implements RuleMethodProcessor {
         String className = group.getGroupClassType().getClassName();
         ClassLoader classLoader = classNode.getParentClass().getClassLoader();
 
-        Class<?> groupClass;
+        // when precompiling the classes are only generated, never loaded
+        Class<?> groupClass = classNode.isPrecompiling() ? null : findLoadedClass(className, classLoader);
+        if (groupClass == null || forceCodeBuilding) {
+            long start = System.nanoTime();
+            byte[] groupClassCode = generateGroupClassCode(group);
+            recordGeneratedClass(groupClassCode, start);
+            group.setGroupClassCode(groupClassCode);
+            if (groupClass == null && !classNode.isPrecompiling()) {
+                defineClass(className, groupClassCode, classLoader);
+            }
+        }
+    }
+
+    private void recordGeneratedClass(byte[] classCode, long start) {
+        TransformationReport report = classNode.getReport();
+        if (report != null) report.recordGeneratedClass(classCode, System.nanoTime() - start);
+    }
+
+    // the code is generated without holding the lock, only the class definition itself is serialized
+    private static void defineClass(String className, byte[] code, ClassLoader classLoader) {
         synchronized (lock) {
-            groupClass = findLoadedClass(className, classLoader);
-            if (groupClass == null || forceCodeBuilding) {
-                byte[] groupClassCode = generateGroupClassCode(group);
-                group.setGroupClassCode(groupClassCode);
-                if (groupClass == null) {
-                    loadClass(className, groupClassCode, classLoader);
-                }
+            // another thread might have defined the (identical) class in the meantime
+            if (findLoadedClass(className, classLoader) == null) {
+                loadClass(className, code, classLoader);
             }
         }
     }
@@ -94,6 +146,16 @@ abstract class GroupClassGenerator implements RuleMethodProcessor {
 
     protected abstract Type getBaseType();
 
+    protected abstract String getDispatcherName();
+
+    protected abstract String getMethodName();
+
+    protected abstract String getMethodDescriptor();
+
+    protected abstract int getReturnOpcode();
+
+    protected abstract void prepareInstructions(InstructionGroup group);
+
     private void generateFields(InstructionGroup group, ClassWriter cw) {
         for (FieldNode field : group.getFields()) {
             // CAUTION: the FieldNode has illegal access flags and an illegal value field since these two members
@@ -113,14 +175,77 @@ abstract class GroupClassGenerator implements RuleMethodProcessor {
         mv.visitEnd();
     }
 
-    protected abstract void generateMethod(InstructionGroup group, ClassWriter cw);
+    protected void generateMethod(InstructionGroup group, ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, getMethodName(), getMethodDescriptor(), null, null);
+
+        prepareInstructions(group);
+        group.getInstructions().accept(mv);
+
+        mv.visitInsn(getReturnOpcode());
+        mv.visitMaxs(0, 0); // trigger automatic computing
+        mv.visitEnd();
+    }
+
+    private byte[] generateDispatcherClassCode(Type dispatcherType, List<InstructionGroup> groups) {
+        String internalName = dispatcherType.getInternalName();
+        ClassWriter cw = new ClassWriter(ASMSettings.FRAMES);
+        cw.visit(ASMSettings.JDK_VERSION, ACC_PUBLIC + ACC_FINAL + ACC_SYNTHETIC, internalName, null,
+                getBaseType().getInternalName(), null);
+        cw.visitSource(classNode.sourceFile, null);
+        cw.visitField(ACC_PUBLIC + ACC_FINAL + ACC_SYNTHETIC, GroupDispatcher.INDEX_FIELD, "I", null, null);
+        cw.visitField(ACC_PUBLIC + ACC_SYNTHETIC, GroupDispatcher.FIELDS_FIELD, GroupDispatcher.FIELDS_DESC, null,
+                null);
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", GroupDispatcher.CONSTRUCTOR_DESC, null, null);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitMethodInsn(INVOKESPECIAL, getBaseType().getInternalName(), "<init>", "(Ljava/lang/String;)V", false);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ILOAD, 2);
+        mv.visitFieldInsn(PUTFIELD, internalName, GroupDispatcher.INDEX_FIELD, "I");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0); // trigger automatic computing
+        mv.visitEnd();
+
+        // switch over the group index, every case holds the (already prepared) code of one group
+        MethodNode method = new MethodNode(ACC_PUBLIC, getMethodName(), getMethodDescriptor(), null, null);
+        LabelNode defaultLabel = new LabelNode();
+        LabelNode[] labels = new LabelNode[groups.size()];
+        for (int i = 0; i < labels.length; i++) labels[i] = new LabelNode();
+        method.instructions.add(new VarInsnNode(ALOAD, 0));
+        method.instructions.add(new FieldInsnNode(GETFIELD, internalName, GroupDispatcher.INDEX_FIELD, "I"));
+        method.instructions.add(new TableSwitchInsnNode(0, labels.length - 1, defaultLabel, labels));
+        for (int i = 0; i < labels.length; i++) {
+            method.instructions.add(labels[i]);
+            method.instructions.add(groups.get(i).getInstructions());
+            method.instructions.add(new InsnNode(getReturnOpcode()));
+        }
+        method.instructions.add(defaultLabel);
+        method.instructions.add(new TypeInsnNode(NEW, "java/lang/IllegalStateException"));
+        method.instructions.add(new InsnNode(DUP));
+        method.instructions.add(new MethodInsnNode(INVOKESPECIAL, "java/lang/IllegalStateException", "<init>", "()V",
+                false));
+        method.instructions.add(new InsnNode(ATHROW));
+        method.accept(cw);
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
 
     protected void insertSetContextCalls(InstructionGroup group, int localVarIx) {
         InsnList instructions = group.getInstructions();
+        FieldNode parserField = null;
         for (InstructionGraphNode node : group.getNodes()) {
             if (node.isCallOnContextAware()) {
                 AbstractInsnNode insn = node.getInstruction();
 
+                FieldNode targetField = getParserField(group, node.getPredecessors().get(0).getInstruction());
+                if (targetField != null) {
+                    // calls on the parser object itself are covered by a single setContext call at the method start
+                    parserField = targetField;
+                    continue;
+                }
+
                 if (node.getPredecessors().size() > 1) {
                     // store the target of the call in a new local variable
                     AbstractInsnNode loadTarget = node.getPredecessors().get(0).getInstruction();
@@ -139,22 +264,52 @@ abstract class GroupClassGenerator implements RuleMethodProcessor {
                         Types.CONTEXT_AWARE.getInternalName(), "setContext", "(" + Types.CONTEXT_DESC + ")V", true));
             }
         }
+        if (parserField != null) {
+            InsnList setParserContext = createFieldLoad(group, group.getFields().indexOf(parserField));
+            setParserContext.add(new VarInsnNode(ALOAD, 1));
+            setParserContext.add(new MethodInsnNode(INVOKEINTERFACE, Types.CONTEXT_AWARE.getInternalName(),
+                    "setContext", "(" + Types.CONTEXT_DESC + ")V", true));
+            instructions.insert(setParserContext);
+        }
+    }
+
+    // returns the field holding the parser object if the given instruction loads the parser (the rule methods 'this'),
+    // otherwise null
+    private static FieldNode getParserField(InstructionGroup group, AbstractInsnNode insn) {
+        if (insn.getOpcode() != ALOAD) return null;
+        // the xLoads have already been normalized to field indices (see InstructionGroupPreparer)
+        FieldNode field = group.getFields().get(((VarInsnNode) insn).var);
+        return field.access == 0 ? field : null; // the FieldNodes access member holds the original var index
     }
 
     protected void convertXLoads(InstructionGroup group) {
-        String owner = group.getGroupClassType().getInternalName();
         for (InstructionGraphNode node : group.getNodes()) {
             if (!node.isXLoad()) continue;
 
+            // replace the xLoad with the loading of the corresponding field
             VarInsnNode insn = (VarInsnNode) node.getInstruction();
-            FieldNode field = group.getFields().get(insn.var);
-
-            // insert the correct GETFIELD after the xLoad
-            group.getInstructions().insert(insn, new FieldInsnNode(GETFIELD, owner, field.name, field.desc));
+            group.getInstructions().insertBefore(insn, createFieldLoad(group, insn.var));
+            group.getInstructions().remove(insn);
+        }
+    }
 
-            // change the load to ALOAD 0
-            group.getInstructions().set(insn, new VarInsnNode(ALOAD, 0));
+    private static InsnList createFieldLoad(InstructionGroup group, int fieldIndex) {
+        FieldNode field = group.getFields().get(fieldIndex);
+        String owner = group.getGroupClassType().getInternalName();
+        InsnList instructions = new InsnList();
+        instructions.add(new VarInsnNode(ALOAD, 0));
+        if (group.isDispatched()) {
+            // dispatched groups keep their field values in the fields array of the dispatcher instance
+            instructions.add(new FieldInsnNode(GETFIELD, owner, GroupDispatcher.FIELDS_FIELD,
+                    GroupDispatcher.FIELDS_DESC));
+            instructions.add(new LdcInsnNode(fieldIndex));
+            instructions.add(new InsnNode(AALOAD));
+            // the FieldNodes value member has been reused for the field Type!
+            instructions.add(createUnboxing((Type) field.value));
+        } else {
+            instructions.add(new FieldInsnNode(GETFIELD, owner, field.name, field.desc));
         }
+        return instructions;
     }
 
 }
\ No newline at end of file
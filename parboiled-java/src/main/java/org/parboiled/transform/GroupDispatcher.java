@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.transform;
+
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+
+/**
+ * Collects the instruction groups of one kind (actions or var initializers) of a parser class that are to be
+ * consolidated into dispatcher classes (see {@link org.parboiled.annotations.ConsolidateActionClasses}).
+ * A dispatcher class holds the code of all its groups in one method, which selects the group code to run with a
+ * tableswitch over the index passed to the dispatcher instances constructor. The values the group code captured
+ * from the rule method are kept in an object array.
+ */
+class GroupDispatcher {
+
+    static final String INDEX_FIELD = "index";
+    static final String FIELDS_FIELD = "fields";
+    static final String FIELDS_DESC = "[Ljava/lang/Object;";
+    static final String CONSTRUCTOR_DESC = "(Ljava/lang/String;I)V";
+
+    // keeps the dispatch methods well below the code size limit of 64KB
+    private static final int MAX_INSTRUCTIONS_PER_CLASS = 6000;
+
+    private final String internalNamePrefix;
+    private final Map<String, InstructionGroup> groupsByName = new HashMap<String, InstructionGroup>();
+    private final List<List<InstructionGroup>> classGroups = new ArrayList<List<InstructionGroup>>();
+    private final Map<String, byte[]> classCodes = new HashMap<String, byte[]>();
+    private int instructionCount;
+
+    public GroupDispatcher(String internalNamePrefix) {
+        this.internalNamePrefix = checkArgNotNull(internalNamePrefix, "internalNamePrefix");
+    }
+
+    /**
+     * Assigns the given group its dispatcher class and index.
+     *
+     * @param group the group
+     * @return false if the group is identical to a group added before and therefore shares its code
+     */
+    public synchronized boolean add(InstructionGroup group) {
+        InstructionGroup identical = groupsByName.get(group.getName());
+        if (identical != null) {
+            group.setGroupClassType(identical.getGroupClassType());
+            group.setDispatchIndex(identical.getDispatchIndex());
+            return false;
+        }
+
+        int size = group.getInstructions().size();
+        if (classGroups.isEmpty() || instructionCount + size > MAX_INSTRUCTIONS_PER_CLASS) {
+            classGroups.add(new ArrayList<InstructionGroup>());
+            instructionCount = 0;
+        }
+        List<InstructionGroup> groups = classGroups.get(classGroups.size() - 1);
+        group.setGroupClassType(Type.getObjectType(internalNamePrefix + (classGroups.size() - 1)));
+        group.setDispatchIndex(groups.size());
+        groups.add(group);
+        groupsByName.put(group.getName(), group);
+        instructionCount += size;
+        return true;
+    }
+
+    /**
+     * @return the groups of each dispatcher class, in the order of their dispatch indices
+     */
+    public List<List<InstructionGroup>> getClassGroups() {
+        return classGroups;
+    }
+
+    /**
+     * @return the code of the generated dispatcher classes by internal class name
+     */
+    public Map<String, byte[]> getClassCodes() {
+        return classCodes;
+    }
+}
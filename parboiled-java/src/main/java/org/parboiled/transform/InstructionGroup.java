@@ -35,6 +35,7 @@ class InstructionGroup {
     private String name;
     private Type groupClassType;
     private byte[] groupClassCode;
+    private int dispatchIndex = -1;
 
     public InstructionGroup(InstructionGraphNode root) {
         this.root = root;
@@ -80,6 +81,21 @@ class InstructionGroup {
         this.groupClassCode = groupClassCode;
     }
 
+    /**
+     * @return the index of the group in its dispatcher class or -1 if the group has a class of its own
+     */
+    public int getDispatchIndex() {
+        return dispatchIndex;
+    }
+
+    public void setDispatchIndex(int dispatchIndex) {
+        this.dispatchIndex = dispatchIndex;
+    }
+
+    public boolean isDispatched() {
+        return dispatchIndex >= 0;
+    }
+
     @Override
     public String toString() {
         return name != null ? name : super.toString();
@@ -98,7 +98,7 @@ class InstructionGroupPreparer implements RuleMethodProcessor {
     }
 
     // set a group name base on the hash across all group instructions and fields
-    private synchronized void name(InstructionGroup group, ParserClassNode classNode) {
+    private void name(InstructionGroup group, ParserClassNode classNode) {
         // generate an MD5 hash across the buffer, use only the first 96 bit
         MD5Digester digester = new MD5Digester(classNode.name);
         group.getInstructions().accept(digester);
@@ -114,24 +114,31 @@ class InstructionGroupPreparer implements RuleMethodProcessor {
     }
 
     private static class MD5Digester extends MethodVisitor {
-        private static MessageDigest digest;
-        private static ByteBuffer buffer;
-        private final List<Label> labels = new ArrayList<Label>();
-        private final String parserClassName;
-
-        public MD5Digester(String parserClassName) {
-            super(ASMSettings.ASM_API);
-            this.parserClassName = parserClassName;
-            if (digest == null) {
+        // rule methods are transformed concurrently, so every thread gets its own digest and buffer
+        private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+            @Override
+            protected MessageDigest initialValue() {
                 try {
-                    digest = MessageDigest.getInstance("MD5");
+                    return MessageDigest.getInstance("MD5");
                 } catch (NoSuchAlgorithmException e) {
                     throw new RuntimeException(e);
                 }
             }
-            if (buffer == null) {
-                buffer = ByteBuffer.allocateDirect(4096);
+        };
+        private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+            @Override
+            protected ByteBuffer initialValue() {
+                return ByteBuffer.allocateDirect(4096);
             }
+        };
+        private final MessageDigest digest = digests.get();
+        private final ByteBuffer buffer = buffers.get();
+        private final List<Label> labels = new ArrayList<Label>();
+        private final String parserClassName;
+
+        public MD5Digester(String parserClassName) {
+            super(ASMSettings.ASM_API);
+            this.parserClassName = parserClassName;
             buffer.clear();
         }
 
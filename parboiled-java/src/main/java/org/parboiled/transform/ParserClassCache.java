@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.transform;
+
+import java.io.*;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+
+/**
+ * An on-disk cache of the classes generated by the transformation of parser classes.
+ * Each parser class gets one file holding all its generated classes, named by the parser class and its source hash
+ * (see {@link ParserTransformer#computeSourceHash(Class)}), so entries of outdated parser or parboiled versions are
+ * never hit.
+ */
+class ParserClassCache {
+    private static final int MAGIC = 0x50424343;
+
+    private final File directory;
+
+    ParserClassCache(File directory) {
+        this.directory = checkArgNotNull(directory, "directory");
+    }
+
+    /**
+     * @param parserClass the parser class
+     * @param sourceHash  the source hash of the parser class
+     * @return the cached classes by their internal class names or null, if there is no (readable) cache entry
+     */
+    Map<String, byte[]> get(Class<?> parserClass, String sourceHash) {
+        File file = getCacheFile(parserClass, sourceHash);
+        if (!file.isFile() || file.length() > Integer.MAX_VALUE) return null;
+        DataInputStream in = null;
+        try {
+            byte[] entry = new byte[(int) file.length()];
+            in = new DataInputStream(new FileInputStream(file));
+            in.readFully(entry);
+            in.close();
+            // all counts and lengths are checked against the bytes remaining, so a corrupt entry is a mere miss
+            in = new DataInputStream(new ByteArrayInputStream(entry));
+            if (in.readInt() != MAGIC) return null;
+            int count = in.readInt();
+            if (count < 0 || count > in.available() / 6) return null; // every class takes at least 6 bytes
+            Map<String, byte[]> classes = new TreeMap<String, byte[]>();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                int length = in.readInt();
+                if (length < 0 || length > in.available()) return null;
+                byte[] code = new byte[length];
+                in.readFully(code);
+                classes.put(name, code);
+            }
+            return in.available() == 0 ? classes : null;
+        } catch (IOException e) {
+            return null; // a broken entry is simply regenerated
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Stores the given classes for the given parser class. Since the cache is only an optimization failures to
+     * write the entry are ignored. The entry is written to a temporary file first, so concurrently starting JVMs
+     * never see incomplete entries.
+     *
+     * @param parserClass the parser class
+     * @param sourceHash  the source hash of the parser class
+     * @param classes     the generated classes by their internal class names
+     * @return true if the entry was written
+     */
+    boolean put(Class<?> parserClass, String sourceHash, Map<String, byte[]> classes) {
+        File file = getCacheFile(parserClass, sourceHash);
+        File tempFile = null;
+        DataOutputStream out = null;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) return false;
+            tempFile = File.createTempFile(file.getName(), ".tmp", directory);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(classes.size());
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+            out.close();
+            out = null;
+            if (tempFile.renameTo(file)) return true;
+        } catch (IOException e) {
+            // ignore, see above
+        } finally {
+            close(out);
+        }
+        if (tempFile != null) tempFile.delete();
+        return false;
+    }
+
+    File getCacheFile(Class<?> parserClass, String sourceHash) {
+        return new File(directory, parserClass.getName() + '-' + sourceHash + ".classes");
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -36,8 +36,12 @@ class ParserClassNode extends ClassNode {
     private final Type parentType;
     private final List<MethodNode> constructors = new ArrayList<MethodNode>();
     private final Map<String, RuleMethod> ruleMethods = new TreeMap<String, RuleMethod>();
+    private final Map<String, GroupDispatcher> groupDispatchers = new HashMap<String, GroupDispatcher>();
+    private boolean consolidatingGroupClasses;
+    private boolean precompiling;
     private byte[] classCode;
     private Class<?> extendedClass;
+    private TransformationReport report;
 
     public ParserClassNode(Class<?> parentClass) {
         super(ASMSettings.ASM_API);
@@ -61,6 +65,45 @@ class ParserClassNode extends ClassNode {
         return ruleMethods;
     }
 
+    public boolean isConsolidatingGroupClasses() {
+        return consolidatingGroupClasses;
+    }
+
+    public void setConsolidatingGroupClasses(boolean consolidatingGroupClasses) {
+        this.consolidatingGroupClasses = consolidatingGroupClasses;
+    }
+
+    /**
+     * @return true if the generated classes are only to be created but not loaded, since they are written out at
+     *         build time (see {@link ParserPrecompiler})
+     */
+    public boolean isPrecompiling() {
+        return precompiling;
+    }
+
+    public void setPrecompiling(boolean precompiling) {
+        this.precompiling = precompiling;
+    }
+
+    public Collection<GroupDispatcher> getGroupDispatchers() {
+        return groupDispatchers.values();
+    }
+
+    /**
+     * Returns the GroupDispatcher for the dispatcher classes with the given name suffix, creating it if required.
+     *
+     * @param suffix the name suffix
+     * @return the GroupDispatcher
+     */
+    public synchronized GroupDispatcher getGroupDispatcher(String suffix) {
+        GroupDispatcher dispatcher = groupDispatchers.get(suffix);
+        if (dispatcher == null) {
+            dispatcher = new GroupDispatcher(name + '$' + suffix);
+            groupDispatchers.put(suffix, dispatcher);
+        }
+        return dispatcher;
+    }
+
     public byte[] getClassCode() {
         return classCode;
     }
@@ -73,6 +116,17 @@ class ParserClassNode extends ClassNode {
         return extendedClass;
     }
 
+    /**
+     * @return the report collecting the transformation figures or null, if the transformation is not instrumented
+     */
+    public TransformationReport getReport() {
+        return report;
+    }
+
+    public void setReport(TransformationReport report) {
+        this.report = report;
+    }
+
     public void setExtendedClass(Class<?> extendedClass) {
         this.extendedClass = extendedClass;
     }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.transform;
+
+import org.parboiled.common.FileUtils;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+
+/**
+ * <p>Creates the extended parser classes (and their action and var init classes) at build time, so that the
+ * bytecode transformation does not have to run when a parser is first created.</p>
+ * <p>The generated classes are written to the class output directory of the build and picked up by the
+ * {@link ParserTransformer} when their parser class is first used. Each extended parser class carries the hash of
+ * the parser classes it was created from, if the parser (or parboiled itself) has changed since the precompiled
+ * class is ignored and the parser is transformed at runtime as usual.</p>
+ * <p>Usage: {@code java org.parboiled.transform.ParserPrecompiler <outputDir> <parserClassName>...}</p>
+ */
+public class ParserPrecompiler {
+
+    private ParserPrecompiler() {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: ParserPrecompiler <outputDir> <parserClassName>...");
+            System.exit(1);
+        }
+        File outputDir = new File(args[0]);
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        for (int i = 1; i < args.length; i++) {
+            Map<String, byte[]> classes = precompile(Class.forName(args[i], false, classLoader));
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                FileUtils.writeAllBytes(entry.getValue(), new File(outputDir, entry.getKey() + ".class"));
+            }
+            System.out.println("Precompiled " + args[i] + " (" + classes.size() + " classes)");
+        }
+    }
+
+    /**
+     * Runs the transformation of the given parser class without loading any of the generated classes.
+     *
+     * @param parserClass the parser class
+     * @return the code of all generated classes by their internal class names
+     * @throws Exception if the transformation fails
+     */
+    public static Map<String, byte[]> precompile(Class<?> parserClass) throws Exception {
+        checkArgNotNull(parserClass, "parserClass");
+        ParserClassNode classNode = ParserTransformer.extendParserClass(parserClass, true);
+        Map<String, byte[]> classes = new TreeMap<String, byte[]>();
+        classes.put(classNode.name, classNode.getClassCode());
+        for (RuleMethod method : classNode.getRuleMethods().values()) {
+            for (InstructionGroup group : method.getGroups()) {
+                if (group.getGroupClassCode() != null) {
+                    classes.put(group.getGroupClassType().getInternalName(), group.getGroupClassCode());
+                }
+            }
+        }
+        for (GroupDispatcher dispatcher : classNode.getGroupDispatchers()) {
+            classes.putAll(dispatcher.getClassCodes());
+        }
+        return classes;
+    }
+
+}
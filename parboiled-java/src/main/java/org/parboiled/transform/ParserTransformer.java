@@ -17,50 +17,299 @@
 package org.parboiled.transform;
 
 import static org.parboiled.common.Preconditions.*;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.FieldNode;
+import org.parboiled.common.FileUtils;
 import org.parboiled.common.ImmutableList;
+import org.parboiled.common.Sink;
 
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.parboiled.transform.AsmUtils.*;
 
 public class ParserTransformer {
 
+    /**
+     * The name of the static field holding the source hash (see {@link #computeSourceHash(Class)}) in the
+     * extended parser classes created at build time by the {@link ParserPrecompiler}.
+     */
+    public static final String SOURCE_HASH_FIELD = "$$parboiled$sourceHash";
+
+    /**
+     * The system property setting the initial cache directory (see {@link #setCacheDirectory(java.io.File)}).
+     */
+    public static final String CACHE_DIR_PROPERTY = "parboiled.cacheDir";
+
+    // below this number of rule methods (per super method level) parallel processing doesn't pay off
+    private static final int PARALLEL_THRESHOLD = 8;
+
+    // package private for testing, so that the parallel processing can also be exercised on a single CPU
+    static volatile boolean parallel = Runtime.getRuntime().availableProcessors() > 1;
+
+    // the locks serializing the transformations of the individual parser classes
+    private static final Map<Class<?>, Object> locks = new WeakHashMap<Class<?>, Object>();
+    private static ExecutorService pool;
+    private static volatile Sink<TransformationReport> reportSink;
+    private static volatile File cacheDirectory = System.getProperty(CACHE_DIR_PROPERTY) != null ?
+            new File(System.getProperty(CACHE_DIR_PROPERTY)) : null;
+
+    /**
+     * Sets the directory in which the classes generated for parser classes are cached across JVM runs.
+     * On a cache hit the parser class transformation is skipped entirely and the cached classes are loaded directly.
+     * Cache entries are keyed by a hash over the bytecode of the parser class and its super classes (including the
+     * parboiled base classes) and the ASM settings, so changes to a parser or a parboiled upgrade never hit outdated
+     * entries. The initial value is taken from the "parboiled.cacheDir" system property.
+     *
+     * @param directory the cache directory, null to disable caching
+     */
+    public static void setCacheDirectory(File directory) {
+        cacheDirectory = directory;
+    }
+
+    /**
+     * @return the cache directory, or null if caching is disabled
+     */
+    public static File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * Enables the instrumentation of parser class transformations. After each transformation a
+     * {@link TransformationReport} with the time spent in the individual transformation phases, the number of
+     * processed methods and instructions and the number and size of the generated classes is passed to the given
+     * sink. Parser classes loaded from precompiled classes or the cache are not transformed and not reported.
+     *
+     * @param sink the sink receiving the reports, null to disable the instrumentation
+     */
+    public static void setReportSink(Sink<TransformationReport> sink) {
+        reportSink = sink;
+    }
+
     private ParserTransformer() {}
 
-    @SuppressWarnings({"unchecked"})
-    public static synchronized <T> Class<? extends T> transformParser(Class<T> parserClass) throws Exception {
+    public static <T> Class<? extends T> transformParser(Class<T> parserClass) throws Exception {
         checkArgNotNull(parserClass, "parserClass");
+        // different parser classes can be transformed at the same time
+        synchronized (getLock(parserClass)) {
+            return doTransformParser(parserClass);
+        }
+    }
+
+    private static Object getLock(Class<?> parserClass) {
+        synchronized (locks) {
+            Object lock = locks.get(parserClass);
+            if (lock == null) {
+                lock = new Object();
+                locks.put(parserClass, lock);
+            }
+            return lock;
+        }
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private static <T> Class<? extends T> doTransformParser(Class<T> parserClass) throws Exception {
         // first check whether we did not already create and load the extension of the given parser class
         Class<?> extendedClass = findLoadedClass(
                 getExtendedParserClassName(parserClass.getName()), parserClass.getClassLoader()
         );
+        if (extendedClass == null) {
+            // then check for an extension created at build time by the ParserPrecompiler
+            extendedClass = loadPrecompiledClass(parserClass);
+        }
+        if (extendedClass == null && cacheDirectory != null) {
+            extendedClass = loadCachedClass(parserClass, new ParserClassCache(cacheDirectory));
+        }
         return (Class<? extends T>)
                 (extendedClass != null ? extendedClass : extendParserClass(parserClass).getExtendedClass());
     }
 
     static ParserClassNode extendParserClass(Class<?> parserClass) throws Exception {
+        return extendParserClass(parserClass, false);
+    }
+
+    /**
+     * Creates the extension of the given parser class.
+     *
+     * @param parserClass  the parser class
+     * @param precompiling true if the generated classes are only to be created but not loaded (and the extended
+     *                     parser class is to be marked with its source hash), false for a regular transformation
+     * @return the ParserClassNode of the extended parser class
+     * @throws Exception if the transformation fails
+     */
+    static ParserClassNode extendParserClass(Class<?> parserClass, boolean precompiling) throws Exception {
+        long start = System.nanoTime();
+        Sink<TransformationReport> sink = reportSink;
         ParserClassNode classNode = new ParserClassNode(parserClass);
+        classNode.setPrecompiling(precompiling);
+        if (sink != null) classNode.setReport(new TransformationReport(parserClass.getName()));
+
+        long phaseStart = System.nanoTime();
         new ClassNodeInitializer().process(classNode);
+        phaseStart = recordPhase(classNode, "ClassNodeInitializer", phaseStart);
         runMethodTransformers(classNode);
+        phaseStart = System.nanoTime();
         new ConstructorGenerator().process(classNode);
+        recordPhase(classNode, "ConstructorGenerator", phaseStart);
+        if (precompiling) {
+            classNode.fields.add(new FieldNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL |
+                    Opcodes.ACC_SYNTHETIC, SOURCE_HASH_FIELD, "Ljava/lang/String;", null,
+                    computeSourceHash(parserClass)));
+        }
         defineExtendedParserClass(classNode);
+
+        if (sink != null) {
+            classNode.getReport().finish(classNode.getRuleMethods().size(), System.nanoTime() - start);
+            sink.receive(classNode.getReport());
+        }
         return classNode;
     }
 
+    private static long recordPhase(ParserClassNode classNode, String phase, long start) {
+        long now = System.nanoTime();
+        if (classNode.getReport() != null) classNode.getReport().recordPhase(phase, now - start, 0, 0);
+        return now;
+    }
+
+    /**
+     * Loads the extended parser class created at build time for the given parser class, if there is one on the
+     * classpath of the parser class and it was created from the parser class as it is now.
+     *
+     * @param parserClass the parser class
+     * @return the loaded extended parser class or null, if there is no (up-to-date) precompiled class
+     * @throws Exception if the class cannot be read
+     */
+    static Class<?> loadPrecompiledClass(Class<?> parserClass) throws Exception {
+        ClassLoader classLoader = parserClass.getClassLoader();
+        if (classLoader == null) return null;
+        String className = getExtendedParserClassName(parserClass.getName());
+        byte[] classCode = FileUtils.readAllBytes(
+                classLoader.getResourceAsStream(className.replace('.', '/') + ".class"));
+        return classCode != null ? loadPrecompiledClass(parserClass, classCode) : null;
+    }
+
+    static Class<?> loadPrecompiledClass(Class<?> parserClass, byte[] classCode) throws Exception {
+        final String[] sourceHash = new String[1];
+        new ClassReader(classCode).accept(new ClassVisitor(ASMSettings.ASM_API) {
+            @Override
+            public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+                if (SOURCE_HASH_FIELD.equals(name)) sourceHash[0] = (String) value;
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+        // a stale class (the parser or parboiled itself having changed since) is ignored and regenerated
+        if (!computeSourceHash(parserClass).equals(sourceHash[0])) return null;
+        return loadClass(getExtendedParserClassName(parserClass.getName()), classCode, parserClass.getClassLoader());
+    }
+
+    /**
+     * Loads the extended parser class and its generated classes from the given cache, transforming the parser class
+     * and adding a cache entry on a cache miss.
+     *
+     * @param parserClass the parser class
+     * @param cache       the cache
+     * @return the loaded extended parser class
+     * @throws Exception if the transformation fails
+     */
+    static Class<?> loadCachedClass(Class<?> parserClass, ParserClassCache cache) throws Exception {
+        String sourceHash = computeSourceHash(parserClass);
+        Map<String, byte[]> classes = cache.get(parserClass, sourceHash);
+        if (classes == null) {
+            classes = ParserPrecompiler.precompile(parserClass);
+            cache.put(parserClass, sourceHash, classes);
+        }
+
+        // the action and var init classes might have already been loaded for other parsers sharing them
+        ClassLoader classLoader = parserClass.getClassLoader();
+        String extendedName = getExtendedParserClassName(parserClass.getName());
+        byte[] extendedCode = null;
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            String className = entry.getKey().replace('/', '.');
+            if (className.equals(extendedName)) {
+                extendedCode = entry.getValue();
+            } else if (findLoadedClass(className, classLoader) == null) {
+                loadClass(className, entry.getValue(), classLoader);
+            }
+        }
+        checkState(extendedCode != null, "Cache entry for " + parserClass.getName() + " is incomplete");
+        return loadClass(extendedName, extendedCode, classLoader);
+    }
+
+    /**
+     * Computes the hash identifying the input of a parser class transformation, i.e. the class code of the
+     * given parser class and all its super classes (including the parboiled base classes, so that the hash also
+     * changes with the parboiled version) together with the ASM settings.
+     *
+     * @param parserClass the parser class
+     * @return the hex encoded hash
+     * @throws Exception if the class code cannot be read
+     */
+    static String computeSourceHash(Class<?> parserClass) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        for (Class<?> clazz = parserClass; clazz != Object.class; clazz = clazz.getSuperclass()) {
+            String classFilename = clazz.getName().replace('.', '/') + ".class";
+            ClassLoader classLoader = clazz.getClassLoader();
+            byte[] classCode = classLoader != null ?
+                    FileUtils.readAllBytes(classLoader.getResourceAsStream(classFilename)) : null;
+            if (classCode == null) {
+                classCode = FileUtils.readAllBytes(
+                        Thread.currentThread().getContextClassLoader().getResourceAsStream(classFilename));
+            }
+            checkState(classCode != null, "Class code of " + clazz.getName() + " not found");
+            digest.update(classCode);
+        }
+        String settings = ASMSettings.ASM_API + ":" + ASMSettings.JDK_VERSION + ":" + ASMSettings.FRAMES;
+        digest.update(settings.getBytes("UTF-8"));
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
     @SuppressWarnings({"unchecked"})
     private static void runMethodTransformers(ParserClassNode classNode) throws Exception {
-        List<RuleMethodProcessor> methodProcessors = createRuleMethodProcessors();
-
         // iterate through all rule methods
         // since the ruleMethods map on the classnode is a treemap we get the methods sorted by name which puts
         // all super methods first (since they are prefixed with one or more '$')
+        // a method calling its super method requires the super method to be completely processed, so the methods
+        // are processed in waves of the same super method level, the methods of one wave being independent
+        List<RuleMethod> wave = new ArrayList<RuleMethod>();
+        int waveLevel = -1;
         for (RuleMethod ruleMethod : classNode.getRuleMethods().values()) {
             if (!ruleMethod.hasDontExtend()) {
-                for (RuleMethodProcessor methodProcessor : methodProcessors) {
-                    if (methodProcessor.appliesTo(classNode, ruleMethod)) {
-                        methodProcessor.process(classNode, ruleMethod);
-                    }
+                int level = getSuperMethodLevel(ruleMethod);
+                if (level != waveLevel && !wave.isEmpty()) {
+                    processWave(classNode, wave);
+                    wave.clear();
+                }
+                waveLevel = level;
+                wave.add(ruleMethod);
+            }
+        }
+        processWave(classNode, wave);
+
+        if (classNode.isConsolidatingGroupClasses()) {
+            // the dispatcher classes can only be generated once the groups of all rule methods have been collected
+            for (RuleMethodProcessor methodProcessor : createRuleMethodProcessors()) {
+                if (methodProcessor instanceof GroupClassGenerator) {
+                    ((GroupClassGenerator) methodProcessor).loadDispatcherClasses(classNode);
                 }
             }
         }
@@ -72,6 +321,116 @@ public class ParserTransformer {
         }
     }
 
+    private static int getSuperMethodLevel(RuleMethod ruleMethod) {
+        int level = 0;
+        while (level < ruleMethod.name.length() && ruleMethod.name.charAt(level) == '$') level++;
+        return level;
+    }
+
+    private static void processWave(final ParserClassNode classNode, List<RuleMethod> wave) throws Exception {
+        // the output of the ParserPrecompiler is to be reproducible, so it always uses sequential processing
+        if (wave.size() < PARALLEL_THRESHOLD || classNode.isPrecompiling() || !parallel) {
+            List<RuleMethodProcessor> methodProcessors = createRuleMethodProcessors();
+            for (RuleMethod ruleMethod : wave) {
+                processRuleMethod(classNode, ruleMethod, methodProcessors);
+            }
+            return;
+        }
+
+        // the rule method processors keep per-method state, so every method gets its own instances
+        List<List<RuleMethodProcessor>> methodProcessors = new ArrayList<List<RuleMethodProcessor>>(wave.size());
+        for (int i = 0; i < wave.size(); i++) {
+            methodProcessors.add(createRuleMethodProcessors());
+        }
+        if (!classNode.isConsolidatingGroupClasses()) {
+            processInParallel(classNode, wave, methodProcessors, 0, methodProcessors.get(0).size());
+            return;
+        }
+
+        // the dispatch indices of consolidated group classes are assigned in the order of the
+        // GroupDispatcher.add calls, so the group class generators run sequentially in method order,
+        // keeping the generated classes independent of the thread scheduling
+        List<RuleMethodProcessor> processors = methodProcessors.get(0);
+        int start = 0;
+        while (!(processors.get(start) instanceof GroupClassGenerator)) start++;
+        int end = start;
+        while (processors.get(end) instanceof GroupClassGenerator) end++;
+        processInParallel(classNode, wave, methodProcessors, 0, start);
+        for (int i = 0; i < wave.size(); i++) {
+            processRuleMethod(classNode, wave.get(i), methodProcessors.get(i).subList(start, end));
+        }
+        processInParallel(classNode, wave, methodProcessors, end, processors.size());
+    }
+
+    private static void processInParallel(final ParserClassNode classNode, List<RuleMethod> wave,
+                                          List<List<RuleMethodProcessor>> methodProcessors, final int start,
+                                          final int end) throws Exception {
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(wave.size());
+        for (int i = 0; i < wave.size(); i++) {
+            final RuleMethod ruleMethod = wave.get(i);
+            final List<RuleMethodProcessor> processors = methodProcessors.get(i).subList(start, end);
+            tasks.add(new Callable<Void>() {
+                public Void call() throws Exception {
+                    // class lookups during the transformation fall back to the context class loader of the caller
+                    Thread thread = Thread.currentThread();
+                    ClassLoader savedClassLoader = thread.getContextClassLoader();
+                    thread.setContextClassLoader(contextClassLoader);
+                    try {
+                        processRuleMethod(classNode, ruleMethod, processors);
+                    } finally {
+                        thread.setContextClassLoader(savedClassLoader);
+                    }
+                    return null;
+                }
+            });
+        }
+        for (Future<Void> future : getPool().invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // rethrow the exception of the first failed rule method, as the sequential processing would
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) throw (Exception) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw e;
+            }
+        }
+    }
+
+    private static void processRuleMethod(ParserClassNode classNode, RuleMethod ruleMethod,
+                                          List<RuleMethodProcessor> methodProcessors) throws Exception {
+        TransformationReport report = classNode.getReport();
+        for (RuleMethodProcessor methodProcessor : methodProcessors) {
+            if (methodProcessor.appliesTo(classNode, ruleMethod)) {
+                if (report == null) {
+                    methodProcessor.process(classNode, ruleMethod);
+                } else {
+                    int instructions = ruleMethod.instructions.size();
+                    long start = System.nanoTime();
+                    methodProcessor.process(classNode, ruleMethod);
+                    report.recordPhase(methodProcessor.getClass().getSimpleName(), System.nanoTime() - start, 1,
+                            instructions);
+                }
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            // the pool is never shut down, so its threads must not keep the JVM from exiting
+            final AtomicInteger threadCount = new AtomicInteger();
+            pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "parboiled-transformer-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return pool;
+    }
+
     static List<RuleMethodProcessor> createRuleMethodProcessors() {
         return ImmutableList.of(
                 new UnusedLabelsRemover(),
@@ -94,14 +453,21 @@ public class ParserTransformer {
     }
 
     private static void defineExtendedParserClass(ParserClassNode classNode) {
+        long start = System.nanoTime();
         ClassWriter classWriter = new ClassWriter(ASMSettings.FRAMES);
         classNode.accept(classWriter);
         classNode.setClassCode(classWriter.toByteArray());
+        if (classNode.getReport() != null) {
+            classNode.getReport().recordGeneratedClass(classNode.getClassCode(), System.nanoTime() - start);
+        }
+        if (classNode.isPrecompiling()) return;
+        start = System.nanoTime();
         classNode.setExtendedClass(loadClass(
                 classNode.name.replace('/', '.'),
                 classNode.getClassCode(),
                 classNode.getParentClass().getClassLoader()
         ));
+        recordPhase(classNode, "ClassDefinition", start);
     }
 
 }
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.transform;
+
+import org.parboiled.Rule;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>The rule caches used by the code the {@link CachingGenerator} generates for {@link org.parboiled.annotations.Cached}
+ * rule methods with parameters. Depending on the parameter types of the rule method one of the specialized caches is
+ * used, so that a cache lookup does not have to allocate a key object.</p>
+ * <p>All caches can be read without locking while rules are being created by other threads, only the insertion of
+ * new entries is synchronized.</p>
+ */
+public final class RuleCaches {
+
+    private RuleCaches() {}
+
+    /**
+     * A cache for rule methods with a single char parameter, holding the rules in an array indexed by the char.
+     * The array is split into pages of 256 chars that are allocated on first use.
+     */
+    public static final class CharKeyed {
+        private final AtomicReferenceArray<AtomicReferenceArray<Rule>> pages =
+                new AtomicReferenceArray<AtomicReferenceArray<Rule>>(256);
+
+        public Rule get(char key) {
+            AtomicReferenceArray<Rule> page = pages.get(key >>> 8);
+            return page != null ? page.get(key & 0xFF) : null;
+        }
+
+        public synchronized void put(char key, Rule rule) {
+            AtomicReferenceArray<Rule> page = pages.get(key >>> 8);
+            if (page == null) {
+                page = new AtomicReferenceArray<Rule>(256);
+                pages.set(key >>> 8, page);
+            }
+            page.set(key & 0xFF, rule);
+        }
+    }
+
+    /**
+     * A cache for rule methods with a single int (or boolean, byte or short) parameter, using an open addressing
+     * hash table with primitive keys.
+     */
+    public static final class IntKeyed {
+        private static final class Entry {
+            private final int key;
+            private volatile Rule rule;
+
+            private Entry(int key, Rule rule) {
+                this.key = key;
+                this.rule = rule;
+            }
+        }
+
+        private volatile Entry[] table = new Entry[16];
+        private int size;
+
+        public Rule get(int key) {
+            Entry[] table = this.table;
+            int mask = table.length - 1;
+            for (int i = spread(key) & mask; ; i = (i + 1) & mask) {
+                Entry entry = table[i];
+                if (entry == null) return null;
+                if (entry.key == key) return entry.rule;
+            }
+        }
+
+        public synchronized void put(int key, Rule rule) {
+            Entry[] table = this.table;
+            int mask = table.length - 1;
+            int i = spread(key) & mask;
+            for (Entry entry = table[i]; entry != null; entry = table[i = (i + 1) & mask]) {
+                if (entry.key == key) {
+                    entry.rule = rule;
+                    return;
+                }
+            }
+            if (2 * (size + 1) > table.length) {
+                // we keep the load factor below 0.5, so lookups always hit an empty slot eventually
+                Entry[] newTable = new Entry[table.length * 2];
+                for (Entry entry : table) {
+                    if (entry != null) insert(newTable, entry, spread(entry.key));
+                }
+                insert(newTable, new Entry(key, rule), spread(key));
+                this.table = newTable;
+            } else {
+                table[i] = new Entry(key, rule);
+            }
+            size++;
+        }
+    }
+
+    /**
+     * A cache for rule methods with a single long parameter, using an open addressing hash table with primitive
+     * keys.
+     */
+    public static final class LongKeyed {
+        private static final class Entry {
+            private final long key;
+            private volatile Rule rule;
+
+            private Entry(long key, Rule rule) {
+                this.key = key;
+                this.rule = rule;
+            }
+        }
+
+        private volatile Entry[] table = new Entry[16];
+        private int size;
+
+        public Rule get(long key) {
+            Entry[] table = this.table;
+            int mask = table.length - 1;
+            for (int i = spread(hash(key)) & mask; ; i = (i + 1) & mask) {
+                Entry entry = table[i];
+                if (entry == null) return null;
+                if (entry.key == key) return entry.rule;
+            }
+        }
+
+        public synchronized void put(long key, Rule rule) {
+            Entry[] table = this.table;
+            int mask = table.length - 1;
+            int i = spread(hash(key)) & mask;
+            for (Entry entry = table[i]; entry != null; entry = table[i = (i + 1) & mask]) {
+                if (entry.key == key) {
+                    entry.rule = rule;
+                    return;
+                }
+            }
+            if (2 * (size + 1) > table.length) {
+                Entry[] newTable = new Entry[table.length * 2];
+                for (Entry entry : table) {
+                    if (entry != null) insert(newTable, entry, spread(hash(entry.key)));
+                }
+                insert(newTable, new Entry(key, rule), spread(hash(key)));
+                this.table = newTable;
+            } else {
+                table[i] = new Entry(key, rule);
+            }
+            size++;
+        }
+
+        private static int hash(long key) {
+            return (int) (key ^ (key >>> 32));
+        }
+    }
+
+    /**
+     * A cache for rule methods with up to three object (or boxed primitive) parameters. The keys are held directly
+     * in the entries of a chained hash table, so no key object has to be created for a lookup. Array keys (e.g. an
+     * Object parameter receiving a char[]) are compared by content, like the {@link CachingGenerator.Arguments}.
+     */
+    public static final class ObjectKeyed {
+        private static final class Entry {
+            private final int hash;
+            private final Object key0;
+            private final Object key1;
+            private final Object key2;
+            private final Entry next;
+            private volatile Rule rule;
+
+            private Entry(int hash, Object key0, Object key1, Object key2, Rule rule, Entry next) {
+                this.hash = hash;
+                this.key0 = key0;
+                this.key1 = key1;
+                this.key2 = key2;
+                this.rule = rule;
+                this.next = next;
+            }
+
+            private boolean matches(int hash, Object key0, Object key1, Object key2) {
+                return this.hash == hash && equal(this.key0, key0) && equal(this.key1, key1) &&
+                        equal(this.key2, key2);
+            }
+        }
+
+        private volatile Entry[] table = new Entry[16];
+        private int size;
+
+        public Rule get(Object key) {
+            return get(hash(key, null, null), key, null, null);
+        }
+
+        public Rule get(Object key0, Object key1) {
+            return get(hash(key0, key1, null), key0, key1, null);
+        }
+
+        public Rule get(Object key0, Object key1, Object key2) {
+            return get(hash(key0, key1, key2), key0, key1, key2);
+        }
+
+        public void put(Object key, Rule rule) {
+            put(hash(key, null, null), key, null, null, rule);
+        }
+
+        public void put(Object key0, Object key1, Rule rule) {
+            put(hash(key0, key1, null), key0, key1, null, rule);
+        }
+
+        public void put(Object key0, Object key1, Object key2, Rule rule) {
+            put(hash(key0, key1, key2), key0, key1, key2, rule);
+        }
+
+        private Rule get(int hash, Object key0, Object key1, Object key2) {
+            Entry[] table = this.table;
+            for (Entry entry = table[hash & (table.length - 1)]; entry != null; entry = entry.next) {
+                if (entry.matches(hash, key0, key1, key2)) return entry.rule;
+            }
+            return null;
+        }
+
+        private synchronized void put(int hash, Object key0, Object key1, Object key2, Rule rule) {
+            key0 = copy(key0);
+            key1 = copy(key1);
+            key2 = copy(key2);
+            Entry[] table = this.table;
+            int index = hash & (table.length - 1);
+            for (Entry entry = table[index]; entry != null; entry = entry.next) {
+                if (entry.matches(hash, key0, key1, key2)) {
+                    entry.rule = rule;
+                    return;
+                }
+            }
+            if (size + 1 > table.length) {
+                // the chains of the new table are built from new entries, so readers still on the old table are
+                // never affected
+                Entry[] newTable = new Entry[table.length * 2];
+                int mask = newTable.length - 1;
+                for (Entry chain : table) {
+                    for (Entry entry = chain; entry != null; entry = entry.next) {
+                        int i = entry.hash & mask;
+                        newTable[i] = new Entry(entry.hash, entry.key0, entry.key1, entry.key2, entry.rule,
+                                newTable[i]);
+                    }
+                }
+                index = hash & mask;
+                newTable[index] = new Entry(hash, key0, key1, key2, rule, newTable[index]);
+                this.table = newTable;
+            } else {
+                table[index] = new Entry(hash, key0, key1, key2, rule, table[index]);
+            }
+            size++;
+        }
+
+        private static int hash(Object key0, Object key1, Object key2) {
+            int hash = hash(key0);
+            hash = 31 * hash + hash(key1);
+            hash = 31 * hash + hash(key2);
+            return spread(hash);
+        }
+
+        private static int hash(Object key) {
+            if (key == null) return 0;
+            return key.getClass().isArray() ? Arrays.deepHashCode(new Object[] {key}) : key.hashCode();
+        }
+
+        private static boolean equal(Object a, Object b) {
+            if (a == b) return true;
+            if (a == null || b == null) return false;
+            if (a.getClass().isArray()) return Arrays.deepEquals(new Object[] {a}, new Object[] {b});
+            return a.equals(b);
+        }
+
+        // the caller may reuse or change an array argument later on, so the cache keeps its own copy
+        private static Object copy(Object key) {
+            if (key == null || !key.getClass().isArray()) return key;
+            int length = Array.getLength(key);
+            Object copy = Array.newInstance(key.getClass().getComponentType(), length);
+            System.arraycopy(key, 0, copy, 0, length);
+            if (copy instanceof Object[]) {
+                Object[] elements = (Object[]) copy;
+                for (int i = 0; i < length; i++) elements[i] = copy(elements[i]);
+            }
+            return copy;
+        }
+    }
+
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9; // scatters consecutive keys
+        return hash ^ (hash >>> 16);
+    }
+
+    private static <E> void insert(E[] table, E entry, int hash) {
+        int mask = table.length - 1;
+        int i = hash & mask;
+        while (table[i] != null) i = (i + 1) & mask;
+        table[i] = entry;
+    }
+}
@@ -62,6 +62,7 @@ class RuleMethod extends MethodNode {
     private boolean hasSkipNodeAnnotation;
     private boolean hasMemoMismatchesAnnotation;
     private boolean hasSkipActionsInPredicatesAnnotation;
+    private boolean hasDontDeferActionsAnnotation;
     private int numberOfReturns;
     private InstructionGraphNode returnInstructionNode;
     private List<InstructionGraphNode> graphNodes;
@@ -145,6 +146,10 @@ class RuleMethod extends MethodNode {
         return hasSkipActionsInPredicatesAnnotation;
     }
 
+    public boolean hasDontDeferActionsAnnotation() {
+        return hasDontDeferActionsAnnotation;
+    }
+
     public boolean hasSkipNodeAnnotation() {
         return hasSkipNodeAnnotation;
     }
@@ -236,6 +241,10 @@ class RuleMethod extends MethodNode {
             hasSkipActionsInPredicatesAnnotation = false;
             return null; // we do not need to record this annotation
         }
+        if (Types.DONT_DEFER_ACTIONS_DESC.equals(desc)) {
+            hasDontDeferActionsAnnotation = true;
+            return null; // we do not need to record this annotation
+        }
         if (Types.DONT_LABEL_DESC.equals(desc)) {
             hasDontLabelAnnotation = true;
             return null; // we do not need to record this annotation
@@ -27,6 +27,9 @@ import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.*;
 
 import static org.objectweb.asm.Opcodes.*;
+import java.util.List;
+
+import static org.parboiled.transform.AsmUtils.createBoxing;
 import static org.parboiled.transform.AsmUtils.getLoadingOpcode;
 
 /**
@@ -73,15 +76,36 @@ class RuleMethodRewriter implements RuleMethodProcessor {
         insert(new InsnNode(DUP));
         insert(new LdcInsnNode(method.name +
                 (root.isActionRoot() ? "_Action" + ++actionNr : "_VarInit" + ++varInitNr)));
-        insert(new MethodInsnNode(INVOKESPECIAL, internalName, "<init>", "(Ljava/lang/String;)V", false));
+        if (group.isDispatched()) {
+            insert(new LdcInsnNode(group.getDispatchIndex()));
+            insert(new MethodInsnNode(INVOKESPECIAL, internalName, "<init>", GroupDispatcher.CONSTRUCTOR_DESC, false));
+        } else {
+            insert(new MethodInsnNode(INVOKESPECIAL, internalName, "<init>", "(Ljava/lang/String;)V", false));
+        }
 
         if (root.isActionRoot() && method.hasSkipActionsInPredicatesAnnotation()) {
             insert(new InsnNode(DUP));
             insert(new MethodInsnNode(INVOKEVIRTUAL, internalName, "setSkipInPredicates", "()V", false));
         }
+        // the ActionMatcher cannot detect the Vars hidden in the fields array of a dispatched action
+        if (root.isActionRoot() && (method.hasDontDeferActionsAnnotation() || group.isDispatched() && capturesVars())) {
+            insert(new InsnNode(DUP));
+            insert(new MethodInsnNode(INVOKEVIRTUAL, internalName, "setDontDefer", "()V", false));
+        }
+    }
+
+    private boolean capturesVars() {
+        for (FieldNode field : group.getFields()) {
+            if (Types.VAR_DESC.equals(field.desc)) return true;
+        }
+        return false;
     }
 
     private void initializeFields() {
+        if (group.isDispatched()) {
+            initializeFieldsArray();
+            return;
+        }
         String internalName = group.getGroupClassType().getInternalName();
         for (FieldNode field : group.getFields()) {
             insert(new InsnNode(DUP));
@@ -91,6 +115,27 @@ class RuleMethodRewriter implements RuleMethodProcessor {
         }
     }
 
+    private void initializeFieldsArray() {
+        List<FieldNode> fields = group.getFields();
+        if (fields.isEmpty()) return;
+
+        String internalName = group.getGroupClassType().getInternalName();
+        insert(new InsnNode(DUP));
+        insert(new LdcInsnNode(fields.size()));
+        insert(new TypeInsnNode(ANEWARRAY, "java/lang/Object"));
+        insert(new FieldInsnNode(PUTFIELD, internalName, GroupDispatcher.FIELDS_FIELD, GroupDispatcher.FIELDS_DESC));
+        for (int i = 0; i < fields.size(); i++) {
+            FieldNode field = fields.get(i);
+            insert(new InsnNode(DUP));
+            insert(new FieldInsnNode(GETFIELD, internalName, GroupDispatcher.FIELDS_FIELD, GroupDispatcher.FIELDS_DESC));
+            insert(new LdcInsnNode(i));
+            // the FieldNodes access and value members have been reused for the var index / Type respectively!
+            insert(new VarInsnNode(getLoadingOpcode((Type) field.value), field.access));
+            method.instructions.insertBefore(group.getRoot().getInstruction(), createBoxing((Type) field.value));
+            insert(new InsnNode(AASTORE));
+        }
+    }
+
     private void insert(AbstractInsnNode insn) {
         method.instructions.insertBefore(group.getRoot().getInstruction(), insn);
     }
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.transform;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+
+/**
+ * The timing and volume figures of the transformation of one parser class, as delivered to the sink set with
+ * {@link ParserTransformer#setReportSink(org.parboiled.common.Sink)}.
+ * Since rule methods can be processed concurrently the times of the rule method phases are the summed up times
+ * of all threads and can therefore exceed the total time.
+ */
+public class TransformationReport {
+
+    /**
+     * The figures of one transformation phase, e.g. one {@link RuleMethodProcessor}.
+     */
+    public static class Phase {
+        private final String name;
+        private long nanoTime;
+        private int methods;
+        private long instructions;
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the time spent in this phase
+         */
+        public long getNanoTime() {
+            return nanoTime;
+        }
+
+        /**
+         * @return the number of rule methods processed by this phase
+         */
+        public int getMethods() {
+            return methods;
+        }
+
+        /**
+         * @return the number of instructions of the rule methods at the time this phase processed them
+         */
+        public long getInstructions() {
+            return instructions;
+        }
+    }
+
+    private final String parserClassName;
+    private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+    private long totalNanoTime;
+    private int ruleMethods;
+    private int generatedClasses;
+    private long generatedBytes;
+    private long classGenerationNanoTime;
+
+    TransformationReport(String parserClassName) {
+        this.parserClassName = checkArgNotNull(parserClassName, "parserClassName");
+    }
+
+    public String getParserClassName() {
+        return parserClassName;
+    }
+
+    /**
+     * @return the wall time of the complete transformation
+     */
+    public synchronized long getTotalNanoTime() {
+        return totalNanoTime;
+    }
+
+    /**
+     * @return the number of rule methods of the parser class and its super classes
+     */
+    public synchronized int getRuleMethods() {
+        return ruleMethods;
+    }
+
+    /**
+     * @return the number of generated classes (extended parser class, action, var init and dispatcher classes)
+     */
+    public synchronized int getGeneratedClasses() {
+        return generatedClasses;
+    }
+
+    /**
+     * @return the size of the bytecode of all generated classes
+     */
+    public synchronized long getGeneratedBytes() {
+        return generatedBytes;
+    }
+
+    /**
+     * @return the time spent in generating the code of the generated classes, i.e. in building the action, var init
+     *         and dispatcher classes (including the preparation of the instructions of the action and var init
+     *         classes that are not consolidated) and in writing all generated classes with the ASM ClassWriter,
+     *         which is dominated by the computation of the stack map frames
+     */
+    public synchronized long getClassGenerationNanoTime() {
+        return classGenerationNanoTime;
+    }
+
+    /**
+     * @return the transformation phases in the order they were first run
+     */
+    public synchronized List<Phase> getPhases() {
+        return new ArrayList<Phase>(phases.values());
+    }
+
+    synchronized void recordPhase(String name, long nanoTime, int methods, long instructions) {
+        Phase phase = phases.get(name);
+        if (phase == null) {
+            phase = new Phase(name);
+            phases.put(name, phase);
+        }
+        phase.nanoTime += nanoTime;
+        phase.methods += methods;
+        phase.instructions += instructions;
+    }
+
+    synchronized void recordGeneratedClass(byte[] classCode, long generationNanoTime) {
+        generatedClasses++;
+        generatedBytes += classCode.length;
+        classGenerationNanoTime += generationNanoTime;
+    }
+
+    synchronized void finish(int ruleMethods, long totalNanoTime) {
+        this.ruleMethods = ruleMethods;
+        this.totalNanoTime = totalNanoTime;
+    }
+
+    public synchronized String print() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Transformation Report for ").append(parserClassName).append('\n');
+        sb.append("--------------------------------------------------------------------------\n");
+        sb.append(String.format("Total time               : %,15.3f ms\n", totalNanoTime / 1000000.0));
+        sb.append(String.format("Rule methods             : %,15d\n", ruleMethods));
+        sb.append(String.format("Generated classes        : %,15d\n", generatedClasses));
+        sb.append(String.format("Generated bytes          : %,15d\n", generatedBytes));
+        sb.append(String.format("Class generation time    : %,15.3f ms\n", classGenerationNanoTime / 1000000.0));
+        sb.append('\n');
+        sb.append("Phase                          |   Time (ms)   |  Methods  |  Instructions  \n");
+        sb.append("-------------------------------|---------------|-----------|----------------\n");
+        for (Phase phase : phases.values()) {
+            sb.append(String.format("%-30s | %,13.3f | %,9d | %,14d\n", phase.name, phase.nanoTime / 1000000.0,
+                    phase.methods, phase.instructions));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return print();
+    }
+}
@@ -35,6 +35,7 @@ interface Types {
     static final Type FACTORY = Type.getType(Factory.class);
     static final Type LABEL = Type.getType(Label.class);
     static final Type MATCHER = Type.getType(Matcher.class);
+    static final Type OBJECT = Type.getType(Object.class);
     static final Type PROXY_MATCHER = Type.getType(ProxyMatcher.class);
     static final Type RULE = Type.getType(Rule.class);
     static final Type VAR = Type.getType(Var.class);
@@ -51,10 +52,13 @@ interface Types {
     static final String SUPPRESS_SUBNODES_DESC = Type.getType(SuppressSubnodes.class).getDescriptor();
     static final String SKIP_ACTIONS_IN_PREDICATES_DESC = Type.getType(SkipActionsInPredicates.class).getDescriptor();
     static final String DONT_SKIP_ACTIONS_IN_PREDICATES_DESC = Type.getType(DontSkipActionsInPredicates.class).getDescriptor();
+    static final String CONSOLIDATE_ACTION_CLASSES_DESC = Type.getType(ConsolidateActionClasses.class).getDescriptor();
+    static final String DONT_DEFER_ACTIONS_DESC = Type.getType(DontDeferActions.class).getDescriptor();
     static final String BUILD_PARSE_TREE_DESC = Type.getType(BuildParseTree.class).getDescriptor();
     static final String SKIP_NODE_DESC = Type.getType(SkipNode.class).getDescriptor();
     static final String MEMO_MISMATCHES_DESC = Type.getType(MemoMismatches.class).getDescriptor();
     static final String MATCHER_DESC = MATCHER.getDescriptor();
+    static final String OBJECT_DESC = OBJECT.getDescriptor();
     static final String RULE_DESC = RULE.getDescriptor();
     static final String VAR_DESC = VAR.getDescriptor();
 }
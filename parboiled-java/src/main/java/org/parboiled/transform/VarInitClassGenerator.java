@@ -17,8 +17,6 @@
 package org.parboiled.transform;
 
 import static org.parboiled.common.Preconditions.*;
-import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
 import static org.objectweb.asm.Opcodes.*;
 import static org.parboiled.transform.Types.*;
@@ -45,14 +43,28 @@ class VarInitClassGenerator extends GroupClassGenerator {
     }
 
     @Override
-    protected void generateMethod(InstructionGroup group, ClassWriter cw) {
-        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "create", "()Ljava/lang/Object;", null, null);
-        convertXLoads(group);
-        group.getInstructions().accept(mv);
+    protected String getDispatcherName() {
+        return "VarInits";
+    }
 
-        mv.visitInsn(ARETURN);
-        mv.visitMaxs(0, 0); // trigger automatic computing
-        mv.visitEnd();
+    @Override
+    protected String getMethodName() {
+        return "create";
+    }
+
+    @Override
+    protected String getMethodDescriptor() {
+        return "()Ljava/lang/Object;";
+    }
+
+    @Override
+    protected int getReturnOpcode() {
+        return ARETURN;
+    }
+
+    @Override
+    protected void prepareInstructions(InstructionGroup group) {
+        convertXLoads(group);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled;
+
+import org.parboiled.annotations.Cached;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class CachedRulesTest {
+
+    static class Parser extends BaseParser<Object> {
+        @Cached
+        public Rule Digits(int count) {
+            return NTimes(count, CharRange('0', '9'));
+        }
+
+        @Cached
+        public Rule Flag(boolean upper) {
+            return upper ? Ch('X') : Ch('x');
+        }
+
+        @Cached
+        public Rule Big(long value) {
+            return String(Long.toString(value));
+        }
+
+        @Cached
+        public Rule Range(long from, int count) {
+            // the long parameter occupies two local variable slots
+            return String(Long.toString(from) + count);
+        }
+
+        @Cached
+        public Rule Tagged(String tag, Object rule, char separator) {
+            return Sequence(tag != null ? tag : EMPTY, separator, rule);
+        }
+
+        @Cached
+        public Rule Words(String... words) {
+            return FirstOf(words);
+        }
+
+        @Cached
+        public Rule Shifted(char c) {
+            c++; // the parameter variable is changed in the method body
+            return Ch(c);
+        }
+
+        @Cached
+        public Rule Recursive(int depth) {
+            return depth == 0 ? Ch('.') : Sequence('(', Optional(Recursive(depth)), ')');
+        }
+
+        @Cached
+        public Rule Nested(char open, Object closing) {
+            // recurses with an equal but fresh array, which has to hit the cache
+            return Sequence(open, Optional(Nested(open, ((char[]) closing).clone())), AnyOf((char[]) closing));
+        }
+    }
+
+    @Test
+    public void testCachedRules() {
+        Parser parser = Parboiled.createParser(Parser.class);
+
+        assertSame(parser.Digits(3), parser.Digits(3));
+        assertNotSame(parser.Digits(3), parser.Digits(4));
+        assertTrue(matches(parser.Digits(3), "123"));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(matches(parser.Digits(i + 1), repeat('7', i + 1))); // lets the cache grow
+        }
+        assertSame(parser.Digits(42), parser.Digits(42));
+
+        assertSame(parser.Flag(true), parser.Flag(true));
+        assertNotSame(parser.Flag(true), parser.Flag(false));
+
+        assertSame(parser.Big(1L << 40), parser.Big(1L << 40));
+        assertNotSame(parser.Big(1L << 40), parser.Big(1L << 41));
+
+        assertSame(parser.Range(5L, 7), parser.Range(5L, 7));
+        assertNotSame(parser.Range(5L, 7), parser.Range(5L, 8));
+        assertTrue(matches(parser.Range(5L, 7), "57"));
+
+        Rule x = parser.Ch('x');
+        assertSame(parser.Tagged("a", x, ':'), parser.Tagged("a", x, ':'));
+        assertNotSame(parser.Tagged("a", x, ':'), parser.Tagged("a", x, '='));
+        assertNotSame(parser.Tagged("a", x, ':'), parser.Tagged(null, x, ':'));
+        assertSame(parser.Tagged(null, x, ':'), parser.Tagged(null, x, ':'));
+
+        assertSame(parser.Words("ab", "cd"), parser.Words("ab", "cd"));
+        assertNotSame(parser.Words("ab", "cd"), parser.Words("ab"));
+
+        assertSame(parser.Shifted('a'), parser.Shifted('a'));
+        assertSame(parser.Shifted('一'), parser.Shifted('一'));
+        assertTrue(matches(parser.Shifted('a'), "b"));
+        assertFalse(matches(parser.Shifted('b'), "b"));
+
+        assertTrue(matches(parser.Recursive(1), "(())"));
+
+        char[] closing = {')', ']'};
+        Rule nested = parser.Nested('(', closing);
+        assertSame(parser.Nested('(', new char[] {')', ']'}), nested);
+        assertNotSame(parser.Nested('(', new char[] {')'}), nested);
+        closing[0] = '>'; // the cache is not affected by changes to the argument array
+        assertSame(parser.Nested('(', new char[] {')', ']'}), nested);
+        assertTrue(matches(nested, "(()]"));
+    }
+
+    private static boolean matches(Rule rule, String input) {
+        return new BasicParseRunner<Object>(rule).run(input).matched;
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) sb.append(c);
+        return sb.toString();
+    }
+}
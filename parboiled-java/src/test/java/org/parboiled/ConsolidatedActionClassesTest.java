@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled;
+
+import org.parboiled.annotations.ConsolidateActionClasses;
+import org.parboiled.matchers.ActionMatcher;
+import org.parboiled.matchers.Matcher;
+import org.parboiled.matchers.VarFramingMatcher;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.support.ParsingResult;
+import org.parboiled.support.Var;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class ConsolidatedActionClassesTest {
+
+    @ConsolidateActionClasses
+    static class Parser extends BaseParser<Object> {
+
+        public Rule Root() {
+            return Sequence(FirstOf(Sum(10), Scaled(2, 'x', 1L, 0.5), Number()), EOI);
+        }
+
+        public Rule Sum(int start) {
+            Var<Integer> sum = new Var<Integer>(start);
+            return Sequence('(', Number(), sum.set(sum.get() + (Integer) pop()),
+                    ZeroOrMore(',', Number(), sum.set(sum.get() + (Integer) pop())), ')', push(sum.get()));
+        }
+
+        public Rule Scaled(int factor, char marker, long offset, double weight) {
+            return Sequence(marker, Number(), push(String.valueOf((Integer) pop() * factor + offset) + marker + weight));
+        }
+
+        public Rule Number() {
+            return Sequence(OneOrMore(CharRange('0', '9')), push(Integer.parseInt(match())));
+        }
+    }
+
+    @Test
+    public void testConsolidatedActions() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        assertEquals(run(parser, "(1,2,3)"), 16);
+        assertEquals(run(parser, "x21"), "43x0.5");
+        assertEquals(run(parser, "7"), 7);
+
+        Matcher number = (Matcher) parser.Number();
+        ActionMatcher numberAction = (ActionMatcher) number.getChildren().get(1);
+        assertEquals(numberAction.action.getClass().getName(),
+                "org.parboiled.ConsolidatedActionClassesTest$Parser$$parboiled$Actions0");
+        assertEquals(numberAction.action.toString(), "Number_Action1");
+
+        Matcher scaled = (Matcher) parser.Scaled(2, 'x', 1L, 0.5);
+        assertSame(((ActionMatcher) scaled.getChildren().get(2)).action.getClass(), numberAction.action.getClass());
+        assertTrue(numberAction.deferrable);
+
+        Matcher sum = ((VarFramingMatcher) parser.Sum(10)).getInner();
+        assertFalse(((ActionMatcher) sum.getChildren().get(2)).deferrable);
+    }
+
+    @Test
+    public void testDeferredConsolidatedActions() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        ParsingResult<Object> result = new BasicParseRunner<Object>(parser.Root()).withDeferredActions().run("(1,2)");
+        assertEquals(result.resultValue, 13);
+    }
+
+    private Object run(Parser parser, String input) {
+        return new BasicParseRunner<Object>(parser.Root()).run(input).resultValue;
+    }
+}
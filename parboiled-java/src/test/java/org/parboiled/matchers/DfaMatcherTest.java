@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.matchers;
+
+import org.parboiled.BaseParser;
+import org.parboiled.Context;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.Action;
+import org.parboiled.annotations.BuildParseTree;
+import org.parboiled.buffers.DefaultInputBuffer;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.parserunners.ReportingParseRunner;
+import org.parboiled.support.ParsingResult;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+import static org.parboiled.errors.ErrorUtils.printParseErrors;
+import static org.parboiled.support.ParseTreeUtils.printNodeTree;
+import static org.testng.Assert.*;
+
+public class DfaMatcherTest {
+
+    static class Parser extends BaseParser<Object> {
+
+        public Rule Keyword() {
+            return Sequence(FirstOf("interface", "int", "in"), TestNot(LetterOrDigit()));
+        }
+
+        public Rule Identifier() {
+            return Sequence(Letter(), ZeroOrMore(LetterOrDigit()));
+        }
+
+        public Rule Number() {
+            return Sequence(
+                    Optional('-'),
+                    OneOrMore(Digit()),
+                    Optional('.', OneOrMore(Digit())),
+                    Optional(IgnoreCase('e'), Optional(AnyOf("+-")), OneOrMore(Digit()))
+            );
+        }
+
+        public Rule StringLiteral() {
+            return Sequence('"', ZeroOrMore(FirstOf(Sequence('\\', ANY), NoneOf("\"\\"))), '"');
+        }
+
+        public Rule Comment() {
+            return Sequence('/', '*', ZeroOrMore(FirstOf(Sequence(TestNot('*'), ANY), Sequence('*', TestNot('/')))),
+                    '*', '/');
+        }
+
+        public Rule CommittingChoice() {
+            return FirstOf(Sequence(FirstOf("aab", "a"), 'a'), "aabx");
+        }
+
+        public Rule PrefixChoice() {
+            return Sequence(FirstOf("abc", "a"), 'b');
+        }
+
+        public Rule RepeatedChoice() {
+            return Sequence(ZeroOrMore(FirstOf("ab", "a")), Optional('b'), 'i');
+        }
+
+        public Rule PossessiveLoop() {
+            return Sequence(ZeroOrMore('a'), 'a');
+        }
+
+        public Rule Letter() {
+            return FirstOf(CharRange('a', 'z'), '_');
+        }
+
+        public Rule LetterOrDigit() {
+            return FirstOf(CharRange('a', 'z'), Digit(), '_');
+        }
+
+        public Rule Digit() {
+            return CharRange('0', '9');
+        }
+
+        public Rule Tokens() {
+            return Sequence(
+                    ZeroOrMore(
+                            FirstOf(Keyword(), Identifier(), Number(), StringLiteral(), Comment(), ' '),
+                            push(match())
+                    ),
+                    EOI
+            );
+        }
+
+        public Rule Recursive() {
+            return FirstOf(Sequence('(', Recursive(), ')'), Number());
+        }
+    }
+
+    @BuildParseTree
+    static class TreeParser extends Parser {}
+
+    private static final String ALPHABET = "abeintfrx_019.-+E\"\\*/ (";
+
+    @Test
+    public void testDfaMatchesLikeTheOriginalRules() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        Rule[] rules = {
+                parser.Keyword(), parser.Identifier(), parser.Number(), parser.StringLiteral(), parser.Comment(),
+                parser.CommittingChoice(), parser.PrefixChoice(), parser.RepeatedChoice(), parser.PossessiveLoop()
+        };
+        String[] samples = {"interface", "intx", "int ", "in", "i", "\"a\\\"b\"", "/* a * b */", "-12.5e+3", "aabx",
+                "aab", "aaa", "abb", "abc", "ababai", "abbi", "aaaa", ""};
+        Random random = new Random(42);
+        for (Rule rule : rules) {
+            Rule compiled = DfaCompiler.compile(rule);
+            assertTrue(compiled instanceof DfaMatcher, rule.toString());
+            for (String sample : samples) {
+                assertSameMatch(rule, (DfaMatcher) compiled, sample);
+            }
+            for (int i = 0; i < 2000; i++) {
+                StringBuilder sb = new StringBuilder();
+                int length = random.nextInt(12);
+                for (int j = 0; j < length; j++) sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+                assertSameMatch(rule, (DfaMatcher) compiled, sb.toString());
+            }
+        }
+    }
+
+    private static void assertSameMatch(Rule rule, DfaMatcher compiled, String input) {
+        assertEquals(compiled.run(new DefaultInputBuffer(input.toCharArray()), 0), matchEnd(rule, input),
+                rule + " on '" + input + '\'');
+    }
+
+    // runs the original rule and returns the index after its match, or -1 if it does not match
+    private static int matchEnd(Rule rule, String input) {
+        final int[] end = {-1};
+        Rule root = new SequenceMatcher(new Rule[] {rule, new ActionMatcher(new Action() {
+            public boolean run(Context context) {
+                end[0] = context.getCurrentIndex();
+                return true;
+            }
+        })});
+        new BasicParseRunner<Object>(root).run(input);
+        return end[0];
+    }
+
+    @Test
+    public void testRewrittenGraph() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        Rule compiled = DfaCompiler.compile(parser.Tokens());
+        assertNotSame(compiled, parser.Tokens());
+        assertEquals(compiled.toString(), "Tokens");
+
+        String input = "int interface intx \"a b\" /* c */ 12.5e3 in";
+        ParsingResult<Object> expected = new BasicParseRunner<Object>(parser.Tokens()).run(input);
+        ParsingResult<Object> actual = new BasicParseRunner<Object>(compiled).run(input);
+        assertTrue(actual.matched);
+        assertEquals(actual.valueStack.size(), expected.valueStack.size());
+        for (int i = 0; i < expected.valueStack.size(); i++) {
+            assertEquals(actual.valueStack.peek(i), expected.valueStack.peek(i));
+        }
+
+        // the recursive rule itself is not compiled but its lexical parts are
+        Rule recursive = DfaCompiler.compile(parser.Recursive());
+        assertFalse(recursive instanceof DfaMatcher);
+        assertTrue(new BasicParseRunner<Object>(recursive).run("((12))").matched);
+        assertFalse(new BasicParseRunner<Object>(recursive).run("((12)").matched);
+    }
+
+    @Test
+    public void testFallbackForParseTreesAndErrors() {
+        TreeParser parser = Parboiled.createParser(TreeParser.class);
+        Rule compiled = DfaCompiler.compile(parser.Tokens());
+
+        String input = "int x1 -3";
+        assertEquals(
+                printNodeTree(new BasicParseRunner<Object>(compiled).run(input)),
+                printNodeTree(new BasicParseRunner<Object>(parser.Tokens()).run(input))
+        );
+
+        input = "int \"x1";
+        assertEquals(
+                printParseErrors(new ReportingParseRunner<Object>(compiled).run(input)),
+                printParseErrors(new ReportingParseRunner<Object>(parser.Tokens()).run(input))
+        );
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.BaseParser;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.annotations.DontDeferActions;
+import org.parboiled.errors.GrammarException;
+import org.parboiled.errors.ParserRuntimeException;
+import org.parboiled.support.ParsingResult;
+import org.parboiled.support.Var;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class DeferredActionsTest {
+
+    public static class Parser extends BaseParser<Integer> {
+        int actionRuns;
+
+        public Rule Root() {
+            return Sequence(FirstOf(Sum(), Tagged(), Difference()), EOI);
+        }
+
+        public Rule Difference() {
+            return FirstOf(
+                    Sequence(Number(), '+', Number(), push(pop() + pop())),
+                    Sequence(Number(), '-', Number(), push(pop(1) - pop())),
+                    Number()
+            );
+        }
+
+        public Rule Sum() {
+            Var<Integer> sum = new Var<Integer>(0);
+            return Sequence('(', Number(), sum.set(pop()), ZeroOrMore(',', Number(), sum.set(sum.get() + pop())),
+                    ')', push(sum.get()));
+        }
+
+        public Rule Tagged() {
+            return Sequence('#', FirstOf(Sequence(EvenNumber(), push(pop() * 10)), Number()));
+        }
+
+        @DontDeferActions
+        public Rule EvenNumber() {
+            return Sequence(Number(), ACTION(peek() % 2 == 0));
+        }
+
+        public Rule OddNumber() {
+            return Sequence(Number(), ACTION(peek() % 2 == 1));
+        }
+
+        public Rule Nested() {
+            return Sequence(Number(), ACTION(getContext().getParent() != null));
+        }
+
+        public Rule Number() {
+            return Sequence(OneOrMore(CharRange('0', '9')), push(Integer.parseInt(match())), ACTION(count()));
+        }
+
+        boolean count() {
+            actionRuns++;
+            return true;
+        }
+    }
+
+    @Test
+    public void testSameResultsAsEagerActions() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        for (String input : new String[] {"12", "12+3", "12-3", "(1,2,3)", "#4", "#3", "12-", "(1,2", "#"}) {
+            ParsingResult<Integer> expected = new BasicParseRunner<Integer>(parser.Root()).run(input);
+            ParsingResult<Integer> actual = new BasicParseRunner<Integer>(parser.Root()).withDeferredActions()
+                    .run(input);
+            assertEquals(actual.matched, expected.matched, input);
+            if (expected.matched) {
+                assertEquals(actual.valueStack.size(), expected.valueStack.size(), input);
+                assertEquals(actual.resultValue, expected.resultValue, input);
+            }
+        }
+    }
+
+    @Test
+    public void testBacktrackedActionsNotRun() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        Rule root = parser.Root();
+
+        ParsingResult<Integer> result = new BasicParseRunner<Integer>(root).run("12-3");
+        assertEquals(result.resultValue, Integer.valueOf(9));
+        assertEquals(parser.actionRuns, 3);
+
+        parser.actionRuns = 0;
+        result = new BasicParseRunner<Integer>(root).withDeferredActions().run("12-3");
+        assertEquals(result.resultValue, Integer.valueOf(9));
+        assertEquals(parser.actionRuns, 2);
+
+        parser.actionRuns = 0;
+        result = new BasicParseRunner<Integer>(root).withDeferredActions().run("12-");
+        assertFalse(result.matched);
+        assertEquals(parser.actionRuns, 0);
+    }
+
+    @Test
+    public void testDontDeferActions() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        BasicParseRunner<Integer> runner = new BasicParseRunner<Integer>(parser.Root()).withDeferredActions();
+        assertEquals(runner.run("#4").resultValue, Integer.valueOf(40));
+        assertEquals(runner.run("#3").resultValue, Integer.valueOf(3));
+    }
+
+    @Test(expectedExceptions = GrammarException.class)
+    public void testFailingDeferredAction() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        new BasicParseRunner<Integer>(parser.Sequence(parser.OddNumber(), parser.EOI)).withDeferredActions().run("4");
+    }
+
+    @Test
+    public void testIllegalContextAccessInDeferredAction() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        try {
+            new BasicParseRunner<Integer>(parser.Nested()).withDeferredActions().run("4");
+            fail();
+        } catch (ParserRuntimeException e) {
+            assertTrue(e.getCause() instanceof GrammarException);
+            assertEquals(e.getCause().getMessage(), "Deferred actions cannot access the parent context");
+        }
+    }
+}
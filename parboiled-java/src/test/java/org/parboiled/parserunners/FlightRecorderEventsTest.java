@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.BaseParser;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+// uses the jdk.jfr API via reflection, since parboiled is built for Java versions without it
+public class FlightRecorderEventsTest {
+
+    public static class Parser extends BaseParser<Object> {
+        Rule Clause() {
+            return Sequence(OneOrMore(Digit()), ZeroOrMore(Sequence('+', OneOrMore(Digit()))), EOI);
+        }
+
+        Rule Digit() {
+            return CharRange('0', '9');
+        }
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        Object recording = newRecording();
+        invoke(recording, "enable", FlightRecorderEvents.PARSE_RUN);
+        invoke(recording, "enable", FlightRecorderEvents.RECOVERY_ATTEMPT);
+        Object slowRuleSettings = invoke(recording, "enable", FlightRecorderEvents.SLOW_RULE);
+        invoke(slowRuleSettings, "withThreshold", Class.forName("java.time.Duration").getField("ZERO").get(null));
+        invoke(recording, "start");
+
+        Parser parser = Parboiled.createParser(Parser.class);
+        new BasicParseRunner<Object>(parser.Clause()).run("1+2");
+        new RecoveringParseRunner<Object>(parser.Clause()).run("1+x");
+
+        invoke(recording, "stop");
+        File file = File.createTempFile("parboiled", ".jfr");
+        try {
+            invoke(recording, "dump", file.toPath());
+            List<String> runs = new ArrayList<String>();
+            List<String> recoveries = new ArrayList<String>();
+            List<String> slowRules = new ArrayList<String>();
+            Method readAllEvents = Class.forName("jdk.jfr.consumer.RecordingFile")
+                    .getMethod("readAllEvents", Class.forName("java.nio.file.Path"));
+            for (Object event : (List<?>) readAllEvents.invoke(null, file.toPath())) {
+                String name = (String) invoke(invoke(event, "getEventType"), "getName");
+                if (name.equals(FlightRecorderEvents.PARSE_RUN)) {
+                    runs.add(value(event, "runner") + " " + value(event, "inputLength") + " " +
+                            value(event, "matched") + " " + value(event, "errorCount"));
+                } else if (name.equals(FlightRecorderEvents.RECOVERY_ATTEMPT)) {
+                    recoveries.add(value(event, "errorIndex") + " " + value(event, "errorFree"));
+                } else if (name.equals(FlightRecorderEvents.SLOW_RULE)) {
+                    slowRules.add((String) value(event, "rule"));
+                }
+            }
+            assertEquals(runs.toString(), "[BasicParseRunner 3 true 0, RecoveringParseRunner 3 true 1]");
+            assertEquals(recoveries.toString(), "[2 true]");
+            assertTrue(slowRules.contains("Clause"), slowRules.toString());
+            assertTrue(slowRules.contains("Digit"), slowRules.toString());
+        } finally {
+            invoke(recording, "close");
+            assertTrue(file.delete());
+        }
+    }
+
+    private static Object newRecording() {
+        try {
+            return Class.forName("jdk.jfr.Recording").newInstance();
+        } catch (Exception e) {
+            throw new SkipException("JFR is not available");
+        }
+    }
+
+    private static Object value(Object event, String field) throws Exception {
+        return invoke(event, "getValue", field);
+    }
+
+    private static Object invoke(Object target, String methodName, Object... args) throws Exception {
+        for (Method method : target.getClass().getMethods()) {
+            if (method.getName().equals(methodName) && method.getParameterTypes().length == args.length &&
+                    (args.length == 0 || method.getParameterTypes()[0].isInstance(args[0]))) {
+                return method.invoke(target, args);
+            }
+        }
+        throw new NoSuchMethodException(methodName);
+    }
+}
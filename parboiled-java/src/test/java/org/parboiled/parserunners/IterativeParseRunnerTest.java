@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.BaseParser;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.annotations.BuildParseTree;
+import org.parboiled.annotations.MemoMismatches;
+import org.parboiled.errors.ParserRuntimeException;
+import org.parboiled.support.ParsingResult;
+import org.parboiled.support.Var;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+import static org.parboiled.support.ParseTreeUtils.printNodeTree;
+import static org.testng.Assert.*;
+
+public class IterativeParseRunnerTest {
+
+    @BuildParseTree
+    public static class Parser extends BaseParser<Integer> {
+        public Rule List() {
+            Var<Integer> count = new Var<Integer>(0);
+            return Sequence('[', Optional(Element(), count.set(1), ZeroOrMore(',', Element(), count.set(count.get() + 1))),
+                    ']', push(count.get()));
+        }
+
+        public Rule Element() {
+            return FirstOf(List(), Number(), Word());
+        }
+
+        public Rule Number() {
+            return Sequence(OneOrMore(Digit()), push(Integer.parseInt(match())), TestNot(Letter()));
+        }
+
+        @MemoMismatches
+        public Rule Word() {
+            return Sequence(Test(Letter()), OneOrMore(FirstOf(Letter(), Digit())), push(matchLength()));
+        }
+
+        public Rule Letter() {
+            return FirstOf(CharRange('a', 'z'), "__");
+        }
+
+        public Rule Digit() {
+            return CharRange('0', '9');
+        }
+
+        public Rule Root() {
+            return Sequence(Element(), EOI);
+        }
+
+        public Rule EmptyLoop() {
+            return ZeroOrMore(Optional('x'));
+        }
+    }
+
+    @Test
+    public void testSameResultsAsBasicParseRunner() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        String alphabet = "[],1a_x";
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(16);
+            for (int j = 0; j < length; j++) sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            String input = i % 4 == 0 ? "[" + sb + "]" : sb.toString();
+
+            ParsingResult<Integer> expected = new BasicParseRunner<Integer>(parser.Root()).run(input);
+            ParsingResult<Integer> actual = new IterativeParseRunner<Integer>(parser.Root()).run(input);
+            assertEquals(actual.matched, expected.matched, input);
+            assertEquals(printNodeTree(actual), printNodeTree(expected), input);
+            assertEquals(actual.valueStack.size(), expected.valueStack.size(), input);
+            for (int j = 0; j < expected.valueStack.size(); j++) {
+                assertEquals(actual.valueStack.peek(j), expected.valueStack.peek(j), input);
+            }
+        }
+    }
+
+    @Test
+    public void testDeeplyNestedInput() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        int depth = 50000;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) sb.append('[');
+        sb.append("42");
+        for (int i = 0; i < depth; i++) sb.append(']');
+
+        ParsingResult<Integer> result = new IterativeParseRunner<Integer>(parser.Root()).run(sb.toString());
+        assertTrue(result.matched);
+        assertEquals(result.valueStack.size(), depth + 1);
+        assertEquals(result.valueStack.pop(), Integer.valueOf(1));
+
+        sb.setLength(sb.length() - 1);
+        assertFalse(new IterativeParseRunner<Integer>(parser.Root()).run(sb.toString()).matched);
+    }
+
+    @Test
+    public void testGrammarErrors() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        String expected = null;
+        try {
+            new BasicParseRunner<Integer>(parser.EmptyLoop()).run("xy");
+            fail();
+        } catch (ParserRuntimeException e) {
+            expected = e.getMessage();
+        }
+        try {
+            new IterativeParseRunner<Integer>(parser.EmptyLoop()).run("xy");
+            fail();
+        } catch (ParserRuntimeException e) {
+            assertEquals(e.getMessage(), expected);
+        }
+    }
+}
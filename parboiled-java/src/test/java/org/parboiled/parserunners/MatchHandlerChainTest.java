@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.MatchHandler;
+import org.parboiled.MatcherContext;
+import org.parboiled.Parboiled;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.support.ParsingResult;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class MatchHandlerChainTest {
+
+    private static class LoggingInterceptor implements MatchInterceptor {
+        private final String name;
+        private final List<String> log;
+        private final boolean enabled;
+
+        private LoggingInterceptor(String name, List<String> log, boolean enabled) {
+            this.name = name;
+            this.log = log;
+            this.enabled = enabled;
+        }
+
+        public MatchHandler intercept(InputBuffer inputBuffer, final MatchHandler next) {
+            if (!enabled) return next;
+            return new MatchHandler() {
+                public boolean match(MatcherContext<?> context) {
+                    if (context.getLevel() == 0) log.add(name + ':' + context.getMatcher());
+                    return next.match(context);
+                }
+            };
+        }
+    }
+
+    @Test
+    public void testChainAssembly() {
+        List<String> log = new ArrayList<String>();
+        MatchHandlerChain chain = MatchHandlerChain.EMPTY
+                .with(new LoggingInterceptor("a", log, true))
+                .with(new LoggingInterceptor("b", log, false))
+                .with(new LoggingInterceptor("c", log, true));
+        ProfilingParseRunnerTest.Parser parser = Parboiled.createParser(ProfilingParseRunnerTest.Parser.class);
+        BasicParseRunner<Object> runner = new BasicParseRunner<Object>(parser.Clause());
+        runner.withMatchHandlerChain(chain);
+        assertTrue(runner.run("abc?").matched);
+        assertEquals(log.toString(), "[a:Clause, c:Clause]");
+
+        MatchHandler handler = MatchHandlerChain.EMPTY.with(new LoggingInterceptor("d", log, false))
+                .assemble(null, MatchHandlerChain.DIRECT);
+        assertSame(handler, MatchHandlerChain.DIRECT);
+    }
+
+    @Test
+    public void testProfilingAndTracingARecoveringRun() {
+        ProfilingParseRunnerTest.Parser parser = Parboiled.createParser(ProfilingParseRunnerTest.Parser.class);
+        ProfilingParseRunner<Object> profiler = new ProfilingParseRunner<Object>(parser.Clause()).withSampling(1);
+        TraceRecordingParseRunner<Object> tracer = new TraceRecordingParseRunner<Object>(parser.Clause());
+        RecoveringParseRunner<Object> runner = new RecoveringParseRunner<Object>(parser.Clause());
+        runner.withMatchInterceptor(profiler).withMatchInterceptor(tracer);
+
+        ParsingResult<Object> result = runner.run("1 2x");
+        assertEquals(result.parseErrors.size(), 1);
+
+        // both interceptors have seen the same passes and rule invocations
+        TraceBuffer trace = tracer.getTraceBuffer();
+        int passes = 0;
+        for (int i = 0; i < trace.size(); i++) {
+            if (trace.outcome(i) == TraceBuffer.RUN_START) passes++;
+        }
+        ProfilingParseRunner.Report report = profiler.getReport();
+        assertTrue(passes > 1);
+        assertEquals(report.totalRuns, passes);
+        assertEquals(report.totalInvocations, trace.size() - passes);
+    }
+
+    @Test
+    public void testRecoveringRunPassesStartAtTheInterceptedRoot() {
+        ProfilingParseRunnerTest.Parser parser = Parboiled.createParser(ProfilingParseRunnerTest.Parser.class);
+        final List<String> log = new ArrayList<String>();
+        RecoveringParseRunner<Object> runner = new RecoveringParseRunner<Object>(parser.Clause());
+        runner.withMatchInterceptor(new MatchInterceptor() {
+            public MatchHandler intercept(InputBuffer inputBuffer, MatchHandler next) {
+                log.add("pass");
+                return new LoggingInterceptor("root", log, true).intercept(inputBuffer, next);
+            }
+        });
+        assertEquals(runner.run("1 2x").parseErrors.size(), 1);
+
+        // every pass of the recovery, including the checkpointed and the final one, runs the root through the chain
+        assertTrue(log.size() > 4);
+        for (int i = 0; i < log.size(); i += 2) {
+            assertEquals(log.get(i), "pass");
+            assertEquals(log.get(i + 1), "root:Clause");
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testExactProfilingCannotIntercept() {
+        ProfilingParseRunnerTest.Parser parser = Parboiled.createParser(ProfilingParseRunnerTest.Parser.class);
+        RecoveringParseRunner<Object> runner = new RecoveringParseRunner<Object>(parser.Clause());
+        runner.withMatchInterceptor(new ProfilingParseRunner<Object>(parser.Clause()));
+        runner.run("1 2x");
+    }
+
+    @Test
+    public void testIterativeRunnerInterception() {
+        ProfilingParseRunnerTest.Parser parser = Parboiled.createParser(ProfilingParseRunnerTest.Parser.class);
+        for (String input : new String[] {"abc?", "1 2x"}) {
+            List<String> expected = new ArrayList<String>();
+            BasicParseRunner<Object> basic = new BasicParseRunner<Object>(parser.Clause());
+            basic.withMatchInterceptor(new InvocationLoggingInterceptor(expected));
+            ParsingResult<Object> expectedResult = basic.run(input);
+
+            List<String> log = new ArrayList<String>();
+            IterativeParseRunner<Object> iterative = new IterativeParseRunner<Object>(parser.Clause());
+            iterative.withMatchInterceptor(new InvocationLoggingInterceptor(log));
+            assertEquals(iterative.run(input).matched, expectedResult.matched);
+            assertTrue(log.size() > 1);
+            assertEquals(log, expected);
+        }
+    }
+
+    private static class InvocationLoggingInterceptor implements MatchInterceptor {
+        private final List<String> log;
+
+        private InvocationLoggingInterceptor(List<String> log) {
+            this.log = log;
+        }
+
+        public MatchHandler intercept(InputBuffer inputBuffer, final MatchHandler next) {
+            return new MatchHandler() {
+                public boolean match(MatcherContext<?> context) {
+                    log.add(context.getLevel() + ":" + context.getMatcher() + '@' + context.getCurrentIndex());
+                    return next.match(context);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.BaseParser;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.errors.ParseBudgetExceededError;
+import org.parboiled.errors.ParseCancelledException;
+import org.parboiled.errors.ParseError;
+import org.parboiled.support.ParsingResult;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import static org.parboiled.errors.ErrorUtils.printParseErrors;
+import static org.testng.Assert.*;
+
+public class ParseBudgetTest {
+
+    public static class Parser extends BaseParser<Object> {
+        Rule Letters() {
+            return Sequence(ZeroOrMore(CharRange('a', 'z')), EOI);
+        }
+
+        Rule Backtracking() {
+            return FirstOf(Sequence(OneOrMore('a'), 'b'), Sequence(OneOrMore('a'), 'c'));
+        }
+    }
+
+    // runs the recovery candidates inline, recording the budget consumption in front of the first one and all failures
+    private static class InlineExecutor implements Executor {
+        private final ParseBudget budget;
+        private final List<Throwable> failures = new ArrayList<Throwable>();
+        private long invocationsBeforeCandidates = -1;
+
+        private InlineExecutor(ParseBudget budget) {
+            this.budget = budget;
+        }
+
+        public void execute(Runnable task) {
+            if (invocationsBeforeCandidates < 0) invocationsBeforeCandidates = budget.getMatcherInvocations();
+            task.run();
+            try {
+                ((Future<?>) task).get();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                failures.add(e.getCause());
+            }
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) sb.append(c);
+        return sb.toString();
+    }
+
+    private static ParseBudgetExceededError budgetError(ParsingResult<?> result) {
+        assertFalse(result.matched);
+        ParseError error = result.parseErrors.get(result.parseErrors.size() - 1);
+        assertTrue(error instanceof ParseBudgetExceededError, printParseErrors(result));
+        return (ParseBudgetExceededError) error;
+    }
+
+    @Test
+    public void testMaxMatcherInvocations() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        ParseBudget budget = new ParseBudget().withMaxMatcherInvocations(100);
+        ParseRunner<Object> runner = new BasicParseRunner<Object>(parser.Letters()).withParseBudget(budget);
+
+        ParseBudgetExceededError error = budgetError(runner.run(repeat('x', 1000)));
+        assertEquals(error.getLimit(), ParseBudget.Limit.MATCHER_INVOCATIONS);
+        assertEquals(error.getMatcherInvocations(), 101);
+        assertTrue(error.getFurthestIndex() > 10 && error.getFurthestIndex() < 100);
+
+        // the runner and the budget remain usable
+        assertTrue(runner.run(repeat('x', 10)).matched);
+        assertTrue(budget.getMatcherInvocations() < 100);
+        assertEquals(budget.getFurthestIndex(), 10);
+    }
+
+    @Test
+    public void testTimeout() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        ParseRunner<Object> runner = new BasicParseRunner<Object>(parser.Letters())
+                .withParseBudget(new ParseBudget().withTimeout(0));
+        assertEquals(budgetError(runner.run(repeat('x', 10000))).getLimit(), ParseBudget.Limit.DEADLINE);
+    }
+
+    @Test
+    public void testMaxBacktrackDistance() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        String input = repeat('a', 50) + 'c';
+        ParseBudgetExceededError error = budgetError(new BasicParseRunner<Object>(parser.Backtracking())
+                .withParseBudget(new ParseBudget().withMaxBacktrackDistance(10)).run(input));
+        assertEquals(error.getLimit(), ParseBudget.Limit.BACKTRACK_DISTANCE);
+        assertEquals(error.getFurthestIndex(), 50);
+
+        assertTrue(new BasicParseRunner<Object>(parser.Backtracking())
+                .withParseBudget(new ParseBudget().withMaxBacktrackDistance(50)).run(input).matched);
+    }
+
+    @Test
+    public void testBudgetSpansAllPasses() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        String input = repeat('x', 200) + '!';
+
+        // the error reporting passes start over at the beginning of the input without exceeding the backtrack limit
+        ParseBudget budget = new ParseBudget().withMaxBacktrackDistance(1);
+        ParsingResult<Object> result = new ReportingParseRunner<Object>(parser.Letters()).withParseBudget(budget)
+                .run(input);
+        assertEquals(printParseErrors(result), printParseErrors(new ReportingParseRunner<Object>(parser.Letters())
+                .run(input)));
+        long invocations = budget.getMatcherInvocations();
+
+        // a limit just below the consumption of all three passes aborts the last one
+        budget = new ParseBudget().withMaxMatcherInvocations(invocations - 1);
+        result = new ReportingParseRunner<Object>(parser.Letters()).withParseBudget(budget).run(input);
+        assertEquals(budgetError(result).getFurthestIndex(), 200);
+        assertEquals(result.parseErrors.size(), 1);
+
+        result = new RecoveringParseRunner<Object>(parser.Letters()).withParseBudget(budget).run(input);
+        assertEquals(budgetError(result).getLimit(), ParseBudget.Limit.MATCHER_INVOCATIONS);
+    }
+
+    @Test
+    public void testCancellation() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        CancellationToken token = new CancellationToken();
+        AbstractParseRunner<Object> runner = new ReportingParseRunner<Object>(parser.Letters());
+        runner.withCancellationToken(token);
+        assertTrue(runner.run(repeat('x', 5000)).matched);
+
+        token.cancel();
+        try {
+            runner.run(repeat('x', 5000));
+            fail();
+        } catch (ParseCancelledException e) {
+            assertTrue(e.getFurthestIndex() > 0 && e.getFurthestIndex() < 5000);
+        }
+
+        // the runner can be reused with a fresh token
+        runner.withCancellationToken(new CancellationToken());
+        assertTrue(runner.run(repeat('x', 5000)).matched);
+    }
+
+    @Test
+    public void testCancellationTokenLeavesSharedBudgetUntouched() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        ParseBudget budget = new ParseBudget().withMaxMatcherInvocations(100000);
+        AbstractParseRunner<Object> cancelled = new BasicParseRunner<Object>(parser.Letters()).withParseBudget(budget);
+        AbstractParseRunner<Object> other = new BasicParseRunner<Object>(parser.Letters()).withParseBudget(budget);
+        CancellationToken token = new CancellationToken();
+        cancelled.withCancellationToken(token);
+        token.cancel();
+
+        assertNull(budget.getCancellationToken());
+        assertEquals(cancelled.getParseBudget().getMaxMatcherInvocations(), 100000);
+        assertTrue(other.run(repeat('x', 5000)).matched);
+        try {
+            cancelled.run(repeat('x', 5000));
+            fail();
+        } catch (ParseCancelledException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCancellationTokenSurvivesLaterParseBudget() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        CancellationToken token = new CancellationToken();
+        ParseBudget budget = new ParseBudget().withMaxMatcherInvocations(100000);
+        AbstractParseRunner<Object> runner = new ReportingParseRunner<Object>(parser.Letters())
+                .withCancellationToken(token)
+                .withParseBudget(budget);
+        assertTrue(runner.run(repeat('x', 5000)).matched);
+        assertSame(runner.getParseBudget(), budget);
+
+        token.cancel();
+        try {
+            runner.run(repeat('x', 5000));
+            fail();
+        } catch (ParseCancelledException e) {
+            assertNull(budget.getCancellationToken());
+        }
+    }
+
+    @Test
+    public void testCancellationOnInterrupt() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        AbstractParseRunner<Object> runner = new BasicParseRunner<Object>(parser.Letters());
+        runner.withCancellationToken(CancellationToken.onInterrupt());
+        Thread.currentThread().interrupt();
+        try {
+            runner.run(repeat('x', 5000));
+            fail();
+        } catch (ParseCancelledException e) {
+            assertTrue(Thread.interrupted()); // the interrupt status is left untouched
+        }
+        assertTrue(runner.run(repeat('x', 5000)).matched);
+    }
+
+    @Test
+    public void testBudgetCoversParallelRecoveryCandidates() {
+        SimpleErrorRecoveryTest.Parser parser = Parboiled.createParser(SimpleErrorRecoveryTest.Parser.class);
+        String input = "AaA";
+        ParseBudget budget = new ParseBudget();
+        InlineExecutor executor = new InlineExecutor(budget);
+        ParsingResult<Object> result = new RecoveringParseRunner<Object>(parser.Clause()).withExecutor(executor)
+                .withParseBudget(budget).run(input);
+        assertEquals(printParseErrors(result),
+                printParseErrors(new RecoveringParseRunner<Object>(parser.Clause()).run(input)));
+        assertTrue(executor.invocationsBeforeCandidates > 0);
+        assertTrue(executor.failures.isEmpty());
+        long invocationsBeforeCandidates = executor.invocationsBeforeCandidates;
+
+        // the candidates only get what is left of the budget and their consumption counts towards the run
+        budget = new ParseBudget().withMaxMatcherInvocations(invocationsBeforeCandidates + 10);
+        executor = new InlineExecutor(budget);
+        result = new RecoveringParseRunner<Object>(parser.Clause()).withExecutor(executor).withParseBudget(budget)
+                .run(input);
+        assertEquals(budgetError(result).getLimit(), ParseBudget.Limit.MATCHER_INVOCATIONS);
+        assertEquals(executor.invocationsBeforeCandidates, invocationsBeforeCandidates);
+        assertFalse(executor.failures.isEmpty());
+        for (Throwable failure : executor.failures) {
+            assertTrue(failure instanceof ParseBudget.ExceededException);
+        }
+        assertTrue(budget.getMatcherInvocations() > invocationsBeforeCandidates + 10 * executor.failures.size());
+    }
+}
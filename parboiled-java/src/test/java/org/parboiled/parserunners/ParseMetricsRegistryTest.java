@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.BaseParser;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class ParseMetricsRegistryTest {
+
+    public static class Parser extends BaseParser<Object> {
+        Rule Clause() {
+            return Sequence(OneOrMore(Digit()), ZeroOrMore(Sequence('+', OneOrMore(Digit()))), EOI);
+        }
+
+        Rule Digit() {
+            return CharRange('0', '9');
+        }
+    }
+
+    @Test
+    public void testConcurrentRuns() throws InterruptedException {
+        // rule creation is not thread-safe, so the threads share the rule rather than the parser
+        final Rule clause = Parboiled.createParser(Parser.class).Clause();
+        final ParseMetricsRegistry registry = new ParseMetricsRegistry();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread() {
+                public void run() {
+                    for (int j = 0; j < 250; j++) {
+                        new BasicParseRunner<Object>(clause).withMetricsRegistry(registry)
+                                .run(j % 5 == 0 ? "1+x" : "12+34");
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        ParseMetricsRegistry.Snapshot snapshot = registry.snapshot();
+        assertEquals(snapshot.runs, 1000);
+        assertEquals(snapshot.failures, 200);
+        assertEquals(snapshot.inputChars, 800 * 5 + 200 * 3);
+        long histogramCount = 0;
+        for (int i = 0; i < ParseMetricsRegistry.BUCKET_COUNT; i++) histogramCount += snapshot.getLatencyCount(i);
+        assertEquals(histogramCount, 1000);
+        assertTrue(snapshot.totalNanoTime > 0);
+    }
+
+    @Test
+    public void testNestedRuns() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        ParseMetricsRegistry registry = new ParseMetricsRegistry();
+        assertTrue(new ReportingParseRunner<Object>(parser.Clause()).withMetricsRegistry(registry).run("1+x")
+                .hasErrors());
+        assertFalse(new RecoveringParseRunner<Object>(parser.Clause()).withMetricsRegistry(registry).run("1+2")
+                .hasErrors());
+        assertTrue(new RecoveringParseRunner<Object>(parser.Clause()).withMetricsRegistry(registry).run("1+x+y")
+                .hasErrors());
+
+        ParseMetricsRegistry.Snapshot snapshot = registry.snapshot();
+        assertEquals(snapshot.runs, 3);
+        assertEquals(snapshot.failures, 2);
+        assertEquals(snapshot.recoveryAttempts, 2);
+        assertEquals(snapshot.inputChars, 3 + 3 + 5);
+    }
+
+    @Test
+    public void testBudgetExceeded() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        ParseMetricsRegistry registry = new ParseMetricsRegistry();
+        ParseRunner<Object> runner = new ReportingParseRunner<Object>(parser.Clause()).withMetricsRegistry(registry)
+                .withParseBudget(new ParseBudget().withMaxMatcherInvocations(10));
+        assertFalse(runner.run("1+2+3+4+5+6").matched);
+        assertEquals(registry.snapshot().budgetExceeded, 1);
+        assertEquals(registry.snapshot().failures, 1);
+    }
+
+    @Test
+    public void testInstalledRegistry() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        ParseMetricsRegistry registry = new ParseMetricsRegistry();
+        ParseMetricsRegistry.install(registry);
+        try {
+            new BasicParseRunner<Object>(parser.Clause()).run("1+2");
+            new ProfilingParseRunner<Object>(parser.Clause()).withSampling(1).run("1+2");
+        } finally {
+            ParseMetricsRegistry.install(null);
+        }
+        new BasicParseRunner<Object>(parser.Clause()).run("1+2");
+
+        ParseMetricsRegistry.Snapshot snapshot = registry.snapshot();
+        assertEquals(snapshot.runs, 2);
+        List<String> rules = new ArrayList<String>();
+        for (ParseMetricsRegistry.RuleTime rule : snapshot.getTopRules(100)) rules.add(rule.rule);
+        assertEquals(rules.get(0), "Clause");
+        assertTrue(rules.contains("Digit"));
+    }
+
+    @Test
+    public void testLatencyPercentiles() {
+        ParseMetricsRegistry registry = new ParseMetricsRegistry();
+        for (int i = 0; i < 90; i++) registry.recordRun(500, 1, false, false, 0);
+        for (int i = 0; i < 10; i++) registry.recordRun(3000000, 1, false, false, 0);
+        ParseMetricsRegistry.Snapshot snapshot = registry.snapshot();
+        assertEquals(snapshot.getLatencyPercentile(50), 1000);
+        assertEquals(snapshot.getLatencyPercentile(90), 1000);
+        assertEquals(snapshot.getLatencyPercentile(99), 4096000); // 3ms lie in [2048, 4096) us
+        assertEquals(new ParseMetricsRegistry().snapshot().getLatencyPercentile(99), 0);
+    }
+}
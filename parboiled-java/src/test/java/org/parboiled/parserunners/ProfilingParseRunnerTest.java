@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.BaseParser;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.annotations.MemoMismatches;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.testng.Assert.*;
+
+public class ProfilingParseRunnerTest {
+
+    public static class Parser extends BaseParser<Object> {
+        Rule Clause() {
+            return Sequence(FirstOf(Sequence(Word(), '!'), Sequence(Word(), '?'), Numbers()), EOI);
+        }
+
+        Rule Word() {
+            return OneOrMore(CharRange('a', 'z'));
+        }
+
+        @MemoMismatches
+        Rule Numbers() {
+            return OneOrMore(FirstOf(Number(), ' '));
+        }
+
+        Rule Number() {
+            return Sequence(TestNot(Word()), OneOrMore(CharRange('0', '9')));
+        }
+    }
+
+    private static final String[] INPUTS = {"abc?", "12 3", "xyz!", "1 2x", "abc?"};
+
+    @Test
+    public void testSamplingCountsLikeExactProfiling() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        ProfilingParseRunner<Object> exact = new ProfilingParseRunner<Object>(parser.Clause());
+        ProfilingParseRunner<Object> sampling = new ProfilingParseRunner<Object>(parser.Clause()).withSampling(3);
+        for (String input : INPUTS) {
+            assertEquals(sampling.run(input).matched, exact.run(input).matched);
+        }
+
+        ProfilingParseRunner.Report exactReport = exact.getReport();
+        ProfilingParseRunner.Report sampledReport = sampling.getReport();
+        assertEquals(sampledReport.printBasics().replaceFirst("\\d+\\.\\d\\d\\d s", "X.XXX s"),
+                exactReport.printBasics().replaceFirst("\\d+\\.\\d\\d\\d s", "X.XXX s"));
+        assertTrue(exactReport.reinvocations > 0);
+
+        Map<String, String> exactRules = countsByRule(exactReport);
+        assertEquals(countsByRule(sampledReport), exactRules);
+        assertEquals(exactRules.get("Word"), "[17/6/11 6/2/4 (33/12)]");
+    }
+
+    @Test
+    public void testSampleEveryInvocation() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        ProfilingParseRunner<Object> runner = new ProfilingParseRunner<Object>(parser.Clause()).withSampling(1);
+        assertTrue(runner.run("12 3").matched);
+        ProfilingParseRunner.Report report = runner.getReport();
+        assertEquals(report.totalRuns, 1);
+        for (ProfilingParseRunner.RuleReport rule : report.ruleReports) {
+            assertTrue(rule.getNanoTime() > 0, rule.getMatcher().toString());
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testSamplingAfterFirstRun() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        ProfilingParseRunner<Object> runner = new ProfilingParseRunner<Object>(parser.Clause());
+        runner.run("abc?");
+        runner.withSampling(10);
+    }
+
+    // the counts of rules sharing a label are sorted, since the order of the rule reports is undefined
+    private static Map<String, String> countsByRule(ProfilingParseRunner.Report report) {
+        Map<String, Set<String>> counts = new HashMap<String, Set<String>>();
+        for (ProfilingParseRunner.RuleReport rule : report.ruleReports) {
+            String key = rule.getMatcher().toString();
+            if (!counts.containsKey(key)) counts.put(key, new TreeSet<String>());
+            counts.get(key).add(rule.getInvocations() + "/" + rule.getMatches() + "/" + rule.getMismatches() + ' ' +
+                    rule.getReinvocations() + '/' + rule.getRematches() + '/' + rule.getRemismatches() + " (" +
+                    rule.getInvocationSubs() + '/' + rule.getReinvocationSubs() + ')');
+        }
+        Map<String, String> joined = new HashMap<String, String>();
+        for (Map.Entry<String, Set<String>> entry : counts.entrySet()) {
+            joined.put(entry.getKey(), entry.getValue().toString());
+        }
+        return joined;
+    }
+}
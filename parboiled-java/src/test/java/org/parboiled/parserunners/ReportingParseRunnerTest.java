@@ -19,6 +19,7 @@ package org.parboiled.parserunners;
 import org.parboiled.BaseParser;
 import org.parboiled.Parboiled;
 import org.parboiled.Rule;
+import org.parboiled.errors.InvalidInputError;
 import org.parboiled.support.ParsingResult;
 import org.testng.annotations.Test;
 
@@ -35,6 +36,14 @@ public class ReportingParseRunnerTest {
         Rule Line2() {
             return Sequence('a', TestNot('b'), 'c', EOI);
         }
+
+        Rule Line3() {
+            return Sequence(ZeroOrMore(FirstOf(Line1(), Keyword(), Line2(), ' ')), EOI);
+        }
+
+        Rule Keyword() {
+            return Sequence(FirstOf("abc", "ab"), TestNot(TestNot('d'), "de"), TestNot("xy"), 'x');
+        }
     }
 
     @Test
@@ -72,4 +81,27 @@ public class ReportingParseRunnerTest {
                 "ad\n" +
                 " ^\n");
     }
+
+    @Test
+    public void testSinglePassErrorLocation() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        String[] inputs = {"Text;;Something", "Text;", "ad", "ab", "abx abd abcx abxy", "abx abdex", "abcd", "ac ab",
+                "Text;a; abx ac", "Text;a;abcx  ax"};
+        for (Rule rule : new Rule[] {parser.Line1(), parser.Line2(), parser.Line3()}) {
+            for (String input : inputs) {
+                ParsingResult<?> expected = new ReportingParseRunner<Object>(rule).run(input);
+                ParsingResult<?> actual = new ReportingParseRunner<Object>(rule).withSinglePassErrorLocation()
+                        .run(input);
+                assertEquals(actual.matched, expected.matched);
+                assertEquals(printParseErrors(actual), printParseErrors(expected));
+                if (!expected.matched) {
+                    InvalidInputError expectedError = (InvalidInputError) expected.parseErrors.get(0);
+                    InvalidInputError actualError = (InvalidInputError) actual.parseErrors.get(0);
+                    assertEquals(actualError.getStartIndex(), expectedError.getStartIndex());
+                    assertEquals(actualError.getFailedMatchers().toString(),
+                            expectedError.getFailedMatchers().toString());
+                }
+            }
+        }
+    }
 }
@@ -20,9 +20,16 @@ import org.parboiled.BaseParser;
 import org.parboiled.Parboiled;
 import org.parboiled.Rule;
 import org.parboiled.annotations.BuildParseTree;
+import org.parboiled.support.ParsingResult;
 import org.parboiled.test.TestNgParboiledTest;
 import org.testng.annotations.Test;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.parboiled.errors.ErrorUtils.printParseErrors;
+import static org.parboiled.support.ParseTreeUtils.printNodeTree;
+
 public class SimpleErrorRecoveryTest extends TestNgParboiledTest<Object> {
 
     @BuildParseTree
@@ -221,4 +228,23 @@ public class SimpleErrorRecoveryTest extends TestNgParboiledTest<Object> {
         Parser parser = Parboiled.createParser(Parser.class);
         new RecoveringParseRunner<Object>(parser.Clause(), 0).run("AaA");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testParallelRecovery() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            String[] inputs = {"AaA", "Alice has anximals", "Alixyce has animals", "Alicexy has animals",
+                    "Alixce and Emlio lofe animals", "Alice has cars!!", "Bob nd Doren dig ctas"};
+            for (String input : inputs) {
+                ParsingResult<Object> expected = new RecoveringParseRunner<Object>(parser.Clause()).run(input);
+                ParsingResult<Object> actual = new RecoveringParseRunner<Object>(parser.Clause())
+                        .withExecutor(executor).run(input);
+                assertEquals(printParseErrors(actual), printParseErrors(expected));
+                assertEquals(printNodeTree(actual), printNodeTree(expected));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
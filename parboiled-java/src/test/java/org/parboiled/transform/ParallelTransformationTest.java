@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.transform;
+
+import org.parboiled.BaseParser;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.annotations.ConsolidateActionClasses;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.*;
+
+public class ParallelTransformationTest {
+
+    // more rule methods than ParserTransformer.PARALLEL_THRESHOLD, all on the same super method level
+    static class Grammar extends BaseParser<Integer> {
+        public Rule Expression() {
+            return Sequence(Term(), ZeroOrMore(FirstOf(Plus(), Minus())), EOI);
+        }
+
+        public Rule Plus() {
+            return Sequence('+', Term(), push(pop(1) + pop()));
+        }
+
+        public Rule Minus() {
+            return Sequence('-', Term(), push(pop(1) - pop()));
+        }
+
+        public Rule Term() {
+            return Sequence(Factor(), ZeroOrMore(FirstOf(Times(), Divide())));
+        }
+
+        public Rule Times() {
+            return Sequence('*', Factor(), push(pop(1) * pop()));
+        }
+
+        public Rule Divide() {
+            return Sequence('/', Factor(), push(pop(1) / pop()));
+        }
+
+        public Rule Factor() {
+            return FirstOf(Number(), Negated(), Parens());
+        }
+
+        public Rule Negated() {
+            return Sequence('~', Factor(), push(-pop()));
+        }
+
+        public Rule Parens() {
+            return Sequence('(', Expression2(), ')');
+        }
+
+        public Rule Expression2() {
+            return Sequence(Term(), ZeroOrMore(FirstOf(Plus(), Minus())));
+        }
+
+        public Rule Number() {
+            return Sequence(OneOrMore(Digit()), push(Integer.parseInt(match())));
+        }
+
+        public Rule Digit() {
+            return CharRange('0', '9');
+        }
+    }
+
+    static class Parser1 extends Grammar {}
+
+    static class Parser2 extends Grammar {}
+
+    static class Parser3 extends Grammar {}
+
+    static class Parser4 extends Grammar {}
+
+    @ConsolidateActionClasses
+    static class ConsolidatedParser1 extends Grammar {}
+
+    @ConsolidateActionClasses
+    static class ConsolidatedParser2 extends Grammar {}
+
+    @ConsolidateActionClasses
+    static class ConsolidatedParser3 extends Grammar {}
+
+    private boolean parallel;
+
+    @BeforeMethod
+    public void forceParallel() {
+        parallel = ParserTransformer.parallel;
+        ParserTransformer.parallel = true;
+    }
+
+    @AfterMethod
+    public void resetParallel() {
+        ParserTransformer.parallel = parallel;
+    }
+
+    @Test
+    public void testConcurrentTransformations() throws Exception {
+        List<Class<? extends Grammar>> parserClasses = new ArrayList<Class<? extends Grammar>>();
+        parserClasses.add(Parser1.class);
+        parserClasses.add(Parser2.class);
+        parserClasses.add(Parser3.class);
+        parserClasses.add(Parser4.class);
+        parserClasses.add(ConsolidatedParser1.class);
+        parserClasses.add(ConsolidatedParser2.class);
+
+        // every parser class is created from two threads at the same time
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (final Class<? extends Grammar> parserClass : parserClasses) {
+            for (int i = 0; i < 2; i++) {
+                tasks.add(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        startSignal.await();
+                        Grammar parser = Parboiled.createParser(parserClass);
+                        return new BasicParseRunner<Integer>(parser.Expression()).run("2*(3+~4)-10/5").resultValue;
+                    }
+                });
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (Callable<Integer> task : tasks) {
+                results.add(executor.submit(task));
+            }
+            startSignal.countDown();
+            for (Future<Integer> result : results) {
+                assertEquals(result.get(), Integer.valueOf(-4));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConsolidatedDispatchOrder() throws Exception {
+        // the precompiler always processes the rule methods sequentially
+        ParserClassNode sequential = ParserTransformer.extendParserClass(ConsolidatedParser3.class, true);
+        ParserClassNode parallel = ParserTransformer.extendParserClass(ConsolidatedParser3.class);
+
+        assertTrue(sequential.getGroupDispatchers().size() > 0);
+        assertEquals(dispatchOrder(parallel), dispatchOrder(sequential));
+
+        // the extended class loaded by the parallel transformation is picked up by the parser creation
+        Grammar parser = Parboiled.createParser(ConsolidatedParser3.class);
+        assertSame(parser.getClass(), parallel.getExtendedClass());
+        assertEquals(new BasicParseRunner<Integer>(parser.Expression()).run("(1+2)*3").resultValue,
+                Integer.valueOf(9));
+    }
+
+    private static List<String> dispatchOrder(ParserClassNode classNode) {
+        List<String> order = new ArrayList<String>();
+        for (GroupDispatcher dispatcher : classNode.getGroupDispatchers()) {
+            for (List<InstructionGroup> groups : dispatcher.getClassGroups()) {
+                for (InstructionGroup group : groups) {
+                    order.add(group.getGroupClassType().getInternalName() + '#' + group.getDispatchIndex() + ' ' +
+                            group.getName());
+                }
+            }
+        }
+        return order;
+    }
+}
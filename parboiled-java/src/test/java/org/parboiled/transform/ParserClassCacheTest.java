@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.transform;
+
+import org.parboiled.BaseParser;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.common.FileUtils;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.testng.Assert.*;
+
+public class ParserClassCacheTest {
+
+    static class Parser extends BaseParser<Integer> {
+        public Rule Digits() {
+            return Sequence(OneOrMore(CharRange('0', '9')), push(match().length()), EOI);
+        }
+    }
+
+    @Test
+    public void testParserClassCache() throws Exception {
+        File directory = File.createTempFile("parboiled", "cache");
+        assertTrue(directory.delete());
+        ParserClassCache cache = new ParserClassCache(directory);
+        String sourceHash = ParserTransformer.computeSourceHash(Parser.class);
+        assertNull(cache.get(Parser.class, sourceHash));
+
+        ParserTransformer.setCacheDirectory(directory);
+        try {
+            Parser parser = Parboiled.createParser(Parser.class);
+            assertEquals(new BasicParseRunner<Integer>(parser.Digits()).run("1234").resultValue, (Integer) 4);
+        } finally {
+            ParserTransformer.setCacheDirectory(null);
+        }
+
+        // the miss created the entry
+        Map<String, byte[]> classes = cache.get(Parser.class, sourceHash);
+        assertNotNull(classes);
+        assertTrue(classes.containsKey("org/parboiled/transform/ParserClassCacheTest$Parser$$parboiled"));
+        assertEquals(classes.size(), 2);
+        assertNull(cache.get(Parser.class, "0000"));
+
+        // a broken entry counts as a miss
+        File file = cache.getCacheFile(Parser.class, sourceHash);
+        FileUtils.writeAllBytes(new byte[] {1, 2, 3}, file);
+        assertNull(cache.get(Parser.class, sourceHash));
+
+        // as are entries with bad counts or lengths, instead of crashing the parser creation
+        FileUtils.writeAllBytes(entry(-1, null, 0), file);
+        assertNull(cache.get(Parser.class, sourceHash));
+        FileUtils.writeAllBytes(entry(Integer.MAX_VALUE, null, 0), file);
+        assertNull(cache.get(Parser.class, sourceHash));
+        FileUtils.writeAllBytes(entry(1, "a/B", -5), file);
+        assertNull(cache.get(Parser.class, sourceHash));
+        FileUtils.writeAllBytes(entry(1, "a/B", Integer.MAX_VALUE), file);
+        assertNull(cache.get(Parser.class, sourceHash));
+        FileUtils.writeAllBytes(entry(1, "a/B", 100), file); // truncated
+        assertNull(cache.get(Parser.class, sourceHash));
+        assertTrue(file.delete());
+        assertTrue(directory.delete());
+    }
+
+    // the header of a cache entry followed by a single class header with the given length and 10 bytes of code
+    private static byte[] entry(int count, String name, int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x50424343);
+        out.writeInt(count);
+        if (name != null) {
+            out.writeUTF(name);
+            out.writeInt(length);
+            out.write(new byte[10]);
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.transform;
+
+import org.parboiled.BaseParser;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.support.Var;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+
+import static org.parboiled.transform.AsmUtils.findLoadedClass;
+import static org.parboiled.transform.AsmUtils.loadClass;
+import static org.testng.Assert.*;
+
+public class ParserPrecompilerTest {
+
+    static class Parser extends BaseParser<Integer> {
+        public Rule Sum() {
+            Var<Integer> sum = new Var<Integer>(0);
+            return Sequence(Number(), sum.set(pop()),
+                    ZeroOrMore('+', Number(), sum.set(sum.get() + pop())), EOI, push(sum.get()));
+        }
+
+        public Rule Number() {
+            return Sequence(OneOrMore(CharRange('0', '9')), push(Integer.parseInt(match())));
+        }
+    }
+
+    static class OtherParser extends BaseParser<Object> {
+        public Rule Root() {
+            return Sequence('a', push(match()));
+        }
+    }
+
+    @Test
+    public void testPrecompiledParser() throws Exception {
+        String extendedName = "org/parboiled/transform/ParserPrecompilerTest$Parser$$parboiled";
+        Map<String, byte[]> classes = ParserPrecompiler.precompile(Parser.class);
+        assertTrue(classes.containsKey(extendedName));
+        assertTrue(classes.size() > 1); // the action and var init classes
+        assertNull(findLoadedClass(extendedName.replace('/', '.'), Parser.class.getClassLoader()));
+
+        // the code created for another parser class does not match the source hash
+        byte[] otherCode = ParserPrecompiler.precompile(OtherParser.class)
+                .get("org/parboiled/transform/ParserPrecompilerTest$OtherParser$$parboiled");
+        assertNull(ParserTransformer.loadPrecompiledClass(Parser.class, otherCode));
+
+        // simulate the lookup of the class files written to the build output
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            String className = entry.getKey().replace('/', '.');
+            if (!entry.getKey().equals(extendedName) &&
+                    findLoadedClass(className, Parser.class.getClassLoader()) == null) {
+                loadClass(className, entry.getValue(), Parser.class.getClassLoader());
+            }
+        }
+        Class<?> extendedClass = ParserTransformer.loadPrecompiledClass(Parser.class, classes.get(extendedName));
+        assertNotNull(extendedClass);
+
+        Parser parser = Parboiled.createParser(Parser.class);
+        assertSame(parser.getClass(), extendedClass);
+        assertEquals(new BasicParseRunner<Integer>(parser.Sum()).run("1+20+300").resultValue, (Integer) 321);
+    }
+
+}
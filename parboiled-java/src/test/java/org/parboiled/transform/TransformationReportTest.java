@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.transform;
+
+import org.parboiled.BaseParser;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.common.Sink;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class TransformationReportTest {
+
+    static class Parser extends BaseParser<Object> {
+        public Rule Clause() {
+            return Sequence(Word(), ZeroOrMore(' ', Word()), push(match()));
+        }
+
+        public Rule Word() {
+            return OneOrMore(CharRange('a', 'z'));
+        }
+    }
+
+    @Test
+    public void testTransformationReport() {
+        final List<TransformationReport> reports = new ArrayList<TransformationReport>();
+        ParserTransformer.setReportSink(new Sink<TransformationReport>() {
+            public void receive(TransformationReport value) {
+                reports.add(value);
+            }
+        });
+        try {
+            Parboiled.createParser(Parser.class);
+        } finally {
+            ParserTransformer.setReportSink(null);
+        }
+
+        assertEquals(reports.size(), 1);
+        TransformationReport report = reports.get(0);
+        assertEquals(report.getParserClassName(), Parser.class.getName());
+        assertTrue(report.getRuleMethods() > 2); // including the rule methods of the BaseParser
+        assertEquals(report.getGeneratedClasses(), 2); // the extended parser class and one action class
+        assertTrue(report.getGeneratedBytes() > 0);
+        assertTrue(report.getTotalNanoTime() >= report.getClassGenerationNanoTime());
+
+        List<String> phases = new ArrayList<String>();
+        for (TransformationReport.Phase phase : report.getPhases()) {
+            phases.add(phase.getName());
+            if (phase.getName().equals("InstructionGraphCreator")) {
+                assertEquals(phase.getMethods(), 1); // only Clause contains an action
+                assertTrue(phase.getInstructions() > 0);
+            }
+        }
+        assertEquals(phases.get(0), "ClassNodeInitializer");
+        assertTrue(phases.contains("ActionClassGenerator"));
+        assertEquals(phases.get(phases.size() - 1), "ClassDefinition");
+        assertTrue(report.print().contains("ActionClassGenerator"));
+    }
+
+}
@@ -17,7 +17,7 @@
 package org.parboiled.scala
 
 import org.parboiled.matchers._
-import _root_.scala.collection.mutable
+import java.util.concurrent.ConcurrentHashMap
 import org.parboiled.Context
 import rules.Rule._
 import org.parboiled.support.{Chars, ValueStack, Characters}
@@ -28,8 +28,7 @@ import org.parboiled.support.{Chars, ValueStack, Characters}
  */
 trait Parser {
 
-  private val cache = mutable.Map.empty[RuleMethod, Rule]
-  private val lock = new AnyRef()
+  private val cache = new ConcurrentHashMap[AnyRef, Rule]
 
   /**
    * Indicates whether parboiled will create a parse tree during a parsing run of this parser.
@@ -42,8 +41,9 @@ trait Parser {
    * Defines a parser rule wrapping the given rule construction block with caching and recursion protection.
    */
   def rule[T <: Rule](block: => T)(implicit creator: Matcher => T): T = {
-    val ruleMethod = getCurrentRuleMethod
-    rule(ruleMethod.getMethodName, ruleMethod, Seq.empty, block, creator)
+    val f: () => T = () => block // passes on the function value created at the call site, see getRuleSite
+    val site = getRuleSite(f)
+    rule(site.methodName, site.key, Seq.empty, f, creator)
   }
 
   /**
@@ -51,8 +51,9 @@ trait Parser {
    * using the given rule option(s).
    */
   def rule[T <: Rule](firstOption: RuleOption, more: RuleOption*)(block: => T)(implicit creator: Matcher => T): T = {
-    val ruleMethod = getCurrentRuleMethod
-    rule(ruleMethod.getMethodName, ruleMethod, firstOption +: more, block, creator)
+    val f: () => T = () => block
+    val site = getRuleSite(f)
+    rule(site.methodName, site.key, firstOption +: more, f, creator)
   }
   
   /**
@@ -60,28 +61,33 @@ trait Parser {
    * Labels the constructed rule with the given label and optionally marks it according to the given rule options.
    */
   def rule[T <: Rule](label: String, options: RuleOption*)(block: => T)(implicit creator: Matcher => T): T = {
-    rule(label, getCurrentRuleMethod, options, block, creator)
+    val f: () => T = () => block
+    rule(label, getRuleSite(f).key, options, f, creator)
   }
 
-  private def rule[T <: Rule](label: String, key: RuleMethod, options: Seq[RuleOption], block: => T, creator: Matcher => T): T =
-    lock.synchronized {
-      cache.get(key) match {
-        case Some(rule) => rule.asInstanceOf[T]
-        case None => {
-          val proxy = new ProxyMatcher
-          // protect block from infinite recursion by immediately caching a new Rule of type T wrapping the proxy creator
-          cache += key -> creator(proxy)
-          var rule = withCurrentRuleLabel(label) { block.label(label) } // evaluate rule definition block
-          if (!buildParseTree || options.contains(SuppressNode)) rule = rule.suppressNode
-          if (options.contains(SuppressSubnodes)) rule = rule.suppressSubnodes
-          if (options.contains(SkipNode)) rule = rule.skipNode
-          if (options.contains(MemoMismatches)) rule = rule.memoMismatches
-          proxy.arm(rule.matcher) // arm the proxy in case it is in use
-          cache += key -> rule // replace the cache value with the actual rule (overwriting the proxy rule)
-          rule
-        }
+  // the cache is accessed without locking, if two threads construct the same rule concurrently the second one gets
+  // the proxy rule of the first one, which is armed as soon as the first one is done
+  private def rule[T <: Rule](label: String, key: AnyRef, options: Seq[RuleOption], block: () => T,
+                              creator: Matcher => T): T = {
+    val cached = cache.get(key)
+    if (cached ne null) cached.asInstanceOf[T]
+    else {
+      val proxy = new ProxyMatcher
+      // protect block from infinite recursion by immediately caching a new Rule of type T wrapping the proxy creator
+      val existing = cache.putIfAbsent(key, creator(proxy))
+      if (existing ne null) existing.asInstanceOf[T]
+      else {
+        var rule = withCurrentRuleLabel(label) { block().label(label) } // evaluate rule definition block
+        if (!buildParseTree || options.contains(SuppressNode)) rule = rule.suppressNode
+        if (options.contains(SuppressSubnodes)) rule = rule.suppressSubnodes
+        if (options.contains(SkipNode)) rule = rule.skipNode
+        if (options.contains(MemoMismatches)) rule = rule.memoMismatches
+        proxy.arm(rule.matcher) // arm the proxy in case it is in use
+        cache.put(key, rule) // replace the cache value with the actual rule (overwriting the proxy rule)
+        rule
       }
     }
+  }
 
   // the following rule creators should be moved to the package object to avoid bytecode duplication across different
   // parsers, so far they cannot be moved due to the "package objects do not support overloaded methods" bug of the
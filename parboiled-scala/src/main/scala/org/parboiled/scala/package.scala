@@ -143,10 +143,80 @@ package object scala {
 
   private[scala] def getCurrentRuleMethod: StackTraceElement = {
     val trace = Thread.currentThread().getStackTrace
-    val ix = trace.indexWhere(m => m.getMethodName != "rule" && m.getMethodName != "rule$", from = 2)
+    val ix = trace.indexWhere(m => !ruleFrameNames.contains(m.getMethodName), from = 2)
     trace(ix)
   }
 
+  private val ruleFrameNames = Set("rule", "rule$", "getRuleSite")
+
+  /**
+   * The definition site of a rule. The key identifies the rule in the rule cache of a parser, the method name is
+   * the default label of the rule.
+   */
+  private[scala] final class RuleSite(val key: AnyRef, val methodName: String)
+
+  /**
+   * Determines the definition site of a rule from the function value wrapping the by-name block passed to one of the
+   * `rule` methods. Since the compiler passes a by-name argument on as the function value created at the call site
+   * the class of the function value identifies the call site without a walk of the call stack. The method name is
+   * taken from the name of the class (or from the implementation method of a lambda) once per call site.
+   * With a compiler that does not pass on the function value we fall back to the stack trace.
+   */
+  private[scala] def getRuleSite(block: AnyRef): RuleSite = {
+    if (!blocksIdentifyCallSites) {
+      val ruleMethod = getCurrentRuleMethod
+      new RuleSite(ruleMethod, ruleMethod.getMethodName)
+    } else {
+      val clazz = block.getClass
+      val siteName = siteNames.get(clazz)
+      var methodName = siteName.value
+      if (methodName eq null) {
+        methodName = ruleMethodName(block)
+        if (methodName eq null) methodName = getCurrentRuleMethod.getMethodName
+        siteName.value = methodName // racing threads determine the same name
+      }
+      new RuleSite(clazz, methodName)
+    }
+  }
+
+  private final class SiteName { @volatile var value: String = _ }
+
+  // a ClassValue does not keep the classes of unloaded parsers alive
+  private val siteNames = new ClassValue[SiteName] {
+    protected def computeValue(clazz: Class[_]): SiteName = new SiteName
+  }
+
+  private[scala] lazy val blocksIdentifyCallSites: Boolean = {
+    def blockClass(block: => Any): Class[_] = {
+      val f: () => Any = () => block
+      f.getClass
+    }
+    blockClass(1) != blockClass(2)
+  }
+
+  // the enclosing method encoded in an anonymous function class name ("Parser$$anonfun$Expression$1", up to 2.11)
+  // or in the implementation method name of a lambda ("$anonfun$Expression$1", 2.12 and later)
+  private val AnonFunName = """.*?\$anonfun\$([^$]+)\$\d+(?:\$adapted)?(?:\$\$anonfun\$.*)?""".r
+
+  private def ruleMethodName(block: AnyRef): String = {
+    val clazz = block.getClass
+    val name =
+      if (clazz.getName.contains("$$Lambda")) {
+        try {
+          val writeReplace = clazz.getDeclaredMethod("writeReplace")
+          writeReplace.setAccessible(true)
+          val lambda = writeReplace.invoke(block) // a java.lang.invoke.SerializedLambda
+          lambda.getClass.getMethod("getImplMethodName").invoke(lambda).asInstanceOf[String]
+        } catch {
+          case e: Exception => null
+        }
+      } else clazz.getName
+    name match {
+      case AnonFunName(methodName) if methodName != "new" => methodName
+      case _ => null // e.g. rules defined in constructors or in methods with encoded names
+    }
+  }
+
   implicit def toTestAction(f: Context[Any] => Boolean): Rule0 = new ActionMatcher(new Action[Any] {
     def run(context: Context[Any]): Boolean = f(context)
   }).label("TestAction")
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.scala
+
+import org.testng.annotations.Test
+import org.scalatest.testng.TestNGSuiteLike
+import org.testng.Assert.{assertEquals, assertNotSame, assertSame, assertTrue}
+import testing.ParboiledTest
+
+class RuleCachingTest extends ParboiledTest with TestNGSuiteLike {
+
+  class CachingParser extends Parser {
+    def Number = rule { oneOrMore("0" - "9") }
+
+    def Pair = rule("Left") { Number } ~ rule("Right") { Number }
+
+    def Labeled = rule("Label", SuppressSubnodes) { Number ~ "." }
+  }
+
+  class SiteParser {
+    // determines the rule site the same way the rule methods of the Parser trait do
+    def site(block: => Any): RuleSite = {
+      val f: () => Any = () => block
+      getRuleSite(f)
+    }
+
+    def Number = site { 42 }
+
+    def Text = site { "text" }
+  }
+
+  @Test
+  def testRuleCaching(): Unit = {
+    val parser = new CachingParser
+    assertSame(parser.Number, parser.Number)
+    assertSame(parser.Labeled, parser.Labeled)
+    assertNotSame(parser.Number, (new CachingParser).Number)
+  }
+
+  @Test
+  def testRuleLabels(): Unit = {
+    val parser = new CachingParser
+    assertEquals(parser.Number.matcher.getLabel, "Number")
+    assertEquals(parser.Labeled.matcher.getLabel, "Label")
+    val children = parser.Pair.matcher.getChildren
+    assertEquals(children.get(0).getLabel, "Left")
+    assertEquals(children.get(1).getLabel, "Right")
+  }
+
+  @Test
+  def testCallSiteFastPath(): Unit = {
+    assertTrue(blocksIdentifyCallSites)
+    val parser = new SiteParser
+    // the stack trace fallback would key on a StackTraceElement and name the rule after the calling "site" method
+    assertTrue(parser.Number.key.isInstanceOf[Class[_]])
+    assertSame(parser.Number.key, parser.Number.key)
+    assertNotSame(parser.Number.key, parser.Text.key)
+    assertEquals(parser.Number.methodName, "Number")
+    assertEquals(parser.Text.methodName, "Text")
+  }
+
+}